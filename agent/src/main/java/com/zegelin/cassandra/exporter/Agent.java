@@ -33,6 +33,7 @@ public class Agent implements Callable<Void> {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
                 server.stop().sync();
+                harvester.close();
 
             } catch (final InterruptedException e) {
                 throw new RuntimeException(e);
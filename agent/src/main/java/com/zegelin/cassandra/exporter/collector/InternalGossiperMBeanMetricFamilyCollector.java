@@ -18,12 +18,12 @@ import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.mill
 
 public class InternalGossiperMBeanMetricFamilyCollector extends GossiperMBeanMetricFamilyCollector {
     public static Factory factory(final MetadataFactory metadataFactory) {
-        return mBean -> {
+        return Factory.withObjectNamePatterns(mBean -> {
             if (!GOSSIPER_MBEAN_NAME.apply(mBean.name))
                 return null;
 
             return new InternalGossiperMBeanMetricFamilyCollector((Gossiper) mBean.object, metadataFactory);
-        };
+        }, GOSSIPER_MBEAN_NAME);
     };
 
     private final Gossiper gossiper;
@@ -1,12 +1,16 @@
 package com.zegelin.cassandra.exporter.cli;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.zegelin.cassandra.exporter.Harvester;
 import org.testng.annotations.Test;
+import picocli.CommandLine;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -40,4 +44,25 @@ public class HarvesterOptionsTest {
 
         assertEquals(harvesterOptions.exclusions, exclusions);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSetCacheTtlsFromFile() throws IOException {
+        final Path tempFile = Files.createTempFile(null, null);
+
+        Files.write(tempFile, ImmutableList.of("# comment", "    # indented comment", "", "  test_collector = 10", "test_family=0"));
+
+        final HarvesterOptions harvesterOptions = new HarvesterOptions();
+
+        harvesterOptions.setCacheTtls(ImmutableList.of(String.format("@%s", tempFile)));
+
+        assertEquals(harvesterOptions.cacheTtls, ImmutableMap.of("test_collector", Duration.ofSeconds(10), "test_family", Duration.ZERO));
+    }
+
+    @Test
+    public void testEstimatedHistogramBucketStride() {
+        assertEquals(CommandLine.populateCommand(new HarvesterOptions()).estimatedHistogramBucketStride, 4);
+        assertEquals(CommandLine.populateCommand(new HarvesterOptions(), "--estimated-histogram-bucket-stride=1").estimatedHistogramBucketStride, 1);
+
+        expectThrows(CommandLine.ParameterException.class, () -> CommandLine.populateCommand(new HarvesterOptions(), "--estimated-histogram-bucket-stride=0"));
+    }
+}
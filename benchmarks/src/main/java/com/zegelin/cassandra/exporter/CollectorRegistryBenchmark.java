@@ -0,0 +1,81 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.zegelin.cassandra.exporter.collector.dynamic.FunctionalMetricFamilyCollector;
+import com.zegelin.jmx.NamedObject;
+import com.zegelin.prometheus.domain.Labels;
+import org.openjdk.jmh.annotations.*;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/***
+ * Measures registering (and then unregistering) a large number of MBeans that all contribute to the same few
+ * collectors -- the pattern seen when a node with many tables starts up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CollectorRegistryBenchmark {
+    @Param({"100000"})
+    public int mBeanCount;
+
+    @Param({"10"})
+    public int collectorCount;
+
+    private ObjectName[] mBeanNames;
+    private Labels[] labels;
+
+    private CollectorRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setup() throws MalformedObjectNameException {
+        mBeanNames = new ObjectName[mBeanCount];
+        labels = new Labels[mBeanCount];
+
+        for (int i = 0; i < mBeanCount; i++) {
+            final int table = i / collectorCount;
+            final int metric = i % collectorCount;
+
+            mBeanNames[i] = ObjectName.getInstance(String.format("org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=table_%d,name=Metric%d", table, metric));
+            labels[i] = new Labels(ImmutableMap.of("keyspace", "ks", "table", "table_" + table));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void setupRegistry() {
+        registry = new CollectorRegistry();
+    }
+
+    private void registerAll() {
+        for (int i = 0; i < mBeanCount; i++) {
+            final NamedObject<Object> mBean = new NamedObject<>(mBeanNames[i], new Object());
+
+            registry.register(mBeanNames[i], new FunctionalMetricFamilyCollector<>("cassandra_table_metric_" + (i % collectorCount), null,
+                    ImmutableMap.of(labels[i], mBean), group -> Stream.empty()));
+        }
+    }
+
+    @Benchmark
+    public int register() {
+        registerAll();
+
+        return registry.registeredMBeanCount();
+    }
+
+    @Benchmark
+    public int registerAndUnregister() {
+        registerAll();
+
+        for (int i = 0; i < mBeanCount; i++) {
+            registry.unregister(mBeanNames[i]);
+        }
+
+        return registry.collectors().size();
+    }
+}
@@ -0,0 +1,79 @@
+package com.zegelin.cassandra.exporter;
+
+import com.zegelin.function.DoubleDoubleFunction;
+import com.zegelin.prometheus.domain.Interval;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.SummaryMetricFamily;
+import org.apache.cassandra.utils.EstimatedHistogram;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Compares computing the standard quantiles of table-level estimated histograms (as exposed by the
+ * EstimatedPartitionSizeHistogram and EstimatedColumnCountHistogram gauges) by constructing an {@link EstimatedHistogram}
+ * and calling {@link EstimatedHistogram#percentile(double)} per quantile (as was done previously) against computing them
+ * all at once with {@link EstimatedHistogramLayout#summarize(long[], Interval.Quantile[], DoubleDoubleFunction)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EstimatedHistogramSummaryBenchmark {
+    private static final Interval.Quantile[] QUANTILES = Interval.Quantile.STANDARD_PERCENTILES.stream()
+            .sorted(Comparator.comparing(q -> q.value))
+            .toArray(Interval.Quantile[]::new);
+
+    @Param({"3000"})
+    public int histogramCount;
+
+    // 150 is the bucket count of EstimatedPartitionSizeHistogram, 114 that of EstimatedColumnCountHistogram
+    @Param({"150", "114"})
+    public int bucketCount;
+
+    private long[][] bucketData;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(0);
+
+        bucketData = new long[histogramCount][];
+        for (int h = 0; h < histogramCount; h++) {
+            final EstimatedHistogram histogram = new EstimatedHistogram(bucketCount);
+
+            final double scale = Math.pow(10, 2 + random.nextInt(6));
+            for (int i = 0; i < 1000; i++) {
+                histogram.add((long) Math.abs(random.nextGaussian() * scale));
+            }
+
+            bucketData[h] = histogram.getBuckets(false);
+        }
+    }
+
+    @Benchmark
+    public void percentilePerQuantile(final Blackhole blackhole) {
+        for (final long[] buckets : bucketData) {
+            final EstimatedHistogram histogram = new EstimatedHistogram(buckets);
+
+            final Iterable<Interval> quantiles = Interval.asIntervals(Interval.Quantile.STANDARD_PERCENTILES, q -> (double) histogram.percentile(q.value));
+
+            blackhole.consume(new SummaryMetricFamily.Summary(Labels.of(), Double.NaN, histogram.count(), quantiles));
+        }
+    }
+
+    @Benchmark
+    public void summarize(final Blackhole blackhole) {
+        for (final long[] buckets : bucketData) {
+            final EstimatedHistogramLayout.Summary summary = EstimatedHistogramLayout.forBucketCount(buckets.length)
+                    .summarize(buckets, QUANTILES, DoubleDoubleFunction.identity());
+
+            blackhole.consume(new SummaryMetricFamily.Summary(Labels.of(), summary.sum, summary.count, Arrays.asList(summary.quantiles)));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.exposition.FormattedExposition;
+import com.zegelin.prometheus.exposition.NettyExpositionSink;
+import com.zegelin.prometheus.exposition.json.JsonFormatExposition;
+import com.zegelin.prometheus.exposition.text.TextFormatExposition;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import javax.management.JMException;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/***
+ * Measures the throughput of rendering the metric families collected from a synthetic node with
+ * {@code keyspaceCount} × {@code tableCount} tables in each exposition format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpositionBenchmark {
+    @Param({"10"})
+    public int keyspaceCount;
+
+    @Param({"100"})
+    public int tableCount;
+
+    @Param({"text", "json"})
+    public String format;
+
+    @Param({"false"})
+    public boolean includeHelp;
+
+    private List<MetricFamily> metricFamilies;
+    private Labels globalLabels;
+    private Instant timestamp;
+
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup() throws JMException, InterruptedException {
+        final SyntheticHarvester harvester = new SyntheticHarvester(new SyntheticCassandraMetrics(keyspaceCount, tableCount));
+
+        try {
+            harvester.registerMBeans();
+
+            metricFamilies = harvester.collect().map(MetricFamily::cachedCopy).collect(Collectors.toList());
+
+        } finally {
+            harvester.close();
+        }
+
+        globalLabels = new Labels(ImmutableMap.of(
+                "cassandra_cluster", "benchmark-cluster",
+                "cassandra_node", "127.0.0.1",
+                "cassandra_datacenter", "dc1",
+                "cassandra_rack", "rack1"
+        ));
+
+        timestamp = Instant.now();
+
+        buffer = Unpooled.directBuffer(256 * 1024 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    private FormattedExposition newExposition() {
+        switch (format) {
+            case "text":
+                return new TextFormatExposition(metricFamilies.stream(), timestamp, globalLabels, includeHelp);
+
+            case "json":
+                return new JsonFormatExposition(metricFamilies.stream(), timestamp, globalLabels, includeHelp);
+
+            default:
+                throw new IllegalStateException(String.format("Unknown format \"%s\".", format));
+        }
+    }
+
+    @Benchmark
+    public int exposition() {
+        buffer.clear();
+
+        final NettyExpositionSink sink = new NettyExpositionSink(buffer);
+        final FormattedExposition exposition = newExposition();
+
+        while (!exposition.isEndOfInput()) {
+            exposition.nextSlice(sink);
+        }
+
+        return sink.getIngestedByteCount();
+    }
+}
@@ -0,0 +1,152 @@
+package com.zegelin.cassandra.exporter;
+
+import com.zegelin.cassandra.exporter.MBeanGroupMetricFamilyCollector.Factory;
+import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.jmx.NamedObject;
+import com.zegelin.jmx.ObjectNames;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Compares offering each MBean to every collector factory (as was done prior to indexing) against offering it
+ * only to the candidates returned by a {@link FactoryIndex}, over a synthetic set of table-level MBeans
+ * representative of a node with many tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FactoryDispatchBenchmark {
+    private static final String[] TABLE_METRIC_NAMES = {
+            "ReadLatency", "WriteLatency", "RangeLatency", "CoordinatorReadLatency", "CoordinatorScanLatency",
+            "MemtableOnHeapSize", "MemtableOffHeapSize", "MemtableLiveDataSize", "AllMemtablesHeapSize", "MemtableColumnsCount",
+            "MemtableSwitchCount", "CompressionRatio", "EstimatedPartitionSizeHistogram", "EstimatedColumnCountHistogram", "SSTablesPerReadHistogram",
+            "PendingFlushes", "PendingCompactions", "LiveSSTableCount", "LiveDiskSpaceUsed", "TotalDiskSpaceUsed",
+            "MinPartitionSize", "MaxPartitionSize", "MeanPartitionSize", "BloomFilterFalsePositives", "BloomFilterFalseRatio",
+            "BloomFilterDiskSpaceUsed", "BloomFilterOffHeapMemoryUsed", "IndexSummaryOffHeapMemoryUsed", "CompressionMetadataOffHeapMemoryUsed", "KeyCacheHitRate",
+            "TombstoneScannedHistogram", "LiveScannedHistogram", "ColUpdateTimeDeltaHistogram", "TrueSnapshotsSize", "RowCacheHitOutOfRange",
+            "RowCacheHit", "RowCacheMiss", "CasPrepareLatency", "CasProposeLatency", "CasCommitLatency",
+            "PercentRepaired", "SpeculativeRetries", "WaitingOnFreeMemtableSpace", "DroppedMutations", "ViewLockAcquireTime",
+            "ViewReadTime", "ReadRepairRequests", "ShortReadProtectionRequests", "ReplicaFilteringProtectionRequests", "BytesRepaired"
+    };
+
+    @Param({"50000"})
+    public int mBeanCount;
+
+    private List<Factory> factories;
+    private FactoryIndex factoryIndex;
+
+    private List<NamedObject<?>> mBeans;
+
+    private static final class StubMetadataFactory extends MetadataFactory {
+        @Override
+        public Optional<IndexMetadata> indexMetadata(final String keyspaceName, final String tableName, final String indexName) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<TableMetadata> tableOrViewMetadata(final String keyspaceName, final String tableOrViewName) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Set<String> keyspaces() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Optional<EndpointMetadata> endpointMetadata(final InetAddress endpoint) {
+            return Optional.empty();
+        }
+
+        @Override
+        public String clusterName() {
+            return "benchmark";
+        }
+
+        @Override
+        public InetAddress localBroadcastAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        factories = new FactoriesSupplier(new StubMetadataFactory(), new HarvesterOptions()).get();
+        factoryIndex = new FactoryIndex(factories);
+
+        // objects that satisfy the metric MBean interfaces the collectors may cast to
+        // (histograms and timers can't share a proxy as their getMin/getMax return types differ)
+        final Object histogramMBean = metricMBeanProxy(JmxHistogramMBean.class, JmxCounterMBean.class, JmxGaugeMBean.class);
+        final Object metricMBean = metricMBeanProxy(JmxTimerMBean.class, JmxCounterMBean.class, JmxGaugeMBean.class);
+
+        mBeans = new ArrayList<>(mBeanCount);
+        for (int i = 0; i < mBeanCount; i++) {
+            final int table = i / TABLE_METRIC_NAMES.length;
+            final String metricName = TABLE_METRIC_NAMES[i % TABLE_METRIC_NAMES.length];
+
+            mBeans.add(new NamedObject<>(ObjectNames.format("org.apache.cassandra.metrics:type=Table,keyspace=ks_%d,scope=table_%d,name=%s", table % 10, table, metricName),
+                    metricName.endsWith("Histogram") ? histogramMBean : metricMBean));
+        }
+    }
+
+    private static Object metricMBeanProxy(final Class<?>... interfaces) {
+        return Proxy.newProxyInstance(FactoryDispatchBenchmark.class.getClassLoader(), interfaces, (proxy, method, args) -> {
+            final Class<?> returnType = method.getReturnType();
+
+            if (returnType == long.class) return 0L;
+            if (returnType == double.class) return 0d;
+            if (returnType == long[].class) return new long[0];
+            if (returnType == String.class) return "microseconds";
+            if (returnType == Object.class) return 0;
+
+            return null;
+        });
+    }
+
+    private static int createCollectors(final NamedObject<?> mBean, final List<Factory> factories) {
+        int created = 0;
+
+        for (final Factory factory : factories) {
+            try {
+                if (factory.createCollector(mBean) != null) {
+                    created++;
+                }
+
+            } catch (final Exception e) {
+                // as per Harvester, a failing factory doesn't prevent others from being tried
+            }
+        }
+
+        return created;
+    }
+
+    @Benchmark
+    public int linear() {
+        int created = 0;
+
+        for (final NamedObject<?> mBean : mBeans) {
+            created += createCollectors(mBean, factories);
+        }
+
+        return created;
+    }
+
+    @Benchmark
+    public int indexed() {
+        int created = 0;
+
+        for (final NamedObject<?> mBean : mBeans) {
+            created += createCollectors(mBean, factoryIndex.candidates(mBean.name));
+        }
+
+        return created;
+    }
+}
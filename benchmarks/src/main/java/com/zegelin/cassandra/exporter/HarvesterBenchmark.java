@@ -0,0 +1,50 @@
+package com.zegelin.cassandra.exporter;
+
+import com.zegelin.prometheus.domain.MetricFamily;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.management.JMException;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Measures the latency of a complete {@link Harvester#collect()} of a synthetic node with
+ * {@code keyspaceCount} × {@code tableCount} tables, including materialising every series.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HarvesterBenchmark {
+    @Param({"10"})
+    public int keyspaceCount;
+
+    @Param({"100"})
+    public int tableCount;
+
+    private SyntheticHarvester harvester;
+
+    @Setup(Level.Trial)
+    public void setup() throws JMException, InterruptedException {
+        harvester = new SyntheticHarvester(new SyntheticCassandraMetrics(keyspaceCount, tableCount));
+        harvester.registerMBeans();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        harvester.close();
+    }
+
+    @Benchmark
+    public long collect(final Blackhole blackhole) {
+        return harvester.collect()
+                .mapToLong(rawMetricFamily -> {
+                    final MetricFamily<?> metricFamily = rawMetricFamily;
+
+                    return metricFamily.metrics().peek(blackhole::consume).count();
+                })
+                .sum();
+    }
+}
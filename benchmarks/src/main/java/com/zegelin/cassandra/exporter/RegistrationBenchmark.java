@@ -0,0 +1,69 @@
+package com.zegelin.cassandra.exporter;
+
+import com.zegelin.cassandra.exporter.MBeanGroupMetricFamilyCollector.Factory;
+import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.jmx.NamedObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Measures registering every MBean of a synthetic node with {@code keyspaceCount} × {@code tableCount} tables with a
+ * fresh {@link CollectorRegistry} -- i.e., running each MBean through the candidate collector factories supplied by
+ * {@link FactoriesSupplier} and merging the resulting collectors -- as a {@link Harvester} does when the exporter starts.
+ *
+ * The {@link Harvester}'s registration deferral is excluded, as it would otherwise dominate each measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RegistrationBenchmark {
+    @Param({"10"})
+    public int keyspaceCount;
+
+    @Param({"100"})
+    public int tableCount;
+
+    private Map<ObjectName, Object> mBeans;
+    private FactoryIndex factoryIndex;
+
+    private CollectorRegistry registry;
+
+    @Setup(Level.Trial)
+    public void setup() throws JMException {
+        final SyntheticCassandraMetrics metrics = new SyntheticCassandraMetrics(keyspaceCount, tableCount);
+
+        mBeans = metrics.mBeans();
+        factoryIndex = new FactoryIndex(new FactoriesSupplier(metrics.metadataFactory(), new HarvesterOptions()).get());
+    }
+
+    @Setup(Level.Invocation)
+    public void setupRegistry() {
+        registry = new CollectorRegistry();
+    }
+
+    @Benchmark
+    public int register() {
+        mBeans.forEach((name, mBean) -> {
+            final NamedObject<Object> namedMBean = new NamedObject<>(name, mBean);
+            final List<Factory> candidates = factoryIndex.candidates(name);
+
+            for (final Factory factory : candidates) {
+                final MBeanGroupMetricFamilyCollector collector = factory.createCollector(namedMBean);
+
+                if (collector != null) {
+                    registry.register(name, collector);
+                }
+            }
+        });
+
+        return registry.registeredMBeanCount();
+    }
+}
@@ -0,0 +1,274 @@
+package com.zegelin.cassandra.exporter;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableSet;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry;
+import org.apache.cassandra.metrics.DecayingEstimatedHistogramReservoir;
+import org.apache.cassandra.utils.EstimatedHistogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.lang.reflect.Constructor;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/***
+ * A synthetic Cassandra node: an in-memory {@link MBeanServer} populated with the table, keyspace and node-level
+ * metric MBeans that Cassandra registers for {@code keyspaceCount} keyspaces of {@code tableCount} tables each,
+ * plus a matching {@link MetadataFactory}.
+ *
+ * The MBeans are the same {@link CassandraMetricsRegistry} MBean classes Cassandra registers (and are therefore collected
+ * via the same in-process fast paths as when running as an agent), filled with deterministic pseudo-random values.
+ */
+class SyntheticCassandraMetrics {
+    private static final String METRICS_DOMAIN = "org.apache.cassandra.metrics";
+
+    private static final Set<String> LONG_GAUGES = ImmutableSet.of(
+            "MemtableOnHeapSize", "MemtableOffHeapSize", "MemtableLiveDataSize", "MemtableColumnsCount",
+            "EstimatedPartitionCount", "LiveSSTableCount", "PendingCompactions",
+            "MaxPartitionSize", "MeanPartitionSize", "MinPartitionSize",
+            "BloomFilterFalsePositives", "BloomFilterDiskSpaceUsed", "BloomFilterOffHeapMemoryUsed",
+            "IndexSummaryOffHeapMemoryUsed", "CompressionMetadataOffHeapMemoryUsed"
+    );
+
+    private static final Set<String> RATIO_GAUGES = ImmutableSet.of("CompressionRatio", "BloomFilterFalseRatio", "KeyCacheHitRate");
+
+    // table-level only
+    private static final Set<String> ESTIMATED_HISTOGRAM_GAUGES = ImmutableSet.of("EstimatedPartitionSizeHistogram", "EstimatedColumnCountHistogram");
+
+    // counters at the table-level, (aggregate) gauges at the keyspace and node-level
+    private static final Set<String> COUNTERS = ImmutableSet.of(
+            "MemtableSwitchCount", "PendingFlushes", "BytesFlushed", "CompactionBytesWritten",
+            "LiveDiskSpaceUsed", "TotalDiskSpaceUsed",
+            "ReadTotalLatency", "WriteTotalLatency", "RangeTotalLatency"
+    );
+
+    private static final Set<String> HISTOGRAMS = ImmutableSet.of("SSTablesPerReadHistogram", "TombstoneScannedHistogram", "LiveScannedHistogram");
+
+    private static final Set<String> TIMERS = ImmutableSet.of("ReadLatency", "WriteLatency", "RangeLatency");
+
+    private static final int HISTOGRAM_SAMPLE_COUNT = 1000;
+
+    private final Random random = new Random(0);
+
+    private final Map<ObjectName, Object> mBeans = new LinkedHashMap<>();
+    private final MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+    private final MetadataFactory metadataFactory;
+
+    SyntheticCassandraMetrics(final int keyspaceCount, final int tableCount) throws JMException {
+        final Set<String> keyspaces = IntStream.range(0, keyspaceCount).mapToObj(k -> "keyspace_" + k).collect(Collectors.toSet());
+
+        for (final String keyspace : keyspaces) {
+            for (int t = 0; t < tableCount; t++) {
+                registerMetrics(String.format("type=Table,keyspace=%s,scope=table_%d", keyspace, t), true);
+            }
+
+            registerMetrics(String.format("type=Keyspace,keyspace=%s", keyspace), false);
+        }
+
+        registerMetrics("type=Table", false);
+
+        this.metadataFactory = new SyntheticMetadataFactory(keyspaces);
+    }
+
+    Map<ObjectName, Object> mBeans() {
+        return mBeans;
+    }
+
+    MBeanServer mBeanServer() {
+        return mBeanServer;
+    }
+
+    MetadataFactory metadataFactory() {
+        return metadataFactory;
+    }
+
+    private void registerMetrics(final String keyProperties, final boolean isTable) throws JMException {
+        for (final String name : LONG_GAUGES) {
+            final long value = random.nextInt(1 << 20);
+            register(keyProperties, name, (Gauge<Long>) () -> value);
+        }
+
+        for (final String name : RATIO_GAUGES) {
+            final double value = random.nextDouble();
+            register(keyProperties, name, (Gauge<Double>) () -> value);
+        }
+
+        for (final String name : COUNTERS) {
+            if (isTable) {
+                final Counter counter = new Counter();
+                counter.inc(random.nextInt(1 << 20));
+
+                register(keyProperties, name, counter);
+
+            } else {
+                final long value = random.nextInt(1 << 20);
+                register(keyProperties, name, (Gauge<Long>) () -> value);
+            }
+        }
+
+        if (isTable) {
+            for (final String name : ESTIMATED_HISTOGRAM_GAUGES) {
+                final EstimatedHistogram histogram = new EstimatedHistogram();
+                for (int i = 0; i < HISTOGRAM_SAMPLE_COUNT; i++) {
+                    histogram.add(Math.abs((long) (random.nextGaussian() * 100_000)));
+                }
+
+                register(keyProperties, name, (Gauge<long[]>) () -> histogram.getBuckets(false));
+            }
+        }
+
+        for (final String name : HISTOGRAMS) {
+            final Histogram histogram = new Histogram(new DecayingEstimatedHistogramReservoir());
+            for (int i = 0; i < HISTOGRAM_SAMPLE_COUNT; i++) {
+                histogram.update(random.nextInt(100));
+            }
+
+            register(keyProperties, name, histogram);
+        }
+
+        for (final String name : TIMERS) {
+            final Timer timer = new Timer(new DecayingEstimatedHistogramReservoir());
+            for (int i = 0; i < HISTOGRAM_SAMPLE_COUNT; i++) {
+                timer.update(Math.abs((long) (random.nextGaussian() * TimeUnit.MILLISECONDS.toMicros(5))), TimeUnit.MICROSECONDS);
+            }
+
+            register(keyProperties, name, timer);
+        }
+    }
+
+    private void register(final String keyProperties, final String name, final Metric metric) throws JMException {
+        final ObjectName objectName = ObjectName.getInstance(String.format("%s:%s,name=%s", METRICS_DOMAIN, keyProperties, name));
+
+        final Object mBean = newMetricMBean(metric, objectName);
+
+        mBeanServer.registerMBean(mBean, objectName);
+        mBeans.put(objectName, mBean);
+    }
+
+    /**
+     * Cassandra's MBean classes (JmxGauge, JmxCounter, etc.) aren't public, so are created reflectively.
+     */
+    private static Object newMetricMBean(final Metric metric, final ObjectName objectName) {
+        final String className;
+        final Object[] leadingArgs;
+
+        if (metric instanceof Timer) {
+            className = "JmxTimer";
+            leadingArgs = new Object[]{metric, objectName, TimeUnit.SECONDS, TimeUnit.MICROSECONDS};
+
+        } else if (metric instanceof Histogram) {
+            className = "JmxHistogram";
+            leadingArgs = new Object[]{metric, objectName};
+
+        } else if (metric instanceof Counter) {
+            className = "JmxCounter";
+            leadingArgs = new Object[]{metric, objectName};
+
+        } else if (metric instanceof Gauge) {
+            className = "JmxGauge";
+            leadingArgs = new Object[]{metric, objectName};
+
+        } else {
+            throw new IllegalArgumentException(String.format("Unsupported metric type %s.", metric.getClass()));
+        }
+
+        try {
+            final Class<?> mBeanClass = Class.forName(CassandraMetricsRegistry.class.getName() + "$" + className);
+
+            for (final Constructor<?> constructor : mBeanClass.getDeclaredConstructors()) {
+                if (constructor.getParameterCount() < leadingArgs.length) {
+                    continue;
+                }
+
+                // any trailing (synthetic accessor) parameters are null
+                final Object[] args = Arrays.copyOf(leadingArgs, constructor.getParameterCount());
+
+                constructor.setAccessible(true);
+
+                return constructor.newInstance(args);
+            }
+
+        } catch (final ReflectiveOperationException e) {
+            throw new IllegalStateException(String.format("Failed to create %s MBean.", className), e);
+        }
+
+        throw new IllegalStateException(String.format("No suitable %s constructor.", className));
+    }
+
+    private static final class SyntheticMetadataFactory extends MetadataFactory {
+        private static final TableMetadata TABLE_METADATA = new TableMetadata() {
+            @Override
+            public String compactionStrategyClassName() {
+                return "org.apache.cassandra.db.compaction.SizeTieredCompactionStrategy";
+            }
+
+            @Override
+            public boolean isView() {
+                return false;
+            }
+        };
+
+        private static final EndpointMetadata ENDPOINT_METADATA = new EndpointMetadata() {
+            @Override
+            public String dataCenter() {
+                return "dc1";
+            }
+
+            @Override
+            public String rack() {
+                return "rack1";
+            }
+        };
+
+        private final Set<String> keyspaces;
+
+        SyntheticMetadataFactory(final Set<String> keyspaces) {
+            this.keyspaces = ImmutableSet.copyOf(keyspaces);
+        }
+
+        @Override
+        public Optional<IndexMetadata> indexMetadata(final String keyspaceName, final String tableName, final String indexName) {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<TableMetadata> tableOrViewMetadata(final String keyspaceName, final String tableOrViewName) {
+            return keyspaces.contains(keyspaceName) ? Optional.of(TABLE_METADATA) : Optional.empty();
+        }
+
+        @Override
+        public Set<String> keyspaces() {
+            return keyspaces;
+        }
+
+        @Override
+        public Optional<EndpointMetadata> endpointMetadata(final InetAddress endpoint) {
+            return Optional.of(ENDPOINT_METADATA);
+        }
+
+        @Override
+        public String clusterName() {
+            return "benchmark-cluster";
+        }
+
+        @Override
+        public InetAddress localBroadcastAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+
+import java.util.concurrent.TimeUnit;
+
+/***
+ * A {@link Harvester} of the MBeans of a {@link SyntheticCassandraMetrics} node.
+ *
+ * MBeans are registered the same way as by the agent and standalone harvesters, i.e., via the registration deferral,
+ * and {@link #registerMBeans()} waits until the deferred registrations have been applied.
+ */
+class SyntheticHarvester extends Harvester {
+    private static final MetricFamilyFilter QUEUE_DEPTH_FILTER = MetricFamilyFilter.of(ImmutableList.of("cassandra_exporter_mbean_registration_queue_depth"), ImmutableList.of(), ImmutableList.of());
+
+    private static final long REGISTRATION_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final SyntheticCassandraMetrics metrics;
+
+    SyntheticHarvester(final SyntheticCassandraMetrics metrics) {
+        super(metrics.metadataFactory(), new HarvesterOptions());
+
+        this.metrics = metrics;
+    }
+
+    private double registrationQueueDepth() {
+        return collect(QUEUE_DEPTH_FILTER)
+                .flatMap(rawMetricFamily -> {
+                    final MetricFamily<?> metricFamily = rawMetricFamily;
+
+                    return metricFamily.metrics();
+                })
+                .mapToDouble(m -> ((NumericMetric) m).value)
+                .sum();
+    }
+
+    /**
+     * Register every MBean of the node, and wait for the registrations to be applied.
+     */
+    void registerMBeans() throws InterruptedException {
+        metrics.mBeans().forEach((name, mBean) -> registerMBean(mBean, name));
+
+        final long deadline = System.nanoTime() + REGISTRATION_TIMEOUT_NANOS;
+
+        while (registrationQueueDepth() > 0) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new IllegalStateException("MBean registrations weren't applied in time.");
+            }
+
+            Thread.sleep(10);
+        }
+    }
+}
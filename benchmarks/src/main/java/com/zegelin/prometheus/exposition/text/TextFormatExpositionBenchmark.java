@@ -0,0 +1,167 @@
+package com.zegelin.prometheus.exposition.text;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.zegelin.prometheus.domain.GaugeMetricFamily;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+import com.zegelin.prometheus.exposition.ExpositionSink;
+import com.zegelin.prometheus.exposition.NettyExpositionSink;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Compares writing text exposition sample lines field-by-field (name, suffix, braces, each label set, timestamp)
+ * against writing the pre-encoded series prefix cached on each {@link Labels}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextFormatExpositionBenchmark {
+    @Param({"1000"})
+    public int familyCount;
+
+    @Param({"174"})
+    public int metricsPerFamily;
+
+    private List<MetricFamily> metricFamilies;
+    private Labels globalLabels;
+    private Instant timestamp;
+
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup() {
+        globalLabels = new Labels(ImmutableMap.of(
+                "cassandra_cluster", "benchmark-cluster",
+                "cassandra_node", "127.0.0.1",
+                "cassandra_datacenter", "dc1",
+                "cassandra_rack", "rack1"
+        ));
+
+        timestamp = Instant.now();
+
+        final ImmutableList.Builder<MetricFamily> familiesBuilder = ImmutableList.builder();
+
+        for (int f = 0; f < familyCount; f++) {
+            final ImmutableList.Builder<NumericMetric> metricsBuilder = ImmutableList.builder();
+
+            for (int m = 0; m < metricsPerFamily; m++) {
+                final Labels labels = new Labels(ImmutableMap.of(
+                        "keyspace", "keyspace_" + (m % 10),
+                        "table", "table_" + m,
+                        "table_type", "table"
+                ));
+
+                metricsBuilder.add(new NumericMetric(labels, m * 1.5f));
+            }
+
+            familiesBuilder.add(new GaugeMetricFamily("cassandra_table_metric_" + f, null, metricsBuilder.build().stream()).cachedCopy());
+        }
+
+        metricFamilies = familiesBuilder.build();
+
+        buffer = Unpooled.directBuffer(64 * 1024 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    // the sample writing as it was prior to caching encoded series prefixes
+    private static void writeLabels(final ExpositionSink<?> sink, final Labels labels, final boolean commaPrefix) {
+        if (commaPrefix) {
+            sink.writeByte(',');
+        }
+
+        sink.writeBytes(labels.asPlainTextFormatUTF8EncodedByteBuf().nioBuffer());
+    }
+
+    private static void writeUncachedSample(final ExpositionSink<?> sink, final String familyName, final String suffix, final double value,
+                                            final String timestamp, final Labels globalLabels, final Labels labels) {
+        sink.writeAscii(familyName);
+        if (suffix != null) {
+            sink.writeAscii(suffix);
+        }
+
+        sink.writeByte('{');
+
+        boolean needsComma = false;
+        if (!labels.isEmpty()) {
+            writeLabels(sink, labels, false);
+            needsComma = true;
+        }
+
+        if (!globalLabels.isEmpty()) {
+            writeLabels(sink, globalLabels, needsComma);
+        }
+
+        sink.writeByte('}');
+        sink.writeByte(' ');
+
+        sink.writeDouble(value);
+        sink.writeAscii(timestamp);
+        sink.writeByte('\n');
+    }
+
+    @Benchmark
+    public int uncachedSeries() {
+        buffer.clear();
+
+        final NettyExpositionSink sink = new NettyExpositionSink(buffer);
+        final String timestampString = " " + timestamp.toEpochMilli();
+
+        for (final MetricFamily<?> metricFamily : metricFamilies) {
+            metricFamily.metrics().forEach(metric -> {
+                final NumericMetric numericMetric = (NumericMetric) metric;
+                writeUncachedSample(sink, metricFamily.name, null, numericMetric.value, timestampString, globalLabels, numericMetric.labels);
+            });
+        }
+
+        return sink.getIngestedByteCount();
+    }
+
+    @Benchmark
+    public int cachedSeriesPrefixes() {
+        buffer.clear();
+
+        final NettyExpositionSink sink = new NettyExpositionSink(buffer);
+        final byte[] timestampSuffix = TextFormatMetricFamilyWriter.encodeTimestampSuffix(timestamp);
+
+        for (final MetricFamily<?> metricFamily : metricFamilies) {
+            metricFamily.metrics().forEach(metric -> {
+                final NumericMetric numericMetric = (NumericMetric) metric;
+
+                sink.writeBytes(numericMetric.labels.asPlainTextFormatSeriesPrefix(metricFamily.name, null, null, globalLabels));
+                sink.writeDouble(numericMetric.value);
+                sink.writeBytes(timestampSuffix);
+            });
+        }
+
+        return sink.getIngestedByteCount();
+    }
+
+    @Benchmark
+    public int exposition() {
+        buffer.clear();
+
+        final NettyExpositionSink sink = new NettyExpositionSink(buffer);
+        final TextFormatExposition exposition = new TextFormatExposition(metricFamilies.stream(), timestamp, globalLabels, false);
+
+        while (!exposition.isEndOfInput()) {
+            exposition.nextSlice(sink);
+        }
+
+        return sink.getIngestedByteCount();
+    }
+}
@@ -0,0 +1,79 @@
+package info.adams.ryu;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Compares writing the shortest representation of float and double values into a {@link ByteBuf} via
+ * {@link RyuFloat}/{@link RyuDouble} against {@link Float#toString(float)}/{@link Double#toString(double)}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RyuFloatBenchmark {
+    private static final int VALUE_COUNT = 1024;
+
+    private final float[] floatValues = new float[VALUE_COUNT];
+    private final double[] doubleValues = new double[VALUE_COUNT];
+
+    private int index;
+
+    private ByteBuf buffer;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(0);
+
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            // a mix of magnitudes, as seen in latencies, byte counts and ratios
+            final double value = random.nextDouble() * Math.pow(10, random.nextInt(12) - 3);
+
+            floatValues[i] = (float) value;
+            doubleValues[i] = value;
+        }
+
+        buffer = Unpooled.directBuffer(64);
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    private int nextIndex() {
+        index = (index + 1) & (VALUE_COUNT - 1);
+        return index;
+    }
+
+    @Benchmark
+    public int ryuFloat() {
+        buffer.clear();
+        return RyuFloat.floatToString(buffer, floatValues[nextIndex()]);
+    }
+
+    @Benchmark
+    public int floatToString() {
+        buffer.clear();
+        return ByteBufUtil.writeAscii(buffer, Float.toString(floatValues[nextIndex()]));
+    }
+
+    @Benchmark
+    public int ryuDouble() {
+        buffer.clear();
+        return RyuDouble.doubleToString(buffer, doubleValues[nextIndex()]);
+    }
+
+    @Benchmark
+    public int doubleToString() {
+        buffer.clear();
+        return ByteBufUtil.writeAscii(buffer, Double.toString(doubleValues[nextIndex()]));
+    }
+}
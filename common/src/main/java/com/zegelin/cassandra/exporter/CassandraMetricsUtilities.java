@@ -5,67 +5,176 @@ import com.codahale.metrics.Metric;
 import com.codahale.metrics.Sampling;
 import com.codahale.metrics.Snapshot;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.zegelin.jmx.NamedObject;
 import com.zegelin.prometheus.domain.Interval;
 import org.apache.cassandra.metrics.CassandraMetricsRegistry;
 import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxHistogramMBean;
 import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxTimerMBean;
+import org.apache.cassandra.utils.EstimatedHistogram;
 
+import javax.management.ReflectionException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
-import java.util.HashMap;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 @SuppressWarnings("Duplicates")
 public class CassandraMetricsUtilities {
-    private static final Map<Class<? extends CassandraMetricsRegistry.MetricMBean>, Field> MBEAN_METRIC_FIELDS = new HashMap<>();
+    /**
+     * Getters for the private {@code metric} field of each Cassandra MetricMBean implementation class, or null
+     * for classes without one (e.g., remote JMX proxies). Resolved once per class.
+     */
+    private static final ClassValue<MethodHandle> METRIC_FIELD_GETTERS = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(final Class<?> clazz) {
+            if (!CassandraMetricsRegistry.MetricMBean.class.isAssignableFrom(clazz)) {
+                return null;
+            }
+
+            try {
+                @SuppressWarnings("JavaReflectionMemberAccess")
+                final Field field = clazz.getDeclaredField("metric");
+                field.setAccessible(true);
+
+                return MethodHandles.lookup().unreflectGetter(field)
+                        .asType(MethodType.methodType(Metric.class, Object.class));
+
+            } catch (final NoSuchFieldException | IllegalAccessException | RuntimeException e) {
+                return null;
+            }
+        }
+    };
+
+    private static Metric rawMetric(final Object object) {
+        final MethodHandle getter = METRIC_FIELD_GETTERS.get(object.getClass());
+
+        if (getter == null) {
+            return null;
+        }
+
+        try {
+            return (Metric) getter.invokeExact(object);
+
+        } catch (final Throwable t) {
+            throw new IllegalArgumentException(t);
+        }
+    }
 
     /**
      * Given a Cassandra MetricMBean return the internal Codahale/Dropwizard Metric object
      */
+    @SuppressWarnings("unchecked")
     public static <T> NamedObject<T> metricForMBean(final NamedObject<?> mBean) {
         return mBean.map((name, object) -> {
             if (!(object instanceof CassandraMetricsRegistry.MetricMBean)) {
                 throw new ClassCastException(String.format("MBean %s isn't an instance of CassandraMetricsRegistry.MetricMBean", name));
             }
 
-            final CassandraMetricsRegistry.MetricMBean metricMBean = (CassandraMetricsRegistry.MetricMBean) object;
+            final Metric rawMetric = rawMetric(object);
 
-            try {
-                final Field metricField = MBEAN_METRIC_FIELDS.computeIfAbsent(metricMBean.getClass(), clazz -> {
-                    try {
-                        @SuppressWarnings("JavaReflectionMemberAccess")
-                        final Field field = clazz.getDeclaredField("metric");
-                        field.setAccessible(true);
+            if (rawMetric == null) {
+                throw new IllegalArgumentException(String.format("MBean %s doesn't expose its underlying Metric", name));
+            }
 
-                        return field;
+            return (T) rawMetric;
+        });
+    }
 
-                    } catch (final NoSuchFieldException e) {
-                        throw new IllegalArgumentException(e);
-                    }
-                });
+    // bucket counts of Cassandra's DecayingEstimatedHistogramReservoir (default, low and max resolution)
+    private static final Set<Integer> KNOWN_BUCKET_COUNTS = ImmutableSet.of(164, 127, 237);
+
+    private static final Map<Integer, long[]> BUCKET_OFFSETS = new ConcurrentHashMap<>();
+
+    /**
+     * Compute the standard quantiles from the raw bucket values of a Cassandra timer or histogram snapshot
+     * (as returned by {@code values()}), which are one element longer than the reservoir's bucket offsets
+     * (the last element counts overflowed values).
+     *
+     * @return the quantiles, or null if the bucket layout isn't recognised or the histogram has overflowed
+     */
+    private static Iterable<Interval> bucketIntervals(final long[] values) {
+        final long[] offsets;
+        if (KNOWN_BUCKET_COUNTS.contains(values.length - 1)) {
+            offsets = BUCKET_OFFSETS.computeIfAbsent(values.length, l -> EstimatedHistogram.newOffsets(l - 1, false));
+
+        } else if (KNOWN_BUCKET_COUNTS.contains(values.length - 2)) {
+            offsets = BUCKET_OFFSETS.computeIfAbsent(values.length, l -> EstimatedHistogram.newOffsets(l - 2, true));
+
+        } else {
+            return null;
+        }
 
-                final Metric rawMetric = (Metric) metricField.get(object);
+        if (values[values.length - 1] > 0) {
+            return null; // EstimatedHistogram can't compute percentiles once overflowed
+        }
+
+        final EstimatedHistogram histogram = new EstimatedHistogram(offsets, values);
+
+        return Interval.asIntervals(Interval.Quantile.STANDARD_PERCENTILES, q -> (double) histogram.percentile(q.value));
+    }
+
+    /**
+     * Base for adapting remote Cassandra timers and histograms.
+     *
+     * Quantiles are computed locally from a single {@code values()} call (the raw snapshot buckets) rather than by
+     * reading six percentile attributes, each of which also takes a fresh snapshot on the server.
+     * Falls back to reading the percentile attributes when the buckets can't be used, and stops
+     * calling {@code values()} altogether if it isn't supported by the remote MBean.
+     */
+    private static abstract class BucketedSamplingCounting implements SamplingCounting {
+        private volatile boolean bucketsUnsupported = false;
+
+        abstract long[] values();
 
-                return (T) rawMetric;
+        abstract Iterable<Interval> percentileIntervals();
 
-            } catch (final IllegalAccessException e) {
-                throw new IllegalArgumentException(e);
+        @Override
+        public Iterable<Interval> getIntervals() {
+            if (!bucketsUnsupported) {
+                try {
+                    final Iterable<Interval> intervals = bucketIntervals(values());
+
+                    if (intervals != null) {
+                        return intervals;
+                    }
+
+                } catch (final UndeclaredThrowableException e) {
+                    if (!(e.getCause() instanceof ReflectionException)) {
+                        throw e;
+                    }
+
+                    // the remote MBean doesn't support values() (e.g., older Cassandra versions)
+                    bucketsUnsupported = true;
+                }
             }
-        });
+
+            return percentileIntervals();
+        }
     }
 
     static SamplingCounting adaptTimer(final JmxTimerMBean timer) {
-        return new SamplingCounting() {
+        return new BucketedSamplingCounting() {
             @Override
             public long getCount() {
                 return timer.getCount();
             }
 
             @Override
-            public Iterable<Interval> getIntervals() {
+            long[] values() {
+                // timer buckets are always in nanoseconds
+                return timer.values();
+            }
+
+            @Override
+            Iterable<Interval> percentileIntervals() {
                 /*
                   Cassandra's JmxTimerMBean converts the percentile values to a parameterised duration unit,
                   (currently the only usage is microseconds), which differs to the values returned by
@@ -76,36 +185,41 @@ public class CassandraMetricsUtilities {
                   and then eventually to seconds!
                  */
                 final TimeUnit durationUnit = TimeUnit.valueOf(timer.getDurationUnit().toUpperCase(Locale.US));
-                final float durationFactor = durationUnit.toNanos(1L);
+                final double durationFactor = durationUnit.toNanos(1L);
 
                 return ImmutableList.of(
-                        new Interval(Interval.Quantile.P_50, (float) timer.get50thPercentile() * durationFactor),
-                        new Interval(Interval.Quantile.P_75, (float) timer.get75thPercentile() * durationFactor),
-                        new Interval(Interval.Quantile.P_95, (float) timer.get95thPercentile() * durationFactor),
-                        new Interval(Interval.Quantile.P_98, (float) timer.get98thPercentile() * durationFactor),
-                        new Interval(Interval.Quantile.P_99, (float) timer.get99thPercentile() * durationFactor),
-                        new Interval(Interval.Quantile.P_99_9, (float) timer.get999thPercentile() * durationFactor)
+                        new Interval(Interval.Quantile.P_50, timer.get50thPercentile() * durationFactor),
+                        new Interval(Interval.Quantile.P_75, timer.get75thPercentile() * durationFactor),
+                        new Interval(Interval.Quantile.P_95, timer.get95thPercentile() * durationFactor),
+                        new Interval(Interval.Quantile.P_98, timer.get98thPercentile() * durationFactor),
+                        new Interval(Interval.Quantile.P_99, timer.get99thPercentile() * durationFactor),
+                        new Interval(Interval.Quantile.P_99_9, timer.get999thPercentile() * durationFactor)
                 );
             }
         };
     }
 
     static SamplingCounting adaptHistogram(final JmxHistogramMBean histogram) {
-        return new SamplingCounting() {
+        return new BucketedSamplingCounting() {
             @Override
             public long getCount() {
                 return histogram.getCount();
             }
 
             @Override
-            public Iterable<Interval> getIntervals() {
+            long[] values() {
+                return histogram.values();
+            }
+
+            @Override
+            Iterable<Interval> percentileIntervals() {
                 return ImmutableList.of(
-                        new Interval(Interval.Quantile.P_50, (float) histogram.get50thPercentile()),
-                        new Interval(Interval.Quantile.P_75, (float) histogram.get75thPercentile()),
-                        new Interval(Interval.Quantile.P_95, (float) histogram.get95thPercentile()),
-                        new Interval(Interval.Quantile.P_98, (float) histogram.get98thPercentile()),
-                        new Interval(Interval.Quantile.P_99, (float) histogram.get99thPercentile()),
-                        new Interval(Interval.Quantile.P_99_9, (float) histogram.get999thPercentile())
+                        new Interval(Interval.Quantile.P_50, histogram.get50thPercentile()),
+                        new Interval(Interval.Quantile.P_75, histogram.get75thPercentile()),
+                        new Interval(Interval.Quantile.P_95, histogram.get95thPercentile()),
+                        new Interval(Interval.Quantile.P_98, histogram.get98thPercentile()),
+                        new Interval(Interval.Quantile.P_99, histogram.get99thPercentile()),
+                        new Interval(Interval.Quantile.P_99_9, histogram.get999thPercentile())
                 );
             }
         };
@@ -123,7 +237,7 @@ public class CassandraMetricsUtilities {
             public Iterable<Interval> getIntervals() {
                 final Snapshot snapshot = metric.getSnapshot();
 
-                return Interval.asIntervals(Interval.Quantile.STANDARD_PERCENTILES, q -> (float) snapshot.getValue(q.value));
+                return Interval.asIntervals(Interval.Quantile.STANDARD_PERCENTILES, q -> snapshot.getValue(q.value));
             }
         };
     }
@@ -134,12 +248,12 @@ public class CassandraMetricsUtilities {
      * the JMX proxy object to a {@link SamplingCounting}.
      */
     private static <RawT extends Sampling & Counting, MBeanT> NamedObject<SamplingCounting> mBeanAsSamplingCounting(final NamedObject<?> mBean, final Function<MBeanT, SamplingCounting> mBeanAdapterFunction) {
-        try {
+        // checked up-front, rather than via metricForMBean's exceptions, as remote proxies never expose a raw Metric
+        if (rawMetric(mBean.object) instanceof Sampling) {
             return CassandraMetricsUtilities.<RawT>metricForMBean(mBean).map((n, o) -> adaptSamplingCounting(o));
-
-        } catch (final Exception e) {
-            return mBean.<MBeanT>cast().map((n, o) -> mBeanAdapterFunction.apply(o));
         }
+
+        return mBean.<MBeanT>cast().map((n, o) -> mBeanAdapterFunction.apply(o));
     }
 
     public static NamedObject<SamplingCounting> jmxTimerMBeanAsSamplingCounting(final NamedObject<?> timerMBean) {
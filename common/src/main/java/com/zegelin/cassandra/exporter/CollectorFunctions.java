@@ -1,7 +1,7 @@
 package com.zegelin.cassandra.exporter;
 
 import com.google.common.collect.Iterables;
-import com.zegelin.function.FloatFloatFunction;
+import com.zegelin.function.DoubleDoubleFunction;
 import com.zegelin.cassandra.exporter.collector.dynamic.FunctionalMetricFamilyCollector.CollectorFunction;
 import com.zegelin.cassandra.exporter.collector.dynamic.FunctionalMetricFamilyCollector.LabeledObjectGroup;
 import com.zegelin.prometheus.domain.*;
@@ -10,24 +10,29 @@ import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxGaugeMBean;
 import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxMeterMBean;
 import org.apache.cassandra.utils.EstimatedHistogram;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 public final class CollectorFunctions {
     private CollectorFunctions() {}
 
-    private static Stream<NumericMetric> counterMetricsStream(final LabeledObjectGroup<JmxCounterMBean> group, final FloatFloatFunction scaleFunction) {
+    private static Stream<NumericMetric> counterMetricsStream(final LabeledObjectGroup<JmxCounterMBean> group, final DoubleDoubleFunction scaleFunction) {
         return group.labeledObjects().entrySet().stream()
                 .map(e -> new Object() {
                     final Labels labels = e.getKey();
                     final JmxCounterMBean counter = e.getValue();
                 })
-                .map(e -> new NumericMetric(e.labels, scaleFunction.apply((float) e.counter.getCount())));
+                .map(e -> new NumericMetric(e.labels, scaleFunction.apply(e.counter.getCount())));
     }
 
     /**
      * Collect a {@link JmxCounterMBean} as a Prometheus counter
      */
-    public static CollectorFunction<JmxCounterMBean> counterAsCounter(final FloatFloatFunction scaleFunction) {
+    public static CollectorFunction<JmxCounterMBean> counterAsCounter(final DoubleDoubleFunction scaleFunction) {
         return group -> {
             final Stream<NumericMetric> metricStream = counterMetricsStream(group, scaleFunction);
 
@@ -43,7 +48,7 @@ public final class CollectorFunctions {
     /**
      * Collect a {@link JmxCounterMBean} as a Prometheus gauge
      */
-    public static CollectorFunction<JmxCounterMBean> counterAsGauge(final FloatFloatFunction scaleFunction) {
+    public static CollectorFunction<JmxCounterMBean> counterAsGauge(final DoubleDoubleFunction scaleFunction) {
         return group -> {
             final Stream<NumericMetric> metricStream = counterMetricsStream(group, scaleFunction);
 
@@ -52,7 +57,7 @@ public final class CollectorFunctions {
     }
 
     public static CollectorFunction<JmxCounterMBean> counterAsGauge() {
-        return counterAsGauge(FloatFloatFunction.identity());
+        return counterAsGauge(DoubleDoubleFunction.identity());
     }
 
 
@@ -60,14 +65,14 @@ public final class CollectorFunctions {
     /**
      * Collect a {@link JmxMeterMBean} as a Prometheus counter
      */
-    public static CollectorFunction<JmxMeterMBean> meterAsCounter(final FloatFloatFunction scaleFunction) {
+    public static CollectorFunction<JmxMeterMBean> meterAsCounter(final DoubleDoubleFunction scaleFunction) {
         return group -> {
             final Stream<NumericMetric> metricStream = group.labeledObjects().entrySet().stream()
                     .map(e -> new Object() {
                         final Labels labels = e.getKey();
                         final JmxMeterMBean meter = e.getValue();
                     })
-                    .map(e -> new NumericMetric(e.labels, scaleFunction.apply((float) e.meter.getCount())));
+                    .map(e -> new NumericMetric(e.labels, scaleFunction.apply(e.meter.getCount())));
 
 
             return Stream.of(new CounterMetricFamily(group.name(), group.help(), metricStream));
@@ -75,23 +80,23 @@ public final class CollectorFunctions {
     }
 
     public static CollectorFunction<JmxMeterMBean> meterAsCounter() {
-        return meterAsCounter(FloatFloatFunction.identity());
+        return meterAsCounter(DoubleDoubleFunction.identity());
     }
 
 
-    private static Stream<NumericMetric> numericGaugeMetricsStream(final LabeledObjectGroup<JmxGaugeMBean> group, final FloatFloatFunction scaleFunction) {
+    private static Stream<NumericMetric> numericGaugeMetricsStream(final LabeledObjectGroup<JmxGaugeMBean> group, final DoubleDoubleFunction scaleFunction) {
         return group.labeledObjects().entrySet().stream()
                 .map(e -> new Object() {
                     final Labels labels = e.getKey();
                     final JmxGaugeMBean gauge = e.getValue();
                 })
-                .map(e -> new NumericMetric(e.labels, scaleFunction.apply(((Number) e.gauge.getValue()).floatValue())));
+                .map(e -> new NumericMetric(e.labels, scaleFunction.apply(((Number) e.gauge.getValue()).doubleValue())));
     }
 
     /**
      * Collect a {@link JmxGaugeMBean} with a {@link Number} value as a Prometheus gauge
      */
-    public static CollectorFunction<JmxGaugeMBean> numericGaugeAsGauge(final FloatFloatFunction scaleFunction) {
+    public static CollectorFunction<JmxGaugeMBean> numericGaugeAsGauge(final DoubleDoubleFunction scaleFunction) {
         return group -> {
             final Stream<NumericMetric> metricStream = numericGaugeMetricsStream(group, scaleFunction);
 
@@ -100,14 +105,14 @@ public final class CollectorFunctions {
     }
 
     public static CollectorFunction<JmxGaugeMBean> numericGaugeAsGauge() {
-        return numericGaugeAsGauge(FloatFloatFunction.identity());
+        return numericGaugeAsGauge(DoubleDoubleFunction.identity());
     }
 
 
     /**
      * Collect a {@link JmxGaugeMBean} with a {@link Number} value as a Prometheus counter
      */
-    public static CollectorFunction<JmxGaugeMBean> numericGaugeAsCounter(final FloatFloatFunction scaleFunction) {
+    public static CollectorFunction<JmxGaugeMBean> numericGaugeAsCounter(final DoubleDoubleFunction scaleFunction) {
         return group -> {
             final Stream<NumericMetric> metricStream = numericGaugeMetricsStream(group, scaleFunction);
 
@@ -116,15 +121,20 @@ public final class CollectorFunctions {
     }
 
     public static CollectorFunction<JmxGaugeMBean> numericGaugeAsCounter() {
-        return numericGaugeAsCounter(FloatFloatFunction.identity());
+        return numericGaugeAsCounter(DoubleDoubleFunction.identity());
     }
 
 
 
+    // in ascending order, as required by EstimatedHistogramLayout.summarize()
+    private static final Interval.Quantile[] STANDARD_PERCENTILES = Interval.Quantile.STANDARD_PERCENTILES.stream()
+            .sorted(Comparator.comparing(q -> q.value))
+            .toArray(Interval.Quantile[]::new);
+
     /**
      * Collect a {@link JmxGaugeMBean} with a Cassandra {@link EstimatedHistogram} value as a Prometheus summary
      */
-    public static CollectorFunction<JmxGaugeMBean> histogramGaugeAsSummary(final FloatFloatFunction bucketScaleFunction) {
+    public static CollectorFunction<JmxGaugeMBean> histogramGaugeAsSummary(final DoubleDoubleFunction bucketScaleFunction) {
         return group -> {
             final Stream<SummaryMetricFamily.Summary> summaryStream = group.labeledObjects().entrySet().stream()
                     .map(e -> new Object() {
@@ -134,15 +144,14 @@ public final class CollectorFunctions {
                     .map(e -> {
                         final long[] bucketData = (long[]) e.gauge.getValue();
 
-                        if (bucketData.length == 0) {
-                            return new SummaryMetricFamily.Summary(e.labels, Float.NaN, Float.NaN, Interval.asIntervals(Interval.Quantile.STANDARD_PERCENTILES, q -> Float.NaN));
+                        if (bucketData.length < 2) {
+                            return new SummaryMetricFamily.Summary(e.labels, Double.NaN, Double.NaN, Interval.asIntervals(Interval.Quantile.STANDARD_PERCENTILES, q -> Double.NaN));
                         }
 
-                        final EstimatedHistogram histogram = new EstimatedHistogram(bucketData);
-
-                        final Iterable<Interval> quantiles = Interval.asIntervals(Interval.Quantile.STANDARD_PERCENTILES, q -> bucketScaleFunction.apply((float) histogram.percentile(q.value)));
+                        final EstimatedHistogramLayout.Summary summary = EstimatedHistogramLayout.forBucketCount(bucketData.length)
+                                .summarize(bucketData, STANDARD_PERCENTILES, bucketScaleFunction);
 
-                        return new SummaryMetricFamily.Summary(e.labels, Float.NaN, histogram.count(), quantiles);
+                        return new SummaryMetricFamily.Summary(e.labels, summary.sum, summary.count, Arrays.asList(summary.quantiles));
                     });
 
             return Stream.of(new SummaryMetricFamily(group.name(), group.help(), summaryStream));
@@ -153,10 +162,102 @@ public final class CollectorFunctions {
         return histogramGaugeAsSummary(l -> l);
     }
 
+    /**
+     * The Prometheus histogram buckets for an {@link EstimatedHistogram} with a given number of buckets.
+     *
+     * Every {@code stride}th bucket offset (and always the largest) is exposed as an {@code le} bound.
+     * Adjacent EstimatedHistogram offsets only grow by ~20%, so exposing every one would be needlessly expensive.
+     */
+    private static final class EstimatedHistogramBucketLayout {
+        final EstimatedHistogramLayout layout;
+        final DoubleDoubleFunction bucketScaleFunction;
+
+        final int[] boundaryIndices; // the offset index at which each Prometheus bucket ends (inclusive)
+        final Interval.Quantile[] boundaries;
+
+        EstimatedHistogramBucketLayout(final int bucketCount, final int stride, final DoubleDoubleFunction bucketScaleFunction) {
+            this.layout = EstimatedHistogramLayout.forBucketCount(bucketCount);
+            this.bucketScaleFunction = bucketScaleFunction;
+
+            final long[] offsets = layout.offsets;
+
+            final int boundaryCount = (offsets.length + stride - 1) / stride;
+            this.boundaryIndices = new int[boundaryCount];
+            this.boundaries = new Interval.Quantile[boundaryCount];
+
+            for (int b = 0; b < boundaryCount; b++) {
+                final int i = Math.min((b + 1) * stride, offsets.length) - 1;
+
+                boundaryIndices[b] = i;
+                boundaries[b] = Interval.Quantile.le(bucketScaleFunction.apply(offsets[i]));
+            }
+        }
+
+        HistogramMetricFamily.Histogram histogram(final Labels labels, final long[] bucketData) {
+            final Interval[] buckets = new Interval[boundaries.length];
+            final double[] midpoints = layout.midpoints;
+
+            long count = 0;
+            double sum = 0;
+
+            int b = 0;
+            for (int i = 0; i < bucketData.length; i++) {
+                count += bucketData[i];
+                sum += bucketData[i] * midpoints[i];
+
+                if (b < boundaryIndices.length && i == boundaryIndices[b]) {
+                    buckets[b] = new Interval(boundaries[b], count);
+                    b++;
+                }
+            }
+
+            return new HistogramMetricFamily.Histogram(labels, bucketScaleFunction.apply(sum), count, Arrays.asList(buckets));
+        }
+    }
+
+    /**
+     * Collect a {@link JmxGaugeMBean} with a Cassandra {@link EstimatedHistogram} bucket array value as a Prometheus histogram.
+     *
+     * Unlike a summary, the resulting buckets can be aggregated across tables and nodes.
+     * The sum is estimated from the bucket midpoints.
+     */
+    public static CollectorFunction<JmxGaugeMBean> histogramGaugeAsHistogram(final DoubleDoubleFunction bucketScaleFunction, final int stride) {
+        if (stride < 1) {
+            throw new IllegalArgumentException("Bucket stride must be at least 1.");
+        }
+
+        // keyed by bucket count
+        final Map<Integer, EstimatedHistogramBucketLayout> layouts = new ConcurrentHashMap<>();
+
+        return group -> {
+            final Stream<HistogramMetricFamily.Histogram> histogramStream = group.labeledObjects().entrySet().stream()
+                    .map(e -> new Object() {
+                        final Labels labels = e.getKey();
+                        final JmxGaugeMBean gauge = e.getValue();
+                    })
+                    .map(e -> {
+                        final long[] bucketData = (long[]) e.gauge.getValue();
+
+                        if (bucketData.length < 2) {
+                            return new HistogramMetricFamily.Histogram(e.labels, Double.NaN, Double.NaN, Collections.emptyList());
+                        }
+
+                        return layouts.computeIfAbsent(bucketData.length, n -> new EstimatedHistogramBucketLayout(n, stride, bucketScaleFunction))
+                                .histogram(e.labels, bucketData);
+                    });
+
+            return Stream.of(new HistogramMetricFamily(group.name(), group.help(), histogramStream));
+        };
+    }
+
+    public static CollectorFunction<JmxGaugeMBean> histogramGaugeAsHistogram(final int stride) {
+        return histogramGaugeAsHistogram(l -> l, stride);
+    }
+
     /**
      * Collect a {@link SamplingCounting} as a Prometheus summary
      */
-    protected static CollectorFunction<SamplingCounting> samplingAndCountingAsSummary(final FloatFloatFunction quantileScaleFunction) {
+    protected static CollectorFunction<SamplingCounting> samplingAndCountingAsSummary(final DoubleDoubleFunction quantileScaleFunction) {
         return group -> {
             final Stream<SummaryMetricFamily.Summary> summaryStream = group.labeledObjects().entrySet().stream()
                     .map(e -> new Object() {
@@ -166,7 +267,7 @@ public final class CollectorFunctions {
                     .map(e -> {
                         final Iterable<Interval> quantiles = Iterables.transform(e.samplingCounting.getIntervals(), i -> i.transform(quantileScaleFunction));
 
-                        return new SummaryMetricFamily.Summary(e.labels, Float.NaN, e.samplingCounting.getCount(), quantiles);
+                        return new SummaryMetricFamily.Summary(e.labels, Double.NaN, e.samplingCounting.getCount(), quantiles);
                     });
 
             return Stream.of(new SummaryMetricFamily(group.name(), group.help(), summaryStream));
@@ -174,6 +275,6 @@ public final class CollectorFunctions {
     }
 
     public static CollectorFunction<SamplingCounting> samplingAndCountingAsSummary() {
-        return samplingAndCountingAsSummary(FloatFloatFunction.identity());
+        return samplingAndCountingAsSummary(DoubleDoubleFunction.identity());
     }
 }
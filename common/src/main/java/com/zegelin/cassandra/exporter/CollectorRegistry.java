@@ -0,0 +1,72 @@
+package com.zegelin.cassandra.exporter;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The set of registered {@link MBeanGroupMetricFamilyCollector}s, keyed by collector name, along with an index
+ * of which collectors each MBean contributes to.
+ *
+ * Registration and unregistration of an MBean are O(1) with respect to the number of MBeans already registered,
+ * provided collectors merge in place (see {@link MBeanGroupMetricFamilyCollector#merge}).
+ * Collection iterates the live maps rather than copies.
+ */
+public class CollectorRegistry {
+    private final Map<String, MBeanGroupMetricFamilyCollector> collectorsByName = new ConcurrentHashMap<>();
+    private final Map<ObjectName, Set<String>> collectorNamesByMBeanName = new ConcurrentHashMap<>();
+
+    public void register(final ObjectName mBeanName, final MBeanGroupMetricFamilyCollector collector) {
+        final String collectorName = collector.name();
+
+        collectorsByName.merge(collectorName, collector, MBeanGroupMetricFamilyCollector::merge);
+        collectorNamesByMBeanName.computeIfAbsent(mBeanName, k -> ConcurrentHashMap.newKeySet()).add(collectorName);
+    }
+
+    public void unregister(final ObjectName mBeanName) {
+        final Set<String> collectorNames = collectorNamesByMBeanName.remove(mBeanName);
+
+        if (collectorNames == null) {
+            // no collectors registered
+            return;
+        }
+
+        for (final String collectorName : collectorNames) {
+            collectorsByName.computeIfPresent(collectorName, (k, v) -> v.removeMBean(mBeanName));
+        }
+    }
+
+    /**
+     * @return a live, unmodifiable view of the registered collectors, keyed by name.
+     */
+    public Map<String, MBeanGroupMetricFamilyCollector> collectors() {
+        return Collections.unmodifiableMap(collectorsByName);
+    }
+
+    /**
+     * @return the collectors the named MBean contributes to
+     */
+    public Collection<MBeanGroupMetricFamilyCollector> collectorsForMBean(final ObjectName mBeanName) {
+        final Set<String> collectorNames = collectorNamesByMBeanName.getOrDefault(mBeanName, Collections.emptySet());
+
+        final List<MBeanGroupMetricFamilyCollector> collectors = new ArrayList<>(collectorNames.size());
+        for (final String collectorName : collectorNames) {
+            final MBeanGroupMetricFamilyCollector collector = collectorsByName.get(collectorName);
+
+            if (collector != null) {
+                collectors.add(collector);
+            }
+        }
+
+        return collectors;
+    }
+
+    public int registeredMBeanCount() {
+        return collectorNamesByMBeanName.size();
+    }
+}
@@ -0,0 +1,119 @@
+package com.zegelin.cassandra.exporter;
+
+import com.zegelin.function.DoubleDoubleFunction;
+import com.zegelin.prometheus.domain.Interval;
+import org.apache.cassandra.utils.EstimatedHistogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The bucket offsets of a Cassandra {@link EstimatedHistogram} with a given number of buckets, as exposed by gauges
+ * such as EstimatedPartitionSizeHistogram, and statistics computed directly from its raw bucket values.
+ *
+ * Avoids constructing an {@link EstimatedHistogram} per collection (which recomputes the offsets and copies the buckets)
+ * and calling {@link EstimatedHistogram#percentile(double)} per quantile (which recounts and rescans the buckets each time).
+ */
+final class EstimatedHistogramLayout {
+    private static final Map<Integer, EstimatedHistogramLayout> LAYOUTS = new ConcurrentHashMap<>();
+
+    final long[] offsets;
+    final double[] midpoints; // per bucket, used to estimate the sum of all values
+
+    private EstimatedHistogramLayout(final int bucketCount) {
+        // the last bucket holds overflowed values and has no offset
+        this.offsets = EstimatedHistogram.newOffsets(bucketCount - 1, false);
+
+        this.midpoints = new double[bucketCount];
+        for (int i = 0; i < offsets.length; i++) {
+            final long lower = (i == 0 ? 0 : offsets[i - 1]);
+
+            midpoints[i] = (lower + offsets[i]) / 2.0;
+        }
+        midpoints[offsets.length] = offsets[offsets.length - 1]; // a lower bound for overflowed values
+    }
+
+    /**
+     * @param bucketCount the length of the raw bucket array, including the overflow bucket (at least 2)
+     */
+    static EstimatedHistogramLayout forBucketCount(final int bucketCount) {
+        return LAYOUTS.computeIfAbsent(bucketCount, EstimatedHistogramLayout::new);
+    }
+
+    /**
+     * The result of {@link #summarize(long[], Interval.Quantile[], DoubleDoubleFunction)}.
+     */
+    static final class Summary {
+        final long count;
+        final double sum;
+        final Interval[] quantiles;
+
+        private Summary(final long count, final double sum, final Interval[] quantiles) {
+            this.count = count;
+            this.sum = sum;
+            this.quantiles = quantiles;
+        }
+    }
+
+    /**
+     * Compute the count, estimated sum and the given quantiles of the raw bucket values.
+     *
+     * Equivalent to {@link EstimatedHistogram#count()} and {@link EstimatedHistogram#percentile(double)} for each quantile,
+     * but in two linear scans regardless of the number of quantiles: one to total the count and sum
+     * (the count is required before the quantile ranks are known), and a single cumulative scan that resolves all the
+     * quantiles and stops as soon as the largest is found.
+     *
+     * Quantiles of an overflowed histogram are NaN (where {@link EstimatedHistogram#percentile(double)} would throw).
+     *
+     * @param quantiles the quantiles to compute, in ascending order
+     * @param scaleFunction applied to the sum and quantile values. Must be linear (i.e., a unit conversion)
+     */
+    Summary summarize(final long[] buckets, final Interval.Quantile[] quantiles, final DoubleDoubleFunction scaleFunction) {
+        final int lastBucket = offsets.length;
+
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            count += buckets[i];
+            sum += buckets[i] * midpoints[i];
+        }
+
+        final Interval[] intervals = new Interval[quantiles.length];
+
+        if (buckets[lastBucket] > 0) {
+            for (int q = 0; q < quantiles.length; q++) {
+                intervals[q] = new Interval(quantiles[q], Double.NaN);
+            }
+
+            return new Summary(count, scaleFunction.apply(sum), intervals);
+        }
+
+        int q = 0;
+
+        long elements = 0;
+        for (int i = 0; i < lastBucket && q < quantiles.length; i++) {
+            elements += buckets[i];
+
+            for (; q < quantiles.length; q++) {
+                final long rank = (long) Math.ceil(count * quantiles[q].value);
+
+                if (rank == 0) {
+                    intervals[q] = new Interval(quantiles[q], 0);
+
+                } else if (elements >= rank) {
+                    intervals[q] = new Interval(quantiles[q], scaleFunction.apply(offsets[i]));
+
+                } else {
+                    break;
+                }
+            }
+        }
+
+        // as per EstimatedHistogram.percentile(), should a rank not be reached
+        for (; q < quantiles.length; q++) {
+            intervals[q] = new Interval(quantiles[q], 0);
+        }
+
+        return new Summary(count, scaleFunction.apply(sum), intervals);
+    }
+}
@@ -0,0 +1,119 @@
+package com.zegelin.cassandra.exporter;
+
+import com.zegelin.prometheus.domain.CounterMetricFamily;
+import com.zegelin.prometheus.domain.GaugeMetricFamily;
+import com.zegelin.prometheus.domain.HistogramMetricFamily;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.nanosecondsToSeconds;
+
+/**
+ * Metrics about the exporter itself -- the cost of each collector and of exposition -- exposed on /metrics/exporter.
+ *
+ * All recording is lock-free, as it happens from concurrent scrapes.
+ */
+public class ExporterMetrics {
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    private static final class CollectorStatistics {
+        final LongAdderHistogram duration = new LongAdderHistogram(LongAdderHistogram.SECONDS_BUCKETS);
+        final LongAdder allocatedBytes = new LongAdder();
+    }
+
+    private static final class ExpositionStatistics {
+        final LongAdderHistogram bytes = new LongAdderHistogram(LongAdderHistogram.BYTES_BUCKETS);
+        final LongAdderHistogram expositionDuration = new LongAdderHistogram(LongAdderHistogram.SECONDS_BUCKETS);
+        final LongAdderHistogram scrapeDuration = new LongAdderHistogram(LongAdderHistogram.SECONDS_BUCKETS);
+    }
+
+    private final Map<String, CollectorStatistics> collectorStatistics = new ConcurrentHashMap<>();
+    private final Map<String, Long> metricFamilySeriesCounts = new ConcurrentHashMap<>();
+    private final Map<String, ExpositionStatistics> expositionStatistics = new ConcurrentHashMap<>();
+
+    /**
+     * @return the number of bytes allocated by the current thread so far, or -1 if unsupported by the JVM.
+     */
+    static long currentThreadAllocatedBytes() {
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        final com.sun.management.ThreadMXBean threadMXBeanEx = (com.sun.management.ThreadMXBean) threadMXBean;
+
+        if (!threadMXBeanEx.isThreadAllocatedMemorySupported() || !threadMXBeanEx.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+
+        return threadMXBeanEx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Record a run of a collector, and the metric families it produced.
+     *
+     * @param allocatedBytes the number of bytes allocated by the collector, or a negative value if unknown
+     */
+    void recordCollection(final String collectorName, final long durationNanos, final long allocatedBytes, final List<MetricFamily> metricFamilies) {
+        final CollectorStatistics statistics = collectorStatistics.computeIfAbsent(collectorName, k -> new CollectorStatistics());
+
+        statistics.duration.record(nanosecondsToSeconds(durationNanos));
+
+        if (allocatedBytes >= 0) {
+            statistics.allocatedBytes.add(allocatedBytes);
+        }
+
+        for (final MetricFamily<?> metricFamily : metricFamilies) {
+            metricFamilySeriesCounts.put(metricFamily.name, metricFamily.metrics().count());
+        }
+    }
+
+    /**
+     * Record a scrape of /metrics.
+     *
+     * @param format the exposition format, e.g. "text" or "json"
+     * @param bytes the size of the response body
+     * @param expositionNanos the time spent formatting the response body
+     * @param scrapeNanos the time from receiving the request until the response was completely written
+     */
+    public void recordScrape(final String format, final long bytes, final long expositionNanos, final long scrapeNanos) {
+        final ExpositionStatistics statistics = expositionStatistics.computeIfAbsent(format, k -> new ExpositionStatistics());
+
+        statistics.bytes.record(bytes);
+        statistics.expositionDuration.record(nanosecondsToSeconds(expositionNanos));
+        statistics.scrapeDuration.record(nanosecondsToSeconds(scrapeNanos));
+    }
+
+    /**
+     * @return the cumulative time, in seconds, taken to run each collector
+     */
+    Stream<NumericMetric> collectorTimeSeconds() {
+        return collectorStatistics.entrySet().stream()
+                .map(e -> new NumericMetric(Labels.of("collector", e.getKey()), e.getValue().duration.sum()));
+    }
+
+    public Stream<MetricFamily> collect() {
+        return Stream.of(
+                new HistogramMetricFamily("cassandra_exporter_collector_duration_seconds", "Time taken to run each metrics collector. Only recorded when collector timing is enabled.",
+                        collectorStatistics.entrySet().stream().map(e -> e.getValue().duration.snapshot(Labels.of("collector", e.getKey())))),
+                new CounterMetricFamily("cassandra_exporter_collector_allocated_bytes_total", "Total number of bytes allocated by each metrics collector. Only recorded when collector timing is enabled.",
+                        collectorStatistics.entrySet().stream().map(e -> new NumericMetric(Labels.of("collector", e.getKey()), e.getValue().allocatedBytes.sum()))),
+                new GaugeMetricFamily("cassandra_exporter_metric_family_series", "Number of series in each metric family at its most recent collection. Only recorded when collector timing is enabled.",
+                        metricFamilySeriesCounts.entrySet().stream().map(e -> new NumericMetric(Labels.of("family", e.getKey()), e.getValue()))),
+                new HistogramMetricFamily("cassandra_exporter_exposition_bytes", "Size of each /metrics response body, by exposition format.",
+                        expositionStatistics.entrySet().stream().map(e -> e.getValue().bytes.snapshot(Labels.of("format", e.getKey())))),
+                new HistogramMetricFamily("cassandra_exporter_exposition_duration_seconds", "Time spent formatting each /metrics response body, by exposition format.",
+                        expositionStatistics.entrySet().stream().map(e -> e.getValue().expositionDuration.snapshot(Labels.of("format", e.getKey())))),
+                new HistogramMetricFamily("cassandra_exporter_scrape_duration_seconds", "Time from receiving each /metrics request until its response was written, by exposition format.",
+                        expositionStatistics.entrySet().stream().map(e -> e.getValue().scrapeDuration.snapshot(Labels.of("format", e.getKey()))))
+        );
+    }
+}
@@ -13,6 +13,7 @@ import com.zegelin.cassandra.exporter.collector.jvm.*;
 import com.zegelin.prometheus.domain.Labels;
 
 import javax.management.*;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -34,6 +35,7 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
      */
     private static class FactoryBuilder {
         private final CollectorConstructor collectorConstructor;
+        private final Set<ObjectName> objectNamePatterns;
         private final QueryExp objectNameQuery;
         private final String metricFamilyName;
 
@@ -56,9 +58,17 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
 
         private final List<Modifier> modifiers = new LinkedList<>();
 
-        FactoryBuilder(final CollectorConstructor collectorConstructor, final QueryExp objectNameQuery, final String metricFamilyName) {
+        FactoryBuilder(final CollectorConstructor collectorConstructor, final ObjectName objectNamePattern, final String metricFamilyName) {
+            this(collectorConstructor, ImmutableSet.of(objectNamePattern), metricFamilyName);
+        }
+
+        FactoryBuilder(final CollectorConstructor collectorConstructor, final Set<ObjectName> objectNamePatterns, final String metricFamilyName) {
             this.collectorConstructor = collectorConstructor;
-            this.objectNameQuery = objectNameQuery;
+            this.objectNamePatterns = ImmutableSet.copyOf(objectNamePatterns);
+            this.objectNameQuery = this.objectNamePatterns.stream()
+                    .<QueryExp>map(p -> p)
+                    .reduce(Query::or)
+                    .orElseThrow(() -> new IllegalArgumentException("At least one ObjectName pattern is required."));
             this.metricFamilyName = metricFamilyName;
         }
 
@@ -82,27 +92,39 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
         }
 
         Factory build() {
-            return mBean -> {
-                try {
-                    if (!objectNameQuery.apply(mBean.name))
-                        return null;
-                } catch (final BadStringOperationException | BadBinaryOpValueExpException | BadAttributeValueExpException | InvalidApplicationException e) {
-                    throw new IllegalStateException("Failed to apply object name query to object name.", e);
+            return new Factory() {
+                @Override
+                public MBeanGroupMetricFamilyCollector createCollector(final NamedObject<?> mBean) {
+                    return FactoryBuilder.this.createCollector(mBean);
+                }
+
+                @Override
+                public Set<ObjectName> objectNamePatterns() {
+                    return objectNamePatterns;
                 }
+            };
+        }
 
-                final Map<String, String> keyPropertyList = mBean.name.getKeyPropertyList();
+        private MBeanGroupMetricFamilyCollector createCollector(final NamedObject<?> mBean) {
+            try {
+                if (!objectNameQuery.apply(mBean.name))
+                    return null;
+            } catch (final BadStringOperationException | BadBinaryOpValueExpException | BadAttributeValueExpException | InvalidApplicationException e) {
+                throw new IllegalStateException("Failed to apply object name query to object name.", e);
+            }
 
-                final String name = String.format("cassandra_%s", metricFamilyName);
-                final Map<String, String> rawLabels = new HashMap<>();
+            final Map<String, String> keyPropertyList = mBean.name.getKeyPropertyList();
 
-                for (final Modifier modifier : modifiers) {
-                    if (!modifier.modify(keyPropertyList, rawLabels)) {
-                        return null;
-                    }
+            final String name = String.format("cassandra_%s", metricFamilyName);
+            final Map<String, String> rawLabels = new HashMap<>();
+
+            for (final Modifier modifier : modifiers) {
+                if (!modifier.modify(keyPropertyList, rawLabels)) {
+                    return null;
                 }
+            }
 
-                return collectorConstructor.groupCollectorForMBean(name, help, new Labels(rawLabels), mBean);
-            };
+            return collectorConstructor.groupCollectorForMBean(name, help, new Labels(rawLabels), mBean);
         }
 
         @FunctionalInterface
@@ -116,9 +138,19 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
     private final Set<TableLabels> tableLabels;
     private final Set<String> excludedKeyspaces;
     private final Map<TableMetricScope, TableMetricScope.Filter> tableMetricScopeFilters;
+    private final EstimatedHistogramType estimatedHistogramType;
+    private final int estimatedHistogramBucketStride;
+    private final Map<String, Duration> cacheTtls;
+    private final CachingCollector.Statistics cacheStatistics;
+
+    private final Set<Factory> cachingFactories = Sets.newIdentityHashSet();
 
 
     public FactoriesSupplier(final MetadataFactory metadataFactory, final HarvesterOptions options) {
+        this(metadataFactory, options, new CachingCollector.Statistics());
+    }
+
+    public FactoriesSupplier(final MetadataFactory metadataFactory, final HarvesterOptions options, final CachingCollector.Statistics cacheStatistics) {
         this.metadataFactory = metadataFactory;
         this.perThreadTimingEnabled = options.perThreadTimingEnabled;
         this.tableLabels = options.tableLabels;
@@ -129,6 +161,25 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
                 .put(TableMetricScope.KEYSPACE, options.keyspaceMetricsFilter)
                 .put(TableMetricScope.TABLE, options.tableMetricsFilter)
                 .build();
+
+        this.estimatedHistogramType = options.estimatedHistogramType;
+        this.estimatedHistogramBucketStride = options.estimatedHistogramBucketStride;
+        this.cacheTtls = ImmutableMap.copyOf(options.cacheTtls);
+        this.cacheStatistics = cacheStatistics;
+    }
+
+
+    private FactoryBuilder.CollectorConstructor estimatedHistogramCollectorConstructor() {
+        switch (estimatedHistogramType) {
+            case SUMMARY:
+                return functionalCollectorConstructor(histogramGaugeAsSummary());
+
+            case HISTOGRAM:
+                return functionalCollectorConstructor(histogramGaugeAsHistogram(estimatedHistogramBucketStride));
+
+            default:
+                throw new IllegalStateException();
+        }
     }
 
 
@@ -271,23 +322,28 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
         }
     }
 
+    public enum EstimatedHistogramType {
+        SUMMARY,
+        HISTOGRAM
+    }
+
     public enum TableMetricScope {
         NODE("node_%s") {
             @Override
-            QueryExp query(final String jmxName) {
-                return format("org.apache.cassandra.metrics:type=Table,name=%s", jmxName);
+            Set<ObjectName> objectNamePatterns(final String jmxName) {
+                return ImmutableSet.of(format("org.apache.cassandra.metrics:type=Table,name=%s", jmxName));
             }
         },
         KEYSPACE("keyspace_%s") {
             @Override
-            QueryExp query(final String jmxName) {
-                return format("org.apache.cassandra.metrics:type=Keyspace,keyspace=*,name=%s", jmxName);
+            Set<ObjectName> objectNamePatterns(final String jmxName) {
+                return ImmutableSet.of(format("org.apache.cassandra.metrics:type=Keyspace,keyspace=*,name=%s", jmxName));
             }
         },
         TABLE("table_%s") {
             @Override
-            QueryExp query(final String jmxName) {
-                return Query.or(
+            Set<ObjectName> objectNamePatterns(final String jmxName) {
+                return ImmutableSet.of(
                         format("org.apache.cassandra.metrics:type=Table,keyspace=*,scope=*,name=%s", jmxName),
                         format("org.apache.cassandra.metrics:type=IndexTable,keyspace=*,scope=*,name=%s", jmxName)
                 );
@@ -308,7 +364,14 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
             this.metricFamilyNameFormat = metricFamilyNameFormat;
         }
 
-        abstract QueryExp query(final String jmxName);
+        abstract Set<ObjectName> objectNamePatterns(final String jmxName);
+
+        /**
+         * @return the prefix shared by the names of all metric families of this scope
+         */
+        String metricFamilyNamePrefix() {
+            return String.format("cassandra_" + metricFamilyNameFormat, "");
+        }
     }
 
     private Iterator<Factory> tableMetricFactory(final FactoryBuilder.CollectorConstructor collectorConstructor, final String jmxName, final String familyNameSuffix, final String help) {
@@ -356,10 +419,10 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
                     return false;
                 })
                 .map(scope -> {
-                    final QueryExp query = scope.query(jmxName);
+                    final Set<ObjectName> objectNamePatterns = scope.objectNamePatterns(jmxName);
                     final String metricFamilyName = String.format(scope.metricFamilyNameFormat, familyNameSuffix);
 
-                    return new FactoryBuilder(collectorConstructor, query, metricFamilyName)
+                    return new FactoryBuilder(collectorConstructor, objectNamePatterns, metricFamilyName)
                             .withHelp(help)
                             .withModifier((keyPropertyList, labels) -> {
                                 labels.putAll(extraLabels);
@@ -518,12 +581,20 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
 
 
 
+    /**
+     * Cache the collectors created by {@param delegate} for {@param duration} by default.
+     * The TTL may be overridden per collector or metric family via --cache-ttl.
+     */
     private Factory cache(final Factory delegate, final long duration, final TimeUnit unit) {
-        return CachingCollector.cache(delegate, duration, unit);
+        final Factory factory = CachingCollector.cache(delegate, cacheStatistics, Duration.ofNanos(unit.toNanos(duration)), cacheTtls);
+
+        cachingFactories.add(factory);
+
+        return factory;
     }
 
     private Iterator<Factory> cache(final Iterator<Factory> delegates, final long duration, final TimeUnit unit) {
-        return Iterators.transform(delegates, delegate ->  CachingCollector.cache(delegate, duration, unit));
+        return Iterators.transform(delegates, delegate -> cache(delegate, duration, unit));
     }
 
 
@@ -700,10 +771,10 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
 
             builder.addAll(tableMetricFactory(functionalCollectorConstructor(numericGaugeAsGauge(MetricValueConversionFunctions::neg1ToNaN)), "CompressionRatio", "compression_ratio", null));
 
-            builder.addAll(tableMetricFactory(functionalCollectorConstructor(histogramGaugeAsSummary()), "EstimatedPartitionSizeHistogram", "estimated_partition_size_bytes", null));
+            builder.addAll(tableMetricFactory(estimatedHistogramCollectorConstructor(), "EstimatedPartitionSizeHistogram", "estimated_partition_size_bytes", null));
             builder.addAll(tableMetricFactory(functionalCollectorConstructor(numericGaugeAsGauge(MetricValueConversionFunctions::neg1ToNaN)), "EstimatedPartitionCount", "estimated_partitions", null));
 
-            builder.addAll(tableMetricFactory(functionalCollectorConstructor(histogramGaugeAsSummary()), "EstimatedColumnCountHistogram", "estimated_columns", null));
+            builder.addAll(tableMetricFactory(estimatedHistogramCollectorConstructor(), "EstimatedColumnCountHistogram", "estimated_columns", null));
 
             builder.addAll(tableMetricFactory(histogramAsSummaryCollectorConstructor(), "SSTablesPerReadHistogram", "sstables_per_read", null));
 //
@@ -757,7 +828,7 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
             builder.addAll(tableMetricFactory(timerAsSummaryCollectorConstructor(), "ViewLockAcquireTime", "view_lock_acquisition_seconds", null));
             builder.addAll(tableMetricFactory(timerAsSummaryCollectorConstructor(), "ViewReadTime", "view_read_seconds", null));
 
-            builder.addAll(cache(tableMetricFactory(functionalCollectorConstructor(numericGaugeAsGauge()), "SnapshotsSize", "snapshots_size_bytes_total", null), 5, TimeUnit.MINUTES)); // TODO: maybe make caching configurable
+            builder.addAll(cache(tableMetricFactory(functionalCollectorConstructor(numericGaugeAsGauge()), "SnapshotsSize", "snapshots_size_bytes_total", null), 5, TimeUnit.MINUTES));
 
             builder.addAll(tableMetricFactory(TABLE_SCOPE, functionalCollectorConstructor(counterAsGauge()), "RowCacheHit", "row_cache_hits", null));
             builder.addAll(tableMetricFactory(KEYSPACE_NODE_SCOPE, functionalCollectorConstructor(numericGaugeAsGauge()), "RowCacheHit", "row_cache_hits", null));
@@ -802,6 +873,14 @@ public class FactoriesSupplier implements Supplier<List<Factory>> {
         }
 
 
-        return builder.build();
+        final List<Factory> factories = builder.build();
+
+        if (cacheTtls.isEmpty()) {
+            return factories;
+        }
+
+        // collectors that aren't cached by default may be cached via --cache-ttl
+        return ImmutableList.copyOf(Lists.transform(factories,
+                factory -> cachingFactories.contains(factory) ? factory : CachingCollector.cache(factory, cacheStatistics, null, cacheTtls)));
     }
 }
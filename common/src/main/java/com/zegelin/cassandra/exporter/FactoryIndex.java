@@ -0,0 +1,201 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.zegelin.cassandra.exporter.MBeanGroupMetricFamilyCollector.Factory;
+
+import javax.management.ObjectName;
+import javax.management.Query;
+import javax.management.QueryExp;
+import java.util.*;
+
+/**
+ * An index of {@link Factory}s keyed on the domain and the {@code type} and {@code name} key properties
+ * of their {@link Factory#objectNamePatterns()}.
+ *
+ * {@link #candidates(ObjectName)} returns only the factories that could possibly match a given MBean
+ * (in their original order), rather than every factory.
+ * Factories with a wildcard {@code name} are indexed on domain and {@code type} alone.
+ * Factories whose patterns are unknown, or are otherwise wildcards in the indexed components, are always candidates.
+ */
+public class FactoryIndex {
+    private static final String ABSENT = ""; // key property values may not be empty, hence this cannot clash
+
+    private static final class Key {
+        final String domain, type, name;
+
+        Key(final String domain, final String type, final String name) {
+            this.domain = domain;
+            this.type = type;
+            this.name = name;
+        }
+
+        static Key of(final ObjectName objectName) {
+            return new Key(objectName.getDomain(), keyProperty(objectName, "type"), keyProperty(objectName, "name"));
+        }
+
+        private static String keyProperty(final ObjectName objectName, final String key) {
+            final String value = objectName.getKeyProperty(key);
+
+            return value == null ? ABSENT : value;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return domain.equals(key.domain) && type.equals(key.type) && name.equals(key.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(domain, type, name);
+        }
+    }
+
+    private static final class IndexedFactory {
+        final int ordinal;
+        final Factory factory;
+
+        IndexedFactory(final int ordinal, final Factory factory) {
+            this.ordinal = ordinal;
+            this.factory = factory;
+        }
+    }
+
+    private final Map<Key, List<IndexedFactory>> indexedFactories = new HashMap<>();
+    private final Map<Key, List<IndexedFactory>> typeIndexedFactories = new HashMap<>(); // name is a wildcard
+    private final List<IndexedFactory> unindexedFactories = new ArrayList<>();
+
+    private final QueryExp query;
+
+    public FactoryIndex(final List<Factory> factories) {
+        final Set<ObjectName> allPatterns = new LinkedHashSet<>();
+        boolean allPatternsKnown = true;
+
+        for (int i = 0; i < factories.size(); i++) {
+            final IndexedFactory indexedFactory = new IndexedFactory(i, factories.get(i));
+            final Set<ObjectName> patterns = indexedFactory.factory.objectNamePatterns();
+
+            if (patterns == null) {
+                allPatternsKnown = false;
+
+            } else {
+                allPatterns.addAll(patterns);
+            }
+
+            if (patterns == null || !patterns.stream().allMatch(p -> isExact(p, "type"))) {
+                unindexedFactories.add(indexedFactory);
+                continue;
+            }
+
+            for (final ObjectName pattern : patterns) {
+                if (isExact(pattern, "name")) {
+                    addToBucket(indexedFactories, Key.of(pattern), indexedFactory);
+
+                } else {
+                    addToBucket(typeIndexedFactories, typeKey(pattern), indexedFactory);
+                }
+            }
+        }
+
+        this.query = (allPatternsKnown && !allPatterns.isEmpty() ? or(new ArrayList<>(allPatterns)) : null);
+    }
+
+    /**
+     * @return a balanced tree of {@link Query#or}s, as a deep, unbalanced tree may overflow the stack when serialized.
+     */
+    private static QueryExp or(final List<ObjectName> patterns) {
+        if (patterns.size() == 1) {
+            return patterns.get(0);
+        }
+
+        final int middle = patterns.size() / 2;
+
+        return Query.or(or(patterns.subList(0, middle)), or(patterns.subList(middle, patterns.size())));
+    }
+
+    /**
+     * @return a query that matches every MBean that any of the factories may match, suitable for evaluation by a (remote)
+     * MBean server, or null if the patterns of one or more factories are unknown.
+     */
+    public QueryExp query() {
+        return query;
+    }
+
+    private static Key typeKey(final ObjectName objectName) {
+        return new Key(objectName.getDomain(), Key.keyProperty(objectName, "type"), ABSENT);
+    }
+
+    private static void addToBucket(final Map<Key, List<IndexedFactory>> index, final Key key, final IndexedFactory indexedFactory) {
+        final List<IndexedFactory> bucket = index.computeIfAbsent(key, k -> new ArrayList<>());
+
+        // a factory may have multiple patterns that share a key
+        if (bucket.isEmpty() || bucket.get(bucket.size() - 1) != indexedFactory) {
+            bucket.add(indexedFactory);
+        }
+    }
+
+    /**
+     * @return true if the domain and the given key property of the pattern are exact (i.e., not wildcards).
+     */
+    private static boolean isExact(final ObjectName pattern, final String key) {
+        if (pattern.isDomainPattern()) {
+            return false;
+        }
+
+        if (pattern.getKeyProperty(key) == null) {
+            // if the key isn't part of the pattern, for a property list pattern it may or may not be present, otherwise it must be absent
+            return !pattern.isPropertyListPattern();
+        }
+
+        return !pattern.isPropertyValuePattern(key);
+    }
+
+    /**
+     * @return the {@link Factory}s that may create a collector for the named MBean, in their original order.
+     */
+    public List<Factory> candidates(final ObjectName mBeanName) {
+        final List<IndexedFactory> indexed = indexedFactories.getOrDefault(Key.of(mBeanName), Collections.emptyList());
+        final List<IndexedFactory> typeIndexed = typeIndexedFactories.getOrDefault(typeKey(mBeanName), Collections.emptyList());
+
+        // merge the (ordinal-ordered) lists to preserve the original factory order
+        final List<IndexedFactory> merged = merge(merge(indexed, typeIndexed), unindexedFactories);
+
+        final ImmutableList.Builder<Factory> builder = ImmutableList.builder();
+        for (final IndexedFactory indexedFactory : merged) {
+            builder.add(indexedFactory.factory);
+        }
+
+        return builder.build();
+    }
+
+    private static List<IndexedFactory> merge(final List<IndexedFactory> a, final List<IndexedFactory> b) {
+        if (a.isEmpty()) {
+            return b;
+        }
+
+        if (b.isEmpty()) {
+            return a;
+        }
+
+        final List<IndexedFactory> merged = new ArrayList<>(a.size() + b.size());
+
+        int i = 0, j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j == b.size() || (i < a.size() && a.get(i).ordinal < b.get(j).ordinal)) {
+                merged.add(a.get(i++));
+
+            } else if (i == a.size() || b.get(j).ordinal < a.get(i).ordinal) {
+                merged.add(b.get(j++));
+
+            } else {
+                // the same factory may be indexed under both keys
+                merged.add(a.get(i++));
+                j++;
+            }
+        }
+
+        return merged;
+    }
+}
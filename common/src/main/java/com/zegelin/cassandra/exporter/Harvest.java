@@ -0,0 +1,79 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.zegelin.prometheus.domain.MetricFamily;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * The {@link MetricFamily}s produced by a run of the {@link Harvester}'s collectors, and the time at which they were collected.
+ *
+ * A live harvest wraps the lazily evaluated {@link Stream} returned by {@link Harvester#collect()} and may only be consumed once.
+ * A snapshot harvest holds fully materialised {@link MetricFamily}s and may be consumed any number of times, concurrently.
+ */
+public final class Harvest {
+    public final Instant timestamp;
+
+    private final Supplier<Stream<MetricFamily>> metricFamiliesSupplier;
+    private final Supplier<Stream<MetricFamily>> perRequestMetricFamiliesSupplier;
+    private final boolean isSnapshot;
+    private final Object generation;
+
+    private Harvest(final Instant timestamp, final Supplier<Stream<MetricFamily>> metricFamiliesSupplier,
+                    final Supplier<Stream<MetricFamily>> perRequestMetricFamiliesSupplier, final boolean isSnapshot, final Object generation) {
+        this.timestamp = timestamp;
+        this.metricFamiliesSupplier = metricFamiliesSupplier;
+        this.perRequestMetricFamiliesSupplier = perRequestMetricFamiliesSupplier;
+        this.isSnapshot = isSnapshot;
+        this.generation = (generation == null ? this : generation);
+    }
+
+    static Harvest live(final Instant timestamp, final Stream<MetricFamily> metricFamilies) {
+        return new Harvest(timestamp, () -> metricFamilies, Stream::empty, false, null);
+    }
+
+    static Harvest snapshot(final Instant timestamp, final List<MetricFamily> metricFamilies) {
+        final List<MetricFamily> immutableMetricFamilies = ImmutableList.copyOf(metricFamilies);
+
+        return new Harvest(timestamp, immutableMetricFamilies::stream, Stream::empty, true, null);
+    }
+
+    /**
+     * @return a new {@link Harvest} with the same timestamp and generation that also includes the given {@link MetricFamily}s,
+     * which are evaluated each time the harvest is consumed.
+     * As they may differ from one request to the next, they are excluded from {@link #generationMetricFamilies()}.
+     */
+    Harvest withPerRequestMetricFamilies(final Supplier<Stream<MetricFamily>> perRequestMetricFamiliesSupplier) {
+        return new Harvest(timestamp, metricFamiliesSupplier, perRequestMetricFamiliesSupplier, isSnapshot, generation);
+    }
+
+    public boolean isSnapshot() {
+        return isSnapshot;
+    }
+
+    /**
+     * @return an identity token shared by this {@link Harvest} and all harvests derived from it via
+     * {@link #withPerRequestMetricFamilies(Supplier)}. Compare by reference.
+     */
+    public Object generation() {
+        return generation;
+    }
+
+    /**
+     * @return all {@link MetricFamily}s of this harvest
+     */
+    public Stream<MetricFamily> metricFamilies() {
+        return Stream.concat(metricFamiliesSupplier.get(), perRequestMetricFamiliesSupplier.get());
+    }
+
+    /**
+     * @return the {@link MetricFamily}s that are the same for every harvest of this {@link #generation()}, i.e., excluding
+     * per-request metric families. Suitable for caching the exposition of.
+     */
+    public Stream<MetricFamily> generationMetricFamilies() {
+        return metricFamiliesSupplier.get();
+    }
+}
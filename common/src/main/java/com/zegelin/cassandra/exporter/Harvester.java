@@ -1,12 +1,15 @@
 package com.zegelin.cassandra.exporter;
 
-import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.net.InetAddresses;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zegelin.jmx.NamedObject;
 import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.cassandra.exporter.collector.CachingCollector;
+import com.zegelin.cassandra.exporter.jfr.CollectionEvent;
+import com.zegelin.cassandra.exporter.jfr.Events;
 import com.zegelin.prometheus.domain.CounterMetricFamily;
+import com.zegelin.prometheus.domain.GaugeMetricFamily;
 import com.zegelin.prometheus.domain.Labels;
 import com.zegelin.prometheus.domain.MetricFamily;
 import com.zegelin.prometheus.domain.NumericMetric;
@@ -15,18 +18,32 @@ import org.slf4j.LoggerFactory;
 
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import javax.management.QueryExp;
 import java.net.InetAddress;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.millisecondsToSeconds;
 import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.nanosecondsToSeconds;
 
-public abstract class Harvester {
+public abstract class Harvester implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(Harvester.class);
 
     public enum GlobalLabel implements LabelEnum {
@@ -120,91 +137,274 @@ public abstract class Harvester {
     }
 
     private final List<MBeanGroupMetricFamilyCollector.Factory> collectorFactories;
+    private volatile FactoryIndex collectorFactoryIndex;
 
     private final MetadataFactory metadataFactory;
 
 
-    private final Map<String, MBeanGroupMetricFamilyCollector> mBeanCollectorsByName = new ConcurrentHashMap<>();
-    private final Map<ObjectName, String> mBeanNameToCollectorNameMap = new ConcurrentHashMap<>();
+    private final CollectorRegistry collectorRegistry = new CollectorRegistry();
+    private final CachingCollector.Statistics cacheStatistics = new CachingCollector.Statistics();
 
     private final Set<Exclusion> exclusions;
     private final Set<GlobalLabel> enabledGlobalLabels;
 
     private final boolean collectorTimingEnabled;
-    private final Map<String, Stopwatch> collectionTimes = new ConcurrentHashMap<>();
+    private final ExporterMetrics exporterMetrics = new ExporterMetrics();
 
     private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
             .setNameFormat("cassandra-exporter-harvester-defer-%d")
             .setDaemon(true)
             .build());
 
+    private static final long REGISTRATION_DEFERRAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // additional delay before draining so that changes that arrive in a burst are applied in the same batch
+    private static final long REGISTRATION_BATCH_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final Queue<PendingChange> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingChangeCount = new AtomicInteger();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private final LongAdder registrationCount = new LongAdder();
+    private final LongAdder unregistrationCount = new LongAdder();
+    private final LongAdder registrationBatchCount = new LongAdder();
+    private final LongAdder registrationBatchTimeNanos = new LongAdder();
+
+    private volatile Harvest latestSnapshot;
+
+    // null if background harvesting is disabled
+    private final ScheduledExecutorService harvestExecutorService;
+
+    // how long close() waits for an in-progress background harvest to complete
+    private static final long HARVEST_SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private volatile Labels globalLabels;
+
+    private static final class CoalescedHarvest {
+        final CompletableFuture<Harvest> future = new CompletableFuture<>();
+        volatile long completedAtNanos;
+    }
+
+    private final long coalescingWindowNanos;
+    private final AtomicReference<CoalescedHarvest> coalescedHarvest = new AtomicReference<>();
+
+    /**
+     * Per-collector state for deadline-bound collections.
+     */
+    private static final class CollectorState {
+        // a collection that has yet to complete, possibly started by a previous (timed-out) harvest
+        volatile CompletableFuture<List<MetricFamily>> inFlight;
+        // the result of the most recently completed collection, served when a collection doesn't complete in time
+        volatile List<MetricFamily> lastResult;
+
+        final LongAdder timeoutCount = new LongAdder();
+    }
+
+    private final Duration defaultCollectionTimeout;
+    private final long scrapeTimeoutMarginMillis;
+
+    private final Map<String, CollectorState> collectorStates = new ConcurrentHashMap<>();
+
+    private final ExecutorService collectorExecutorService = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactoryBuilder()
+            .setNameFormat("cassandra-exporter-harvester-collector-%d")
+            .setDaemon(true)
+            .build());
+
+    // runs the collections that requests wait on (see harvestAsync), so that callers, such as the HTTP event loop, aren't blocked
+    private final ExecutorService requestExecutorService = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("cassandra-exporter-harvester-request-%d")
+            .setDaemon(true)
+            .build());
+
 
     protected Harvester(final MetadataFactory metadataFactory, final HarvesterOptions options) {
-        this.collectorFactories = new ArrayList<>(new FactoriesSupplier(metadataFactory, options).get());
+        this.collectorFactories = new ArrayList<>(new FactoriesSupplier(metadataFactory, options, cacheStatistics).get());
+        this.collectorFactoryIndex = new FactoryIndex(collectorFactories);
         this.metadataFactory = metadataFactory;
         this.exclusions = options.exclusions;
         this.enabledGlobalLabels = options.globalLabels;
         this.collectorTimingEnabled = options.collectorTimingEnabled;
+        this.coalescingWindowNanos = (options.scrapeCoalescingWindowInMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(options.scrapeCoalescingWindowInMillis));
+        this.defaultCollectionTimeout = (options.scrapeTimeoutInSeconds > 0 ? Duration.ofMillis((long) (options.scrapeTimeoutInSeconds * 1000)) : null);
+        this.scrapeTimeoutMarginMillis = options.scrapeTimeoutMarginInMillis;
+
+        if (options.harvestIntervalInSeconds > 0) {
+            this.harvestExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("cassandra-exporter-harvester-snapshot-%d")
+                    .setDaemon(true)
+                    .build());
+
+            // the first snapshot is delayed by one interval to give deferred MBean registrations a chance to complete.
+            // until then, scrapes fall back to collecting on request.
+            harvestExecutorService.scheduleWithFixedDelay(this::harvestSnapshot,
+                    options.harvestIntervalInSeconds, options.harvestIntervalInSeconds, TimeUnit.SECONDS);
+
+        } else {
+            this.harvestExecutorService = null;
+        }
+    }
+
+    /**
+     * Stop background harvesting and the application of deferred MBean registrations, and release the Harvester's threads.
+     * An in-progress background harvest is given up to {@link #HARVEST_SHUTDOWN_TIMEOUT_SECONDS} to complete.
+     *
+     * The most recent snapshot, if any, continues to be served by {@link #harvest()}.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (harvestExecutorService != null) {
+            harvestExecutorService.shutdown();
+
+            if (!harvestExecutorService.awaitTermination(HARVEST_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Background harvest didn't complete within {} seconds of shutdown.", HARVEST_SHUTDOWN_TIMEOUT_SECONDS);
+                harvestExecutorService.shutdownNow();
+            }
+        }
+
+        scheduledExecutorService.shutdownNow();
+        requestExecutorService.shutdownNow();
+        collectorExecutorService.shutdownNow();
     }
 
     protected void addCollectorFactory(final MBeanGroupMetricFamilyCollector.Factory factory) {
         collectorFactories.add(factory);
+        collectorFactoryIndex = new FactoryIndex(collectorFactories);
     }
 
 
-    private void defer(final Runnable runnable) {
-        scheduledExecutorService.schedule(runnable, 1, TimeUnit.SECONDS);
+    private static final class PendingChange {
+        final ObjectName name;
+        final Object mBean; // null for unregistrations
+        final long enqueuedAtNanos = System.nanoTime();
+
+        PendingChange(final ObjectName name, final Object mBean) {
+            this.name = name;
+            this.mBean = mBean;
+        }
+
+        boolean isRegistration() {
+            return mBean != null;
+        }
     }
 
+    /**
+     * @return a query that matches every MBean the collector factories may create collectors for, or null if unknown.
+     */
+    protected QueryExp collectorFactoriesQuery() {
+        return collectorFactoryIndex.query();
+    }
 
-    protected void registerMBean(final Object mBean, final ObjectName name) {
-        if (isExcluded(name)) {
-            return;
+    private void enqueue(final PendingChange change) {
+        pendingChanges.add(change);
+        pendingChangeCount.incrementAndGet();
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            scheduledExecutorService.schedule(this::drainPendingChanges, REGISTRATION_DEFERRAL_NANOS + REGISTRATION_BATCH_WINDOW_NANOS, TimeUnit.NANOSECONDS);
         }
+    }
 
-        // Defer the creation/registration of the collector.
-        // For newly created tables, Cassandra registers the metric MBeans for tables before the table is registered with the
-        // internal Schema. As a result, when run as an agent, registerMBean will be called during table creation
-        // and table metadata lookups in the factory will fail because the table doesn't yet exist in the Schema.
-        defer(() -> {
-            final NamedObject<Object> namedMBean = new NamedObject<>(name, mBean);
+    /**
+     * Apply, as a single batch, all pending changes that have been deferred for at least {@link #REGISTRATION_DEFERRAL_NANOS},
+     * then reschedule for the remainder, if any.
+     */
+    private void drainPendingChanges() {
+        try {
+            final long deadline = System.nanoTime() - REGISTRATION_DEFERRAL_NANOS;
+            final List<PendingChange> batch = new ArrayList<>();
+
+            PendingChange head;
+            while ((head = pendingChanges.peek()) != null && head.enqueuedAtNanos - deadline <= 0) {
+                batch.add(pendingChanges.poll());
+            }
+
+            if (!batch.isEmpty()) {
+                final long startNanos = System.nanoTime();
 
-            for (final MBeanGroupMetricFamilyCollector.Factory factory : collectorFactories) {
                 try {
-                    final MBeanGroupMetricFamilyCollector collector = factory.createCollector(namedMBean);
+                    applyChanges(batch);
 
-                    if (collector == null) {
-                        continue;
-                    }
+                } finally {
+                    registrationBatchCount.increment();
+                    registrationBatchTimeNanos.add(System.nanoTime() - startNanos);
+                    pendingChangeCount.addAndGet(-batch.size());
+                }
+            }
 
-                    if (isExcluded(collector)) {
-                        logger.debug("Skipping registration of collector {} for MBean {} as it matches an exclusion rule.", collector.name(), name);
-                        continue;
-                    }
+        } catch (final Exception e) {
+            // swallow, otherwise the remaining changes are never applied
+            logger.warn("Failed to apply pending MBean registrations.", e);
 
-                    logger.debug("Registering collector {} for MBean {}.", collector.name(), name);
+        } finally {
+            drainScheduled.set(false);
 
-                    mBeanCollectorsByName.merge(collector.name(), collector, MBeanGroupMetricFamilyCollector::merge);
-                    mBeanNameToCollectorNameMap.put(name, collector.name());
+            final PendingChange head = pendingChanges.peek();
 
-                } catch (final Exception e) {
-                    logger.warn("Failed to register collector for MBean {}.", name, e);
-                }
+            if (head != null && drainScheduled.compareAndSet(false, true)) {
+                final long delayNanos = Math.max(0, head.enqueuedAtNanos + REGISTRATION_DEFERRAL_NANOS + REGISTRATION_BATCH_WINDOW_NANOS - System.nanoTime());
+
+                scheduledExecutorService.schedule(this::drainPendingChanges, delayNanos, TimeUnit.NANOSECONDS);
             }
-        });
+        }
     }
 
-    protected void unregisterMBean(final ObjectName mBeanName) {
-        final String collectorName = mBeanNameToCollectorNameMap.get(mBeanName);
+    /**
+     * Applies the changes in order. Each registration is run through the collector factories once, and each resulting
+     * collector is merged into the registry on its own, so that a collector that fails to merge (e.g., due to duplicate
+     * labels) doesn't prevent the registration of, or leave partially registered, the other MBeans in the batch.
+     */
+    private void applyChanges(final List<PendingChange> changes) {
+        for (final PendingChange change : changes) {
+            if (change.isRegistration()) {
+                registerCollectors(new NamedObject<>(change.name, change.mBean));
+                registrationCount.increment();
+
+            } else {
+                collectorRegistry.unregister(change.name);
+                unregistrationCount.increment();
+            }
+        }
+    }
+
+    private void registerCollectors(final NamedObject<Object> namedMBean) {
+        final ObjectName name = namedMBean.name;
+
+        for (final MBeanGroupMetricFamilyCollector.Factory factory : collectorFactoryIndex.candidates(name)) {
+            try {
+                final MBeanGroupMetricFamilyCollector collector = factory.createCollector(namedMBean);
+
+                if (collector == null) {
+                    continue;
+                }
+
+                if (isExcluded(collector)) {
+                    logger.debug("Skipping registration of collector {} for MBean {} as it matches an exclusion rule.", collector.name(), name);
+                    continue;
+                }
 
-        if (collectorName == null) {
-            // no harvester registered
+                logger.debug("Registering collector {} for MBean {}.", collector.name(), name);
+
+                collectorRegistry.register(name, collector);
+
+            } catch (final Exception e) {
+                logger.warn("Failed to register collector for MBean {}.", name, e);
+            }
+        }
+    }
+
+    protected void registerMBean(final Object mBean, final ObjectName name) {
+        if (isExcluded(name)) {
             return;
         }
 
-        defer(() -> {
-            mBeanCollectorsByName.compute(collectorName, (k, v) -> v.removeMBean(mBeanName));
-        });
+        // Defer the creation/registration of the collector.
+        // For newly created tables, Cassandra registers the metric MBeans for tables before the table is registered with the
+        // internal Schema. As a result, when run as an agent, registerMBean will be called during table creation
+        // and table metadata lookups in the factory will fail because the table doesn't yet exist in the Schema.
+        enqueue(new PendingChange(name, mBean));
+    }
+
+    protected void unregisterMBean(final ObjectName mBeanName) {
+        // deferred, like registration, so that it is ordered after any pending registration of the same MBean
+        enqueue(new PendingChange(mBeanName, null));
     }
 
     private boolean isExcluded(final ObjectName objectName) {
@@ -226,59 +426,379 @@ public abstract class Harvester {
     }
 
     public Stream<MetricFamily> collect() {
-        final Stream<MetricFamily> metricFamilies = mBeanCollectorsByName.entrySet().parallelStream().flatMap((e) -> {
-            final Stopwatch stopwatch = (collectorTimingEnabled ?
-                    collectionTimes.computeIfAbsent(e.getKey(), (k) -> Stopwatch.createUnstarted()) :
-                    null);
+        return collect(MetricFamilyFilter.ALL);
+    }
 
-            try {
-                if (stopwatch != null) {
-                    stopwatch.start();
-                }
+    public Stream<MetricFamily> collect(final MetricFamilyFilter filter) {
+        return collect(filter, defaultCollectionTimeout);
+    }
+
+    private static boolean isSelected(final MBeanGroupMetricFamilyCollector collector, final MetricFamilyFilter filter) {
+        if (filter.isAll()) {
+            return true;
+        }
+
+        final Set<String> metricFamilyNames = collector.metricFamilyNames();
+
+        return metricFamilyNames == null || filter.selectsAny(metricFamilyNames);
+    }
+
+    /**
+     * @return true if the named MBean contributes to any collector that would be run when collecting with {@param filter}
+     */
+    protected boolean isCollected(final ObjectName mBeanName, final MetricFamilyFilter filter) {
+        return filter.isAll() || collectorRegistry.collectorsForMBean(mBeanName).stream().anyMatch(c -> isSelected(c, filter));
+    }
+
+    private Stream<MetricFamily> collect(final String collectorName, final MBeanGroupMetricFamilyCollector collector) {
+        try {
+            final CollectionEvent event = Events.beginCollection();
+
+            if (!collectorTimingEnabled && event == null) {
+                return collector.collect();
+            }
+
+            final long startNanos = System.nanoTime();
+            final long startAllocatedBytes = (collectorTimingEnabled ? ExporterMetrics.currentThreadAllocatedBytes() : -1);
+
+            // call cache (collect sub-streams) and collect to time the actual collection
+            final List<MetricFamily> metricFamilies = collector.collect().map(MetricFamily::cachedCopy).collect(Collectors.toList());
+
+            if (collectorTimingEnabled) {
+                final long durationNanos = System.nanoTime() - startNanos;
+                final long allocatedBytes = (startAllocatedBytes < 0 ? -1 : ExporterMetrics.currentThreadAllocatedBytes() - startAllocatedBytes);
+
+                exporterMetrics.recordCollection(collectorName, durationNanos, allocatedBytes, metricFamilies);
+            }
+
+            if (event != null) {
+                event.collector = collectorName;
+                event.metricFamilies = metricFamilies.size();
+                event.series = metricFamilies.stream().mapToLong(f -> f.metrics().count()).sum();
+                event.commit();
+            }
+
+            return metricFamilies.stream();
+
+        } catch (final Exception exception) {
+            logger.warn("Metrics collector {} failed to collect. Skipping.", collectorName, exception);
+
+            return Stream.empty();
+        }
+    }
 
-                final Stream<MetricFamily> metricFamilyStream = e.getValue().collect();
+    /**
+     * Start collecting from the collector on the collector thread pool, unless a previous collection is still in progress,
+     * in which case it is returned instead so that a stalled collector never ties up more than one thread.
+     * The result is retained once complete, even if nobody waited for it.
+     */
+    private CompletableFuture<List<MetricFamily>> collectAsync(final String collectorName, final MBeanGroupMetricFamilyCollector collector) {
+        final CollectorState state = collectorStates.computeIfAbsent(collectorName, k -> new CollectorState());
 
-                if (collectorTimingEnabled) {
-                    // call cache (collect sub-streams) and collect to time the actual collection
-                    return metricFamilyStream.map(MetricFamily::cachedCopy).collect(Collectors.toList()).stream();
+        synchronized (state) {
+            final CompletableFuture<List<MetricFamily>> inFlight = state.inFlight;
+
+            if (inFlight != null) {
+                return inFlight;
+            }
 
-                } else {
-                    return metricFamilyStream;
+            final CompletableFuture<List<MetricFamily>> future = CompletableFuture.supplyAsync(() ->
+                    collect(collectorName, collector).map(MetricFamily::cachedCopy).collect(Collectors.toList()), collectorExecutorService);
+
+            state.inFlight = future;
+
+            future.whenComplete((result, throwable) -> {
+                synchronized (state) {
+                    if (result != null) {
+                        state.lastResult = result;
+                    }
+
+                    state.inFlight = null;
                 }
+            });
+
+            return future;
+        }
+    }
+
+    /**
+     * Collect from all selected collectors in parallel, returning what completed by the deadline.
+     * Collectors that didn't complete in time are counted, and their previous result (if any) is returned instead.
+     */
+    private Stream<MetricFamily> collectWithDeadline(final Map<String, MBeanGroupMetricFamilyCollector> collectors, final long deadlineNanos) {
+        final Map<String, CompletableFuture<List<MetricFamily>>> futures = new LinkedHashMap<>();
+        collectors.forEach((name, collector) -> futures.put(name, collectAsync(name, collector)));
+
+        final List<MetricFamily> metricFamilies = new ArrayList<>();
 
-            } catch (final Exception exception) {
-                logger.warn("Metrics collector {} failed to collect. Skipping.", e.getKey(), exception);
+        for (final Map.Entry<String, CompletableFuture<List<MetricFamily>>> future : futures.entrySet()) {
+            try {
+                metricFamilies.addAll(future.getValue().get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS));
+
+            } catch (final TimeoutException e) {
+                final CollectorState state = collectorStates.get(future.getKey());
+                state.timeoutCount.increment();
 
-                return Stream.empty();
+                final List<MetricFamily> lastResult = state.lastResult;
 
-            } finally {
-                if (stopwatch != null) {
-                    stopwatch.stop();
+                logger.debug("Metrics collector {} didn't complete in time. {}", future.getKey(),
+                        lastResult != null ? "Using the previous result." : "Skipping.");
+
+                if (lastResult != null) {
+                    metricFamilies.addAll(lastResult);
                 }
+
+            } catch (final ExecutionException e) {
+                logger.warn("Metrics collector {} failed to collect. Skipping.", future.getKey(), e.getCause());
+
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                break;
             }
-        });
+        }
 
-        if (collectorTimingEnabled) {
-            return Stream.concat(metricFamilies, collectTimings());
+        return metricFamilies.stream();
+    }
+
+    /**
+     * Collect only the metric families selected by {@param filter}.
+     * Collectors that don't produce any selected metric families are not run.
+     *
+     * If {@param timeout} is non-null, collectors are run in parallel and only those that complete within it are included
+     * (see {@link #collectWithDeadline}). Otherwise collection is lazy, and happens as the returned stream is consumed.
+     */
+    public Stream<MetricFamily> collect(final MetricFamilyFilter filter, final Duration timeout) {
+        final Stream<MetricFamily> metricFamilies;
+
+        if (timeout != null) {
+            final long deadlineNanos = System.nanoTime() + timeout.toNanos();
+
+            final Map<String, MBeanGroupMetricFamilyCollector> collectors = new LinkedHashMap<>();
+            collectorRegistry.collectors().forEach((name, collector) -> {
+                if (isSelected(collector, filter)) {
+                    collectors.put(name, collector);
+                }
+            });
+
+            metricFamilies = collectWithDeadline(collectors, deadlineNanos);
 
         } else {
-            return metricFamilies;
+            metricFamilies = collectorRegistry.collectors().entrySet().parallelStream()
+                    .filter(e -> isSelected(e.getValue(), filter))
+                    .flatMap(e -> collect(e.getKey(), e.getValue()));
+        }
+
+        Stream<MetricFamily> exporterMetricFamilies = Stream.concat(metricFamilies, collectRegistrationMetrics());
+        exporterMetricFamilies = Stream.concat(exporterMetricFamilies, collectTimeouts());
+        exporterMetricFamilies = Stream.concat(exporterMetricFamilies, cacheStatistics.collect());
+
+        if (collectorTimingEnabled) {
+            exporterMetricFamilies = Stream.concat(exporterMetricFamilies, collectTimings());
         }
+
+        if (filter.isAll()) {
+            return exporterMetricFamilies;
+        }
+
+        // the exporter's own metrics, and those of collectors with unknown metric family names, are filtered after collection
+        return exporterMetricFamilies.filter(f -> filter.test(f.name));
     }
 
-    private Stream<MetricFamily> collectTimings() {
-        final Stream<NumericMetric> timingMetrics = collectionTimes.entrySet().stream()
-                .map(e -> new Object() {
-                    final String metricFamilyName = e.getKey();
-                    final long cumulativeCollectionTime = e.getValue().elapsed(TimeUnit.NANOSECONDS);
-                })
-                .map(e -> new NumericMetric(Labels.of("collector", e.metricFamilyName), nanosecondsToSeconds(e.cumulativeCollectionTime)));
+    private void harvestSnapshot() {
+        try {
+            final Instant timestamp = Instant.now();
+            final List<MetricFamily> metricFamilies = collect().map(MetricFamily::cachedCopy).collect(Collectors.toList());
+
+            latestSnapshot = Harvest.snapshot(timestamp, metricFamilies);
+
+        } catch (final Exception e) {
+            // swallow, otherwise the scheduled executor will cancel all future harvests
+            logger.warn("Failed to harvest metrics snapshot.", e);
+        }
+    }
+
+    /**
+     * @return the most recent background snapshot, if background harvesting is enabled and a snapshot is available,
+     * otherwise a coalesced snapshot shared with concurrent callers, if scrape coalescing is enabled,
+     * otherwise a live {@link Harvest} that collects on demand.
+     */
+    public Harvest harvest() {
+        return harvest(MetricFamilyFilter.ALL, null);
+    }
+
+    /**
+     * @return the collection timeout for a scrape with the given timeout, or the default if the scrape timeout is unknown.
+     * Part of the scrape timeout is reserved for exposition.
+     */
+    private Duration collectionTimeout(final Duration scrapeTimeout) {
+        if (scrapeTimeout == null || scrapeTimeoutMarginMillis < 0) {
+            return defaultCollectionTimeout;
+        }
+
+        final long scrapeTimeoutMillis = scrapeTimeout.toMillis();
+
+        return Duration.ofMillis(Math.max(scrapeTimeoutMillis - scrapeTimeoutMarginMillis, scrapeTimeoutMillis / 2));
+    }
+
+    /**
+     * As per {@link #harvest()}, but only of the metric families selected by {@param filter}.
+     * If a background snapshot is available it is filtered, otherwise only the selected collectors are run.
+     * Filtered harvests are specific to the request and are neither coalesced nor cacheable.
+     *
+     * @param scrapeTimeout the time the requester will wait for the response, or null if unknown.
+     *                      Collectors that don't complete in time are skipped (see {@link #collect(MetricFamilyFilter, Duration)}).
+     */
+    public Harvest harvest(final MetricFamilyFilter filter, final Duration scrapeTimeout) {
+        try {
+            return harvestAsync(filter, scrapeTimeout).join();
+
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * As per {@link #harvest(MetricFamilyFilter, Duration)}, but without blocking the caller.
+     *
+     * Harvests that can be served immediately (background snapshots, recently completed coalesced harvests, and live
+     * harvests without a collection timeout) are returned already complete. Coalesced and deadline-bound collections run
+     * on a separate thread, and callers that arrive while a coalesced collection is in progress share its future.
+     */
+    public CompletableFuture<Harvest> harvestAsync(final MetricFamilyFilter filter, final Duration scrapeTimeout) {
+        final Harvest snapshot = latestSnapshot;
+
+        if (snapshot != null) {
+            if (filter.isAll()) {
+                return CompletableFuture.completedFuture(snapshot.withPerRequestMetricFamilies(() -> collectSnapshotAge(snapshot)));
+            }
+
+            final Stream<MetricFamily> metricFamilies = Stream.concat(snapshot.metricFamilies(), collectSnapshotAge(snapshot))
+                    .filter(f -> filter.test(f.name));
+
+            return CompletableFuture.completedFuture(Harvest.live(snapshot.timestamp, metricFamilies));
+        }
+
+        final Duration timeout = collectionTimeout(scrapeTimeout);
+
+        if (filter.isAll() && coalescingWindowNanos >= 0) {
+            return coalescedHarvest(timeout);
+        }
+
+        if (timeout != null) {
+            // deadline-bound collection blocks until the deadline, so is run off the caller's thread
+            return CompletableFuture.supplyAsync(() -> Harvest.live(Instant.now(), collect(filter, timeout)), requestExecutorService);
+        }
+
+        return CompletableFuture.completedFuture(Harvest.live(Instant.now(), collect(filter, timeout)));
+    }
+
+    private boolean isReusable(final CoalescedHarvest harvest) {
+        if (!harvest.future.isDone()) {
+            return true; // in-flight -- join it
+        }
+
+        if (harvest.future.isCompletedExceptionally()) {
+            return false;
+        }
+
+        return (System.nanoTime() - harvest.completedAtNanos) <= coalescingWindowNanos;
+    }
+
+    /**
+     * Single-flight collection: callers that arrive while a collection is in progress share its future.
+     * A completed result continues to be shared with callers that arrive within the coalescing window.
+     */
+    private CompletableFuture<Harvest> coalescedHarvest(final Duration timeout) {
+        while (true) {
+            final CoalescedHarvest current = coalescedHarvest.get();
+
+            if (current != null && isReusable(current)) {
+                return current.future;
+            }
+
+            final CoalescedHarvest next = new CoalescedHarvest();
+
+            if (!coalescedHarvest.compareAndSet(current, next)) {
+                continue; // another caller started a collection first -- join it
+            }
+
+            requestExecutorService.execute(() -> {
+                try {
+                    final Instant timestamp = Instant.now();
+                    final List<MetricFamily> metricFamilies = collect(MetricFamilyFilter.ALL, timeout).map(MetricFamily::cachedCopy).collect(Collectors.toList());
+
+                    next.completedAtNanos = System.nanoTime();
+                    next.future.complete(Harvest.snapshot(timestamp, metricFamilies));
+
+                } catch (final RuntimeException e) {
+                    // callers already waiting fail, later callers start another collection
+                    next.future.completeExceptionally(e);
+                }
+            });
+
+            return next.future;
+        }
+    }
+
+    private Stream<MetricFamily> collectSnapshotAge(final Harvest snapshot) {
+        final long ageMillis = Duration.between(snapshot.timestamp, Instant.now()).toMillis();
+
+        return Stream.of(
+                new GaugeMetricFamily("cassandra_exporter_harvest_age_seconds", "Age of the metrics snapshot being served.",
+                        Stream.of(new NumericMetric(Labels.of(), millisecondsToSeconds(ageMillis))))
+        );
+    }
+
+    private Stream<MetricFamily> collectRegistrationMetrics() {
+        return Stream.of(
+                new GaugeMetricFamily("cassandra_exporter_mbean_registration_queue_depth", "Number of MBean registrations and unregistrations waiting to be, or being, applied.",
+                        Stream.of(new NumericMetric(Labels.of(), pendingChangeCount.get()))),
+                new CounterMetricFamily("cassandra_exporter_mbean_registrations_total", "Total number of MBean registrations and unregistrations applied.",
+                        Stream.of(
+                                new NumericMetric(Labels.of("operation", "register"), registrationCount.sum()),
+                                new NumericMetric(Labels.of("operation", "unregister"), unregistrationCount.sum())
+                        )),
+                new CounterMetricFamily("cassandra_exporter_mbean_registration_batches_total", "Total number of batches of MBean registrations applied.",
+                        Stream.of(new NumericMetric(Labels.of(), registrationBatchCount.sum()))),
+                new CounterMetricFamily("cassandra_exporter_mbean_registration_batch_time_seconds_total", "Cumulative time taken to apply batches of MBean registrations.",
+                        Stream.of(new NumericMetric(Labels.of(), nanosecondsToSeconds(registrationBatchTimeNanos.sum()))))
+        );
+    }
+
+    private Stream<MetricFamily> collectTimeouts() {
+        final List<NumericMetric> timeoutMetrics = collectorStates.entrySet().stream()
+                .filter(e -> e.getValue().timeoutCount.sum() > 0)
+                .map(e -> new NumericMetric(Labels.of("collector", e.getKey()), e.getValue().timeoutCount.sum()))
+                .collect(Collectors.toList());
+
+        // omitted until a collector has timed out, rather than exposed without any series
+        if (timeoutMetrics.isEmpty()) {
+            return Stream.empty();
+        }
 
         return Stream.of(
-                new CounterMetricFamily("cassandra_exporter_collection_time_seconds_total", "Cumulative time taken to run each metrics collector.", timingMetrics)
+                new CounterMetricFamily("cassandra_exporter_collector_timeouts_total", "Total number of times each metrics collector didn't complete within the collection timeout.", timeoutMetrics.stream())
         );
     }
 
+    private Stream<MetricFamily> collectTimings() {
+        return Stream.of(
+                new CounterMetricFamily("cassandra_exporter_collection_time_seconds_total", "Cumulative time taken to run each metrics collector.", exporterMetrics.collectorTimeSeconds())
+        );
+    }
+
+    /**
+     * @return metrics about the cost of collection and exposition (see {@link ExporterMetrics})
+     */
+    public ExporterMetrics exporterMetrics() {
+        return exporterMetrics;
+    }
+
     public Labels globalLabels() {
         final InetAddress localBroadcastAddress = metadataFactory.localBroadcastAddress();
         final MetadataFactory.EndpointMetadata localMetadata = metadataFactory.endpointMetadata(localBroadcastAddress)
@@ -291,6 +811,14 @@ public abstract class Harvester {
         LabelEnum.addIfEnabled(GlobalLabel.DATACENTER, enabledGlobalLabels, mapBuilder, localMetadata::dataCenter);
         LabelEnum.addIfEnabled(GlobalLabel.RACK, enabledGlobalLabels, mapBuilder, localMetadata::rack);
 
-        return new Labels(mapBuilder.build());
+        final ImmutableMap<String, String> labels = mapBuilder.build();
+
+        // return the same instance while the labels are unchanged so that encoded series prefixes cached against it remain valid
+        final Labels previousGlobalLabels = this.globalLabels;
+        if (previousGlobalLabels != null && previousGlobalLabels.equals(labels)) {
+            return previousGlobalLabels;
+        }
+
+        return this.globalLabels = new Labels(labels);
     }
 }
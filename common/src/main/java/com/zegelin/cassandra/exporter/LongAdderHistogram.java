@@ -0,0 +1,71 @@
+package com.zegelin.cassandra.exporter;
+
+import com.zegelin.prometheus.domain.HistogramMetricFamily;
+import com.zegelin.prometheus.domain.Interval;
+import com.zegelin.prometheus.domain.Labels;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram with fixed bucket upper bounds, safe to record to from any number of threads.
+ *
+ * Snapshots taken while values are being recorded may be off by the in-flight values, but are never inconsistent
+ * enough to make the cumulative bucket counts decrease.
+ */
+final class LongAdderHistogram {
+    static final double[] SECONDS_BUCKETS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 25, 60
+    };
+
+    // 1 KiB to 1 GiB, by powers of 4
+    static final double[] BYTES_BUCKETS = {
+            1L << 10, 1L << 12, 1L << 14, 1L << 16, 1L << 18, 1L << 20, 1L << 22, 1L << 24, 1L << 26, 1L << 28, 1L << 30
+    };
+
+    private final double[] upperBounds;
+    private final Interval.Quantile[] quantiles;
+
+    // non-cumulative, with a final bucket for values greater than the largest upper bound
+    private final LongAdder[] bucketCounts;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    LongAdderHistogram(final double[] upperBounds) {
+        this.upperBounds = upperBounds.clone();
+        this.quantiles = Arrays.stream(upperBounds).mapToObj(Interval.Quantile::le).toArray(Interval.Quantile[]::new);
+
+        this.bucketCounts = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < bucketCounts.length; i++) {
+            bucketCounts[i] = new LongAdder();
+        }
+    }
+
+    void record(final double value) {
+        int i = Arrays.binarySearch(upperBounds, value);
+        if (i < 0) {
+            i = -i - 1; // insertion point, i.e. the first bucket with an upper bound greater than value
+        }
+
+        bucketCounts[i].increment();
+        sum.add(value);
+    }
+
+    double sum() {
+        return sum.sum();
+    }
+
+    HistogramMetricFamily.Histogram snapshot(final Labels labels) {
+        final Interval[] buckets = new Interval[upperBounds.length];
+
+        long cumulativeCount = 0;
+        for (int i = 0; i < upperBounds.length; i++) {
+            cumulativeCount += bucketCounts[i].sum();
+            buckets[i] = new Interval(quantiles[i], cumulativeCount);
+        }
+
+        cumulativeCount += bucketCounts[upperBounds.length].sum();
+
+        return new HistogramMetricFamily.Histogram(labels, sum.sum(), cumulativeCount, Arrays.asList(buckets));
+    }
+}
@@ -1,9 +1,11 @@
 package com.zegelin.cassandra.exporter;
 
+import com.google.common.collect.ImmutableSet;
 import com.zegelin.jmx.NamedObject;
 import com.zegelin.prometheus.domain.MetricFamily;
 
 import javax.management.ObjectName;
+import java.util.Set;
 import java.util.stream.Stream;
 
 public abstract class MBeanGroupMetricFamilyCollector {
@@ -17,20 +19,34 @@ public abstract class MBeanGroupMetricFamilyCollector {
     /**
      * Merge two {@link MBeanGroupMetricFamilyCollector}s together.
      *
+     * Implementations may either merge {@param other} into this collector in place and return {@code this}
+     * (preferred, as it keeps registration O(1) in the number of MBeans already registered) or return a new collector.
+     * Collectors that merge in place must tolerate {@link #collect()} being called concurrently.
+     *
      * @param other The other {@link MBeanGroupMetricFamilyCollector} to merge with.
-     * @return a new {@link MBeanGroupMetricFamilyCollector} that is the combinator of this {@link MBeanGroupMetricFamilyCollector} and {@param other}
+     * @return the {@link MBeanGroupMetricFamilyCollector} that is the combinator of this {@link MBeanGroupMetricFamilyCollector} and {@param other}
      */
     public MBeanGroupMetricFamilyCollector merge(final MBeanGroupMetricFamilyCollector other) {
         throw new IllegalStateException(String.format("Merging of %s and %s not implemented.", this, other));
     }
 
     /**
-     * @return a new MBeanGroupMetricFamilyCollector with the named MBean removed, or null if the collector is empty.
+     * @return a MBeanGroupMetricFamilyCollector (either this collector, modified in place, or a new instance)
+     * with the named MBean removed, or null if the collector is empty.
      */
     public MBeanGroupMetricFamilyCollector removeMBean(final ObjectName mBeanName) {
         return null;
     }
 
+    /**
+     * @return the names of the {@link MetricFamily}s returned by {@link #collect()}, or null if unknown ahead of collection.
+     * Used to skip collectors whose metric families haven't been requested. Collectors with unknown names are always
+     * run and their metric families filtered afterwards.
+     */
+    public Set<String> metricFamilyNames() {
+        return null;
+    }
+
     /**
      * @return a {@link Stream} of {@link MetricFamily}s that contain the metrics collected by this collector.
      */
@@ -45,5 +61,33 @@ public abstract class MBeanGroupMetricFamilyCollector {
          * @return the MBeanGroupMetricFamilyCollector for the given MBean, or null
          */
         MBeanGroupMetricFamilyCollector createCollector(final NamedObject<?> mBean);
+
+        /**
+         * @return the {@link ObjectName} patterns of the MBeans this factory may create collectors for, or null if unknown.
+         * Used to index factories so that each MBean is only offered to factories that could match it.
+         * Factories with unknown patterns are offered every MBean.
+         */
+        default Set<ObjectName> objectNamePatterns() {
+            return null;
+        }
+
+        /**
+         * @return a {@link Factory} that delegates to {@param factory} and declares {@param objectNamePatterns} as its patterns.
+         */
+        static Factory withObjectNamePatterns(final Factory factory, final ObjectName... objectNamePatterns) {
+            final Set<ObjectName> patterns = ImmutableSet.copyOf(objectNamePatterns);
+
+            return new Factory() {
+                @Override
+                public MBeanGroupMetricFamilyCollector createCollector(final NamedObject<?> mBean) {
+                    return factory.createCollector(mBean);
+                }
+
+                @Override
+                public Set<ObjectName> objectNamePatterns() {
+                    return patterns;
+                }
+            };
+        }
     }
 }
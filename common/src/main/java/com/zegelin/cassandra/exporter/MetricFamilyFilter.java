@@ -0,0 +1,70 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.zegelin.cassandra.exporter.FactoriesSupplier.TableMetricScope;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Selects metric families, by name, for a single collection.
+ *
+ * A family is selected if it matches any of the exact names or name prefixes (or if neither are specified), and,
+ * if any table metric scopes are specified, it is a table metric of one of those scopes.
+ *
+ * Applied before collection (see {@link Harvester#collect(MetricFamilyFilter)}) so that collectors whose families are
+ * not selected are never run.
+ */
+public final class MetricFamilyFilter implements Predicate<String> {
+    public static final MetricFamilyFilter ALL = new MetricFamilyFilter(ImmutableSet.of(), ImmutableList.of(), ImmutableList.of());
+
+    private final Set<String> names;
+    private final List<String> prefixes;
+    private final List<String> scopePrefixes;
+
+    private MetricFamilyFilter(final Set<String> names, final List<String> prefixes, final List<String> scopePrefixes) {
+        this.names = names;
+        this.prefixes = prefixes;
+        this.scopePrefixes = scopePrefixes;
+    }
+
+    public static MetricFamilyFilter of(final Collection<String> names, final Collection<String> prefixes, final Collection<TableMetricScope> scopes) {
+        if (names.isEmpty() && prefixes.isEmpty() && scopes.isEmpty()) {
+            return ALL;
+        }
+
+        return new MetricFamilyFilter(ImmutableSet.copyOf(names), ImmutableList.copyOf(prefixes),
+                ImmutableList.copyOf(scopes.stream().map(TableMetricScope::metricFamilyNamePrefix).distinct().iterator()));
+    }
+
+    public boolean isAll() {
+        return this == ALL;
+    }
+
+    @Override
+    public boolean test(final String metricFamilyName) {
+        if (!names.isEmpty() || !prefixes.isEmpty()) {
+            if (!names.contains(metricFamilyName) && prefixes.stream().noneMatch(metricFamilyName::startsWith)) {
+                return false;
+            }
+        }
+
+        return scopePrefixes.isEmpty() || scopePrefixes.stream().anyMatch(metricFamilyName::startsWith);
+    }
+
+    /**
+     * @return true if any of {@param metricFamilyNames} is selected
+     */
+    boolean selectsAny(final Set<String> metricFamilyNames) {
+        for (final String metricFamilyName : metricFamilyNames) {
+            if (test(metricFamilyName)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -8,12 +8,18 @@ import picocli.CommandLine;
 import picocli.CommandLine.Option;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Stream;
 
 public class HarvesterOptions {
     private static final Set<String> CASSANDRA_SYSTEM_KEYSPACES = ImmutableSet.of("system", "system_traces", "system_auth", "system_schema", "system_distributed");
@@ -123,6 +129,28 @@ public class HarvesterOptions {
             description = "Select which node-level aggregate metrics to expose. " + FILTER_COMMON_HELP)
     public FactoriesSupplier.TableMetricScope.Filter nodeMetricsFilter = FactoriesSupplier.TableMetricScope.Filter.HISTOGRAMS;
 
+    @Option(names = "--estimated-histogram-type", paramLabel = "TYPE",
+            description = "Select how table-level estimated histograms (partition sizes & column counts) are exposed. " +
+                    "Valid options are: " +
+                    "'SUMMARY' (pre-computed quantiles), " +
+                    "'HISTOGRAM' (cumulative buckets, which unlike quantiles may be aggregated across tables and nodes). " +
+                    "The default is '${DEFAULT-VALUE}'.")
+    public FactoriesSupplier.EstimatedHistogramType estimatedHistogramType = FactoriesSupplier.EstimatedHistogramType.SUMMARY;
+
+    public int estimatedHistogramBucketStride = 4;
+
+    @Option(names = "--estimated-histogram-bucket-stride", paramLabel = "COUNT",
+            defaultValue = "4",
+            description = "When estimated histograms are exposed as histograms, expose every COUNTth Cassandra bucket boundary as a histogram bucket. " +
+                    "Cassandra bucket boundaries grow by ~20% each, so the default of ${DEFAULT-VALUE} gives buckets that roughly double in size.")
+    void setEstimatedHistogramBucketStride(final int estimatedHistogramBucketStride) {
+        if (estimatedHistogramBucketStride < 1) {
+            throw new CommandLine.ParameterException(commandSpec.commandLine(),
+                    String.format("Invalid estimated histogram bucket stride '%d'. Must be at least 1.", estimatedHistogramBucketStride));
+        }
+
+        this.estimatedHistogramBucketStride = estimatedHistogramBucketStride;
+    }
 
 
     @Option(names = "--no-fast-float",
@@ -136,9 +164,104 @@ public class HarvesterOptions {
     public boolean perThreadTimingEnabled = false;
 
     @Option(names = "--enable-collector-timing",
-            description = "Record the cumulative time taken to run each collector and export the results.")
+            description = "Record the time taken, and memory allocated, to run each collector, and the number of series in each metric family. " +
+                    "The cumulative time is exported on /metrics, and the details on /metrics/exporter.")
     public boolean collectorTimingEnabled;
 
+    @Option(names = "--harvest-interval",
+            paramLabel = "SECONDS",
+            defaultValue = "0",
+            description = "Interval in seconds by which metrics will be collected in the background. " +
+                    "When enabled, scrapes are served from the most recent snapshot rather than collecting on every request, " +
+                    "and the age of the snapshot is exported as cassandra_exporter_harvest_age_seconds. " +
+                    "Defaults to ${DEFAULT-VALUE} which will collect metrics on every request.")
+    public long harvestIntervalInSeconds = 0L;
+
+    @Option(names = "--scrape-coalescing-window",
+            paramLabel = "MILLISECONDS",
+            defaultValue = "-1",
+            description = "Coalesce concurrent scrapes. Requests that arrive while a collection is in progress wait for and share its result, " +
+                    "and a completed collection is reused by requests that arrive within MILLISECONDS of it finishing. " +
+                    "A value of 0 will only share in-progress collections. " +
+                    "Not applicable when --harvest-interval is enabled. " +
+                    "Defaults to ${DEFAULT-VALUE} which will disable coalescing.")
+    public long scrapeCoalescingWindowInMillis = -1L;
+
+    public final Map<String, Duration> cacheTtls = new HashMap<>();
+
+    @Option(names = "--cache-ttl", paramLabel = "NAME=SECONDS", arity = "1..*",
+            description = "Cache the metrics of a collector or metric family for SECONDS. " +
+                    "NAME may be the name of a collector or metric family. " +
+                    "Cached metrics are refreshed in the background as they near expiry, and the last value is exposed until the refresh completes. " +
+                    "A value of 0 disables caching. " +
+                    "Some expensive metrics (storage service ownership, operating system and snapshot sizes) are cached for 300 seconds by default. " +
+                    "If the value is prefixed with an '@', it is interpreted (sans @ character) as a path to a file containing multiple NAME=SECONDS values, one per line. " +
+                    "Lines prefixed with '#' are considered comments and are ignored. " +
+                    "This option may be specified more than once.")
+    void setCacheTtls(final List<String> values) {
+        for (final String value : values) {
+            if (value.startsWith("@")) {
+                final Path file = Paths.get(value.substring(1));
+
+                try (final Stream<String> lines = Files.lines(file)) {
+                    lines.map(String::trim)
+                            .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                            .forEach(this::addCacheTtl);
+
+                } catch (final IOException | UncheckedIOException e) {
+                    throw new CommandLine.ParameterException(commandSpec.commandLine(),
+                            String.format("Failed to read cache TTLs from '%s'", file), e);
+                }
+
+                continue;
+            }
+
+            addCacheTtl(value);
+        }
+    }
+
+    private void addCacheTtl(final String value) {
+        final int separatorIndex = value.lastIndexOf('=');
+
+        try {
+            if (separatorIndex < 1) {
+                throw new IllegalArgumentException();
+            }
+
+            final long seconds = Long.parseLong(value.substring(separatorIndex + 1).trim());
+
+            if (seconds < 0) {
+                throw new IllegalArgumentException();
+            }
+
+            cacheTtls.put(value.substring(0, separatorIndex).trim(), Duration.ofSeconds(seconds));
+
+        } catch (final IllegalArgumentException e) {
+            throw new CommandLine.ParameterException(commandSpec.commandLine(),
+                    String.format("Invalid cache TTL '%s'. Expected NAME=SECONDS.", value));
+        }
+    }
+
+    @Option(names = "--scrape-timeout",
+            paramLabel = "SECONDS",
+            defaultValue = "0",
+            description = "Maximum time to spend collecting metrics for requests that don't specify a scrape timeout via the " +
+                    "X-Prometheus-Scrape-Timeout-Seconds header, and for background harvests. " +
+                    "Collectors that don't complete in time are skipped, or their previous result exposed, " +
+                    "and are counted by cassandra_exporter_collector_timeouts_total. " +
+                    "Their result, once complete, is kept for the next scrape. " +
+                    "Defaults to ${DEFAULT-VALUE} which will wait for all collectors to complete.")
+    public double scrapeTimeoutInSeconds = 0;
+
+    @Option(names = "--scrape-timeout-margin",
+            paramLabel = "MILLISECONDS",
+            defaultValue = "-1",
+            description = "Time reserved for writing the response out of the scrape timeout specified by the X-Prometheus-Scrape-Timeout-Seconds header " +
+                    "(but no more than half of the timeout). " +
+                    "A negative value ignores the header and uses --scrape-timeout. " +
+                    "Defaults to ${DEFAULT-VALUE} which will ignore the header.")
+    public long scrapeTimeoutMarginInMillis = -1L;
+
 
     @Option(names = "--exclude-keyspaces")
     public Set<String> excludedKeyspaces = new HashSet<>();
@@ -135,4 +135,32 @@ public class HttpServerOptions {
                     "Defaults to ${DEFAULT-VALUE}."
     )
     public HttpHandler.HelpExposition helpExposition = HttpHandler.HelpExposition.AUTOMATIC;
+
+    @Option(names = "--exposition-cache",
+            description = "Cache the rendered exposition, in both raw and gzip-compressed forms, for each format. " +
+                    "Requests for the same harvest are served from the cache with a Content-Length rather than re-rendered and re-compressed. " +
+                    "Only applicable when --harvest-interval or --scrape-coalescing-window is enabled, " +
+                    "as metrics collected on every request are never cached. " +
+                    "Cached responses don't include cassandra_exporter_harvest_age_seconds (each sample carries the harvest timestamp instead)."
+    )
+    public boolean expositionCacheEnabled = false;
+
+    @Option(names = "--exposition-threads",
+            paramLabel = "COUNT",
+            defaultValue = "0",
+            description = "Number of threads used to render the metric families of each exposition in parallel. " +
+                    "Rendered metric families are written to the response in order as they complete. " +
+                    "Defaults to ${DEFAULT-VALUE}, which renders each exposition sequentially on the HTTP server thread."
+    )
+    public int expositionThreads = 0;
+
+    @Option(names = "--exposition-window",
+            paramLabel = "COUNT",
+            defaultValue = "64",
+            description = "Maximum number of metric families of each exposition being rendered, or waiting to be written, at once. " +
+                    "Bounds the memory used by each exposition. " +
+                    "Only applicable when --exposition-threads is enabled. " +
+                    "Defaults to ${DEFAULT-VALUE}."
+    )
+    public int expositionWindow = 64;
 }
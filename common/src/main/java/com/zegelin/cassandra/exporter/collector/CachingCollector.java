@@ -1,46 +1,181 @@
 package com.zegelin.cassandra.exporter.collector;
 
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zegelin.cassandra.exporter.MBeanGroupMetricFamilyCollector;
+import com.zegelin.jmx.NamedObject;
+import com.zegelin.prometheus.domain.CounterMetricFamily;
+import com.zegelin.prometheus.domain.Labels;
 import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.management.ObjectName;
+import java.time.Duration;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.nanosecondsToSeconds;
+
+/**
+ * A refresh-ahead cache of the metric families of a (typically expensive) collector.
+ *
+ * The first collection is synchronous. Afterwards the last collected value is always served, and a collection that
+ * finds the value older than {@link #REFRESH_AHEAD_RATIO} of its TTL refreshes it in the background, so that scrapes
+ * never wait on the delegate once a value is available. If a refresh fails or is slow the previous value continues to
+ * be served, even past its TTL.
+ */
 public class CachingCollector extends MBeanGroupMetricFamilyCollector {
+    private static final Logger logger = LoggerFactory.getLogger(CachingCollector.class);
+
+    private static final double REFRESH_AHEAD_RATIO = 0.75;
+
+    private static final ExecutorService refreshExecutorService = Executors.newFixedThreadPool(2, new ThreadFactoryBuilder()
+            .setNameFormat("cassandra-exporter-cache-refresh-%d")
+            .setDaemon(true)
+            .build());
+
+    private static final class CollectorStatistics {
+        final LongAdder hitCount = new LongAdder();
+        final LongAdder missCount = new LongAdder();
+        final LongAdder refreshCount = new LongAdder();
+        final LongAdder refreshFailureCount = new LongAdder();
+        final LongAdder refreshTimeNanos = new LongAdder();
+    }
+
+    /**
+     * Cache statistics of the {@link CachingCollector}s of one collector registry (i.e., {@link com.zegelin.cassandra.exporter.Harvester}).
+     *
+     * Statistics are kept per collector name, so that they survive a collector being replaced by a new
+     * {@link CachingCollector} when MBeans are merged into, or removed from, a delegate that doesn't change in place.
+     */
+    public static final class Statistics {
+        private final Map<String, CollectorStatistics> collectorStatistics = new ConcurrentHashMap<>();
+
+        private CollectorStatistics forCollector(final String collectorName) {
+            return collectorStatistics.computeIfAbsent(collectorName, k -> new CollectorStatistics());
+        }
+
+        /**
+         * @return metric families describing the effectiveness of the {@link CachingCollector}s.
+         */
+        public Stream<MetricFamily> collect() {
+            final Map<String, CollectorStatistics> statistics = ImmutableMap.copyOf(collectorStatistics);
 
-    public static Factory cache(final Factory delegateFactory, final long duration, final TimeUnit unit) {
-        return (mBean) -> {
-            final MBeanGroupMetricFamilyCollector collector = delegateFactory.createCollector(mBean);
+            return Stream.of(
+                    new CounterMetricFamily("cassandra_exporter_collector_cache_hits_total", "Total number of collections of each cached metrics collector served from its cache.",
+                            metrics(statistics, s -> s.hitCount.sum())),
+                    new CounterMetricFamily("cassandra_exporter_collector_cache_misses_total", "Total number of collections of each cached metrics collector that had to wait for the collector to run.",
+                            metrics(statistics, s -> s.missCount.sum())),
+                    new CounterMetricFamily("cassandra_exporter_collector_cache_refreshes_total", "Total number of times each cached metrics collector has been run.",
+                            metrics(statistics, s -> s.refreshCount.sum())),
+                    new CounterMetricFamily("cassandra_exporter_collector_cache_refresh_failures_total", "Total number of background refreshes of each cached metrics collector that failed.",
+                            metrics(statistics, s -> s.refreshFailureCount.sum())),
+                    new CounterMetricFamily("cassandra_exporter_collector_cache_refresh_time_seconds_total", "Cumulative time taken to run each cached metrics collector.",
+                            metrics(statistics, s -> nanosecondsToSeconds(s.refreshTimeNanos.sum())))
+            );
+        }
+
+        private static Stream<NumericMetric> metrics(final Map<String, CollectorStatistics> statistics, final ToDoubleFunction<CollectorStatistics> valueFunction) {
+            return statistics.entrySet().stream()
+                    .map(e -> new NumericMetric(Labels.of("collector", e.getKey()), valueFunction.applyAsDouble(e.getValue())));
+        }
+    }
+
+    /**
+     * Cache the collectors created by {@param delegateFactory}, recording their effectiveness in {@param statistics}.
+     *
+     * The TTL of each collector is looked up in {@param ttls} by collector name, then by each of its metric family
+     * names, falling back to {@param defaultTtl}. Collectors with a null or zero TTL are not cached.
+     */
+    public static Factory cache(final Factory delegateFactory, final Statistics statistics, final Duration defaultTtl, final Map<String, Duration> ttls) {
+        return new Factory() {
+            @Override
+            public MBeanGroupMetricFamilyCollector createCollector(final NamedObject<?> mBean) {
+                final MBeanGroupMetricFamilyCollector collector = delegateFactory.createCollector(mBean);
 
-            if (collector == null) {
-                return null;
+                if (collector == null) {
+                    return null;
+                }
+
+                final Duration ttl = ttl(collector, defaultTtl, ttls);
+
+                if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+                    return collector;
+                }
+
+                return new CachingCollector(collector, ttl, statistics);
             }
 
-            return new CachingCollector(collector, duration, unit);
+            @Override
+            public Set<ObjectName> objectNamePatterns() {
+                return delegateFactory.objectNamePatterns();
+            }
         };
     }
 
+    private static Duration ttl(final MBeanGroupMetricFamilyCollector collector, final Duration defaultTtl, final Map<String, Duration> ttls) {
+        final Duration collectorTtl = ttls.get(collector.name());
+        if (collectorTtl != null) {
+            return collectorTtl;
+        }
+
+        final Set<String> metricFamilyNames = collector.metricFamilyNames();
+        if (metricFamilyNames != null) {
+            for (final String metricFamilyName : metricFamilyNames) {
+                final Duration metricFamilyTtl = ttls.get(metricFamilyName);
+
+                if (metricFamilyTtl != null) {
+                    return metricFamilyTtl;
+                }
+            }
+        }
+
+        return defaultTtl;
+    }
+
+
+    private static final class CachedValue {
+        final List<MetricFamily> metricFamilies;
+        final long collectedAtNanos;
+
+        CachedValue(final List<MetricFamily> metricFamilies, final long collectedAtNanos) {
+            this.metricFamilies = metricFamilies;
+            this.collectedAtNanos = collectedAtNanos;
+        }
+    }
 
     private final MBeanGroupMetricFamilyCollector delegate;
-    private final long duration;
-    private final TimeUnit unit;
+    private final Duration ttl;
+    private final long refreshAfterNanos;
+
+    private final Statistics statistics;
+    private final CollectorStatistics collectorStatistics;
+
+    private volatile CachedValue cachedValue;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
 
-    private final Supplier<List<MetricFamily>> cachedCollect;
+    // incremented whenever the delegate changes in place, so that in-flight refreshes of the old MBeans are discarded
+    private volatile long generation = 0;
 
 
-    private CachingCollector(final MBeanGroupMetricFamilyCollector delegate, final long duration, final TimeUnit unit) {
+    private CachingCollector(final MBeanGroupMetricFamilyCollector delegate, final Duration ttl, final Statistics statistics) {
         this.delegate = delegate;
-        this.duration = duration;
-        this.unit = unit;
+        this.ttl = ttl;
+        this.refreshAfterNanos = (long) (ttl.toNanos() * REFRESH_AHEAD_RATIO);
 
-        this.cachedCollect = Suppliers.memoizeWithExpiration(() -> {
-            return delegate.collect().map(MetricFamily::cachedCopy).collect(Collectors.toList());
-        }, duration, unit);
+        this.statistics = statistics;
+        this.collectorStatistics = statistics.forCollector(delegate.name());
     }
 
     @Override
@@ -48,6 +183,11 @@ public class CachingCollector extends MBeanGroupMetricFamilyCollector {
         return delegate.name();
     }
 
+    @Override
+    public Set<String> metricFamilyNames() {
+        return delegate.metricFamilyNames();
+    }
+
     @Override
     public MBeanGroupMetricFamilyCollector merge(final MBeanGroupMetricFamilyCollector rawOther) {
         if (!(rawOther instanceof CachingCollector)) {
@@ -58,7 +198,12 @@ public class CachingCollector extends MBeanGroupMetricFamilyCollector {
 
         final MBeanGroupMetricFamilyCollector newDelegate = delegate.merge(otherDelegate);
 
-        return new CachingCollector(newDelegate, duration, unit);
+        if (newDelegate == delegate) {
+            delegateChanged(); // merged in place
+            return this;
+        }
+
+        return new CachingCollector(newDelegate, ttl, statistics);
     }
 
     @Override
@@ -69,11 +214,107 @@ public class CachingCollector extends MBeanGroupMetricFamilyCollector {
             return null;
         }
 
-        return new CachingCollector(newDelegate, duration, unit);
+        if (newDelegate == delegate) {
+            delegateChanged(); // removed in place
+            return this;
+        }
+
+        return new CachingCollector(newDelegate, ttl, statistics);
+    }
+
+    /**
+     * Refresh the cached value from the (changed) delegate in the background. Until the refresh completes the previous
+     * value continues to be served, so that MBean registrations (e.g., table creation) don't stall a scrape on the delegate.
+     */
+    private void delegateChanged() {
+        synchronized (this) {
+            generation++;
+
+            if (cachedValue == null) {
+                return; // never loaded -- the next collection loads from the changed delegate
+            }
+        }
+
+        refreshAsync();
+    }
+
+    private CachedValue load() {
+        final long startNanos = System.nanoTime();
+
+        try {
+            final List<MetricFamily> metricFamilies = delegate.collect().map(MetricFamily::cachedCopy).collect(Collectors.toList());
+
+            return new CachedValue(metricFamilies, System.nanoTime());
+
+        } finally {
+            collectorStatistics.refreshCount.increment();
+            collectorStatistics.refreshTimeNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    private void refreshAsync() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return; // already refreshing
+        }
+
+        final long refreshGeneration = generation;
+
+        try {
+            refreshExecutorService.execute(() -> {
+                try {
+                    final CachedValue value = load();
+
+                    synchronized (this) {
+                        if (generation == refreshGeneration) {
+                            cachedValue = value;
+                        }
+                    }
+
+                } catch (final Exception e) {
+                    collectorStatistics.refreshFailureCount.increment();
+                    logger.warn("Failed to refresh cached metrics of collector {}. Continuing to serve the previous value.", name(), e);
+
+                } finally {
+                    refreshing.set(false);
+                }
+
+                // the delegate changed while refreshing -- the discarded value is replaced by a refresh of the changed delegate
+                if (generation != refreshGeneration) {
+                    refreshAsync();
+                }
+            });
+
+        } catch (final RuntimeException e) {
+            refreshing.set(false);
+            throw e;
+        }
     }
 
     @Override
     public Stream<MetricFamily> collect() {
-        return cachedCollect.get().stream();
+        CachedValue value = cachedValue;
+
+        if (value == null) {
+            synchronized (this) {
+                value = cachedValue;
+
+                if (value == null) {
+                    collectorStatistics.missCount.increment();
+
+                    value = load();
+                    cachedValue = value;
+
+                    return value.metricFamilies.stream();
+                }
+            }
+        }
+
+        collectorStatistics.hitCount.increment();
+
+        if (System.nanoTime() - value.collectedAtNanos >= refreshAfterNanos) {
+            refreshAsync();
+        }
+
+        return value.metricFamilies.stream();
     }
 }
@@ -17,12 +17,12 @@ import static com.zegelin.cassandra.exporter.CassandraObjectNames.FAILURE_DETECT
 
 public class FailureDetectorMBeanMetricFamilyCollector extends MBeanGroupMetricFamilyCollector {
     public static Factory factory(final MetadataFactory metadataFactory) {
-        return mBean -> {
+        return Factory.withObjectNamePatterns(mBean -> {
             if (!FAILURE_DETECTOR_MBEAN_NAME.apply(mBean.name))
                 return null;
 
             return new FailureDetectorMBeanMetricFamilyCollector((FailureDetectorMBean) mBean.object, metadataFactory);
-        };
+        }, FAILURE_DETECTOR_MBEAN_NAME);
     };
 
 
@@ -49,7 +49,7 @@ public class FailureDetectorMBeanMetricFamilyCollector extends MBeanGroupMetricF
                 final String endpoint = ((String) d.get("Endpoint")).split("/")[1];
                 final Labels labels = metadataFactory.endpointLabels(endpoint);
 
-                return new NumericMetric(labels, ((Double) d.get("PHI")).floatValue());
+                return new NumericMetric(labels, (Double) d.get("PHI"));
             });
 
             metricFamilyStreamBuilder.add(new GaugeMetricFamily("cassandra_endpoint_phi", "level of suspicion that an endpoint might be down.", phiMetricsStream));
@@ -1,6 +1,6 @@
 package com.zegelin.cassandra.exporter.collector;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.zegelin.jmx.NamedObject;
 import com.zegelin.cassandra.exporter.MBeanGroupMetricFamilyCollector;
@@ -14,8 +14,9 @@ import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxCounterMBean;
 import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxTimerMBean;
 
 import javax.management.ObjectName;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 import static com.zegelin.cassandra.exporter.CassandraMetricsUtilities.jmxTimerMBeanAsSamplingCounting;
@@ -72,12 +73,18 @@ public class LatencyMetricGroupSummaryCollector extends MBeanGroupMetricFamilyCo
 
     private final String name;
     private final String help;
-    private final Map<Labels, LatencyMetricGroup> latencyMetricGroups;
 
-    private LatencyMetricGroupSummaryCollector(final String name, final String help, final Map<Labels, LatencyMetricGroup> latencyMetricGroups) {
+    // mutated in place by merge/removeMBean so that registering and unregistering an MBean is O(1)
+    private final Map<Labels, LatencyMetricGroup> latencyMetricGroups = new ConcurrentHashMap<>();
+    private final Map<ObjectName, Labels> labelsByObjectName = new ConcurrentHashMap<>();
+
+    private LatencyMetricGroupSummaryCollector(final String name, final String help, final ObjectName mBeanName,
+                                               final Labels labels, final LatencyMetricGroup latencyMetricGroup) {
         this.name = name;
         this.help = help;
-        this.latencyMetricGroups = ImmutableMap.copyOf(latencyMetricGroups);
+
+        this.latencyMetricGroups.put(labels, latencyMetricGroup);
+        this.labelsByObjectName.put(mBeanName, labels);
     }
 
 
@@ -87,7 +94,7 @@ public class LatencyMetricGroupSummaryCollector extends MBeanGroupMetricFamilyCo
 
         final LatencyMetricGroup latencyMetricGroup = new LatencyMetricGroup(timer, counter);
 
-        return new LatencyMetricGroupSummaryCollector(name, help, ImmutableMap.of(labels, latencyMetricGroup));
+        return new LatencyMetricGroupSummaryCollector(name, help, mBean.name, labels, latencyMetricGroup);
     }
 
     @Override
@@ -95,6 +102,11 @@ public class LatencyMetricGroupSummaryCollector extends MBeanGroupMetricFamilyCo
         return name;
     }
 
+    @Override
+    public Set<String> metricFamilyNames() {
+        return ImmutableSet.of(name);
+    }
+
     @Override
     public MBeanGroupMetricFamilyCollector merge(final MBeanGroupMetricFamilyCollector rawOther) {
         if (!(rawOther instanceof LatencyMetricGroupSummaryCollector)) {
@@ -103,33 +115,28 @@ public class LatencyMetricGroupSummaryCollector extends MBeanGroupMetricFamilyCo
 
         final LatencyMetricGroupSummaryCollector other = (LatencyMetricGroupSummaryCollector) rawOther;
 
-        final HashMap<Labels, LatencyMetricGroup> newLatencyMetricGroups = new HashMap<>(latencyMetricGroups);
         for (final Map.Entry<Labels, LatencyMetricGroup> group : other.latencyMetricGroups.entrySet()) {
-            newLatencyMetricGroups.merge(group.getKey(), group.getValue(), LatencyMetricGroup::merge);
+            latencyMetricGroups.merge(group.getKey(), group.getValue(), LatencyMetricGroup::merge);
         }
 
-        return new LatencyMetricGroupSummaryCollector(name, help, newLatencyMetricGroups);
+        labelsByObjectName.putAll(other.labelsByObjectName);
+
+        return this;
     }
 
     @Override
     public MBeanGroupMetricFamilyCollector removeMBean(final ObjectName mBeanName) {
-        final HashMap<Labels, LatencyMetricGroup> newLatencyMetricGroups = new HashMap<>(latencyMetricGroups.size());
-
-        for (final Map.Entry<Labels, LatencyMetricGroup> entry : latencyMetricGroups.entrySet()) {
-            final LatencyMetricGroup latencyMetricGroup = entry.getValue().removeMBean(mBeanName);
-
-            if (latencyMetricGroup == null) {
-                continue;
-            }
+        final Labels labels = labelsByObjectName.remove(mBeanName);
 
-            newLatencyMetricGroups.put(entry.getKey(), latencyMetricGroup);
+        if (labels != null) {
+            latencyMetricGroups.computeIfPresent(labels, (k, group) -> group.removeMBean(mBeanName));
         }
 
-        if (newLatencyMetricGroups.size() == 0) {
+        if (latencyMetricGroups.isEmpty()) {
             return null;
         }
 
-        return new LatencyMetricGroupSummaryCollector(name, help, newLatencyMetricGroups);
+        return this;
     }
 
     @Override
@@ -141,8 +148,8 @@ public class LatencyMetricGroupSummaryCollector extends MBeanGroupMetricFamilyCo
                 })
                 .filter(e -> !e.latencyMetricGroup.incomplete())
                 .map(e -> {
-                    final float count = e.latencyMetricGroup.latencyTimer.object.getCount();
-                    final float sum = microsecondsToSeconds(e.latencyMetricGroup.totalLatencyCounter.object.getCount());
+                    final double count = e.latencyMetricGroup.latencyTimer.object.getCount();
+                    final double sum = microsecondsToSeconds(e.latencyMetricGroup.totalLatencyCounter.object.getCount());
 
                     final Iterable<Interval> quantiles = Iterables.transform(e.latencyMetricGroup.latencyTimer.object.getIntervals(),
                             i -> i.transform(MetricValueConversionFunctions::nanosecondsToSeconds)
@@ -28,12 +28,12 @@ public class StorageServiceMBeanMetricFamilyCollector extends MBeanGroupMetricFa
     private static final Logger logger = LoggerFactory.getLogger(StorageServiceMBeanMetricFamilyCollector.class);
 
     public static Factory factory(final MetadataFactory metadataFactory, final Set<String> excludedKeyspaces) {
-        return mBean -> {
+        return Factory.withObjectNamePatterns(mBean -> {
             if (!STORAGE_SERVICE_MBEAN_NAME.apply(mBean.name))
                 return null;
 
             return new StorageServiceMBeanMetricFamilyCollector((StorageServiceMBean) mBean.object, metadataFactory, excludedKeyspaces);
-        };
+        }, STORAGE_SERVICE_MBEAN_NAME);
     }
 
     private final StorageServiceMBean storageServiceMBean;
@@ -1,6 +1,6 @@
 package com.zegelin.cassandra.exporter.collector.dynamic;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.zegelin.jmx.NamedObject;
 import com.zegelin.cassandra.exporter.MBeanGroupMetricFamilyCollector;
@@ -8,8 +8,9 @@ import com.zegelin.prometheus.domain.Labels;
 import com.zegelin.prometheus.domain.MetricFamily;
 
 import javax.management.ObjectName;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -27,7 +28,10 @@ public class FunctionalMetricFamilyCollector<T> extends MBeanGroupMetricFamilyCo
 
     private final CollectorFunction<T> collectorFunction;
 
-    private final Map<Labels, NamedObject<T>> labeledObjects;
+    // mutated in place by merge/removeMBean so that registering and unregistering an MBean is O(1).
+    // collection iterates the live (weakly consistent) map rather than a copy.
+    private final Map<Labels, NamedObject<T>> labeledObjects = new ConcurrentHashMap<>();
+    private final Map<ObjectName, Labels> labelsByObjectName = new ConcurrentHashMap<>();
 
     private final LabeledObjectGroup<T> objectGroup = new LabeledObjectGroup<T>() {
         @Override
@@ -51,8 +55,19 @@ public class FunctionalMetricFamilyCollector<T> extends MBeanGroupMetricFamilyCo
                                            final CollectorFunction<T> collectorFunction) {
         this.name = name;
         this.help = help;
-        this.labeledObjects = ImmutableMap.copyOf(labeledObjects);
         this.collectorFunction = collectorFunction;
+
+        labeledObjects.forEach(this::add);
+    }
+
+    private void add(final Labels labels, final NamedObject<T> object) {
+        final NamedObject<T> existing = labeledObjects.putIfAbsent(labels, object);
+
+        if (existing != null) {
+            throw new IllegalStateException(String.format("Object %s and %s cannot be merged, yet their labels are the same.", existing, object));
+        }
+
+        labelsByObjectName.put(object.name, labels);
     }
 
     @Override
@@ -60,6 +75,11 @@ public class FunctionalMetricFamilyCollector<T> extends MBeanGroupMetricFamilyCo
         return name;
     }
 
+    @Override
+    public Set<String> metricFamilyNames() {
+        return ImmutableSet.of(name);
+    }
+
     @Override
     public MBeanGroupMetricFamilyCollector merge(final MBeanGroupMetricFamilyCollector rawOther) {
         if (!(rawOther instanceof FunctionalMetricFamilyCollector)) {
@@ -68,23 +88,23 @@ public class FunctionalMetricFamilyCollector<T> extends MBeanGroupMetricFamilyCo
 
         final FunctionalMetricFamilyCollector<T> other = (FunctionalMetricFamilyCollector<T>) rawOther;
 
-        final Map<Labels, NamedObject<T>> newLabeledObjects = new HashMap<>(labeledObjects);
-        for (final Map.Entry<Labels, NamedObject<T>> entry : other.labeledObjects.entrySet()) {
-            newLabeledObjects.merge(entry.getKey(), entry.getValue(), (o1, o2) -> {throw new IllegalStateException(String.format("Object %s and %s cannot be merged, yet their labels are the same.", o1, o2));});
-        }
+        other.labeledObjects.forEach(this::add);
 
-        return new FunctionalMetricFamilyCollector<>(name, help, newLabeledObjects, collectorFunction);
+        return this;
     }
 
     @Override
     public MBeanGroupMetricFamilyCollector removeMBean(final ObjectName objectName) {
-        @SuppressWarnings("ConstantConditions") // ImmutableMap values cannot be null
-        final Map<Labels, NamedObject<T>> metrics = ImmutableMap.copyOf(Maps.filterValues(this.labeledObjects, m -> !m.name.equals(objectName)));
+        final Labels labels = labelsByObjectName.remove(objectName);
+
+        if (labels != null) {
+            labeledObjects.remove(labels);
+        }
 
-        if (metrics.isEmpty())
+        if (labeledObjects.isEmpty())
             return null;
 
-        return new FunctionalMetricFamilyCollector<>(this.name, this.help, metrics, collectorFunction);
+        return this;
     }
 
     @Override
@@ -19,7 +19,7 @@ import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.neg1
 public class BufferPoolMXBeanMetricFamilyCollector extends MBeanGroupMetricFamilyCollector {
     private static final ObjectName BUFFER_POOL_MXBEAN_NAME_PATTERN = ObjectNames.create("java.nio:type=BufferPool,name=*");
 
-    public static final Factory FACTORY = mBean -> {
+    public static final Factory FACTORY = Factory.withObjectNamePatterns(mBean -> {
         if (!BUFFER_POOL_MXBEAN_NAME_PATTERN.apply(mBean.name))
             return null;
 
@@ -28,7 +28,7 @@ public class BufferPoolMXBeanMetricFamilyCollector extends MBeanGroupMetricFamil
         final Labels poolLabels = Labels.of("pool", bufferPoolMXBean.getName());
 
         return new BufferPoolMXBeanMetricFamilyCollector(ImmutableMap.of(poolLabels, bufferPoolMXBean));
-    };
+    }, BUFFER_POOL_MXBEAN_NAME_PATTERN);
 
     private final Map<Labels, BufferPoolMXBean> labeledBufferPoolMXBeans;
 
@@ -19,7 +19,7 @@ import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.neg1
 public class GarbageCollectorMXBeanMetricFamilyCollector extends MBeanGroupMetricFamilyCollector {
     private static final ObjectName GARBAGE_COLLECTOR_MXBEAN_NAME_PATTERN = ObjectNames.create(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*");
 
-    public static final Factory FACTORY = mBean -> {
+    public static final Factory FACTORY = Factory.withObjectNamePatterns(mBean -> {
         if (!GARBAGE_COLLECTOR_MXBEAN_NAME_PATTERN.apply(mBean.name))
             return null;
 
@@ -28,7 +28,7 @@ public class GarbageCollectorMXBeanMetricFamilyCollector extends MBeanGroupMetri
         final Labels collectorLabels = Labels.of("collector", garbageCollectorMXBean.getName());
 
         return new GarbageCollectorMXBeanMetricFamilyCollector(ImmutableMap.of(collectorLabels, garbageCollectorMXBean));
-    };
+    }, GARBAGE_COLLECTOR_MXBEAN_NAME_PATTERN);
 
     private final Map<Labels, GarbageCollectorMXBean> labeledGarbageCollectorMXBeans;
 
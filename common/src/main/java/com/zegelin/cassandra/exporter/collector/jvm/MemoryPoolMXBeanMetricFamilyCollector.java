@@ -21,7 +21,7 @@ import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.neg1
 public class MemoryPoolMXBeanMetricFamilyCollector extends MBeanGroupMetricFamilyCollector {
     private static final ObjectName MEMORY_POOL_MXBEAN_NAME_PATTERN = ObjectNames.create(ManagementFactory.MEMORY_POOL_MXBEAN_DOMAIN_TYPE + ",*");
 
-    public static final Factory FACTORY = mBean -> {
+    public static final Factory FACTORY = Factory.withObjectNamePatterns(mBean -> {
         if (!MEMORY_POOL_MXBEAN_NAME_PATTERN.apply(mBean.name))
             return null;
 
@@ -33,7 +33,7 @@ public class MemoryPoolMXBeanMetricFamilyCollector extends MBeanGroupMetricFamil
         ));
 
         return new MemoryPoolMXBeanMetricFamilyCollector(ImmutableMap.of(poolLabels, memoryPoolMXBean));
-    };
+    }, MEMORY_POOL_MXBEAN_NAME_PATTERN);
 
     private final Map<Labels, MemoryPoolMXBean> labeledMemoryPoolMXBeans;
 
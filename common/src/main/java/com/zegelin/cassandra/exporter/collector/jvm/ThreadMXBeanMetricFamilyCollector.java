@@ -20,12 +20,12 @@ public class ThreadMXBeanMetricFamilyCollector extends  MBeanGroupMetricFamilyCo
     private static final Labels DAEMON_THREAD_COUNT_LABELS = Labels.of("type", "daemon");
 
     public static Factory factory(final boolean perThreadTimingEnabled) {
-        return mBean -> {
+        return Factory.withObjectNamePatterns(mBean -> {
             if (!THREAD_MXBEAN_NAME.apply(mBean.name))
                 return null;
 
             return new ThreadMXBeanMetricFamilyCollector((ThreadMXBean) mBean.object, perThreadTimingEnabled);
-        };
+        }, THREAD_MXBEAN_NAME);
     }
 
     private final ThreadMXBean threadMXBean;
@@ -0,0 +1,28 @@
+package com.zegelin.cassandra.exporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A run of a metrics collector. Created via {@link Events#beginCollection()}.
+ */
+@Name("com.zegelin.cassandra.exporter.Collection")
+@Label("Collection")
+@Category({"Cassandra Exporter"})
+@Description("A run of a metrics collector.")
+@StackTrace(false)
+public final class CollectionEvent extends Event {
+    @Label("Collector")
+    public String collector;
+
+    @Label("Metric Families")
+    public int metricFamilies;
+
+    @Label("Series")
+    @Description("Number of series (metrics) collected.")
+    public long series;
+}
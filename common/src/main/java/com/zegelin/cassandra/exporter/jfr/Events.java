@@ -0,0 +1,85 @@
+package com.zegelin.cassandra.exporter.jfr;
+
+/**
+ * Factories for the exporter's JDK Flight Recorder events.
+ *
+ * JFR isn't available on all supported JVMs (e.g. Java 8 prior to 8u262), and loading a class that extends
+ * {@link jdk.jfr.Event} on such a JVM fails. The event classes are therefore only referenced from callers via
+ * these factories, which return null when JFR is unavailable or the event isn't enabled in any recording.
+ * Callers must null-check the returned event before populating and committing it, which makes events
+ * close to free when not recording.
+ */
+public final class Events {
+    private static final boolean AVAILABLE = isAvailable();
+
+    private Events() {}
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Events.class.getClassLoader());
+
+            return jdk.jfr.FlightRecorder.isAvailable();
+
+        } catch (final ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a begun {@link CollectionEvent}, or null if not recording
+     */
+    public static CollectionEvent beginCollection() {
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        final CollectionEvent event = new CollectionEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * @return a begun {@link ExpositionEvent}, or null if not recording
+     */
+    public static ExpositionEvent beginExposition(final String format) {
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        final ExpositionEvent event = new ExpositionEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.format = format;
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * @return a begun {@link HttpRequestEvent}, or null if not recording
+     */
+    public static HttpRequestEvent beginHttpRequest() {
+        if (!AVAILABLE) {
+            return null;
+        }
+
+        final HttpRequestEvent event = new HttpRequestEvent();
+
+        if (!event.isEnabled()) {
+            return null;
+        }
+
+        event.begin();
+
+        return event;
+    }
+}
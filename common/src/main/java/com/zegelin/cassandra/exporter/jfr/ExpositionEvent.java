@@ -0,0 +1,32 @@
+package com.zegelin.cassandra.exporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The formatting of an exposition, from its first to its last slice. Created via {@link Events#beginExposition(String)}.
+ */
+@Name("com.zegelin.cassandra.exporter.Exposition")
+@Label("Exposition")
+@Category({"Cassandra Exporter"})
+@Description("The formatting of metrics for exposition, including the (lazy) collection of any metrics not yet collected.")
+@StackTrace(false)
+public final class ExpositionEvent extends Event {
+    @Label("Format")
+    public String format;
+
+    @Label("Metric Families")
+    public int metricFamilies;
+
+    @Label("Series")
+    public long series;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,34 @@
+package com.zegelin.cassandra.exporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A HTTP request, from its receipt until its response has been completely written. Created via {@link Events#beginHttpRequest()}.
+ */
+@Name("com.zegelin.cassandra.exporter.HttpRequest")
+@Label("HTTP Request")
+@Category({"Cassandra Exporter"})
+@Description("A HTTP request, from its receipt until its response has been completely written.")
+@StackTrace(false)
+public final class HttpRequestEvent extends Event {
+    @Label("Method")
+    public String method;
+
+    @Label("URI")
+    public String uri;
+
+    @Label("Content Type")
+    public String contentType;
+
+    @Label("Accept Encoding")
+    @Description("The request Accept-Encoding header, which determines the response compression.")
+    public String acceptEncoding;
+
+    @Label("Status")
+    public int status;
+}
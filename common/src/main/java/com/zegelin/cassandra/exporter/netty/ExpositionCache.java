@@ -0,0 +1,140 @@
+package com.zegelin.cassandra.exporter.netty;
+
+import com.google.common.net.MediaType;
+import com.zegelin.cassandra.exporter.Harvest;
+import com.zegelin.prometheus.exposition.FormattedExposition;
+import com.zegelin.prometheus.exposition.NettyExpositionSink;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Caches the rendered exposition of a snapshot {@link Harvest}, in both raw and gzip-encoded forms,
+ * keyed by content type and whether help is included.
+ *
+ * An entry is valid for as long as the Harvester continues to return the same snapshot, hence
+ * rendering and compression happen once per harvest rather than once per request.
+ * Live harvests are never cached, and expositions should only include the snapshot's
+ * {@link Harvest#generationMetricFamilies() generation metric families}.
+ *
+ * Shared by all channels. Buffers returned are retained duplicates and must be released by the caller (usually by writing them).
+ */
+public class ExpositionCache {
+    private static final class Key {
+        final MediaType contentType;
+        final boolean includeHelp;
+
+        Key(final MediaType contentType, final boolean includeHelp) {
+            this.contentType = contentType;
+            this.includeHelp = includeHelp;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return includeHelp == key.includeHelp &&
+                    contentType.equals(key.contentType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(contentType, includeHelp);
+        }
+    }
+
+    private static final class Entry {
+        final Object generation;
+        final ByteBuf raw;
+        ByteBuf gzipped;
+
+        Entry(final Object generation, final ByteBuf raw) {
+            this.generation = generation;
+            this.raw = raw;
+        }
+
+        void release() {
+            raw.release();
+
+            if (gzipped != null) {
+                gzipped.release();
+            }
+        }
+    }
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    /**
+     * @return true if the exposition of the given {@link Harvest} may be cached.
+     */
+    public boolean isCacheable(final Harvest harvest) {
+        return harvest.isSnapshot();
+    }
+
+    public synchronized ByteBuf get(final ByteBufAllocator allocator, final Harvest harvest, final MediaType contentType,
+                                    final boolean includeHelp, final boolean gzip, final Supplier<FormattedExposition> expositionSupplier) {
+        final Key key = new Key(contentType, includeHelp);
+
+        Entry entry = entries.get(key);
+
+        if (entry == null || entry.generation != harvest.generation()) {
+            if (entry != null) {
+                entries.remove(key);
+                entry.release();
+            }
+
+            entry = new Entry(harvest.generation(), render(allocator, expositionSupplier.get()));
+            entries.put(key, entry);
+        }
+
+        if (!gzip) {
+            return entry.raw.retainedDuplicate();
+        }
+
+        if (entry.gzipped == null) {
+            entry.gzipped = compress(allocator, entry.raw);
+        }
+
+        return entry.gzipped.retainedDuplicate();
+    }
+
+    private static ByteBuf render(final ByteBufAllocator allocator, final FormattedExposition exposition) {
+        final ByteBuf buffer = allocator.buffer();
+        final NettyExpositionSink sink = new NettyExpositionSink(buffer);
+
+        try {
+            while (!exposition.isEndOfInput()) {
+                exposition.nextSlice(sink);
+            }
+
+        } catch (final RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+
+        return buffer;
+    }
+
+    private static ByteBuf compress(final ByteBufAllocator allocator, final ByteBuf raw) {
+        final ByteBuf buffer = allocator.buffer(raw.readableBytes() / 8);
+
+        try (final GZIPOutputStream outputStream = new GZIPOutputStream(new ByteBufOutputStream(buffer))) {
+            raw.getBytes(raw.readerIndex(), outputStream, raw.readableBytes());
+
+        } catch (final IOException e) {
+            buffer.release();
+            throw new UncheckedIOException(e);
+        }
+
+        return buffer;
+    }
+}
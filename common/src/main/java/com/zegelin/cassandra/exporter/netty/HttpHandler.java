@@ -7,28 +7,46 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.google.common.net.MediaType;
 import com.zegelin.netty.Resources;
+import com.zegelin.cassandra.exporter.Harvest;
+import com.zegelin.cassandra.exporter.FactoriesSupplier;
 import com.zegelin.cassandra.exporter.Harvester;
+import com.zegelin.cassandra.exporter.MetricFamilyFilter;
+import com.zegelin.cassandra.exporter.jfr.Events;
+import com.zegelin.cassandra.exporter.jfr.HttpRequestEvent;
 import com.zegelin.prometheus.domain.Labels;
 import com.zegelin.prometheus.domain.MetricFamily;
 import com.zegelin.prometheus.exposition.json.JsonFormatExposition;
 import com.zegelin.prometheus.exposition.text.TextFormatExposition;
-import com.zegelin.prometheus.exposition.FormattedByteChannel;
+import com.zegelin.prometheus.exposition.FormattedChunkedInput;
+import com.zegelin.prometheus.exposition.FormattedExposition;
+import com.zegelin.prometheus.exposition.MetricFamilyFormat;
+import com.zegelin.prometheus.exposition.ParallelFormattedChunkedInput;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.*;
-import io.netty.handler.stream.ChunkedNioStream;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.concurrent.PromiseNotifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.nio.channels.ReadableByteChannel;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -49,6 +67,8 @@ public class HttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
     private static final MediaType TEXT_FORMAT_004_TYPE = MediaType.create("text", "plain")
             .withParameter("version", TEXT_FORMAT_VERSION_004);
 
+    private static final String SCRAPE_TIMEOUT_HEADER = "X-Prometheus-Scrape-Timeout-Seconds";
+
     private static final ByteBuf ROOT_DOCUMENT = Resources.asByteBuf(HttpHandler.class, "root.html");
 
     private static class HttpException extends RuntimeException {
@@ -72,46 +92,118 @@ public class HttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 
     private final Harvester harvester;
     private final HelpExposition helpExposition;
+    private final ExpositionCache expositionCache;
+
+    // renders metric families in parallel, or null to render each exposition sequentially on the event loop
+    private final Executor expositionExecutor;
+    private final int expositionWindow;
+
+    // the JFR event of the request being processed, or null if not recording
+    private HttpRequestEvent requestEvent;
 
-    public HttpHandler(final Harvester harvester, final HelpExposition helpExposition) {
+    public HttpHandler(final Harvester harvester, final HelpExposition helpExposition, final ExpositionCache expositionCache,
+                       final Executor expositionExecutor, final int expositionWindow) {
         this.harvester = harvester;
         this.helpExposition = helpExposition;
+        this.expositionCache = expositionCache;
+        this.expositionExecutor = expositionExecutor;
+        this.expositionWindow = expositionWindow;
     }
 
     @Override
     protected void channelRead0(final ChannelHandlerContext ctx, final FullHttpRequest request) throws Exception {
         final QueryStringDecoder queryString = new QueryStringDecoder(request.getUri());
 
+        final HttpRequestEvent requestEvent = Events.beginHttpRequest();
+        if (requestEvent != null) {
+            requestEvent.method = request.getMethod().name();
+            requestEvent.uri = request.getUri();
+            requestEvent.acceptEncoding = request.headers().get(HttpHeaders.Names.ACCEPT_ENCODING);
+        }
+        this.requestEvent = requestEvent;
+
         ChannelFuture lastWriteFuture = null;
 
         try {
-            switch (queryString.path()) {
-                case "/":
-                    lastWriteFuture = sendRoot(ctx, request);
-                    return;
+            lastWriteFuture = respond(ctx, request, () -> {
+                switch (queryString.path()) {
+                    case "/":
+                        return sendRoot(ctx, request);
+
+                    case "/metrics":
+                        return sendMetrics(ctx, request, queryString);
+
+                    case "/metrics/exporter":
+                        return sendExporterMetrics(ctx, request);
+
+                    default:
+                        throw new HttpException(HttpResponseStatus.NOT_FOUND, "The requested URI could not be found.");
+                }
+            });
 
-                case "/metrics":
-                    lastWriteFuture = sendMetrics(ctx, request, queryString);
-                    return;
+        } finally {
+            if (lastWriteFuture != null) {
+                if (requestEvent != null) {
+                    lastWriteFuture.addListener(f -> requestEvent.commit());
+                }
 
-                default:
-                    throw new HttpException(HttpResponseStatus.NOT_FOUND, "The requested URI could not be found.");
+                lastWriteFuture.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE)
+                        .addListener(ChannelFutureListener.CLOSE);
             }
 
+            this.requestEvent = null;
+        }
+    }
+
+    /**
+     * Run {@param responder}, sending an error response if it fails.
+     *
+     * @return the future of the last write of the response
+     */
+    private ChannelFuture respond(final ChannelHandlerContext ctx, final HttpRequest request, final Supplier<ChannelFuture> responder) {
+        try {
+            return responder.get();
+
         } catch (final HttpException e) {
-            lastWriteFuture = sendError(ctx, e.responseStatus, e.getMessage());
+            return sendError(ctx, e.responseStatus, e.getMessage());
 
         } catch (final Exception e) {
             logger.error("Exception while processing HTTP request {}.", request, e);
 
-            lastWriteFuture = sendError(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, "An internal server error occurred while processing the request for this URI.");
+            return sendError(ctx, HttpResponseStatus.INTERNAL_SERVER_ERROR, "An internal server error occurred while processing the request for this URI.");
+        }
+    }
 
-        } finally {
-            if (lastWriteFuture != null) {
-                lastWriteFuture.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE)
-                        .addListener(ChannelFutureListener.CLOSE);
+    /**
+     * Respond once {@param future} completes, on the channel's event loop, via {@param responder}.
+     *
+     * @return a future that completes along with the last write of the response
+     */
+    private <T> ChannelFuture respondOnCompletion(final ChannelHandlerContext ctx, final HttpRequest request, final CompletableFuture<T> future,
+                                                  final Function<T, ChannelFuture> responder) {
+        final ChannelPromise promise = ctx.newPromise();
+        final HttpRequestEvent requestEvent = this.requestEvent;
+
+        future.whenComplete((result, throwable) -> ctx.executor().execute(() -> {
+            this.requestEvent = requestEvent;
+
+            try {
+                final ChannelFuture lastWriteFuture = respond(ctx, request, () -> {
+                    if (throwable != null) {
+                        throw new CompletionException(throwable instanceof CompletionException ? throwable.getCause() : throwable);
+                    }
+
+                    return responder.apply(result);
+                });
+
+                lastWriteFuture.addListener(new PromiseNotifier<>(promise));
+
+            } finally {
+                this.requestEvent = null;
             }
-        }
+        }));
+
+        return promise;
     }
 
     @Override
@@ -211,12 +303,21 @@ public class HttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
         return map;
     }
 
+    private ChannelFuture writeResponse(final ChannelHandlerContext ctx, final HttpResponse response) {
+        if (requestEvent != null) {
+            requestEvent.status = response.getStatus().code();
+            requestEvent.contentType = response.headers().get(HttpHeaders.Names.CONTENT_TYPE);
+        }
+
+        return ctx.writeAndFlush(response);
+    }
+
     private ChannelFuture sendError(final ChannelHandlerContext ctx, final HttpResponseStatus status, final String message) {
         final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status, ByteBufUtil.writeUtf8(ctx.alloc(), message));
 
         response.headers().add(HttpHeaders.Names.CONTENT_TYPE, "text/html");
 
-        return ctx.writeAndFlush(response);
+        return writeResponse(ctx, response);
     }
 
     private ChannelFuture sendRoot(final ChannelHandlerContext ctx, final HttpRequest request) {
@@ -228,10 +329,160 @@ public class HttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
         final DefaultFullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
         response.headers().add(HttpHeaders.Names.CONTENT_TYPE, MediaType.HTML_UTF_8);
 
-        return ctx.writeAndFlush(response);
+        return writeResponse(ctx, response);
+    }
+
+    /**
+     * @return true if the Accept-Encoding header of {@param request} accepts gzip, either explicitly or via "*".
+     * An explicit "gzip" entry takes precedence over "*".
+     */
+    static boolean acceptsGzip(final HttpRequest request) {
+        final String headerValue = request.headers().get(HttpHeaders.Names.ACCEPT_ENCODING);
+
+        if (headerValue == null) {
+            return false;
+        }
+
+        Boolean gzipAccepted = null;
+        Boolean wildcardAccepted = null;
+
+        for (final String encoding : Splitter.on(',').trimResults().omitEmptyStrings().split(headerValue)) {
+            final List<String> parts = Splitter.on(';').trimResults().splitToList(encoding);
+
+            // q=0 means "not acceptable"
+            final boolean accepted = parts.stream().skip(1)
+                    .noneMatch(p -> p.replace(" ", "").matches("q=0(\\.0*)?"));
+
+            if (parts.get(0).equalsIgnoreCase(HttpHeaders.Values.GZIP)) {
+                gzipAccepted = accepted;
+
+            } else if (parts.get(0).equals("*")) {
+                wildcardAccepted = accepted;
+            }
+        }
+
+        if (gzipAccepted != null) {
+            return gzipAccepted;
+        }
+
+        return wildcardAccepted != null && wildcardAccepted;
+    }
+
+    /**
+     * Send the complete, cached exposition with a Content-Length.
+     * Responses that are already gzip-encoded carry a Content-Encoding header, which causes the HttpContentCompressor to pass them through untouched.
+     */
+    private ChannelFuture sendCachedExposition(final ChannelHandlerContext ctx, final FullHttpRequest request, final Harvest harvest,
+                                               final MediaType contentType, final String format, final long startNanos, final boolean includeHelp,
+                                               final Supplier<FormattedExposition> expositionSupplier) {
+        final boolean gzip = acceptsGzip(request);
+
+        final long expositionStartNanos = System.nanoTime();
+        final ByteBuf content = expositionCache.get(ctx.alloc(), harvest, contentType, includeHelp, gzip, expositionSupplier);
+        final long expositionNanos = System.nanoTime() - expositionStartNanos;
+        final long contentLength = content.readableBytes();
+
+        final FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+
+        response.headers().set(HttpHeaders.Names.CONTENT_TYPE, contentType);
+        response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, contentLength);
+        response.headers().set(HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING);
+
+        if (gzip) {
+            response.headers().set(HttpHeaders.Names.CONTENT_ENCODING, HttpHeaders.Values.GZIP);
+        }
+
+        final ChannelFuture writeFuture = writeResponse(ctx, response);
+
+        writeFuture.addListener(f -> {
+            if (f.isSuccess()) {
+                harvester.exporterMetrics().recordScrape(format, contentLength, expositionNanos, System.nanoTime() - startNanos);
+            }
+        });
+
+        return writeFuture;
+    }
+
+    /**
+     * Write the chunked exposition and record its cost once it has been completely written.
+     * Metric families are rendered in parallel if an exposition executor is configured.
+     */
+    private ChannelFuture sendChunkedExposition(final ChannelHandlerContext ctx, final Stream<MetricFamily> metricFamilies, final MetricFamilyFormat format, final long startNanos) {
+        final ChunkedInput<ByteBuf> chunkedInput;
+        final LongSupplier formattingNanos;
+
+        if (expositionExecutor != null) {
+            final ChunkedWriteHandler chunkedWriteHandler = ctx.pipeline().get(ChunkedWriteHandler.class);
+
+            // resumed asynchronously, as metric families may complete during ChunkedWriteHandler's read of the input
+            final ParallelFormattedChunkedInput parallelChunkedInput = new ParallelFormattedChunkedInput(metricFamilies, format, expositionExecutor, expositionWindow,
+                    () -> ctx.executor().execute(chunkedWriteHandler::resumeTransfer));
+
+            chunkedInput = parallelChunkedInput;
+            formattingNanos = parallelChunkedInput::formattingNanos;
+
+        } else {
+            final FormattedChunkedInput formattedChunkedInput = new FormattedChunkedInput(format.newExposition(metricFamilies));
+
+            chunkedInput = formattedChunkedInput;
+            formattingNanos = formattedChunkedInput::formattingNanos;
+        }
+
+        final ChannelFuture writeFuture = ctx.writeAndFlush(new HttpChunkedInput(chunkedInput));
+
+        writeFuture.addListener(f -> {
+            if (f.isSuccess()) {
+                harvester.exporterMetrics().recordScrape(format.name(), chunkedInput.progress(), formattingNanos.getAsLong(), System.nanoTime() - startNanos);
+            }
+        });
+
+        return writeFuture;
+    }
+
+    private static MetricFamilyFilter parseMetricFamilyFilter(final QueryStringDecoder queryString) {
+        final Map<String, List<String>> parameters = queryString.parameters();
+
+        final List<String> names = parameters.getOrDefault("name[]", ImmutableList.of());
+        final List<String> prefixes = parameters.getOrDefault("family_prefix", ImmutableList.of());
+
+        final List<FactoriesSupplier.TableMetricScope> scopes = parameters.getOrDefault("scope", ImmutableList.of()).stream()
+                .map(v -> {
+                    try {
+                        return FactoriesSupplier.TableMetricScope.valueOf(v.toUpperCase(Locale.ENGLISH));
+
+                    } catch (final IllegalArgumentException e) {
+                        throw new HttpException(HttpResponseStatus.BAD_REQUEST, "The value specified for 'scope' is invalid.");
+                    }
+                })
+                .collect(Collectors.toList());
+
+        return MetricFamilyFilter.of(names, prefixes, scopes);
+    }
+
+    private static Duration parseScrapeTimeout(final HttpRequest request) {
+        final String headerValue = request.headers().get(SCRAPE_TIMEOUT_HEADER);
+
+        if (headerValue == null) {
+            return null;
+        }
+
+        try {
+            final double seconds = Double.parseDouble(headerValue);
+
+            if (!(seconds > 0) || Double.isInfinite(seconds)) {
+                throw new NumberFormatException();
+            }
+
+            return Duration.ofMillis((long) (seconds * 1000));
+
+        } catch (final NumberFormatException e) {
+            throw new HttpException(HttpResponseStatus.BAD_REQUEST, String.format("The %s header value is invalid.", SCRAPE_TIMEOUT_HEADER));
+        }
     }
 
     private ChannelFuture sendMetrics(final ChannelHandlerContext ctx, final FullHttpRequest request, final QueryStringDecoder queryString) {
+        final long startNanos = System.nanoTime();
+
         checkRequestMethod(request, HttpMethod.GET, HttpMethod.HEAD);
 
         final List<MediaType> acceptedMediaTypes = Optional.ofNullable(queryString.parameters().get("x-accept"))
@@ -279,47 +530,101 @@ public class HttpHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
                     }
                 });
 
+        final MetricFamilyFilter metricFamilyFilter = parseMetricFamilyFilter(queryString);
+        final Duration scrapeTimeout = parseScrapeTimeout(request);
+
         final Multimap<MediaType, MediaType> preferredMediaTypes = checkAndGetPreferredMediaTypes(acceptedMediaTypes, TEXT_FORMAT_004_TYPE, TEXT_PLAIN, APPLICATION_JSON);
+        final MediaType supportedType = preferredMediaTypes.keySet().iterator().next();
 
-        for (final Map.Entry<MediaType, ?> preferredMediaType : preferredMediaTypes.asMap().entrySet()) {
-            final MediaType supportedType = preferredMediaType.getKey();
+        if (request.getMethod() == HttpMethod.HEAD) {
+            // the response has no body, so there's nothing to collect
+            return sendMetricsHeaders(ctx, supportedType);
+        }
 
-            final DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
-            response.headers().set(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
+        final CompletableFuture<Harvest> harvestFuture = harvester.harvestAsync(metricFamilyFilter, scrapeTimeout);
 
-            final Stream<MetricFamily> metricFamilyStream = harvester.collect();
-            final Instant timestamp = Instant.now();
-            final Labels globalLabels = harvester.globalLabels();
+        if (harvestFuture.isDone()) {
+            return sendHarvest(ctx, request, supportedType, includeHelp, harvestFuture.join(), startNanos);
+        }
 
-            ChannelFuture lastWriteFuture = null;
+        // the collection is running off the event loop -- respond once it completes
+        return respondOnCompletion(ctx, request, harvestFuture, harvest -> sendHarvest(ctx, request, supportedType, includeHelp, harvest, startNanos));
+    }
 
-            if (supportedType.equals(TEXT_FORMAT_004_TYPE) || supportedType.equals(TEXT_PLAIN)) {
-                response.headers().set(HttpHeaders.Names.CONTENT_TYPE, TEXT_FORMAT_004_TYPE);
+    private ChannelFuture sendMetricsHeaders(final ChannelHandlerContext ctx, final MediaType supportedType) {
+        final DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
 
-                lastWriteFuture = ctx.writeAndFlush(response);
+        if (supportedType.equals(TEXT_FORMAT_004_TYPE) || supportedType.equals(TEXT_PLAIN)) {
+            response.headers().set(HttpHeaders.Names.CONTENT_TYPE, TEXT_FORMAT_004_TYPE);
 
-                if (request.getMethod() == HttpMethod.GET) {
-                    ReadableByteChannel byteChannel = new FormattedByteChannel(new TextFormatExposition(metricFamilyStream, timestamp, globalLabels, includeHelp));
-                    lastWriteFuture = ctx.writeAndFlush(new HttpChunkedInput(new ChunkedNioStream(byteChannel, FormattedByteChannel.MAX_CHUNK_SIZE)));
-                }
+        } else if (supportedType.equals(APPLICATION_JSON)) {
+            response.headers().set(HttpHeaders.Names.CONTENT_TYPE, MediaType.JSON_UTF_8);
+
+        } else {
+            throw new IllegalStateException();
+        }
+
+        return writeResponse(ctx, response);
+    }
+
+    private ChannelFuture sendHarvest(final ChannelHandlerContext ctx, final FullHttpRequest request, final MediaType supportedType,
+                                      final boolean includeHelp, final Harvest harvest, final long startNanos) {
+        final DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
 
-                return lastWriteFuture;
+        final Instant timestamp = harvest.timestamp;
+        final Labels globalLabels = harvester.globalLabels();
+
+        if (expositionCache != null && expositionCache.isCacheable(harvest)) {
+            // per-request metric families (e.g., the snapshot age) would be frozen by the cache, hence are excluded
+            if (supportedType.equals(TEXT_FORMAT_004_TYPE) || supportedType.equals(TEXT_PLAIN)) {
+                return sendCachedExposition(ctx, request, harvest, TEXT_FORMAT_004_TYPE, "text", startNanos, includeHelp,
+                        () -> new TextFormatExposition(harvest.generationMetricFamilies(), timestamp, globalLabels, includeHelp));
             }
 
             if (supportedType.equals(APPLICATION_JSON)) {
-                response.headers().set(HttpHeaders.Names.CONTENT_TYPE, MediaType.JSON_UTF_8);
+                return sendCachedExposition(ctx, request, harvest, MediaType.JSON_UTF_8, "json", startNanos, includeHelp,
+                        () -> new JsonFormatExposition(harvest.generationMetricFamilies(), timestamp, globalLabels, includeHelp));
+            }
+        }
 
-                lastWriteFuture = ctx.writeAndFlush(response);
+        final Stream<MetricFamily> metricFamilyStream = harvest.metricFamilies();
 
-                if (request.getMethod() == HttpMethod.GET) {
-                    ReadableByteChannel byteChannel = new FormattedByteChannel(new JsonFormatExposition(metricFamilyStream, timestamp, globalLabels, includeHelp));
-                    lastWriteFuture = ctx.writeAndFlush(new HttpChunkedInput(new ChunkedNioStream(byteChannel, FormattedByteChannel.MAX_CHUNK_SIZE)));
-                }
+        if (supportedType.equals(TEXT_FORMAT_004_TYPE) || supportedType.equals(TEXT_PLAIN)) {
+            response.headers().set(HttpHeaders.Names.CONTENT_TYPE, TEXT_FORMAT_004_TYPE);
 
-                return lastWriteFuture;
-            }
+            writeResponse(ctx, response);
+
+            return sendChunkedExposition(ctx, metricFamilyStream, new TextFormatExposition.Format(timestamp, globalLabels, includeHelp), startNanos);
+        }
+
+        if (supportedType.equals(APPLICATION_JSON)) {
+            response.headers().set(HttpHeaders.Names.CONTENT_TYPE, MediaType.JSON_UTF_8);
+
+            writeResponse(ctx, response);
+
+            return sendChunkedExposition(ctx, metricFamilyStream, new JsonFormatExposition.Format(timestamp, globalLabels, includeHelp), startNanos);
         }
 
         throw new IllegalStateException();
     }
+
+    private ChannelFuture sendExporterMetrics(final ChannelHandlerContext ctx, final HttpRequest request) {
+        checkRequestMethod(request, HttpMethod.GET, HttpMethod.HEAD);
+        checkAndGetPreferredMediaTypes(request, TEXT_FORMAT_004_TYPE, TEXT_PLAIN);
+
+        final DefaultHttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
+        response.headers().set(HttpHeaders.Names.CONTENT_TYPE, TEXT_FORMAT_004_TYPE);
+
+        ChannelFuture lastWriteFuture = writeResponse(ctx, response);
+
+        if (request.getMethod() == HttpMethod.GET) {
+            final FormattedExposition exposition = new TextFormatExposition(harvester.exporterMetrics().collect(), Instant.now(), harvester.globalLabels(), true);
+            lastWriteFuture = ctx.writeAndFlush(new HttpChunkedInput(new FormattedChunkedInput(exposition)));
+        }
+
+        return lastWriteFuture;
+    }
 }
@@ -26,6 +26,8 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 
 public class Server {
@@ -44,11 +46,30 @@ public class Server {
         private final Harvester harvester;
         private final HttpHandler.HelpExposition helpExposition;
         private final SslSupport sslSupport;
+        private final ExpositionCache expositionCache;
+        private final ExecutorService expositionExecutorService;
+        private final int expositionWindow;
 
         ChildInitializer(final Harvester harvester, final HttpServerOptions httpServerOptions) {
             this.harvester = harvester;
             this.helpExposition = httpServerOptions.helpExposition;
             this.sslSupport = new SslSupport(httpServerOptions);
+            this.expositionCache = httpServerOptions.expositionCacheEnabled ? new ExpositionCache() : null;
+            this.expositionWindow = httpServerOptions.expositionWindow;
+
+            if (httpServerOptions.expositionThreads > 0) {
+                if (expositionWindow < 1) {
+                    throw new IllegalArgumentException("--exposition-window must be at least 1.");
+                }
+
+                this.expositionExecutorService = Executors.newFixedThreadPool(httpServerOptions.expositionThreads, new ThreadFactoryBuilder()
+                        .setNameFormat("cassandra-exporter-exposition-%d")
+                        .setDaemon(true)
+                        .build());
+
+            } else {
+                this.expositionExecutorService = null;
+            }
         }
 
         @Override
@@ -58,7 +79,7 @@ public class Server {
                     .addLast(new HttpObjectAggregator(1048576))
                     .addLast(new HttpContentCompressor())
                     .addLast(new ChunkedWriteHandler())
-                    .addLast(new HttpHandler(harvester, helpExposition))
+                    .addLast(new HttpHandler(harvester, helpExposition, expositionCache, expositionExecutorService, expositionWindow))
                     .addLast(new SuppressingExceptionHandler());
 
             sslSupport.maybeAddHandler(ch);
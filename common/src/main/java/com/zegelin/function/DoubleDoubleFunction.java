@@ -0,0 +1,10 @@
+package com.zegelin.function;
+
+@FunctionalInterface
+public interface DoubleDoubleFunction {
+    double apply(double d);
+
+    static DoubleDoubleFunction identity() {
+        return (d) -> d;
+    }
+}
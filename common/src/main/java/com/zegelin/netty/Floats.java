@@ -1,30 +1,111 @@
 package com.zegelin.netty;
 
+import info.adams.ryu.RyuDouble;
 import info.adams.ryu.RyuFloat;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
 
-import java.nio.ByteBuffer;
-
-import static java.nio.charset.StandardCharsets.US_ASCII;
-
 public final class Floats {
     public static boolean useFastFloat = true;
 
     private Floats() {}
 
     public static int writeFloatString(final ByteBuf buffer, final float f) {
-        return ByteBufUtil.writeAscii(buffer, Float.toString(f));
+        if (useFastFloat) {
+            return RyuFloat.floatToString(buffer, f);
+        } else {
+            return ByteBufUtil.writeAscii(buffer, Float.toString(f));
+        }
     }
 
-    public static int writeFloatString(final ByteBuffer buffer, final float f) {
+    // doubles with an absolute value below this are integers iff they're exactly representable as a long
+    private static final double MAX_EXACT_INTEGRAL_DOUBLE = 1L << 53;
+
+    private static boolean isExactIntegral(final double d) {
+        return d > -MAX_EXACT_INTEGRAL_DOUBLE && d < MAX_EXACT_INTEGRAL_DOUBLE && d == (long) d;
+    }
+
+    /***
+     * Write a double. Integral values (counts, bytes, etc) are written as plain integers, without a fractional part.
+     */
+    public static int writeDoubleString(final ByteBuf buffer, final double d) {
         if (useFastFloat) {
-            return RyuFloat.floatToString(buffer, f);
+            if (isExactIntegral(d)) {
+                return writeLongString(buffer, (long) d);
+            }
+
+            return RyuDouble.doubleToString(buffer, d);
         } else {
-            byte[] byteBuffer = Float.toString(f).getBytes(US_ASCII);
-            int size = byteBuffer.length;
-            buffer.put(byteBuffer);
-            return size;
+            return ByteBufUtil.writeAscii(buffer, Double.toString(d));
         }
     }
+
+
+    private static final byte[] DIGIT_PAIRS = new byte[200];
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[i * 2] = (byte) ('0' + i / 10);
+            DIGIT_PAIRS[i * 2 + 1] = (byte) ('0' + i % 10);
+        }
+
+        long power = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+    }
+
+    /***
+     * @return the number of decimal digits in v (v >= 0), without a loop or a chain of comparisons.
+     */
+    private static int decimalLength(final long v) {
+        // log10(v) ~= log2(v) * 1233 / 4096, which may under-estimate by one
+        final int guess = ((64 - Long.numberOfLeadingZeros(v | 1)) * 1233) >>> 12;
+
+        return guess + (guess < POWERS_OF_TEN.length && v >= POWERS_OF_TEN[guess] ? 1 : 0);
+    }
+
+    public static int writeLongString(final ByteBuf buffer, long l) {
+        if (l == Long.MIN_VALUE) {
+            return ByteBufUtil.writeAscii(buffer, Long.toString(l));
+        }
+
+        buffer.ensureWritable(20);
+        final int start = buffer.writerIndex();
+        int index = start;
+
+        if (l < 0) {
+            buffer.setByte(index++, '-');
+            l = -l;
+        }
+
+        final int length = Math.max(1, decimalLength(l));
+        int position = index + length;
+
+        // two digits at a time, from the least significant end
+        while (l >= 100) {
+            final int pair = (int) (l % 100) * 2;
+            l /= 100;
+
+            position -= 2;
+            buffer.setByte(position, DIGIT_PAIRS[pair]);
+            buffer.setByte(position + 1, DIGIT_PAIRS[pair + 1]);
+        }
+
+        if (l >= 10) {
+            final int pair = (int) l * 2;
+            buffer.setByte(position - 2, DIGIT_PAIRS[pair]);
+            buffer.setByte(position - 1, DIGIT_PAIRS[pair + 1]);
+
+        } else {
+            buffer.setByte(position - 1, (int) ('0' + l));
+        }
+
+        index += length;
+
+        buffer.writerIndex(index);
+        return index - start;
+    }
 }
@@ -29,11 +29,11 @@ public class HistogramMetricFamily extends MetricFamily<HistogramMetricFamily.Hi
     }
 
     public static class Histogram extends Metric {
-        public final float sum;
-        public final float count;
+        public final double sum;
+        public final double count;
         public final Iterable<Interval> buckets;
 
-        public Histogram(final Labels labels, final float sum, final float count, final Iterable<Interval> buckets) {
+        public Histogram(final Labels labels, final double sum, final double count, final Iterable<Interval> buckets) {
             super(labels);
 
             this.sum = sum;
@@ -2,7 +2,7 @@ package com.zegelin.prometheus.domain;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.zegelin.function.FloatFloatFunction;
+import com.zegelin.function.DoubleDoubleFunction;
 
 import java.util.Set;
 import java.util.function.Function;
@@ -30,9 +30,13 @@ public final class Interval {
         private final Labels summaryLabel, histogramLabel;
 
         public Quantile(final float value) {
+            this(value, Float.toString(value));
+        }
+
+        private Quantile(final float value, final String stringRepr) {
             this.value = value;
 
-            this.stringRepr = Float.toString(value);
+            this.stringRepr = stringRepr;
             this.summaryLabel = Labels.of("quantile", this.stringRepr);
             this.histogramLabel = Labels.of("le", this.stringRepr);
         }
@@ -41,6 +45,13 @@ public final class Interval {
             return new Quantile(value);
         }
 
+        /**
+         * A histogram bucket upper bound, labeled with full double precision (large bucket bounds aren't exactly representable as floats).
+         */
+        public static Quantile le(final double upperBound) {
+            return new Quantile((float) upperBound, Double.toString(upperBound));
+        }
+
         public Labels asSummaryLabel() {
             return summaryLabel;
         }
@@ -56,19 +67,19 @@ public final class Interval {
     }
 
     public final Quantile quantile;
-    public final float value;
+    public final double value;
 
-    public Interval(final Quantile quantile, final float value) {
+    public Interval(final Quantile quantile, final double value) {
         this.quantile = quantile;
         this.value = value;
     }
 
-    public static Iterable<Interval> asIntervals(final Iterable<Quantile> quantiles, final Function<Quantile, Float> valueFn) {
+    public static Iterable<Interval> asIntervals(final Iterable<Quantile> quantiles, final Function<Quantile, Double> valueFn) {
         return Iterables.transform(quantiles, q -> new Interval(q, valueFn.apply(q)));
     }
 
-    public Interval transform(final FloatFloatFunction valueTransformFn) {
-        if (valueTransformFn == FloatFloatFunction.identity())
+    public Interval transform(final DoubleDoubleFunction valueTransformFn) {
+        if (valueTransformFn == DoubleDoubleFunction.identity())
             return this;
 
         return new Interval(this.quantile, valueTransformFn.apply(this.value));
@@ -6,13 +6,49 @@ import com.zegelin.prometheus.exposition.json.JsonFormatExposition;
 import com.zegelin.prometheus.exposition.text.TextFormatLabels;
 import io.netty.buffer.ByteBuf;
 
+import java.util.Arrays;
 import java.util.Map;
 
 public final class Labels extends ForwardingMap<String, String> {
     private final ImmutableMap<String, String> labels;
     private final boolean isEmpty;
 
-    private ByteBuf plainTextFormatUTF8EncodedByteBuf, jsonFormatUTF8EncodedByteBuf;
+    // lazily built, by double-checked locking, as the same Labels (e.g., the global labels) may be first written by
+    // concurrent exposition threads, and a ByteBuf's indexes aren't safe to publish via a plain field
+    private volatile ByteBuf plainTextFormatUTF8EncodedByteBuf, jsonFormatUTF8EncodedByteBuf;
+
+    private static final class SeriesPrefix {
+        final String familyName, suffix;
+        final Labels extraLabels, globalLabels;
+        final byte[] encoded;
+
+        SeriesPrefix(final String familyName, final String suffix, final Labels extraLabels, final Labels globalLabels, final byte[] encoded) {
+            this.familyName = familyName;
+            this.suffix = suffix;
+            this.extraLabels = extraLabels;
+            this.globalLabels = globalLabels;
+            this.encoded = encoded;
+        }
+
+        boolean matches(final String familyName, final String suffix, final Labels extraLabels, final Labels globalLabels) {
+            // Labels are compared by identity -- equal but distinct instances just cost an extra cache entry
+            return this.extraLabels == extraLabels && this.globalLabels == globalLabels
+                    && (this.familyName == familyName || this.familyName.equals(familyName))
+                    && (this.suffix == suffix || (this.suffix != null && this.suffix.equals(suffix)));
+        }
+    }
+
+    // a Labels instance typically belongs to a single metric, whose series all share it -- a histogram has _sum, _count
+    // and a series per bucket (around 30 for Cassandra's EstimatedHistograms), so leave room for a complete histogram
+    private static final int MAX_SERIES_PREFIXES = 64;
+    private static final SeriesPrefix[] NO_SERIES_PREFIXES = new SeriesPrefix[0];
+
+    // copy-on-write, as the same Labels may be written by concurrent expositions
+    private volatile SeriesPrefix[] plainTextFormatSeriesPrefixes = NO_SERIES_PREFIXES;
+
+    // series are written in the same order every exposition, so lookups start after the last hit.
+    // only a hint, hence racy updates are harmless
+    private int nextSeriesPrefixIndex = 0;
 
     public Labels(final Map<String, String> labels) {
         this.labels = ImmutableMap.copyOf(labels);
@@ -38,19 +74,72 @@ public final class Labels extends ForwardingMap<String, String> {
     }
 
     public ByteBuf asPlainTextFormatUTF8EncodedByteBuf() {
-        if (plainTextFormatUTF8EncodedByteBuf == null) {
-            this.plainTextFormatUTF8EncodedByteBuf = TextFormatLabels.formatLabels(labels);
+        ByteBuf byteBuf = plainTextFormatUTF8EncodedByteBuf;
+
+        if (byteBuf == null) {
+            synchronized (this) {
+                byteBuf = plainTextFormatUTF8EncodedByteBuf;
+
+                if (byteBuf == null) {
+                    byteBuf = TextFormatLabels.formatLabels(labels);
+                    this.plainTextFormatUTF8EncodedByteBuf = byteBuf;
+                }
+            }
+        }
+
+        return byteBuf;
+    }
+
+    /***
+     * @return the encoded text format series prefix (name, suffix, label sets and trailing space) for a sample with these Labels.
+     * Prefixes are built once and cached for the lifetime of this Labels instance.
+     */
+    public byte[] asPlainTextFormatSeriesPrefix(final String familyName, final String suffix, final Labels extraLabels, final Labels globalLabels) {
+        final SeriesPrefix[] prefixes = this.plainTextFormatSeriesPrefixes;
+        final int start = (nextSeriesPrefixIndex < prefixes.length ? nextSeriesPrefixIndex : 0);
+
+        for (int i = 0; i < prefixes.length; i++) {
+            final int index = (start + i) % prefixes.length;
+
+            if (prefixes[index].matches(familyName, suffix, extraLabels, globalLabels)) {
+                nextSeriesPrefixIndex = index + 1;
+                return prefixes[index].encoded;
+            }
+        }
+
+        final byte[] encoded = TextFormatLabels.formatSeriesPrefix(familyName, suffix, this, extraLabels, globalLabels);
+        final SeriesPrefix prefix = new SeriesPrefix(familyName, suffix, extraLabels, globalLabels, encoded);
+
+        // when full (e.g. the global labels changed), start again rather than grow unbounded.
+        // racing writers may lose an entry, which will be rebuilt next time.
+        if (prefixes.length >= MAX_SERIES_PREFIXES) {
+            this.plainTextFormatSeriesPrefixes = new SeriesPrefix[]{prefix};
+
+        } else {
+            final SeriesPrefix[] newPrefixes = Arrays.copyOf(prefixes, prefixes.length + 1);
+            newPrefixes[prefixes.length] = prefix;
+
+            this.plainTextFormatSeriesPrefixes = newPrefixes;
         }
 
-        return plainTextFormatUTF8EncodedByteBuf;
+        return encoded;
     }
 
     public ByteBuf asJSONFormatUTF8EncodedByteBuf() {
-        if (jsonFormatUTF8EncodedByteBuf == null) {
-            this.jsonFormatUTF8EncodedByteBuf = JsonFormatExposition.formatLabels(labels);
+        ByteBuf byteBuf = jsonFormatUTF8EncodedByteBuf;
+
+        if (byteBuf == null) {
+            synchronized (this) {
+                byteBuf = jsonFormatUTF8EncodedByteBuf;
+
+                if (byteBuf == null) {
+                    byteBuf = JsonFormatExposition.formatLabels(labels);
+                    this.jsonFormatUTF8EncodedByteBuf = byteBuf;
+                }
+            }
         }
 
-        return jsonFormatUTF8EncodedByteBuf;
+        return byteBuf;
     }
 
     @Override
@@ -1,9 +1,9 @@
 package com.zegelin.prometheus.domain;
 
 public class NumericMetric extends Metric {
-    public final float value;
+    public final double value;
 
-    public NumericMetric(final Labels labels, final float value) {
+    public NumericMetric(final Labels labels, final double value) {
         super(labels);
         this.value = value;
     }
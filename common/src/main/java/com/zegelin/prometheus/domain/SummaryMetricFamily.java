@@ -29,11 +29,11 @@ public class SummaryMetricFamily extends MetricFamily<SummaryMetricFamily.Summar
     }
 
     public static class Summary extends Metric {
-        public final float sum;
-        public final float count;
+        public final double sum;
+        public final double count;
         public final Iterable<Interval> quantiles;
 
-        public Summary(final Labels labels, final float sum, final float count, final Iterable<Interval> quantiles) {
+        public Summary(final Labels labels, final double sum, final double count, final Iterable<Interval> quantiles) {
             super(labels);
 
             this.sum = sum;
@@ -7,12 +7,18 @@ public interface ExpositionSink<T> {
 
     void writeBytes(ByteBuffer nioBuffer);
 
+    void writeBytes(byte[] bytes);
+
     void writeAscii(String asciiString);
 
     void writeUtf8(String utf8String);
 
     void writeFloat(float value);
 
+    void writeDouble(double value);
+
+    void writeLong(long value);
+
     T getBuffer();
 
     int getIngestedByteCount();
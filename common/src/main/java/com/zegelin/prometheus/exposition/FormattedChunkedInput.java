@@ -0,0 +1,87 @@
+package com.zegelin.prometheus.exposition;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+
+/***
+ * A {@link ChunkedInput} that writes {@link FormattedExposition} slices directly into (pooled, direct) Netty buffers,
+ * without an intermediate NIO buffer and copy.
+ *
+ * Backpressure is provided by ChunkedWriteHandler, which only reads the next chunk when the channel is writable.
+ */
+public class FormattedChunkedInput implements ChunkedInput<ByteBuf> {
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    // stop filling a chunk once it has less than this free, so that the final slice usually fits without the buffer having to grow
+    private static final int SLICE_HEADROOM = 64 * 1024;
+
+    private final FormattedExposition formattedExposition;
+
+    private long progress = 0;
+    private long formattingNanos = 0;
+
+    public FormattedChunkedInput(final FormattedExposition formattedExposition) {
+        this.formattedExposition = formattedExposition;
+    }
+
+    @Override
+    public boolean isEndOfInput() {
+        return formattedExposition.isEndOfInput();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Deprecated
+    @Override
+    public ByteBuf readChunk(final ChannelHandlerContext ctx) {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public ByteBuf readChunk(final ByteBufAllocator allocator) {
+        if (isEndOfInput()) {
+            return null;
+        }
+
+        final long startNanos = System.nanoTime();
+
+        final ByteBuf buffer = allocator.directBuffer(CHUNK_SIZE);
+        final NettyExpositionSink sink = new NettyExpositionSink(buffer);
+
+        try {
+            while (buffer.writableBytes() > SLICE_HEADROOM && !isEndOfInput()) {
+                formattedExposition.nextSlice(sink);
+            }
+
+        } catch (final RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+
+        progress += sink.getIngestedByteCount();
+        formattingNanos += System.nanoTime() - startNanos;
+
+        return buffer;
+    }
+
+    @Override
+    public long length() {
+        return -1;
+    }
+
+    @Override
+    public long progress() {
+        return progress;
+    }
+
+    /**
+     * @return the cumulative time spent formatting chunks (excluding time spent waiting for the channel to become writable)
+     */
+    public long formattingNanos() {
+        return formattingNanos;
+    }
+}
@@ -0,0 +1,36 @@
+package com.zegelin.prometheus.exposition;
+
+import com.google.common.base.Stopwatch;
+import com.zegelin.prometheus.domain.MetricFamily;
+
+import java.util.stream.Stream;
+
+/***
+ * An exposition format, split into a header, the rendering of each individual metric family, and a footer.
+ *
+ * Each metric family is rendered independently of all others, which allows families to be rendered concurrently
+ * (see {@link ParallelFormattedChunkedInput}) and the results concatenated, in order, between the header and footer.
+ */
+public interface MetricFamilyFormat {
+    /**
+     * @return the short name of this format, e.g. "text" or "json"
+     */
+    String name();
+
+    void writeHeader(final ExpositionSink<?> sink);
+
+    /**
+     * Write a complete metric family. Must be safe to call concurrently.
+     *
+     * @param index the position of the metric family in the exposition, starting at 0
+     * @return the number of metrics written
+     */
+    int writeMetricFamily(final ExpositionSink<?> sink, final MetricFamily<?> metricFamily, final int index);
+
+    void writeFooter(final ExpositionSink<?> sink, final int metricFamilyCount, final int metricCount, final Stopwatch stopwatch);
+
+    /**
+     * @return a {@link FormattedExposition} that sequentially renders {@param metricFamilies} in this format
+     */
+    FormattedExposition newExposition(final Stream<MetricFamily> metricFamilies);
+}
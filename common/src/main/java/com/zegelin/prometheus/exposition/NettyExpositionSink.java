@@ -26,6 +26,12 @@ public class NettyExpositionSink implements ExpositionSink<ByteBuf> {
         buffer.writeBytes(nioBuffer);
     }
 
+    @Override
+    public void writeBytes(byte[] bytes) {
+        ingestedByteCount += bytes.length;
+        buffer.writeBytes(bytes);
+    }
+
     @Override
     public void writeAscii(String asciiString) {
         ingestedByteCount += ByteBufUtil.writeAscii(buffer, asciiString);
@@ -41,6 +47,16 @@ public class NettyExpositionSink implements ExpositionSink<ByteBuf> {
         ingestedByteCount += Floats.writeFloatString(buffer, value);
     }
 
+    @Override
+    public void writeDouble(double value) {
+        ingestedByteCount += Floats.writeDoubleString(buffer, value);
+    }
+
+    @Override
+    public void writeLong(long value) {
+        ingestedByteCount += Floats.writeLongString(buffer, value);
+    }
+
     @Override
     public ByteBuf getBuffer() {
         return buffer;
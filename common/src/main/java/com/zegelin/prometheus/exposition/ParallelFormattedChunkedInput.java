@@ -0,0 +1,284 @@
+package com.zegelin.prometheus.exposition;
+
+import com.google.common.base.Stopwatch;
+import com.zegelin.cassandra.exporter.jfr.Events;
+import com.zegelin.cassandra.exporter.jfr.ExpositionEvent;
+import com.zegelin.prometheus.domain.MetricFamily;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/***
+ * A {@link ChunkedInput} that renders each metric family into its own (pooled, direct) Netty buffer on an
+ * {@link Executor}, and emits the rendered families in order as they complete.
+ *
+ * At most {@code window} metric families are rendered or awaiting emission at any one time, which bounds memory use.
+ * When the next metric family in order has yet to complete, {@link #readChunk(ByteBufAllocator)} returns null,
+ * which pauses ChunkedWriteHandler until {@code onRenderComplete} calls its {@code resumeTransfer()}.
+ *
+ * Not thread safe -- other than the rendering itself, all methods are expected to be called from the channel's event loop.
+ */
+public class ParallelFormattedChunkedInput implements ChunkedInput<ByteBuf> {
+    // chunks are composed of (not copies of) the rendered metric family buffers
+    private static final int MAX_CHUNK_COMPONENTS = 1024;
+
+    private static final int INITIAL_METRIC_FAMILY_BUFFER_SIZE = 16 * 1024;
+
+    private enum State {
+        HEADER,
+        METRIC_FAMILIES,
+        FOOTER,
+        EOF
+    }
+
+    private static final class RenderedMetricFamily {
+        final ByteBuf buffer;
+        final int metricCount;
+        final long renderNanos;
+
+        RenderedMetricFamily(final ByteBuf buffer, final int metricCount, final long renderNanos) {
+            this.buffer = buffer;
+            this.metricCount = metricCount;
+            this.renderNanos = renderNanos;
+        }
+    }
+
+    private final Iterator<MetricFamily> metricFamilyIterator;
+    private final MetricFamilyFormat format;
+    private final Executor executor;
+    private final int window;
+    private final Runnable onRenderComplete;
+
+    // in exposition order
+    private final ArrayDeque<CompletableFuture<RenderedMetricFamily>> pendingMetricFamilies = new ArrayDeque<>();
+
+    private State state = State.HEADER;
+    private boolean closed = false;
+
+    private int submittedMetricFamilyCount = 0;
+    private int metricFamilyCount = 0;
+    private int metricCount = 0;
+
+    private long progress = 0;
+    private long formattingNanos = 0;
+
+    private final Stopwatch stopwatch = Stopwatch.createUnstarted();
+
+    private ExpositionEvent event;
+
+    /**
+     * @param window the maximum number of metric families being rendered or awaiting emission
+     * @param onRenderComplete called, from any thread, whenever a metric family has been rendered. May be called
+     *                         during {@link #readChunk(ByteBufAllocator)}, so must not synchronously read from this input.
+     */
+    public ParallelFormattedChunkedInput(final Stream<MetricFamily> metricFamilies, final MetricFamilyFormat format,
+                                         final Executor executor, final int window, final Runnable onRenderComplete) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be >= 1.");
+        }
+
+        this.metricFamilyIterator = metricFamilies.iterator();
+        this.format = format;
+        this.executor = executor;
+        this.window = window;
+        this.onRenderComplete = onRenderComplete;
+    }
+
+    @Override
+    public boolean isEndOfInput() {
+        return state == State.EOF;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        // release everything that was rendered but not emitted, including those still rendering
+        for (final CompletableFuture<RenderedMetricFamily> pendingMetricFamily : pendingMetricFamilies) {
+            pendingMetricFamily.thenAccept(renderedMetricFamily -> renderedMetricFamily.buffer.release());
+        }
+
+        pendingMetricFamilies.clear();
+    }
+
+    @Deprecated
+    @Override
+    public ByteBuf readChunk(final ChannelHandlerContext ctx) {
+        return readChunk(ctx.alloc());
+    }
+
+    private RenderedMetricFamily render(final ByteBufAllocator allocator, final MetricFamily<?> metricFamily, final int index) {
+        final long startNanos = System.nanoTime();
+
+        final ByteBuf buffer = allocator.directBuffer(INITIAL_METRIC_FAMILY_BUFFER_SIZE);
+
+        try {
+            final int metricCount = format.writeMetricFamily(new NettyExpositionSink(buffer), metricFamily, index);
+
+            return new RenderedMetricFamily(buffer, metricCount, System.nanoTime() - startNanos);
+
+        } catch (final RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+
+    private void submitMetricFamilies(final ByteBufAllocator allocator) {
+        while (pendingMetricFamilies.size() < window && metricFamilyIterator.hasNext()) {
+            final MetricFamily<?> metricFamily = metricFamilyIterator.next();
+            final int index = submittedMetricFamilyCount++;
+
+            final CompletableFuture<RenderedMetricFamily> future = CompletableFuture.supplyAsync(() -> render(allocator, metricFamily, index), executor);
+
+            pendingMetricFamilies.add(future);
+
+            future.whenComplete((renderedMetricFamily, throwable) -> onRenderComplete.run());
+        }
+    }
+
+    private static RenderedMetricFamily join(final CompletableFuture<RenderedMetricFamily> future) {
+        try {
+            return future.join();
+
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw e;
+        }
+    }
+
+    @Override
+    public ByteBuf readChunk(final ByteBufAllocator allocator) {
+        if (isEndOfInput() || closed) {
+            return null;
+        }
+
+        final long startNanos = System.nanoTime();
+
+        final CompositeByteBuf chunk = allocator.compositeDirectBuffer(MAX_CHUNK_COMPONENTS);
+
+        try {
+            if (state == State.HEADER) {
+                stopwatch.start();
+                event = Events.beginExposition(format.name());
+
+                final ByteBuf header = allocator.directBuffer();
+                try {
+                    format.writeHeader(new NettyExpositionSink(header));
+
+                } catch (final RuntimeException e) {
+                    header.release();
+                    throw e;
+                }
+
+                chunk.addComponent(true, header);
+
+                state = State.METRIC_FAMILIES;
+            }
+
+            submitMetricFamilies(allocator);
+
+            while (state == State.METRIC_FAMILIES && chunk.readableBytes() < FormattedChunkedInput.CHUNK_SIZE && chunk.numComponents() < MAX_CHUNK_COMPONENTS - 1) {
+                final CompletableFuture<RenderedMetricFamily> next = pendingMetricFamilies.peek();
+
+                if (next == null) {
+                    state = State.FOOTER; // all metric families have been emitted
+                    break;
+                }
+
+                if (!next.isDone()) {
+                    break; // wait for onRenderComplete
+                }
+
+                pendingMetricFamilies.poll();
+
+                final RenderedMetricFamily renderedMetricFamily = join(next);
+
+                chunk.addComponent(true, renderedMetricFamily.buffer);
+
+                metricFamilyCount++;
+                metricCount += renderedMetricFamily.metricCount;
+                formattingNanos += renderedMetricFamily.renderNanos;
+
+                submitMetricFamilies(allocator);
+            }
+
+            if (state == State.FOOTER) {
+                stopwatch.stop();
+
+                final ByteBuf footer = allocator.directBuffer();
+                try {
+                    format.writeFooter(new NettyExpositionSink(footer), metricFamilyCount, metricCount, stopwatch);
+
+                } catch (final RuntimeException e) {
+                    footer.release();
+                    throw e;
+                }
+
+                chunk.addComponent(true, footer);
+
+                state = State.EOF;
+            }
+
+        } catch (final RuntimeException e) {
+            chunk.release();
+            throw e;
+        }
+
+        formattingNanos += System.nanoTime() - startNanos;
+
+        if (event != null) {
+            event.bytes += chunk.readableBytes();
+
+            if (state == State.EOF) {
+                event.metricFamilies = metricFamilyCount;
+                event.series = metricCount;
+                event.commit();
+
+                event = null;
+            }
+        }
+
+        if (!chunk.isReadable()) {
+            chunk.release();
+            return null; // nothing is ready yet
+        }
+
+        progress += chunk.readableBytes();
+
+        return chunk;
+    }
+
+    @Override
+    public long length() {
+        return -1;
+    }
+
+    @Override
+    public long progress() {
+        return progress;
+    }
+
+    /**
+     * @return the cumulative time spent formatting, including the time spent rendering each metric family on the
+     * executor (excluding time spent waiting for the channel to become writable, or for metric families to complete)
+     */
+    public long formattingNanos() {
+        return formattingNanos;
+    }
+}
@@ -3,9 +3,12 @@ package com.zegelin.prometheus.exposition.json;
 import com.google.common.base.Stopwatch;
 import com.google.common.escape.CharEscaperBuilder;
 import com.google.common.escape.Escaper;
+import com.zegelin.cassandra.exporter.jfr.Events;
+import com.zegelin.cassandra.exporter.jfr.ExpositionEvent;
 import com.zegelin.prometheus.domain.*;
 import com.zegelin.prometheus.exposition.ExpositionSink;
 import com.zegelin.prometheus.exposition.FormattedExposition;
+import com.zegelin.prometheus.exposition.MetricFamilyFormat;
 import com.zegelin.prometheus.exposition.NettyExpositionSink;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -54,11 +57,82 @@ public class JsonFormatExposition implements FormattedExposition {
             .toEscaper();
 
 
+    public static class Format implements MetricFamilyFormat {
+        private final Instant timestamp;
+        private final Labels globalLabels;
+        private final boolean includeHelp;
+
+        public Format(final Instant timestamp, final Labels globalLabels, final boolean includeHelp) {
+            this.timestamp = timestamp;
+            this.globalLabels = globalLabels;
+            this.includeHelp = includeHelp;
+        }
+
+        @Override
+        public String name() {
+            return "json";
+        }
+
+        @Override
+        public void writeHeader(final ExpositionSink<?> sink) {
+            JsonToken.OBJECT_START.write(sink);
+
+            writeObjectKey(sink, "timestamp");
+            writeLong(sink, timestamp.toEpochMilli());
+
+            JsonToken.COMMA.write(sink);
+
+            writeObjectKey(sink, "globalLabels");
+            sink.writeBytes(globalLabels.asJSONFormatUTF8EncodedByteBuf().nioBuffer());
+
+            JsonToken.COMMA.write(sink);
+
+            writeObjectKey(sink, "metricFamilies");
+            JsonToken.OBJECT_START.write(sink);
+        }
+
+        @Override
+        public int writeMetricFamily(final ExpositionSink<?> sink, final MetricFamily<?> metricFamily, final int index) {
+            if (index > 0) {
+                JsonToken.COMMA.write(sink); // separate from previous family
+            }
+
+            final MetricFamilyWriter metricFamilyWriter = new MetricFamilyWriter(metricFamily, includeHelp);
+
+            metricFamilyWriter.writeFamilyHeader(sink);
+
+            int metricCount = 0;
+            while (metricFamilyWriter.writeMetric(sink)) {
+                metricCount++;
+            }
+
+            metricFamilyWriter.writeFamilyFooter(sink);
+
+            return metricCount;
+        }
+
+        @Override
+        public void writeFooter(final ExpositionSink<?> sink, final int metricFamilyCount, final int metricCount, final Stopwatch stopwatch) {
+            JsonToken.OBJECT_END.write(sink); // end of "metricFamilies"
+
+            JsonToken.COMMA.write(sink);
+
+            writeObjectKey(sink, "statistics");
+            writeStatistics(sink, metricFamilyCount, metricCount, stopwatch);
+
+            JsonToken.OBJECT_END.write(sink); // end of main object
+        }
+
+        @Override
+        public FormattedExposition newExposition(final Stream<MetricFamily> metricFamilies) {
+            return new JsonFormatExposition(metricFamilies, this);
+        }
+    }
+
+
     private final Iterator<MetricFamily> metricFamilyIterator;
 
-    private final Instant timestamp;
-    private final Labels globalLabels;
-    private final boolean includeHelp;
+    private final Format format;
 
     private State state = State.HEADER;
     private MetricFamilyWriter metricFamilyWriter;
@@ -68,12 +142,16 @@ public class JsonFormatExposition implements FormattedExposition {
 
     private final Stopwatch stopwatch = Stopwatch.createUnstarted();
 
+    private ExpositionEvent event;
 
-    public JsonFormatExposition(final Stream<MetricFamily> metricFamilies, final Instant timestamp, final Labels globalLabels, final boolean includeHelp) {
+
+    public JsonFormatExposition(final Stream<MetricFamily> metricFamilies, final Format format) {
         this.metricFamilyIterator = metricFamilies.iterator();
-        this.timestamp = timestamp;
-        this.globalLabels = globalLabels;
-        this.includeHelp = includeHelp;
+        this.format = format;
+    }
+
+    public JsonFormatExposition(final Stream<MetricFamily> metricFamilies, final Instant timestamp, final Labels globalLabels, final boolean includeHelp) {
+        this(metricFamilies, new Format(timestamp, globalLabels, includeHelp));
     }
 
     @Override
@@ -105,7 +183,9 @@ public class JsonFormatExposition implements FormattedExposition {
     }
 
 
-    class MetricFamilyWriter {
+    static class MetricFamilyWriter {
+        private final boolean includeHelp;
+
         private final Consumer<ExpositionSink<?>> headerWriter;
         private final Function<ExpositionSink<?>, Boolean> metricWriter;
 
@@ -198,25 +278,25 @@ public class JsonFormatExposition implements FormattedExposition {
             @Override
             public Function<ExpositionSink<?>, Boolean> visit(final CounterMetricFamily metricFamily) {
                 return metricWriter(metricFamily, (counter, buffer) -> {
-                    writeFloat(buffer, counter.value);
+                    writeDouble(buffer, counter.value);
                 });
             }
 
             @Override
             public Function<ExpositionSink<?>, Boolean> visit(final GaugeMetricFamily metricFamily) {
                 return metricWriter(metricFamily, (gauge, buffer) -> {
-                    writeFloat(buffer, gauge.value);
+                    writeDouble(buffer, gauge.value);
                 });
             }
 
-            private void writeSumAndCount(final ExpositionSink<?> buffer, final float sum, final float count) {
+            private void writeSumAndCount(final ExpositionSink<?> buffer, final double sum, final double count) {
                 writeObjectKey(buffer, "sum");
-                writeFloat(buffer, sum);
+                writeDouble(buffer, sum);
 
                 JsonToken.COMMA.write(buffer);
 
                 writeObjectKey(buffer, "count");
-                writeFloat(buffer, count);
+                writeDouble(buffer, count);
             }
 
             private void writeIntervals(final ExpositionSink<?> buffer, final Iterable<Interval> intervals) {
@@ -228,7 +308,7 @@ public class JsonFormatExposition implements FormattedExposition {
                     final Interval interval = iterator.next();
 
                     writeObjectKey(buffer, interval.quantile.toString());
-                    writeFloat(buffer, interval.value);
+                    writeDouble(buffer, interval.value);
 
                     if (iterator.hasNext()) {
                         JsonToken.COMMA.write(buffer);
@@ -273,12 +353,14 @@ public class JsonFormatExposition implements FormattedExposition {
             @Override
             public Function<ExpositionSink<?>, Boolean> visit(final UntypedMetricFamily metricFamily) {
                 return metricWriter(metricFamily, (untyped, buffer) -> {
-                    buffer.writeFloat(untyped.value);
+                    writeDouble(buffer, untyped.value);
                 });
             }
         }
 
-        MetricFamilyWriter(final MetricFamily<?> metricFamily) {
+        MetricFamilyWriter(final MetricFamily<?> metricFamily, final boolean includeHelp) {
+            this.includeHelp = includeHelp;
+
             this.headerWriter = metricFamily.accept(new HeaderVisitor());
             this.metricWriter = metricFamily.accept(new MetricVisitor());
         }
@@ -297,7 +379,7 @@ public class JsonFormatExposition implements FormattedExposition {
         }
     }
 
-    private void writeStatistics(final ExpositionSink<?> chunkBuffer) {
+    private static void writeStatistics(final ExpositionSink<?> chunkBuffer, final int metricFamilyCount, final int metricCount, final Stopwatch stopwatch) {
         JsonToken.OBJECT_START.write(chunkBuffer);
 
         writeObjectKey(chunkBuffer, "expositionTime");
@@ -318,24 +400,30 @@ public class JsonFormatExposition implements FormattedExposition {
 
     @Override
     public void nextSlice(final ExpositionSink<?> chunkBuffer) {
-        switch (state) {
-            case HEADER:
-                stopwatch.start();
+        final int startByteCount = chunkBuffer.getIngestedByteCount();
 
-                JsonToken.OBJECT_START.write(chunkBuffer);
+        writeSlice(chunkBuffer);
 
-                writeObjectKey(chunkBuffer, "timestamp");
-                writeLong(chunkBuffer, timestamp.toEpochMilli());
+        if (event != null) {
+            event.bytes += chunkBuffer.getIngestedByteCount() - startByteCount;
 
-                JsonToken.COMMA.write(chunkBuffer);
+            if (state == State.EOF) {
+                event.metricFamilies = metricFamilyCount;
+                event.series = metricCount;
+                event.commit();
 
-                writeObjectKey(chunkBuffer, "globalLabels");
-                chunkBuffer.writeBytes(globalLabels.asJSONFormatUTF8EncodedByteBuf().nioBuffer());
+                event = null;
+            }
+        }
+    }
 
-                JsonToken.COMMA.write(chunkBuffer);
+    private void writeSlice(final ExpositionSink<?> chunkBuffer) {
+        switch (state) {
+            case HEADER:
+                stopwatch.start();
+                event = Events.beginExposition(format.name());
 
-                writeObjectKey(chunkBuffer, "metricFamilies");
-                JsonToken.OBJECT_START.write(chunkBuffer);
+                format.writeHeader(chunkBuffer);
 
                 state = State.METRIC_FAMILY;
                 return;
@@ -346,11 +434,15 @@ public class JsonFormatExposition implements FormattedExposition {
                     return;
                 }
 
-                metricFamilyCount++;
-
                 final MetricFamily<?> metricFamily = metricFamilyIterator.next();
 
-                metricFamilyWriter = new MetricFamilyWriter(metricFamily);
+                if (metricFamilyCount > 0) {
+                    JsonToken.COMMA.write(chunkBuffer); // separate from previous family
+                }
+
+                metricFamilyCount++;
+
+                metricFamilyWriter = new MetricFamilyWriter(metricFamily, format.includeHelp);
 
                 metricFamilyWriter.writeFamilyHeader(chunkBuffer);
 
@@ -361,10 +453,6 @@ public class JsonFormatExposition implements FormattedExposition {
                 if (!metricFamilyWriter.writeMetric(chunkBuffer)) {
                     metricFamilyWriter.writeFamilyFooter(chunkBuffer);
 
-                    if (metricFamilyIterator.hasNext()) {
-                        JsonToken.COMMA.write(chunkBuffer);
-                    }
-
                     state = State.METRIC_FAMILY;
                     return;
                 }
@@ -376,14 +464,7 @@ public class JsonFormatExposition implements FormattedExposition {
             case FOOTER:
                 stopwatch.stop();
 
-                JsonToken.OBJECT_END.write(chunkBuffer); // end of "metricFamilies"
-
-                JsonToken.COMMA.write(chunkBuffer);
-
-                writeObjectKey(chunkBuffer, "statistics");
-                writeStatistics(chunkBuffer);
-
-                JsonToken.OBJECT_END.write(chunkBuffer); // end of main object
+                format.writeFooter(chunkBuffer, metricFamilyCount, metricCount, stopwatch);
 
                 state = State.EOF;
                 return;
@@ -38,21 +38,21 @@ final class JsonFragment {
         JsonToken.COLON.write(buffer);
     }
 
-    static void writeFloat(final ExpositionSink<?> buffer, final float f) {
-        if (Float.isNaN(f)) {
+    static void writeDouble(final ExpositionSink<?> buffer, final double d) {
+        if (Double.isNaN(d)) {
             buffer.writeAscii("\"NaN\"");
             return;
         }
 
-        if (Float.isInfinite(f)) {
-            buffer.writeAscii((f < 0 ? "\"-Inf\"" : "\"+Inf\""));
+        if (Double.isInfinite(d)) {
+            buffer.writeAscii((d < 0 ? "\"-Inf\"" : "\"+Inf\""));
             return;
         }
 
-        buffer.writeFloat(f);
+        buffer.writeDouble(d);
     }
 
     static void writeLong(final ExpositionSink<?> buffer, final long l) {
-        buffer.writeAscii(Long.toString(l));
+        buffer.writeLong(l);
     }
 }
@@ -1,10 +1,13 @@
 package com.zegelin.prometheus.exposition.text;
 
 import com.google.common.base.Stopwatch;
+import com.zegelin.cassandra.exporter.jfr.Events;
+import com.zegelin.cassandra.exporter.jfr.ExpositionEvent;
 import com.zegelin.netty.Resources;
 import com.zegelin.prometheus.domain.*;
 import com.zegelin.prometheus.exposition.ExpositionSink;
 import com.zegelin.prometheus.exposition.FormattedExposition;
+import com.zegelin.prometheus.exposition.MetricFamilyFormat;
 import io.netty.buffer.ByteBuf;
 
 import java.time.Instant;
@@ -22,11 +25,62 @@ public class TextFormatExposition implements FormattedExposition {
 
     private static final ByteBuf BANNER = Resources.asByteBuf(TextFormatExposition.class, "banner.txt");
 
+    public static class Format implements MetricFamilyFormat {
+        private final byte[] timestampSuffix;
+        private final Labels globalLabels;
+        private final boolean includeHelp;
+
+        public Format(final Instant timestamp, final Labels globalLabels, final boolean includeHelp) {
+            this.timestampSuffix = TextFormatMetricFamilyWriter.encodeTimestampSuffix(timestamp);
+            this.globalLabels = globalLabels;
+            this.includeHelp = includeHelp;
+        }
+
+        @Override
+        public String name() {
+            return "text";
+        }
+
+        TextFormatMetricFamilyWriter newMetricFamilyWriter(final MetricFamily<?> metricFamily) {
+            return new TextFormatMetricFamilyWriter(timestampSuffix, globalLabels, includeHelp, metricFamily);
+        }
+
+        @Override
+        public void writeHeader(final ExpositionSink<?> sink) {
+            sink.writeBytes(BANNER.nioBuffer());
+        }
+
+        @Override
+        public int writeMetricFamily(final ExpositionSink<?> sink, final MetricFamily<?> metricFamily, final int index) {
+            final TextFormatMetricFamilyWriter metricFamilyWriter = newMetricFamilyWriter(metricFamily);
+
+            metricFamilyWriter.writeFamilyHeader(sink);
+
+            int metricCount = 0;
+            while (metricFamilyWriter.writeMetric(sink)) {
+                metricCount++;
+            }
+
+            sink.writeByte('\n'); // separate from next family
+
+            return metricCount;
+        }
+
+        @Override
+        public void writeFooter(final ExpositionSink<?> sink, final int metricFamilyCount, final int metricCount, final Stopwatch stopwatch) {
+            sink.writeAscii("\n\n# Thanks and come again!\n\n");
+            sink.writeAscii(String.format("# Wrote %s metrics for %s metric families in %s\n", metricCount, metricFamilyCount, stopwatch.toString()));
+        }
+
+        @Override
+        public FormattedExposition newExposition(final Stream<MetricFamily> metricFamilies) {
+            return new TextFormatExposition(metricFamilies, this);
+        }
+    }
+
     private final Iterator<MetricFamily> metricFamiliesIterator;
 
-    private final Instant timestamp;
-    private final Labels globalLabels;
-    private final boolean includeHelp;
+    private final Format format;
 
     private State state = State.BANNER;
     private TextFormatMetricFamilyWriter metricFamilyWriter;
@@ -36,12 +90,16 @@ public class TextFormatExposition implements FormattedExposition {
 
     private final Stopwatch stopwatch = Stopwatch.createUnstarted();
 
+    private ExpositionEvent event;
 
-    public TextFormatExposition(final Stream<MetricFamily> metricFamilies, final Instant timestamp, final Labels globalLabels, final boolean includeHelp) {
+
+    public TextFormatExposition(final Stream<MetricFamily> metricFamilies, final Format format) {
         this.metricFamiliesIterator = metricFamilies.iterator();
-        this.timestamp = timestamp;
-        this.globalLabels = globalLabels;
-        this.includeHelp = includeHelp;
+        this.format = format;
+    }
+
+    public TextFormatExposition(final Stream<MetricFamily> metricFamilies, final Instant timestamp, final Labels globalLabels, final boolean includeHelp) {
+        this(metricFamilies, new Format(timestamp, globalLabels, includeHelp));
     }
 
     @Override
@@ -51,11 +109,30 @@ public class TextFormatExposition implements FormattedExposition {
 
     @Override
     public void nextSlice(final ExpositionSink<?> chunkBuffer) {
+        final int startByteCount = chunkBuffer.getIngestedByteCount();
+
+        writeSlice(chunkBuffer);
+
+        if (event != null) {
+            event.bytes += chunkBuffer.getIngestedByteCount() - startByteCount;
+
+            if (state == State.EOF) {
+                event.metricFamilies = metricFamilyCount;
+                event.series = metricCount;
+                event.commit();
+
+                event = null;
+            }
+        }
+    }
+
+    private void writeSlice(final ExpositionSink<?> chunkBuffer) {
         switch (state) {
             case BANNER:
                 stopwatch.start();
+                event = Events.beginExposition(format.name());
 
-                chunkBuffer.writeBytes(BANNER.nioBuffer());
+                format.writeHeader(chunkBuffer);
 
                 state = State.METRIC_FAMILY;
                 return;
@@ -70,7 +147,7 @@ public class TextFormatExposition implements FormattedExposition {
 
                 final MetricFamily<?> metricFamily = metricFamiliesIterator.next();
 
-                metricFamilyWriter = new TextFormatMetricFamilyWriter(timestamp, globalLabels, includeHelp, metricFamily);
+                metricFamilyWriter = format.newMetricFamilyWriter(metricFamily);
 
                 metricFamilyWriter.writeFamilyHeader(chunkBuffer);
 
@@ -78,22 +155,19 @@ public class TextFormatExposition implements FormattedExposition {
                 return;
 
             case METRIC:
-                final boolean hasMoreMetrics = metricFamilyWriter.writeMetric(chunkBuffer);
-
-                metricCount ++;
-
-                if (!hasMoreMetrics) {
+                if (!metricFamilyWriter.writeMetric(chunkBuffer)) {
                     chunkBuffer.writeByte('\n'); // separate from next family
                     state = State.METRIC_FAMILY;
                     return;
                 }
 
+                metricCount++;
+
                 return;
 
             case FOOTER:
                 stopwatch.stop();
-                chunkBuffer.writeAscii("\n\n# Thanks and come again!\n\n");
-                chunkBuffer.writeAscii(String.format("# Wrote %s metrics for %s metric families in %s\n", metricCount, metricFamilyCount, stopwatch.toString()));
+                format.writeFooter(chunkBuffer, metricFamilyCount, metricCount, stopwatch);
 
                 state = State.EOF;
                 return;
@@ -2,6 +2,7 @@ package com.zegelin.prometheus.exposition.text;
 
 import com.google.common.escape.CharEscaperBuilder;
 import com.google.common.escape.Escaper;
+import com.zegelin.prometheus.domain.Labels;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.ByteBufUtil;
@@ -41,4 +42,52 @@ public final class TextFormatLabels {
 
         return ByteBufUtil.writeUtf8(ByteBufAllocator.DEFAULT, stringBuilder);
     }
+
+    private static void writeLabels(final ByteBuf buffer, final Labels labels, final boolean commaPrefix) {
+        if (commaPrefix) {
+            buffer.writeByte(',');
+        }
+
+        final ByteBuf encodedLabels = labels.asPlainTextFormatUTF8EncodedByteBuf();
+
+        buffer.writeBytes(encodedLabels, encodedLabels.readerIndex(), encodedLabels.readableBytes());
+    }
+
+    /***
+     * Encode everything in a sample line that precedes the value: the metric name and suffix, followed by
+     * the label sets (in order, skipping null or empty sets), and the trailing space.
+     *
+     * e.g. {@code name_suffix{labels,extra,global} }
+     */
+    public static byte[] formatSeriesPrefix(final String familyName, final String suffix, final Labels... labelSets) {
+        final ByteBuf buffer = Unpooled.buffer();
+
+        try {
+            ByteBufUtil.writeAscii(buffer, familyName);
+            if (suffix != null) {
+                ByteBufUtil.writeAscii(buffer, suffix);
+            }
+
+            buffer.writeByte('{');
+
+            boolean needsComma = false;
+
+            for (final Labels labels : labelSets) {
+                if (labels == null || labels.isEmpty())
+                    continue;
+
+                writeLabels(buffer, labels, needsComma);
+
+                needsComma = true;
+            }
+
+            buffer.writeByte('}');
+            buffer.writeByte(' ');
+
+            return ByteBufUtil.getBytes(buffer);
+
+        } finally {
+            buffer.release();
+        }
+    }
 }
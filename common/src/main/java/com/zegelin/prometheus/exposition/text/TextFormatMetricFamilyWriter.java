@@ -5,6 +5,7 @@ import com.google.common.escape.Escaper;
 import com.zegelin.prometheus.domain.*;
 import com.zegelin.prometheus.exposition.ExpositionSink;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Iterator;
 import java.util.function.BiConsumer;
@@ -35,15 +36,15 @@ class TextFormatMetricFamilyWriter {
             .addEscape('\n', "\\n")
             .toEscaper();
 
-    private final String timestamp;
+    private final byte[] timestampSuffix;
     private final Labels globalLabels;
     private final boolean includeHelp;
 
     private final Consumer<ExpositionSink<?>> headerWriter;
     private final Function<ExpositionSink<?>, Boolean> metricWriter;
 
-    TextFormatMetricFamilyWriter(final Instant timestamp, final Labels globalLabels, final boolean includeHelp, final MetricFamily<?> metricFamily) {
-        this.timestamp = " " + timestamp.toEpochMilli();
+    TextFormatMetricFamilyWriter(final byte[] timestampSuffix, final Labels globalLabels, final boolean includeHelp, final MetricFamily<?> metricFamily) {
+        this.timestampSuffix = timestampSuffix;
         this.globalLabels = globalLabels;
         this.includeHelp = includeHelp;
 
@@ -103,48 +104,16 @@ class TextFormatMetricFamilyWriter {
     }
 
     class MetricVisitor implements MetricFamilyVisitor<Function<ExpositionSink<?>, Boolean>> {
-        private void writeLabels(final ExpositionSink<?> buffer, final Labels labels, final boolean commaPrefix) {
-            if (commaPrefix) {
-                buffer.writeByte(',');
-            }
-
-            buffer.writeBytes(labels.asPlainTextFormatUTF8EncodedByteBuf().nioBuffer());
-        }
-
-        private void writeLabelSets(final ExpositionSink<?> buffer, final Labels... labelSets) {
-            buffer.writeByte('{');
-
-            boolean needsComma = false;
-
-            for (final Labels labels : labelSets) {
-                if (labels == null || labels.isEmpty())
-                    continue;
-
-                writeLabels(buffer, labels, needsComma);
-
-                needsComma = true;
-            }
-
-            if (!globalLabels.isEmpty()) {
-                writeLabels(buffer, globalLabels, needsComma);
-            }
+        private void writeMetric(final ExpositionSink<?> buffer, final MetricFamily metricFamily, final String suffix, final double value, final Labels labels, final Labels extraLabels) {
+            // name, suffix, labels & trailing space are pre-encoded and cached on the Labels
+            buffer.writeBytes(labels.asPlainTextFormatSeriesPrefix(metricFamily.name, suffix, extraLabels, globalLabels));
 
-            buffer.writeByte('}');
+            buffer.writeDouble(value);
+            buffer.writeBytes(timestampSuffix); // timestamp already has a leading space & trailing newline
         }
 
-        private void writeMetric(final ExpositionSink<?> buffer, final MetricFamily metricFamily, final String suffix, final float value, final Labels... labelSets) {
-            buffer.writeAscii(metricFamily.name);
-            if (suffix != null) {
-                buffer.writeAscii(suffix);
-            }
-
-            writeLabelSets(buffer, labelSets);
-
-            buffer.writeByte(' ');
-
-            buffer.writeFloat(value);
-            buffer.writeAscii(timestamp); // timestamp already has a leading space
-            buffer.writeByte('\n');
+        private void writeMetric(final ExpositionSink<?> buffer, final MetricFamily metricFamily, final String suffix, final double value, final Labels labels) {
+            writeMetric(buffer, metricFamily, suffix, value, labels, null);
         }
 
         private <T extends Metric> Function<ExpositionSink<?>, Boolean> metricWriter(final MetricFamily<T> metricFamily, final BiConsumer<T, ExpositionSink<?>> writer) {
@@ -211,6 +180,13 @@ class TextFormatMetricFamilyWriter {
 
 
 
+    /***
+     * @return the encoded " <timestamp>\n" that terminates each sample line.
+     */
+    static byte[] encodeTimestampSuffix(final Instant timestamp) {
+        return (" " + timestamp.toEpochMilli() + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
     /***
      * Write the header fields (TYPE, HELP) for the MetricFamily to the provided ByteBuf.
      */
@@ -15,12 +15,11 @@ package info.adams.ryu;
 // limitations under the License.
 
 
-import org.apache.commons.codec.binary.Hex;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 
 import java.math.BigInteger;
-import java.nio.ByteBuffer;
-
-import static java.nio.charset.StandardCharsets.US_ASCII;
 
 /**
  * An implementation of Ryu for float.
@@ -91,16 +90,22 @@ public final class RyuFloat {
     public static void main(String[] args) {
         DEBUG = true;
         float f = 0.33007812f;
-        final ByteBuffer buffer = ByteBuffer.allocate(10);
+        final ByteBuf buffer = Unpooled.buffer(15);
         floatToString(buffer, f, RoundingMode.ROUND_EVEN);
-        System.out.println(Hex.encodeHexString(buffer.array()) + " " + f);
+        System.out.println(ByteBufUtil.hexDump(buffer) + " " + f);
     }
 
-    public static int floatToString(final ByteBuffer buffer, float value) {
+    public static int floatToString(final ByteBuf buffer, float value) {
         return floatToString(buffer, value, RoundingMode.ROUND_EVEN);
     }
 
-    public static int floatToString(final ByteBuffer buffer, float value, RoundingMode roundingMode) {
+    /**
+     * Write the shortest representation of value, following Float.toString semantics, directly into buffer
+     * at its writer index. Does not allocate.
+     *
+     * @return the number of bytes written
+     */
+    public static int floatToString(final ByteBuf buffer, float value, RoundingMode roundingMode) {
         // Step 1: Decode the floating point number, and unify normalized and subnormal cases.
         // First, handle all the trivial cases.
         if (Float.isNaN(value)) {
@@ -125,6 +130,11 @@ public final class RyuFloat {
             return writeAscii(buffer, "-0.0");
         }
 
+        // Fast path for integral values (counts, sizes, etc) that Float.toString prints in plain notation (i.e., < 1E7).
+        if (value == (int) value && value > -1.0E7f && value < 1.0E7f) {
+            return writeIntegral(buffer, (int) value);
+        }
+
         // Otherwise extract the mantissa and exponent bits and run the full algorithm.
         int ieeeExponent = (bits >> FLOAT_MANTISSA_BITS) & FLOAT_EXPONENT_MASK;
         int ieeeMantissa = bits & FLOAT_MANTISSA_MASK;
@@ -311,85 +321,111 @@ public final class RyuFloat {
 
         // Step 5: Print the decimal representation.
         // We follow Float.toString semantics here.
-        byte[] result = new byte[15];
-        int index = 0;
+        buffer.ensureWritable(15);
+        final int start = buffer.writerIndex();
+        int index = start;
         if (sign) {
-            result[index++] = '-';
+            buffer.setByte(index++, '-');
         }
 
         if (scientificNotation) {
             // Print in the format x.xxxxxE-yy.
             for (int i = 0; i < olength - 1; i++) {
                 int c = output % 10; output /= 10;
-                result[index + olength - i] = (byte) ('0' + c);
+                buffer.setByte(index + olength - i, (byte) ('0' + c));
             }
-            result[index] = (byte) ('0' + output % 10);
-            result[index + 1] = '.';
+            buffer.setByte(index, (byte) ('0' + output % 10));
+            buffer.setByte(index + 1, '.');
             index += olength + 1;
             if (olength == 1) {
-                result[index++] = '0';
+                buffer.setByte(index++, '0');
             }
 
             // Print 'E', the exponent sign, and the exponent, which has at most two digits.
-            result[index++] = 'E';
+            buffer.setByte(index++, 'E');
             if (exp < 0) {
-                result[index++] = '-';
+                buffer.setByte(index++, '-');
                 exp = -exp;
             }
             if (exp >= 10) {
-                result[index++] = (byte) ('0' + exp / 10);
+                buffer.setByte(index++, (byte) ('0' + exp / 10));
             }
-            result[index++] = (byte) ('0' + exp % 10);
+            buffer.setByte(index++, (byte) ('0' + exp % 10));
         } else {
             // Otherwise follow the Java spec for values in the interval [1E-3, 1E7).
             if (exp < 0) {
                 // Decimal dot is before any of the digits.
-                result[index++] = '0';
-                result[index++] = '.';
+                buffer.setByte(index++, '0');
+                buffer.setByte(index++, '.');
                 for (int i = -1; i > exp; i--) {
-                    result[index++] = '0';
+                    buffer.setByte(index++, '0');
                 }
                 int current = index;
                 for (int i = 0; i < olength; i++) {
-                    result[current + olength - i - 1] = (byte) ('0' + output % 10);
+                    buffer.setByte(current + olength - i - 1, (byte) ('0' + output % 10));
                     output /= 10;
                     index++;
                 }
             } else if (exp + 1 >= olength) {
                 // Decimal dot is after any of the digits.
                 for (int i = 0; i < olength; i++) {
-                    result[index + olength - i - 1] = (byte) ('0' + output % 10);
+                    buffer.setByte(index + olength - i - 1, (byte) ('0' + output % 10));
                     output /= 10;
                 }
                 index += olength;
                 for (int i = olength; i < exp + 1; i++) {
-                    result[index++] = '0';
+                    buffer.setByte(index++, '0');
                 }
-                result[index++] = '.';
-                result[index++] = '0';
+                buffer.setByte(index++, '.');
+                buffer.setByte(index++, '0');
             } else {
                 // Decimal dot is somewhere between the digits.
                 int current = index + 1;
                 for (int i = 0; i < olength; i++) {
                     if (olength - i - 1 == exp) {
-                        result[current + olength - i - 1] = '.';
+                        buffer.setByte(current + olength - i - 1, '.');
                         current--;
                     }
-                    result[current + olength - i - 1] = (byte) ('0' + output % 10);
+                    buffer.setByte(current + olength - i - 1, (byte) ('0' + output % 10));
                     output /= 10;
                 }
                 index += olength + 1;
             }
         }
 
-        buffer.put(result, 0, index);
-        return index;
+        buffer.writerIndex(index);
+        return index - start;
+    }
+
+    private static int writeAscii(final ByteBuf buffer, String asciiString) {
+        return ByteBufUtil.writeAscii(buffer, asciiString);
     }
 
-    private static int writeAscii(final ByteBuffer buffer, String asciiString) {
-        byte[] byteBuffer = asciiString.getBytes(US_ASCII);
-        buffer.put(byteBuffer);
-        return byteBuffer.length;
+    /**
+     * Write an integral value in the form "-ddd.0".
+     */
+    private static int writeIntegral(final ByteBuf buffer, int value) {
+        buffer.ensureWritable(11);
+        final int start = buffer.writerIndex();
+        int index = start;
+
+        if (value < 0) {
+            buffer.setByte(index++, '-');
+            value = -value;
+        }
+
+        final int olength = decimalLength(value);
+        for (int i = 0; i < olength; i++) {
+            buffer.setByte(index + olength - i - 1, '0' + value % 10);
+            value /= 10;
+        }
+        index += olength;
+
+        buffer.setByte(index++, '.');
+        buffer.setByte(index++, '0');
+
+        buffer.writerIndex(index);
+        return index - start;
     }
 
     private static int pow5bits(int e) {
@@ -0,0 +1,58 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Polling waits for tests of asynchronous behaviour, such as the {@link Harvester}'s deferred MBean registrations.
+ */
+public final class Await {
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long POLL_INTERVAL_MILLIS = 10;
+
+    private static final MetricFamilyFilter REGISTRATION_QUEUE_DEPTH_FILTER = MetricFamilyFilter.of(ImmutableList.of("cassandra_exporter_mbean_registration_queue_depth"), ImmutableList.of(), ImmutableList.of());
+
+    private Await() {}
+
+    /**
+     * Wait until {@param condition} holds.
+     *
+     * @throws AssertionError if it doesn't within 10 seconds
+     */
+    public static void until(final BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.nanoTime() + TIMEOUT_NANOS;
+
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Condition not met within 10 seconds.");
+            }
+
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * @return the number of MBean (un)registrations {@param harvester} has queued, but not yet applied
+     */
+    public static double registrationQueueDepth(final Harvester harvester) {
+        return harvester.collect(REGISTRATION_QUEUE_DEPTH_FILTER)
+                .flatMap(rawMetricFamily -> {
+                    final MetricFamily<?> metricFamily = rawMetricFamily;
+
+                    return metricFamily.metrics();
+                })
+                .mapToDouble(m -> ((NumericMetric) m).value)
+                .sum();
+    }
+
+    /**
+     * Wait until every MBean (un)registration queued by {@param harvester} has been applied.
+     */
+    public static void registrations(final Harvester harvester) throws InterruptedException {
+        until(() -> registrationQueueDepth(harvester) == 0);
+    }
+}
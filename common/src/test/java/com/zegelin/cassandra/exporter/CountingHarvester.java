@@ -0,0 +1,94 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.jmx.ObjectNames;
+import com.zegelin.prometheus.domain.GaugeMetricFamily;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+
+import javax.management.ObjectName;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A Harvester with a single collector, "test_value", whose value is the number of times it has been collected.
+ * Collections block on {@link #latch}, if set, and calls to {@link #harvestAsync} are counted.
+ */
+public class CountingHarvester extends Harvester {
+    private static final ObjectName TEST_MBEAN_NAME = ObjectNames.create("test:type=Test");
+
+    public final AtomicInteger collections = new AtomicInteger();
+    public final AtomicInteger harvests = new AtomicInteger();
+
+    public volatile CountDownLatch latch;
+
+    public CountingHarvester(final HarvesterOptions options) {
+        super(metadataFactory(), options);
+
+        addCollectorFactory(mBean -> !mBean.name.equals(TEST_MBEAN_NAME) ? null : new MBeanGroupMetricFamilyCollector() {
+            @Override
+            public String name() {
+                return "test_value";
+            }
+
+            @Override
+            public Stream<MetricFamily> collect() {
+                final int collection = collections.incrementAndGet();
+
+                final CountDownLatch latch = CountingHarvester.this.latch;
+                if (latch != null) {
+                    Uninterruptibles.awaitUninterruptibly(latch);
+                }
+
+                return Stream.of(new GaugeMetricFamily("test_value", "Test value.", Stream.of(new NumericMetric(Labels.of(), collection))));
+            }
+        });
+
+        registerMBean(new Object(), TEST_MBEAN_NAME);
+    }
+
+    private static MetadataFactory metadataFactory() {
+        final MetadataFactory metadataFactory = mock(MetadataFactory.class);
+        when(metadataFactory.localBroadcastAddress()).thenReturn(InetAddress.getLoopbackAddress());
+        when(metadataFactory.endpointMetadata(any())).thenReturn(Optional.of(mock(MetadataFactory.EndpointMetadata.class)));
+
+        return metadataFactory;
+    }
+
+    public static HarvesterOptions options() {
+        final HarvesterOptions options = new HarvesterOptions();
+        options.globalLabels = EnumSet.noneOf(GlobalLabel.class);
+
+        return options;
+    }
+
+    @Override
+    public CompletableFuture<Harvest> harvestAsync(final MetricFamilyFilter filter, final Duration scrapeTimeout) {
+        harvests.incrementAndGet();
+
+        return super.harvestAsync(filter, scrapeTimeout);
+    }
+
+    /**
+     * Wait for the deferred registration of the test collector (and collect once).
+     */
+    public CountingHarvester awaitRegistration() throws InterruptedException {
+        Await.until(() -> collect().anyMatch(f -> f.name.equals("test_value")));
+
+        collections.set(0);
+
+        return this;
+    }
+}
@@ -0,0 +1,190 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.zegelin.cassandra.exporter.collector.CachingCollector;
+import com.zegelin.jmx.NamedObject;
+import com.zegelin.jmx.ObjectNames;
+import com.zegelin.prometheus.domain.GaugeMetricFamily;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestCachingCollector {
+    private static class CountingCollector extends MBeanGroupMetricFamilyCollector {
+        final AtomicInteger collections = new AtomicInteger();
+
+        @Override
+        public String name() {
+            return "test_counting";
+        }
+
+        @Override
+        public Set<String> metricFamilyNames() {
+            return ImmutableSet.of("test_counting_family");
+        }
+
+        @Override
+        public Stream<MetricFamily> collect() {
+            final int value = collections.incrementAndGet();
+
+            return Stream.of(new GaugeMetricFamily("test_counting_family", null, Stream.of(new NumericMetric(Labels.of(), value))));
+        }
+
+        // MBeans are merged and removed in place
+        @Override
+        public MBeanGroupMetricFamilyCollector merge(final MBeanGroupMetricFamilyCollector other) {
+            return this;
+        }
+
+        @Override
+        public MBeanGroupMetricFamilyCollector removeMBean(final ObjectName mBeanName) {
+            return this;
+        }
+    }
+
+    private static double value(final MBeanGroupMetricFamilyCollector collector) {
+        final MetricFamily<?> family = collector.collect().findFirst().orElseThrow(AssertionError::new);
+
+        return ((NumericMetric) family.metrics().findFirst().orElseThrow(AssertionError::new)).value;
+    }
+
+    private static MBeanGroupMetricFamilyCollector createCollector(final CountingCollector delegate, final CachingCollector.Statistics statistics,
+                                                                   final Duration defaultTtl, final ImmutableMap<String, Duration> ttls) {
+        final MBeanGroupMetricFamilyCollector.Factory factory = CachingCollector.cache(mBean -> delegate, statistics, defaultTtl, ttls);
+
+        return factory.createCollector(new NamedObject<>(ObjectNames.create("test:type=Counting"), new Object()));
+    }
+
+    private static MBeanGroupMetricFamilyCollector createCollector(final CountingCollector delegate, final Duration defaultTtl, final ImmutableMap<String, Duration> ttls) {
+        return createCollector(delegate, new CachingCollector.Statistics(), defaultTtl, ttls);
+    }
+
+    private static double statistic(final CachingCollector.Statistics statistics, final String metricFamilyName) {
+        final MetricFamily<?> family = statistics.collect()
+                .filter(f -> f.name.equals(metricFamilyName))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+
+        return family.metrics()
+                .map(m -> (NumericMetric) m)
+                .filter(m -> m.labels.equals(Labels.of("collector", "test_counting")))
+                .mapToDouble(m -> m.value)
+                .sum();
+    }
+
+    @Test
+    public void testRefreshAhead() throws InterruptedException {
+        final CountingCollector delegate = new CountingCollector();
+        final MBeanGroupMetricFamilyCollector collector = createCollector(delegate, Duration.ofMillis(400), ImmutableMap.of());
+
+        assertThat(collector).isInstanceOf(CachingCollector.class);
+
+        assertThat(value(collector)).isEqualTo(1); // miss
+        assertThat(value(collector)).isEqualTo(1); // hit
+        assertThat(delegate.collections.get()).isEqualTo(1);
+
+        Thread.sleep(350); // past the refresh-ahead point
+
+        assertThat(value(collector)).isEqualTo(1); // stale value served while refreshing in the background
+
+        Await.until(() -> value(collector) == 2);
+        assertThat(delegate.collections.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testTtlOverrides() {
+        // by metric family name
+        assertThat(createCollector(new CountingCollector(), null, ImmutableMap.of("test_counting_family", Duration.ofMinutes(1))))
+                .isInstanceOf(CachingCollector.class);
+
+        // disabled by collector name
+        assertThat(createCollector(new CountingCollector(), Duration.ofMinutes(1), ImmutableMap.of("test_counting", Duration.ZERO)))
+                .isInstanceOf(CountingCollector.class);
+
+        // not cached by default
+        assertThat(createCollector(new CountingCollector(), null, ImmutableMap.of("other", Duration.ofMinutes(1))))
+                .isInstanceOf(CountingCollector.class);
+    }
+
+    private static void awaitValue(final MBeanGroupMetricFamilyCollector collector, final double expectedValue) throws InterruptedException {
+        Await.until(() -> value(collector) == expectedValue);
+    }
+
+    @Test
+    public void testInPlaceChangesRefresh() throws InterruptedException {
+        final CountingCollector delegate = new CountingCollector();
+        final MBeanGroupMetricFamilyCollector collector = createCollector(delegate, Duration.ofMinutes(1), ImmutableMap.of());
+
+        assertThat(value(collector)).isEqualTo(1);
+        assertThat(value(collector)).isEqualTo(1);
+
+        final MBeanGroupMetricFamilyCollector other = createCollector(new CountingCollector(), Duration.ofMinutes(1), ImmutableMap.of());
+
+        // refreshed in the background, despite the cached value being well within its TTL
+        assertThat(collector.merge(other)).isSameAs(collector);
+        awaitValue(collector, 2);
+
+        assertThat(collector.removeMBean(ObjectNames.create("test:type=Counting"))).isSameAs(collector);
+        awaitValue(collector, 3);
+
+        assertThat(delegate.collections.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testInPlaceChangesServeStaleValue() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final CountingCollector delegate = new CountingCollector() {
+            @Override
+            public Stream<MetricFamily> collect() {
+                if (collections.get() > 0) {
+                    Uninterruptibles.awaitUninterruptibly(latch);
+                }
+
+                return super.collect();
+            }
+        };
+
+        final MBeanGroupMetricFamilyCollector collector = createCollector(delegate, Duration.ofMinutes(1), ImmutableMap.of());
+        assertThat(value(collector)).isEqualTo(1);
+
+        assertThat(collector.merge(createCollector(new CountingCollector(), Duration.ofMinutes(1), ImmutableMap.of()))).isSameAs(collector);
+
+        // the refresh is blocked, yet the previous value is served without waiting on it
+        assertThat(value(collector)).isEqualTo(1);
+
+        latch.countDown();
+        awaitValue(collector, 2);
+    }
+
+    @Test
+    public void testStatisticsPerRegistry() {
+        final CachingCollector.Statistics statistics = new CachingCollector.Statistics();
+        final CachingCollector.Statistics otherStatistics = new CachingCollector.Statistics();
+
+        final MBeanGroupMetricFamilyCollector collector = createCollector(new CountingCollector(), statistics, Duration.ofMinutes(1), ImmutableMap.of());
+        final MBeanGroupMetricFamilyCollector otherCollector = createCollector(new CountingCollector(), otherStatistics, Duration.ofMinutes(1), ImmutableMap.of());
+
+        value(collector); // miss
+        value(collector); // hit
+        value(otherCollector); // miss
+
+        // collectors of the same name in different registries are counted separately
+        assertThat(statistic(statistics, "cassandra_exporter_collector_cache_misses_total")).isEqualTo(1);
+        assertThat(statistic(statistics, "cassandra_exporter_collector_cache_hits_total")).isEqualTo(1);
+        assertThat(statistic(otherStatistics, "cassandra_exporter_collector_cache_misses_total")).isEqualTo(1);
+        assertThat(statistic(otherStatistics, "cassandra_exporter_collector_cache_hits_total")).isEqualTo(0);
+    }
+}
@@ -0,0 +1,123 @@
+package com.zegelin.cassandra.exporter;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.Snapshot;
+import com.google.common.collect.ImmutableList;
+import com.zegelin.jmx.NamedObject;
+import com.zegelin.jmx.ObjectNames;
+import com.zegelin.prometheus.domain.Interval;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxHistogramMBean;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxTimerMBean;
+import org.apache.cassandra.metrics.DecayingEstimatedHistogramReservoir;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.*;
+
+public class TestCassandraMetricsUtilities {
+    private static Snapshot snapshot(final boolean considerZeroes) {
+        final DecayingEstimatedHistogramReservoir reservoir = new DecayingEstimatedHistogramReservoir(considerZeroes);
+
+        final Random random = new Random(0);
+        for (int i = 0; i < 10_000; i++) {
+            reservoir.update((long) (Math.abs(random.nextGaussian()) * TimeUnit.MILLISECONDS.toNanos(5)));
+        }
+
+        return reservoir.getSnapshot();
+    }
+
+    @Test
+    public void testTimerQuantilesFromBuckets() {
+        for (final boolean considerZeroes : new boolean[]{false, true}) {
+            final Snapshot snapshot = snapshot(considerZeroes);
+
+            final JmxTimerMBean timer = mock(JmxTimerMBean.class);
+            when(timer.values()).thenReturn(snapshot.getValues());
+
+            final List<Interval> intervals = ImmutableList.copyOf(CassandraMetricsUtilities.adaptTimer(timer).getIntervals());
+
+            assertThat(intervals).hasSize(Interval.Quantile.STANDARD_PERCENTILES.size());
+            for (final Interval interval : intervals) {
+                assertThat(interval.value).isEqualTo(snapshot.getValue(interval.quantile.value));
+            }
+
+            verify(timer, never()).get50thPercentile();
+            verify(timer, never()).getDurationUnit();
+        }
+    }
+
+    @Test
+    public void testTimerFallsBackToPercentiles() {
+        final JmxTimerMBean timer = mock(JmxTimerMBean.class);
+        when(timer.values()).thenReturn(new long[]{1, 2, 3}); // unrecognised bucket layout
+        when(timer.getDurationUnit()).thenReturn("microseconds");
+        when(timer.get50thPercentile()).thenReturn(1.5);
+
+        final Interval p50 = CassandraMetricsUtilities.adaptTimer(timer).getIntervals().iterator().next();
+
+        assertThat(p50.quantile).isEqualTo(Interval.Quantile.P_50);
+        assertThat(p50.value).isCloseTo(1500, within(1e-9));
+    }
+
+    @Test
+    public void testTimerStopsRequestingUnsupportedBuckets() {
+        final JmxTimerMBean timer = mock(JmxTimerMBean.class);
+        when(timer.values()).thenThrow(new UndeclaredThrowableException(new ReflectionException(new NoSuchMethodException("values"))));
+        when(timer.getDurationUnit()).thenReturn("microseconds");
+
+        final SamplingCounting samplingCounting = CassandraMetricsUtilities.adaptTimer(timer);
+
+        ImmutableList.copyOf(samplingCounting.getIntervals());
+        ImmutableList.copyOf(samplingCounting.getIntervals());
+
+        verify(timer, times(1)).values();
+        verify(timer, times(2)).get50thPercentile();
+    }
+
+    private static final class InProcessMetricMBean implements CassandraMetricsRegistry.MetricMBean {
+        @SuppressWarnings({"FieldCanBeLocal", "unused"})
+        private final Metric metric;
+
+        InProcessMetricMBean(final Metric metric) {
+            this.metric = metric;
+        }
+
+        @Override
+        public ObjectName objectName() {
+            return null;
+        }
+    }
+
+    @Test
+    public void testMetricForMBean() {
+        final Histogram histogram = new Histogram(new DecayingEstimatedHistogramReservoir());
+        final NamedObject<?> mBean = new NamedObject<>(ObjectNames.create("test:type=Test"), new InProcessMetricMBean(histogram));
+
+        assertThat(CassandraMetricsUtilities.metricForMBean(mBean).object).isSameAs(histogram);
+
+        histogram.update(100);
+        assertThat(CassandraMetricsUtilities.jmxHistogramAsSamplingCounting(mBean).object.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRemoteProxyIsAdapted() {
+        final JmxHistogramMBean histogram = mock(JmxHistogramMBean.class);
+        when(histogram.getCount()).thenReturn(42L);
+
+        final NamedObject<?> mBean = new NamedObject<>(ObjectNames.create("test:type=Test"), histogram);
+
+        assertThatThrownBy(() -> CassandraMetricsUtilities.metricForMBean(mBean)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(CassandraMetricsUtilities.jmxHistogramAsSamplingCounting(mBean).object.getCount()).isEqualTo(42L);
+    }
+}
@@ -0,0 +1,153 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.zegelin.cassandra.exporter.collector.dynamic.FunctionalMetricFamilyCollector.LabeledObjectGroup;
+import com.zegelin.prometheus.domain.HistogramMetricFamily;
+import com.zegelin.prometheus.domain.Interval;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.SummaryMetricFamily;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxGaugeMBean;
+import org.apache.cassandra.utils.EstimatedHistogram;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.withinPercentage;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TestCollectorFunctions {
+    private static LabeledObjectGroup<JmxGaugeMBean> group(final Object value) {
+        final JmxGaugeMBean gauge = mock(JmxGaugeMBean.class);
+        when(gauge.getValue()).thenReturn(value);
+
+        return new LabeledObjectGroup<JmxGaugeMBean>() {
+            @Override
+            public String name() {
+                return "test_histogram";
+            }
+
+            @Override
+            public String help() {
+                return null;
+            }
+
+            @Override
+            public Map<Labels, JmxGaugeMBean> labeledObjects() {
+                return ImmutableMap.of(Labels.of("table", "test"), gauge);
+            }
+        };
+    }
+
+    private static EstimatedHistogram estimatedHistogram(final long[] values) {
+        final EstimatedHistogram estimatedHistogram = new EstimatedHistogram(150);
+
+        final Random random = new Random(0);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.abs(random.nextGaussian() * 100_000);
+
+            estimatedHistogram.add(values[i]);
+        }
+
+        return estimatedHistogram;
+    }
+
+    private static SummaryMetricFamily.Summary collectSummary(final Object value) {
+        final List<MetricFamily> families = CollectorFunctions.histogramGaugeAsSummary().apply(group(value)).collect(Collectors.toList());
+
+        assertThat(families).hasSize(1).allMatch(f -> f instanceof SummaryMetricFamily);
+
+        return ((SummaryMetricFamily) families.get(0)).metrics().collect(Collectors.toList()).get(0);
+    }
+
+    @Test
+    public void testHistogramGaugeAsSummary() {
+        final long[] values = new long[10_000];
+        final EstimatedHistogram estimatedHistogram = estimatedHistogram(values);
+
+        final SummaryMetricFamily.Summary summary = collectSummary(estimatedHistogram.getBuckets(false));
+
+        assertThat(summary.count).isEqualTo(estimatedHistogram.count());
+        assertThat(summary.sum).isCloseTo(Arrays.stream(values).sum(), withinPercentage(10));
+
+        final List<Interval> quantiles = ImmutableList.copyOf(summary.quantiles);
+
+        assertThat(quantiles).extracting(i -> i.quantile).containsExactlyElementsOf(Interval.Quantile.STANDARD_PERCENTILES);
+        for (final Interval interval : quantiles) {
+            assertThat(interval.value).isEqualTo(estimatedHistogram.percentile(interval.quantile.value));
+        }
+    }
+
+    @Test
+    public void testHistogramGaugeAsSummaryEmpty() {
+        final SummaryMetricFamily.Summary summary = collectSummary(new EstimatedHistogram(150).getBuckets(false));
+
+        assertThat(summary.count).isEqualTo(0);
+        assertThat(summary.quantiles).allMatch(i -> i.value == 0);
+    }
+
+    @Test
+    public void testHistogramGaugeAsSummaryOverflowed() {
+        final EstimatedHistogram estimatedHistogram = new EstimatedHistogram(150);
+        estimatedHistogram.add(1);
+        estimatedHistogram.add(Long.MAX_VALUE);
+
+        final SummaryMetricFamily.Summary summary = collectSummary(estimatedHistogram.getBuckets(false));
+
+        assertThat(summary.count).isEqualTo(2);
+        assertThat(summary.quantiles).allMatch(i -> Double.isNaN(i.value));
+    }
+
+    private static HistogramMetricFamily.Histogram collectHistogram(final Object value, final int stride) {
+        final List<MetricFamily> families = CollectorFunctions.histogramGaugeAsHistogram(stride).apply(group(value)).collect(Collectors.toList());
+
+        assertThat(families).hasSize(1).allMatch(f -> f instanceof HistogramMetricFamily);
+
+        return ((HistogramMetricFamily) families.get(0)).metrics().collect(Collectors.toList()).get(0);
+    }
+
+    @Test
+    public void testHistogramGaugeAsHistogram() {
+        final long[] values = new long[10_000];
+        final EstimatedHistogram estimatedHistogram = estimatedHistogram(values);
+        final long sum = Arrays.stream(values).sum();
+
+        final long[] bucketOffsets = estimatedHistogram.getBucketOffsets();
+
+        for (final int stride : new int[]{1, 4, 7}) {
+            final HistogramMetricFamily.Histogram histogram = collectHistogram(estimatedHistogram.getBuckets(false), stride);
+
+            assertThat(histogram.count).isEqualTo(values.length);
+            assertThat(histogram.sum).isCloseTo(sum, withinPercentage(10));
+
+            final List<Interval> buckets = ImmutableList.copyOf(histogram.buckets);
+
+            assertThat(buckets).hasSize((bucketOffsets.length + stride - 1) / stride);
+            assertThat(Double.parseDouble(buckets.get(buckets.size() - 1).quantile.toString())).isEqualTo(bucketOffsets[bucketOffsets.length - 1]);
+
+            double previousCount = 0;
+            for (final Interval bucket : buckets) {
+                final double upperBound = Double.parseDouble(bucket.quantile.toString());
+                final long expectedCount = Arrays.stream(values).filter(v -> v <= upperBound).count();
+
+                assertThat(bucket.value).isEqualTo(expectedCount).isGreaterThanOrEqualTo(previousCount);
+                previousCount = bucket.value;
+            }
+        }
+    }
+
+    @Test
+    public void testHistogramGaugeAsHistogramWithoutBuckets() {
+        final HistogramMetricFamily.Histogram histogram = collectHistogram(new long[0], 4);
+
+        assertThat(histogram.count).isNaN();
+        assertThat(histogram.buckets).isEmpty();
+    }
+}
@@ -0,0 +1,77 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.zegelin.cassandra.exporter.collector.dynamic.FunctionalMetricFamilyCollector;
+import com.zegelin.jmx.NamedObject;
+import com.zegelin.prometheus.domain.Labels;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestCollectorRegistry {
+    private static FunctionalMetricFamilyCollector<Object> collector(final String name, final ObjectName mBeanName, final Labels labels,
+                                                                     final AtomicReference<Map<Labels, Object>> collected) {
+        return new FunctionalMetricFamilyCollector<>(name, null, ImmutableMap.of(labels, new NamedObject<>(mBeanName, mBeanName)), group -> {
+            collected.set(group.labeledObjects());
+            return Stream.empty();
+        });
+    }
+
+    @Test
+    public void testRegisterMergesInPlace() throws Exception {
+        final CollectorRegistry registry = new CollectorRegistry();
+        final AtomicReference<Map<Labels, Object>> collected = new AtomicReference<>();
+
+        final ObjectName a = ObjectName.getInstance("test:name=a");
+        final ObjectName b = ObjectName.getInstance("test:name=b");
+
+        final FunctionalMetricFamilyCollector<Object> first = collector("collector", a, Labels.of("name", "a"), collected);
+        registry.register(a, first);
+        registry.register(b, collector("collector", b, Labels.of("name", "b"), collected));
+
+        assertThat(registry.collectors()).containsOnlyKeys("collector");
+        assertThat(registry.collectors().get("collector")).isSameAs(first);
+
+        registry.collectors().get("collector").collect();
+        assertThat(collected.get()).containsOnlyKeys(Labels.of("name", "a"), Labels.of("name", "b"));
+
+        registry.unregister(a);
+
+        registry.collectors().get("collector").collect();
+        assertThat(collected.get()).containsOnlyKeys(Labels.of("name", "b"));
+
+        registry.unregister(b);
+
+        assertThat(registry.collectors()).isEmpty();
+        assertThat(registry.registeredMBeanCount()).isZero();
+    }
+
+    @Test
+    public void testDuplicateLabels() throws Exception {
+        final CollectorRegistry registry = new CollectorRegistry();
+        final AtomicReference<Map<Labels, Object>> collected = new AtomicReference<>();
+
+        final ObjectName a = ObjectName.getInstance("test:name=a");
+        final ObjectName b = ObjectName.getInstance("test:name=b");
+
+        registry.register(a, collector("collector", a, Labels.of("name", "x"), collected));
+
+        assertThatThrownBy(() -> registry.register(b, collector("collector", b, Labels.of("name", "x"), collected)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void testUnregisterUnknown() throws Exception {
+        final CollectorRegistry registry = new CollectorRegistry();
+
+        registry.unregister(ObjectName.getInstance("test:name=unknown"));
+
+        assertThat(registry.collectors()).isEmpty();
+    }
+}
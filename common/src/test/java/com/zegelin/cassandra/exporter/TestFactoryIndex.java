@@ -0,0 +1,119 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.zegelin.cassandra.exporter.MBeanGroupMetricFamilyCollector.Factory;
+import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.jmx.NamedObject;
+import com.zegelin.jmx.ObjectNames;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class TestFactoryIndex {
+    private static Factory factory(final String... patterns) {
+        final ImmutableSet.Builder<ObjectName> builder = ImmutableSet.builder();
+        for (final String pattern : patterns) {
+            builder.add(ObjectNames.create(pattern));
+        }
+        final Set<ObjectName> objectNamePatterns = builder.build();
+
+        return new Factory() {
+            @Override
+            public MBeanGroupMetricFamilyCollector createCollector(final NamedObject<?> mBean) {
+                return null;
+            }
+
+            @Override
+            public Set<ObjectName> objectNamePatterns() {
+                return objectNamePatterns;
+            }
+        };
+    }
+
+    @Test
+    public void testCandidates() {
+        final Factory exact = factory("org.apache.cassandra.metrics:type=Table,keyspace=*,scope=*,name=ReadLatency");
+        final Factory multiple = factory("org.apache.cassandra.metrics:type=Table,keyspace=*,scope=*,name=ReadLatency",
+                "org.apache.cassandra.metrics:type=IndexTable,keyspace=*,scope=*,name=ReadLatency");
+        final Factory other = factory("org.apache.cassandra.metrics:type=Table,keyspace=*,scope=*,name=WriteLatency");
+        final Factory nameWildcard = factory("org.apache.cassandra.metrics:type=Connection,scope=*,name=*MessagePendingTasks");
+        final Factory propertyListPattern = factory("java.lang:name=*,*");
+        final Factory unknown = mBean -> null;
+
+        final FactoryIndex index = new FactoryIndex(ImmutableList.of(unknown, exact, nameWildcard, multiple, other, propertyListPattern));
+
+        assertThat(index.candidates(ObjectNames.create("org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=t,name=ReadLatency")))
+                .containsExactly(unknown, exact, multiple, propertyListPattern);
+
+        assertThat(index.candidates(ObjectNames.create("org.apache.cassandra.metrics:type=IndexTable,keyspace=ks,scope=t.i,name=ReadLatency")))
+                .containsExactly(unknown, multiple, propertyListPattern);
+
+        assertThat(index.candidates(ObjectNames.create("org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=t,name=WriteLatency")))
+                .containsExactly(unknown, other, propertyListPattern);
+
+        assertThat(index.candidates(ObjectNames.create("org.apache.cassandra.metrics:type=Connection,scope=127.0.0.1,name=SmallMessagePendingTasks")))
+                .containsExactly(unknown, nameWildcard, propertyListPattern);
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        final Factory table = factory("org.apache.cassandra.metrics:type=Table,keyspace=*,scope=*,name=ReadLatency");
+        final Factory connection = factory("org.apache.cassandra.metrics:type=Connection,scope=*,name=*MessagePendingTasks");
+        final Factory memoryPool = factory("java.lang:type=MemoryPool,name=*");
+
+        final QueryExp query = new FactoryIndex(ImmutableList.of(table, connection, memoryPool)).query();
+
+        assertThat(query).isNotNull();
+        assertThat(query.apply(ObjectNames.create("org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=t,name=ReadLatency"))).isTrue();
+        assertThat(query.apply(ObjectNames.create("org.apache.cassandra.metrics:type=Connection,scope=127.0.0.1,name=SmallMessagePendingTasks"))).isTrue();
+        assertThat(query.apply(ObjectNames.create("java.lang:type=MemoryPool,name=Metaspace"))).isTrue();
+        assertThat(query.apply(ObjectNames.create("org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=t,name=WriteLatency"))).isFalse();
+        assertThat(query.apply(ObjectNames.create("test:type=Unrelated"))).isFalse();
+
+        // a single factory that may collect any MBean defeats the query
+        assertThat(new FactoryIndex(ImmutableList.of(table, mBean -> null)).query()).isNull();
+    }
+
+    @Test
+    public void testSuppliedFactoriesAreCandidatesForMatchingMBeans() throws Exception {
+        final List<Factory> factories = new FactoriesSupplier(mock(MetadataFactory.class), new HarvesterOptions()).get();
+        final FactoryIndex index = new FactoryIndex(factories);
+
+        final List<ObjectName> mBeanNames = ImmutableList.of(
+                ObjectNames.create("org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=t,name=ReadLatency"),
+                ObjectNames.create("org.apache.cassandra.metrics:type=Table,name=ReadLatency"),
+                ObjectNames.create("org.apache.cassandra.metrics:type=Keyspace,keyspace=ks,name=ReadLatency"),
+                ObjectNames.create("org.apache.cassandra.metrics:type=ClientRequest,scope=Read-ONE,name=Latency"),
+                ObjectNames.create("org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=ReadStage,name=ActiveTasks"),
+                ObjectNames.create("org.apache.cassandra.metrics:type=Connection,scope=127.0.0.1,name=LargeMessagePendingTasks"),
+                ObjectNames.create("java.lang:type=GarbageCollector,name=G1 Young Generation"),
+                ObjectNames.create("org.apache.cassandra.db:type=StorageService")
+        );
+
+        for (final ObjectName mBeanName : mBeanNames) {
+            final List<Factory> candidates = index.candidates(mBeanName);
+
+            for (final Factory factory : factories) {
+                final Set<ObjectName> patterns = factory.objectNamePatterns();
+
+                if (patterns == null) {
+                    assertThat(candidates).contains(factory);
+                    continue;
+                }
+
+                final boolean matches = patterns.stream().anyMatch(p -> p.apply(mBeanName));
+
+                if (matches) {
+                    assertThat(candidates).as("factory for %s is a candidate for %s", patterns, mBeanName).contains(factory);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,519 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.cassandra.exporter.collector.dynamic.FunctionalMetricFamilyCollector;
+import com.zegelin.cassandra.exporter.collector.jvm.MemoryPoolMXBeanMetricFamilyCollector;
+import com.zegelin.jmx.NamedObject;
+import com.zegelin.jmx.ObjectNames;
+import com.zegelin.prometheus.domain.GaugeMetricFamily;
+import com.zegelin.prometheus.domain.HistogramMetricFamily;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxGaugeMBean;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class TestHarvester {
+    private static Map<String, MetricFamily> collect(final Harvester harvester) {
+        return harvester.collect().map(MetricFamily::cachedCopy).collect(Collectors.toMap(f -> f.name, Function.identity()));
+    }
+
+    private static double value(final MetricFamily<?> family, final Labels labels) {
+        return family.metrics()
+                .map(m -> (NumericMetric) m)
+                .filter(m -> m.labels.equals(labels))
+                .findFirst()
+                .orElseThrow(AssertionError::new)
+                .value;
+    }
+
+    @Test
+    public void testBatchedRegistration() throws InterruptedException {
+        final Harvester harvester = new Harvester(mock(MetadataFactory.class), new HarvesterOptions()) {};
+
+        final List<MemoryPoolMXBean> memoryPoolMXBeans = ManagementFactory.getMemoryPoolMXBeans();
+        for (final MemoryPoolMXBean memoryPoolMXBean : memoryPoolMXBeans) {
+            harvester.registerMBean(memoryPoolMXBean, memoryPoolMXBean.getObjectName());
+        }
+        harvester.registerMBean(ManagementFactory.getOperatingSystemMXBean(), ManagementFactory.getOperatingSystemMXBean().getObjectName());
+        harvester.unregisterMBean(ManagementFactory.getOperatingSystemMXBean().getObjectName());
+
+        Map<String, MetricFamily> metricFamilies = collect(harvester);
+        assertThat(value(metricFamilies.get("cassandra_exporter_mbean_registration_queue_depth"), Labels.of()))
+                .isEqualTo(memoryPoolMXBeans.size() + 2);
+
+        // registrations are deferred for at least one second
+        Await.registrations(harvester);
+        metricFamilies = collect(harvester);
+
+        final MetricFamily<?> registrations = metricFamilies.get("cassandra_exporter_mbean_registrations_total");
+        assertThat(value(registrations, Labels.of("operation", "register"))).isEqualTo(memoryPoolMXBeans.size() + 1);
+        assertThat(value(registrations, Labels.of("operation", "unregister"))).isEqualTo(1);
+        assertThat(value(metricFamilies.get("cassandra_exporter_mbean_registration_batches_total"), Labels.of())).isEqualTo(1);
+
+        assertThat(metricFamilies.get("cassandra_jvm_memory_pool_used_bytes").metrics().count())
+                .isEqualTo(memoryPoolMXBeans.size());
+        assertThat(metricFamilies).doesNotContainKey("cassandra_os_1m_load_average");
+    }
+
+    @Test
+    public void testDuplicateLabelsInBatch() throws InterruptedException {
+        final AtomicReference<Set<Labels>> collected = new AtomicReference<>();
+
+        final Harvester harvester = new Harvester(mock(MetadataFactory.class), new HarvesterOptions()) {
+            {
+                addCollectorFactory(mBean -> !mBean.name.getDomain().equals("test") ? null :
+                        new FunctionalMetricFamilyCollector<>("test_labeled", null,
+                                ImmutableMap.of(Labels.of("label", mBean.name.getKeyProperty("label")), new NamedObject<>(mBean.name, (Object) mBean.object)), group -> {
+                                    collected.set(ImmutableSet.copyOf(group.labeledObjects().keySet()));
+                                    return Stream.empty();
+                                }));
+            }
+        };
+
+        final ObjectName a = ObjectNames.create("test:name=a,label=x");
+        final ObjectName b = ObjectNames.create("test:name=b,label=y");
+        final ObjectName c = ObjectNames.create("test:name=c,label=x");
+        final ObjectName d = ObjectNames.create("test:name=d,label=z");
+
+        harvester.registerMBean(new Object(), a);
+        Await.registrations(harvester);
+
+        // c conflicts with the already registered a, but the rest of the batch is registered regardless
+        for (final ObjectName name : new ObjectName[]{b, c, d}) {
+            harvester.registerMBean(new Object(), name);
+        }
+        Await.registrations(harvester);
+
+        harvester.collect().forEach(f -> {});
+        assertThat(collected.get()).containsOnly(Labels.of("label", "x"), Labels.of("label", "y"), Labels.of("label", "z"));
+
+        assertThat(harvester.isCollected(b, MetricFamilyFilter.of(ImmutableList.of("test_labeled"), ImmutableList.of(), ImmutableList.of()))).isTrue();
+
+        // unregistering the batch leaves only a, which the conflicting c must not have replaced or removed
+        for (final ObjectName name : new ObjectName[]{b, c, d}) {
+            harvester.unregisterMBean(name);
+        }
+        Await.registrations(harvester);
+
+        harvester.collect().forEach(f -> {});
+        assertThat(collected.get()).containsOnly(Labels.of("label", "x"));
+
+        harvester.unregisterMBean(a);
+        Await.registrations(harvester);
+
+        assertThat(collect(harvester)).doesNotContainKey("test_labeled");
+    }
+
+    @Test
+    public void testConcurrentCollectorTiming() throws Exception {
+        final HarvesterOptions options = new HarvesterOptions();
+        options.collectorTimingEnabled = true;
+
+        final Harvester harvester = new Harvester(mock(MetadataFactory.class), options) {};
+
+        for (final MemoryPoolMXBean memoryPoolMXBean : ManagementFactory.getMemoryPoolMXBeans()) {
+            harvester.registerMBean(memoryPoolMXBean, memoryPoolMXBean.getObjectName());
+        }
+
+        // registrations are deferred for at least one second
+        Await.until(() -> collect(harvester).containsKey("cassandra_jvm_memory_pool_used_bytes"));
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Map<String, MetricFamily>>> futures = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                futures.add(executorService.submit(() -> collect(harvester)));
+            }
+
+            for (final Future<Map<String, MetricFamily>> future : futures) {
+                assertThat(future.get()).containsKeys("cassandra_jvm_memory_pool_used_bytes", "cassandra_exporter_collection_time_seconds_total");
+            }
+
+        } finally {
+            executorService.shutdown();
+        }
+
+        final Map<String, MetricFamily> exporterMetricFamilies = harvester.exporterMetrics().collect().map(MetricFamily::cachedCopy)
+                .collect(Collectors.toMap(f -> f.name, Function.identity()));
+
+        final MetricFamily<?> durations = exporterMetricFamilies.get("cassandra_exporter_collector_duration_seconds");
+        final HistogramMetricFamily.Histogram duration = (HistogramMetricFamily.Histogram) durations.metrics()
+                .filter(m -> m.labels.equals(Labels.of("collector", MemoryPoolMXBeanMetricFamilyCollector.class.getCanonicalName())))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+
+        assertThat(duration.count).isGreaterThanOrEqualTo(64);
+
+        assertThat(value(exporterMetricFamilies.get("cassandra_exporter_metric_family_series"), Labels.of("family", "cassandra_jvm_memory_pool_used_bytes")))
+                .isEqualTo(ManagementFactory.getMemoryPoolMXBeans().size());
+    }
+
+    @Test
+    public void testCollectionEvents() throws Exception {
+        final Harvester harvester = new Harvester(mock(MetadataFactory.class), new HarvesterOptions()) {};
+
+        final List<MemoryPoolMXBean> memoryPoolMXBeans = ManagementFactory.getMemoryPoolMXBeans();
+        for (final MemoryPoolMXBean memoryPoolMXBean : memoryPoolMXBeans) {
+            harvester.registerMBean(memoryPoolMXBean, memoryPoolMXBean.getObjectName());
+        }
+
+        // registrations are deferred for at least one second
+        Await.until(() -> collect(harvester).containsKey("cassandra_jvm_memory_pool_used_bytes"));
+
+        final Path recordingFile = Files.createTempFile("collection-events", ".jfr");
+        try (final Recording recording = new Recording()) {
+            recording.enable("com.zegelin.cassandra.exporter.Collection");
+            recording.start();
+
+            collect(harvester);
+
+            recording.stop();
+            recording.dump(recordingFile);
+
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile).stream()
+                    .filter(e -> MemoryPoolMXBeanMetricFamilyCollector.class.getCanonicalName().equals(e.getString("collector")))
+                    .collect(Collectors.toList());
+
+            assertThat(events).hasSize(1);
+            assertThat(events.get(0).getLong("series")).isGreaterThanOrEqualTo(memoryPoolMXBeans.size());
+
+        } finally {
+            Files.deleteIfExists(recordingFile);
+        }
+    }
+
+    @Test
+    public void testFilteredCollectionSkipsCollectors() throws InterruptedException {
+        final HarvesterOptions options = new HarvesterOptions();
+        options.nodeMetricsFilter = FactoriesSupplier.TableMetricScope.Filter.ALL;
+
+        final Harvester harvester = new Harvester(mock(MetadataFactory.class), options) {};
+
+        final JmxGaugeMBean tableGauge = mock(JmxGaugeMBean.class);
+        when(tableGauge.getValue()).thenReturn(1L);
+        harvester.registerMBean(tableGauge, ObjectNames.create("org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=tbl,name=MemtableColumnsCount"));
+
+        final JmxGaugeMBean nodeGauge = mock(JmxGaugeMBean.class);
+        when(nodeGauge.getValue()).thenReturn(2L);
+        harvester.registerMBean(nodeGauge, ObjectNames.create("org.apache.cassandra.metrics:type=Table,name=MemtableColumnsCount"));
+
+        // registrations are deferred for at least one second
+        Await.registrations(harvester);
+        Map<String, MetricFamily> metricFamilies = collect(harvester);
+
+        assertThat(metricFamilies).containsKeys("cassandra_table_memtable_columns", "cassandra_node_memtable_columns");
+        reset(tableGauge, nodeGauge);
+        when(tableGauge.getValue()).thenReturn(1L);
+
+        final MetricFamilyFilter filter = MetricFamilyFilter.of(ImmutableList.of(), ImmutableList.of("cassandra_"), ImmutableList.of(FactoriesSupplier.TableMetricScope.TABLE));
+
+        final Map<String, MetricFamily> filteredMetricFamilies = harvester.collect(filter).map(MetricFamily::cachedCopy)
+                .collect(Collectors.toMap(f -> f.name, Function.identity()));
+
+        assertThat(filteredMetricFamilies).containsOnlyKeys("cassandra_table_memtable_columns");
+        verify(tableGauge).getValue();
+        verifyZeroInteractions(nodeGauge);
+    }
+
+    @Test
+    public void testCollectionTimeout() throws InterruptedException {
+        final ObjectName slowMBeanName = ObjectNames.create("test:type=Slow");
+
+        final AtomicReference<CountDownLatch> latch = new AtomicReference<>(new CountDownLatch(1));
+        final AtomicInteger collections = new AtomicInteger();
+
+        final HarvesterOptions options = new HarvesterOptions();
+        options.scrapeTimeoutMarginInMillis = 0;
+
+        final Harvester harvester = new Harvester(mock(MetadataFactory.class), options) {{
+            addCollectorFactory(mBean -> !mBean.name.equals(slowMBeanName) ? null : new MBeanGroupMetricFamilyCollector() {
+                @Override
+                public String name() {
+                    return "test_slow";
+                }
+
+                @Override
+                public Set<String> metricFamilyNames() {
+                    return ImmutableSet.of("test_slow");
+                }
+
+                @Override
+                public Stream<MetricFamily> collect() {
+                    Uninterruptibles.awaitUninterruptibly(latch.get());
+
+                    return Stream.of(new GaugeMetricFamily("test_slow", null, Stream.of(new NumericMetric(Labels.of(), collections.incrementAndGet()))));
+                }
+            });
+        }};
+
+        harvester.registerMBean(new Object(), slowMBeanName);
+
+        // registrations are deferred for at least one second
+        Await.registrations(harvester);
+
+        // the timeouts metric family is omitted until a collector times out
+        final MetricFamilyFilter timeoutsFilter = MetricFamilyFilter.of(ImmutableList.of("cassandra_exporter_collector_timeouts_total"), ImmutableList.of(), ImmutableList.of());
+        assertThat(harvester.collect(timeoutsFilter)).isEmpty();
+
+        final Function<Harvester, Map<String, MetricFamily>> collectWithTimeout = h -> h.collect(MetricFamilyFilter.ALL, Duration.ofMillis(100))
+                .map(MetricFamily::cachedCopy).collect(Collectors.toMap(f -> f.name, Function.identity()));
+
+        // the first collection times out, with no previous result to fall back on
+        Map<String, MetricFamily> metricFamilies = collectWithTimeout.apply(harvester);
+        assertThat(metricFamilies).doesNotContainKey("test_slow");
+        assertThat(value(metricFamilies.get("cassandra_exporter_collector_timeouts_total"), Labels.of("collector", "test_slow"))).isEqualTo(1);
+
+        // the late result is kept...
+        latch.getAndSet(new CountDownLatch(1)).countDown();
+        Await.until(() -> collections.get() > 0);
+        Thread.sleep(100);
+
+        // ...and served when the next collection also times out
+        metricFamilies = collectWithTimeout.apply(harvester);
+        assertThat(value(metricFamilies.get("test_slow"), Labels.of())).isEqualTo(1);
+        assertThat(value(metricFamilies.get("cassandra_exporter_collector_timeouts_total"), Labels.of("collector", "test_slow"))).isEqualTo(2);
+
+        // deadline-bound harvests wait for the deadline off the caller's thread
+        final CompletableFuture<Harvest> harvestFuture = harvester.harvestAsync(MetricFamilyFilter.ALL, Duration.ofMillis(100));
+        assertThat(harvestFuture.isDone()).isFalse();
+        assertThat(harvestFuture.join().metricFamilies().map(f -> f.name)).contains("test_slow");
+
+        latch.get().countDown();
+    }
+
+    private static Harvester newSlowHarvester(final HarvesterOptions options, final ObjectName mBeanName,
+                                              final AtomicInteger collections, final AtomicReference<CountDownLatch> latch) {
+        return new Harvester(mock(MetadataFactory.class), options) {{
+            addCollectorFactory(mBean -> !mBean.name.equals(mBeanName) ? null : new MBeanGroupMetricFamilyCollector() {
+                @Override
+                public String name() {
+                    return "test_slow";
+                }
+
+                @Override
+                public Stream<MetricFamily> collect() {
+                    final int collection = collections.incrementAndGet();
+
+                    if (collection > 1) {
+                        Uninterruptibles.awaitUninterruptibly(latch.get());
+                    }
+
+                    return Stream.of(new GaugeMetricFamily("test_slow", null, Stream.of(new NumericMetric(Labels.of(), collection))));
+                }
+            });
+        }};
+    }
+
+    private static Map<String, MetricFamily> metricFamilies(final Harvest harvest) {
+        return harvest.metricFamilies().map(MetricFamily::cachedCopy).collect(Collectors.toMap(f -> f.name, Function.identity()));
+    }
+
+    private static Map<String, MetricFamily> awaitSnapshot(final Harvester harvester, final double testSlowValue) throws InterruptedException {
+        final AtomicReference<Map<String, MetricFamily>> snapshot = new AtomicReference<>();
+
+        Await.until(() -> {
+            final Harvest harvest = harvester.harvest();
+
+            if (!harvest.isSnapshot()) {
+                return false;
+            }
+
+            final Map<String, MetricFamily> metricFamilies = metricFamilies(harvest);
+            snapshot.set(metricFamilies);
+
+            return metricFamilies.containsKey("test_slow") && value(metricFamilies.get("test_slow"), Labels.of()) == testSlowValue;
+        });
+
+        return snapshot.get();
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() throws Exception {
+        final List<MetricFamily> metricFamilies = new ArrayList<>();
+        metricFamilies.add(new GaugeMetricFamily("test_gauge", null, Stream.of(new NumericMetric(Labels.of(), 1))).cachedCopy());
+
+        final Harvest snapshot = Harvest.snapshot(Instant.now(), metricFamilies);
+
+        // changes to the source list aren't visible
+        metricFamilies.clear();
+
+        assertThat(snapshot.isSnapshot()).isTrue();
+        assertThat(snapshot.metricFamilies().map(f -> f.name)).containsExactly("test_gauge");
+
+        // and the snapshot may be consumed repeatedly, and concurrently
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Double>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(executorService.submit(() -> value(snapshot.metricFamilies().findFirst().orElseThrow(AssertionError::new), Labels.of())));
+            }
+
+            for (final Future<Double> future : futures) {
+                assertThat(future.get()).isEqualTo(1);
+            }
+
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testStaleSnapshotServedWhileHarvestInProgress() throws InterruptedException {
+        final HarvesterOptions options = new HarvesterOptions();
+        options.harvestIntervalInSeconds = 1;
+
+        final ObjectName slowMBeanName = ObjectNames.create("test:type=Slow");
+        final AtomicInteger collections = new AtomicInteger();
+        final AtomicReference<CountDownLatch> latch = new AtomicReference<>(new CountDownLatch(1));
+
+        final Harvester harvester = newSlowHarvester(options, slowMBeanName, collections, latch);
+
+        try {
+            harvester.registerMBean(new Object(), slowMBeanName);
+
+            final Map<String, MetricFamily> firstSnapshot = awaitSnapshot(harvester, 1);
+
+            // the next background harvest blocks in the collector
+            Await.until(() -> collections.get() >= 2);
+            assertThat(collections.get()).isEqualTo(2);
+
+            // meanwhile, the previous snapshot is served without collecting, and ages
+            final Harvest harvest = harvester.harvest();
+            assertThat(harvest.isSnapshot()).isTrue();
+
+            final Map<String, MetricFamily> staleSnapshot = metricFamilies(harvest);
+            assertThat(value(staleSnapshot.get("test_slow"), Labels.of())).isEqualTo(1);
+            assertThat(value(staleSnapshot.get("cassandra_exporter_harvest_age_seconds"), Labels.of()))
+                    .isGreaterThan(value(firstSnapshot.get("cassandra_exporter_harvest_age_seconds"), Labels.of()));
+            assertThat(collections.get()).isEqualTo(2);
+
+            // once the harvest completes, its snapshot replaces the stale one
+            latch.get().countDown();
+
+            awaitSnapshot(harvester, 2);
+
+        } finally {
+            latch.get().countDown();
+            harvester.close();
+        }
+    }
+
+    @Test
+    public void testCloseStopsBackgroundHarvest() throws Exception {
+        final HarvesterOptions options = new HarvesterOptions();
+        options.harvestIntervalInSeconds = 1;
+
+        final ObjectName slowMBeanName = ObjectNames.create("test:type=Slow");
+        final AtomicInteger collections = new AtomicInteger();
+        final AtomicReference<CountDownLatch> latch = new AtomicReference<>(new CountDownLatch(1));
+
+        final Harvester harvester = newSlowHarvester(options, slowMBeanName, collections, latch);
+
+        harvester.registerMBean(new Object(), slowMBeanName);
+
+        awaitSnapshot(harvester, 1);
+
+        Await.until(() -> collections.get() >= 2);
+
+        // close waits for the in-progress harvest to complete...
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> close = executorService.submit(() -> {
+                harvester.close();
+                return null;
+            });
+
+            Thread.sleep(200);
+            assertThat(close.isDone()).isFalse();
+
+            latch.get().countDown();
+
+            close.get(10, TimeUnit.SECONDS);
+
+        } finally {
+            executorService.shutdown();
+        }
+
+        // ...and publishes its snapshot, which continues to be served
+        final Map<String, MetricFamily> metricFamilies = metricFamilies(harvester.harvest());
+        assertThat(value(metricFamilies.get("test_slow"), Labels.of())).isEqualTo(2);
+
+        // no further harvests are run
+        Thread.sleep(TimeUnit.SECONDS.toMillis(options.harvestIntervalInSeconds) + 500);
+        assertThat(collections.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testCoalescedHarvestsShareOneCollection() throws Exception {
+        final HarvesterOptions options = new HarvesterOptions();
+        options.scrapeCoalescingWindowInMillis = 0;
+
+        final ObjectName slowMBeanName = ObjectNames.create("test:type=Slow");
+        final AtomicInteger collections = new AtomicInteger();
+        final AtomicReference<CountDownLatch> latch = new AtomicReference<>(new CountDownLatch(1));
+
+        final Harvester harvester = newSlowHarvester(options, slowMBeanName, collections, latch);
+
+        try {
+            harvester.registerMBean(new Object(), slowMBeanName);
+
+            // registrations are deferred for at least one second. the first (uncoalesced) collection doesn't block
+            Await.until(() -> collect(harvester).containsKey("test_slow"));
+
+            // neither caller blocks, and the second joins the collection started by the first
+            final CompletableFuture<Harvest> first = harvester.harvestAsync(MetricFamilyFilter.ALL, null);
+            final CompletableFuture<Harvest> second = harvester.harvestAsync(MetricFamilyFilter.ALL, null);
+
+            assertThat(second).isSameAs(first);
+            assertThat(first).isNotDone();
+
+            latch.get().countDown();
+
+            final Harvest harvest = first.get(10, TimeUnit.SECONDS);
+            assertThat(value(metricFamilies(harvest).get("test_slow"), Labels.of())).isEqualTo(2);
+            assertThat(collections.get()).isEqualTo(2);
+
+            // with a coalescing window of 0, a later caller starts a new collection
+            assertThat(harvester.harvestAsync(MetricFamilyFilter.ALL, null).get(10, TimeUnit.SECONDS)).isNotSameAs(harvest);
+            assertThat(collections.get()).isEqualTo(3);
+
+        } finally {
+            latch.get().countDown();
+            harvester.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.zegelin.cassandra.exporter.netty;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.net.MediaType;
+import com.zegelin.cassandra.exporter.CountingHarvester;
+import com.zegelin.cassandra.exporter.Harvest;
+import com.zegelin.cassandra.exporter.MetricFamilyFilter;
+import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.exposition.FormattedExposition;
+import com.zegelin.prometheus.exposition.text.TextFormatExposition;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestExpositionCache {
+    private static final MediaType CONTENT_TYPE = MediaType.PLAIN_TEXT_UTF_8;
+
+    private CountingHarvester harvester;
+    private ExpositionCache expositionCache;
+
+    private final AtomicInteger renderCount = new AtomicInteger();
+
+    @BeforeMethod
+    public void before() throws InterruptedException {
+        // with a coalescing window of 0, every harvest is a new snapshot
+        final HarvesterOptions options = CountingHarvester.options();
+        options.scrapeCoalescingWindowInMillis = 0;
+
+        harvester = new CountingHarvester(options).awaitRegistration();
+        expositionCache = new ExpositionCache();
+        renderCount.set(0);
+    }
+
+    @AfterMethod
+    public void after() throws InterruptedException {
+        harvester.close();
+    }
+
+    private Supplier<FormattedExposition> expositionSupplier(final Harvest harvest, final boolean includeHelp) {
+        return () -> {
+            renderCount.incrementAndGet();
+            return new TextFormatExposition(harvest.generationMetricFamilies(), harvest.timestamp, Labels.of(), includeHelp);
+        };
+    }
+
+    private String get(final Harvest harvest, final boolean includeHelp, final boolean gzip) throws IOException {
+        final ByteBuf content = expositionCache.get(UnpooledByteBufAllocator.DEFAULT, harvest, CONTENT_TYPE, includeHelp, gzip, expositionSupplier(harvest, includeHelp));
+
+        try {
+            if (!gzip) {
+                return content.toString(UTF_8);
+            }
+
+            try (final GZIPInputStream inputStream = new GZIPInputStream(new ByteBufInputStream(content))) {
+                return new String(ByteStreams.toByteArray(inputStream), UTF_8);
+            }
+
+        } finally {
+            content.release();
+        }
+    }
+
+    @Test
+    public void testCacheHit() throws IOException {
+        final Harvest harvest = harvester.harvest(MetricFamilyFilter.ALL, null);
+
+        assertThat(expositionCache.isCacheable(harvest)).isTrue();
+
+        final String exposition = get(harvest, true, false);
+        assertThat(exposition).contains("test_value{} 1 ");
+
+        // the same harvest is served from the cache, raw or compressed
+        assertThat(get(harvest, true, false)).isEqualTo(exposition);
+        assertThat(get(harvest, true, true)).isEqualTo(exposition);
+        assertThat(get(harvest, true, true)).isEqualTo(exposition);
+
+        assertThat(renderCount.get()).isEqualTo(1);
+
+        // a different key is rendered separately
+        assertThat(get(harvest, false, false)).doesNotContain("# HELP");
+        assertThat(renderCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testInvalidation() throws IOException {
+        final Harvest first = harvester.harvest(MetricFamilyFilter.ALL, null);
+        assertThat(get(first, true, true)).contains("test_value{} 1 ");
+
+        // a new snapshot replaces the cached exposition, both raw and compressed
+        final Harvest second = harvester.harvest(MetricFamilyFilter.ALL, null);
+        assertThat(second.generation()).isNotSameAs(first.generation());
+
+        assertThat(get(second, true, true)).contains("test_value{} 2 ");
+        assertThat(get(second, true, false)).contains("test_value{} 2 ");
+        assertThat(renderCount.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testLiveHarvestsAreNotCacheable() throws InterruptedException {
+        final CountingHarvester liveHarvester = new CountingHarvester(CountingHarvester.options());
+
+        try {
+            assertThat(expositionCache.isCacheable(liveHarvester.harvest(MetricFamilyFilter.ALL, null))).isFalse();
+
+        } finally {
+            liveHarvester.close();
+        }
+    }
+}
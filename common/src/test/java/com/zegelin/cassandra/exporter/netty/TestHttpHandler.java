@@ -0,0 +1,265 @@
+package com.zegelin.cassandra.exporter.netty;
+
+import com.google.common.io.ByteStreams;
+import com.zegelin.cassandra.exporter.Await;
+import com.zegelin.cassandra.exporter.CountingHarvester;
+import com.zegelin.cassandra.exporter.Harvest;
+import com.zegelin.cassandra.exporter.Harvester;
+import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.cassandra.exporter.cli.HttpServerOptions;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestHttpHandler {
+    private static final class Response {
+        final int status;
+        final Map<String, List<String>> headers;
+        final byte[] body;
+
+        Response(final int status, final Map<String, List<String>> headers, final byte[] body) {
+            this.status = status;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(final String name) {
+            return headers.entrySet().stream()
+                    .filter(e -> name.equalsIgnoreCase(e.getKey()))
+                    .map(e -> e.getValue().get(0))
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        String bodyAsString() {
+            return new String(body, UTF_8);
+        }
+    }
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterMethod
+    public void after() throws Exception {
+        for (final AutoCloseable resource : resources) {
+            resource.close();
+        }
+
+        resources.clear();
+    }
+
+    /**
+     * Serve {@param harvester} with a single event loop thread, as per {@link Server#start}.
+     *
+     * @return the port the server is listening on
+     */
+    private int serve(final Harvester harvester, final HttpServerOptions httpServerOptions) throws InterruptedException {
+        final EventLoopGroup eventLoopGroup = new NioEventLoopGroup(1);
+        resources.add(() -> eventLoopGroup.shutdownGracefully().sync());
+        resources.add(harvester);
+
+        final Channel channel = new ServerBootstrap()
+                .group(eventLoopGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new Server.ChildInitializer(harvester, httpServerOptions))
+                .bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).sync().channel();
+
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    private static HttpServerOptions httpServerOptions() {
+        final HttpServerOptions options = new HttpServerOptions();
+        options.helpExposition = HttpHandler.HelpExposition.INCLUDE;
+
+        return options;
+    }
+
+    private static Response request(final int port, final String method, final String path, final String... headers) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port, path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(10));
+
+        // HttpURLConnection's default Accept header isn't a valid list of media types
+        connection.setRequestProperty("Accept", "text/plain");
+
+        for (int i = 0; i < headers.length; i += 2) {
+            connection.setRequestProperty(headers[i], headers[i + 1]);
+        }
+
+        try {
+            final int status = connection.getResponseCode();
+
+            final InputStream inputStream = (status < 400 ? connection.getInputStream() : connection.getErrorStream());
+            final byte[] body = (inputStream == null ? new byte[0] : ByteStreams.toByteArray(inputStream));
+
+            return new Response(status, connection.getHeaderFields(), body);
+
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static Response get(final int port, final String path, final String... headers) throws IOException {
+        return request(port, "GET", path, headers);
+    }
+
+    @Test
+    public void testConcurrentRequestsShareCoalescedCollection() throws Exception {
+        final HarvesterOptions options = CountingHarvester.options();
+        options.scrapeCoalescingWindowInMillis = 0;
+
+        final CountingHarvester harvester = new CountingHarvester(options).awaitRegistration();
+        final int port = serve(harvester, httpServerOptions());
+
+        harvester.latch = new CountDownLatch(1);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        try {
+            final Future<Response> first = executorService.submit(() -> get(port, "/metrics"));
+            final Future<Response> second = executorService.submit(() -> get(port, "/metrics"));
+
+            // both requests reach the Harvester while the first collection is blocked, hence the event loop isn't
+            Await.until(() -> harvester.harvests.get() >= 2);
+
+            assertThat(harvester.harvests.get()).isEqualTo(2);
+            assertThat(harvester.collections.get()).isEqualTo(1);
+
+            harvester.latch.countDown();
+
+            for (final Future<Response> future : new Future[]{first, second}) {
+                final Response response = future.get(10, TimeUnit.SECONDS);
+
+                assertThat(response.status).isEqualTo(200);
+                assertThat(response.bodyAsString()).contains("test_value{} 1 ");
+            }
+
+            assertThat(harvester.collections.get()).isEqualTo(1);
+
+        } finally {
+            harvester.latch.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    private static boolean acceptsGzip(final String acceptEncoding) {
+        final HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/metrics");
+
+        if (acceptEncoding != null) {
+            request.headers().set(HttpHeaders.Names.ACCEPT_ENCODING, acceptEncoding);
+        }
+
+        return HttpHandler.acceptsGzip(request);
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertThat(acceptsGzip(null)).isFalse();
+        assertThat(acceptsGzip("")).isFalse();
+        assertThat(acceptsGzip("identity")).isFalse();
+        assertThat(acceptsGzip("deflate, br")).isFalse();
+
+        assertThat(acceptsGzip("gzip")).isTrue();
+        assertThat(acceptsGzip("GZIP")).isTrue();
+        assertThat(acceptsGzip("deflate, gzip;q=0.5")).isTrue();
+        assertThat(acceptsGzip("gzip; q=1.0, identity; q=0.5")).isTrue();
+        assertThat(acceptsGzip("*")).isTrue();
+
+        assertThat(acceptsGzip("gzip;q=0")).isFalse();
+        assertThat(acceptsGzip("gzip; q=0.000")).isFalse();
+        assertThat(acceptsGzip("*;q=0")).isFalse();
+
+        // an explicit gzip entry takes precedence over the wildcard, regardless of order
+        assertThat(acceptsGzip("gzip;q=0, *")).isFalse();
+        assertThat(acceptsGzip("*, gzip;q=0")).isFalse();
+        assertThat(acceptsGzip("*;q=0, gzip")).isTrue();
+    }
+
+    private static boolean isSnapshotOfTestValue(final Harvest harvest) {
+        return harvest.isSnapshot() && harvest.metricFamilies().anyMatch(f -> f.name.equals("test_value"));
+    }
+
+    private static void awaitSnapshot(final Harvester harvester) throws InterruptedException {
+        Await.until(() -> isSnapshotOfTestValue(harvester.harvest()));
+    }
+
+    private static String gunzip(final byte[] content) throws IOException {
+        try (final GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(content))) {
+            return new String(ByteStreams.toByteArray(inputStream), UTF_8);
+        }
+    }
+
+    @Test
+    public void testCachedSnapshotExposition() throws Exception {
+        final HarvesterOptions options = CountingHarvester.options();
+        options.harvestIntervalInSeconds = 1;
+
+        final CountingHarvester harvester = new CountingHarvester(options).awaitRegistration();
+
+        final HttpServerOptions httpServerOptions = httpServerOptions();
+        httpServerOptions.expositionCacheEnabled = true;
+
+        final int cachingPort = serve(harvester, httpServerOptions);
+        final int port = serve(harvester, httpServerOptions());
+
+        awaitSnapshot(harvester);
+
+        // block subsequent background harvests, so that the current snapshot continues to be served
+        harvester.latch = new CountDownLatch(1);
+
+        try {
+            // the snapshot age changes from request to request, hence is only included in uncached expositions
+            assertThat(get(port, "/metrics").bodyAsString()).contains("cassandra_exporter_harvest_age_seconds");
+
+            final Response response = get(cachingPort, "/metrics");
+            assertThat(response.status).isEqualTo(200);
+            assertThat(response.header("Content-Length")).isEqualTo(String.valueOf(response.body.length));
+            assertThat(response.header("Content-Encoding")).isNull();
+            assertThat(response.bodyAsString())
+                    .contains("test_value{} ")
+                    .doesNotContain("cassandra_exporter_harvest_age_seconds");
+
+            // subsequent requests for the same snapshot are served from the cache, raw or compressed
+            assertThat(get(cachingPort, "/metrics").body).isEqualTo(response.body);
+
+            final Response gzipResponse = get(cachingPort, "/metrics", "Accept-Encoding", "gzip");
+            assertThat(gzipResponse.header("Content-Encoding")).isEqualTo("gzip");
+            assertThat(gzipResponse.header("Content-Length")).isEqualTo(String.valueOf(gzipResponse.body.length));
+            assertThat(gunzip(gzipResponse.body)).isEqualTo(response.bodyAsString());
+
+            final Response identityResponse = get(cachingPort, "/metrics", "Accept-Encoding", "gzip;q=0, identity");
+            assertThat(identityResponse.header("Content-Encoding")).isNull();
+            assertThat(identityResponse.body).isEqualTo(response.body);
+
+        } finally {
+            harvester.latch.countDown();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.zegelin.prometheus.domain;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
+import io.netty.buffer.ByteBuf;
 import io.netty.util.ResourceLeakDetector;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -14,6 +15,16 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Ignore;
 import org.testng.annotations.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatCode;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
@@ -84,4 +95,85 @@ public class TestLabels {
         labels.asJSONFormatUTF8EncodedByteBuf();
         assertThatCode(() -> labels.finalize()).doesNotThrowAnyException();
     }
+
+    @Test
+    public void testConcurrentEncoding() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                final Labels labels = Labels.of("key", "value");
+                final CyclicBarrier barrier = new CyclicBarrier(8);
+
+                final List<Future<ByteBuf[]>> futures = new ArrayList<>();
+                for (int j = 0; j < 8; j++) {
+                    futures.add(executorService.submit(() -> {
+                        barrier.await();
+                        return new ByteBuf[]{labels.asPlainTextFormatUTF8EncodedByteBuf(), labels.asJSONFormatUTF8EncodedByteBuf()};
+                    }));
+                }
+
+                // every thread sees the same, completely built, buffers
+                final ByteBuf[] first = futures.get(0).get();
+                for (final Future<ByteBuf[]> future : futures) {
+                    assertThat(future.get()[0]).isSameAs(first[0]);
+                    assertThat(future.get()[1]).isSameAs(first[1]);
+                }
+
+                assertThat(first[0].toString(StandardCharsets.UTF_8)).isEqualTo("key=\"value\"");
+            }
+
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPlainTextSeriesPrefix() {
+        Labels labels = Labels.of("key", "value");
+        Labels globalLabels = Labels.of("global", "value");
+
+        byte[] prefix = labels.asPlainTextFormatSeriesPrefix("family", "_sum", null, globalLabels);
+
+        assertThat(new String(prefix, StandardCharsets.UTF_8)).isEqualTo("family_sum{key=\"value\",global=\"value\"} ");
+        assertThat(labels.asPlainTextFormatSeriesPrefix("family", "_sum", null, globalLabels)).isSameAs(prefix);
+
+        assertThat(new String(labels.asPlainTextFormatSeriesPrefix("family", null, Labels.of("quantile", "0.5"), Labels.of()), StandardCharsets.UTF_8))
+                .isEqualTo("family{key=\"value\",quantile=\"0.5\"} ");
+
+        assertThat(new String(Labels.of().asPlainTextFormatSeriesPrefix("family", null, null, Labels.of()), StandardCharsets.UTF_8))
+                .isEqualTo("family{} ");
+    }
+
+    @Test
+    public void testPlainTextSeriesPrefixesOfHistogram() {
+        Labels labels = Labels.of("key", "value");
+        Labels globalLabels = Labels.of("global", "value");
+
+        List<Labels> bucketLabels = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            bucketLabels.add(Interval.Quantile.le(Math.pow(1.2, i * 4)).asHistogramLabel());
+        }
+        bucketLabels.add(Interval.Quantile.POSITIVE_INFINITY.asHistogramLabel());
+
+        // as written by the text exposition: _sum, _count and then every bucket
+        Function<Labels, List<byte[]>> writeHistogram = l -> {
+            List<byte[]> prefixes = new ArrayList<>();
+            prefixes.add(l.asPlainTextFormatSeriesPrefix("family", "_sum", null, globalLabels));
+            prefixes.add(l.asPlainTextFormatSeriesPrefix("family", "_count", null, globalLabels));
+            bucketLabels.forEach(b -> prefixes.add(l.asPlainTextFormatSeriesPrefix("family", "_bucket", b, globalLabels)));
+            return prefixes;
+        };
+
+        List<byte[]> first = writeHistogram.apply(labels);
+        List<byte[]> second = writeHistogram.apply(labels);
+
+        // every series of the histogram is served from the cache the second time around
+        assertThat(first).hasSize(bucketLabels.size() + 2);
+        for (int i = 0; i < first.size(); i++) {
+            assertThat(second.get(i)).isSameAs(first.get(i));
+        }
+
+        assertThat(new String(second.get(0), StandardCharsets.UTF_8)).isEqualTo("family_sum{key=\"value\",global=\"value\"} ");
+    }
 }
@@ -0,0 +1,79 @@
+package com.zegelin.prometheus.exposition;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+public class TestFormattedChunkedInput {
+    @Mock
+    private FormattedExposition formattedExposition;
+
+    private FormattedChunkedInput input;
+
+    @BeforeMethod
+    public void before() {
+        MockitoAnnotations.initMocks(this);
+        input = new FormattedChunkedInput(formattedExposition);
+    }
+
+    @Test
+    public void testEndOfInput() {
+        when(formattedExposition.isEndOfInput()).thenReturn(true);
+
+        assertThat(input.isEndOfInput()).isEqualTo(true);
+        assertThat(input.readChunk(UnpooledByteBufAllocator.DEFAULT)).isNull();
+    }
+
+    @Test
+    public void testOneChunk() {
+        when(formattedExposition.isEndOfInput()).thenReturn(false).thenReturn(false).thenReturn(true);
+        doAnswer(invocation -> {
+            NettyExpositionSink sink = invocation.getArgument(0);
+            sink.writeAscii("abcdefghij");
+            return null;
+        }).when(formattedExposition).nextSlice(any(NettyExpositionSink.class));
+
+        final ByteBuf chunk = input.readChunk(UnpooledByteBufAllocator.DEFAULT);
+
+        try {
+            assertThat(chunk.isDirect()).isEqualTo(true);
+            assertThat(chunk.toString(US_ASCII)).isEqualTo("abcdefghij");
+            assertThat(input.progress()).isEqualTo(10);
+            assertThat(input.isEndOfInput()).isEqualTo(true);
+
+        } finally {
+            chunk.release();
+        }
+    }
+
+    @Test
+    public void testMultipleChunks() {
+        when(formattedExposition.isEndOfInput()).thenReturn(false);
+        doAnswer(invocation -> {
+            NettyExpositionSink sink = invocation.getArgument(0);
+            sink.writeBytes(new byte[32 * 1024]);
+            return null;
+        }).when(formattedExposition).nextSlice(any(NettyExpositionSink.class));
+
+        final ByteBuf chunk = input.readChunk(UnpooledByteBufAllocator.DEFAULT);
+
+        try {
+            // chunks are filled up to (but not beyond) the chunk size
+            assertThat(chunk.readableBytes()).isLessThanOrEqualTo(FormattedChunkedInput.CHUNK_SIZE);
+            assertThat(chunk.capacity()).isEqualTo(FormattedChunkedInput.CHUNK_SIZE);
+            assertThat(input.isEndOfInput()).isEqualTo(false);
+
+        } finally {
+            chunk.release();
+        }
+    }
+}
@@ -2,10 +2,14 @@ package com.zegelin.prometheus.exposition;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import com.sun.management.ThreadMXBean;
+import org.testng.SkipException;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
+import java.util.Random;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -53,6 +57,27 @@ public class TestNettyExpositionSink {
         assertThat(sink.getIngestedByteCount()).isEqualTo(5);
     }
 
+    @Test
+    public void testDoubleSize() {
+        sink.writeDouble(0.123);
+        sink.writeDouble(16777217); // 2^24 + 1, not representable as a float
+
+        assertThat(sink.getIngestedByteCount()).isEqualTo(13);
+        assertThat(sink.getBuffer().toString(US_ASCII)).isEqualTo("0.12316777217");
+    }
+
+    @Test
+    public void testLong() {
+        final long[] values = {0, 7, -7, 10, 99, 100, 123456789, -9007199254740993L, Long.MAX_VALUE, Long.MIN_VALUE};
+
+        for (final long value : values) {
+            sink.getBuffer().clear();
+            sink.writeLong(value);
+
+            assertThat(sink.getBuffer().toString(US_ASCII)).isEqualTo(Long.toString(value));
+        }
+    }
+
     @Test
     public void testBufferSize() {
         ByteBuffer buffer = ByteBuffer.wrap("abc".getBytes(US_ASCII));
@@ -60,4 +85,97 @@ public class TestNettyExpositionSink {
 
         assertThat(sink.getIngestedByteCount()).isEqualTo(3);
     }
+
+    private static long allocatedBytesForDoubles(final double[] values) {
+        final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final ByteBuf buffer = Unpooled.directBuffer(values.length * 32);
+
+        try {
+            final NettyExpositionSink sink = new NettyExpositionSink(buffer);
+
+            final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+
+            for (final double value : values) {
+                sink.writeDouble(value);
+            }
+
+            return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static long allocatedBytesForFloats(final float[] values) {
+        final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+
+        final ByteBuf buffer = Unpooled.directBuffer(values.length * 16);
+
+        try {
+            final NettyExpositionSink sink = new NettyExpositionSink(buffer);
+
+            final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+
+            for (final float value : values) {
+                sink.writeFloat(value);
+            }
+
+            return threadMXBean.getThreadAllocatedBytes(threadId) - before;
+
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testFloatAllocations() {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof ThreadMXBean) || !((ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Thread allocated memory measurement is not supported by this JVM.");
+        }
+
+        final Random random = new Random(0);
+
+        final float[] fractionalValues = new float[100_000];
+        final float[] integralValues = new float[100_000];
+        for (int i = 0; i < fractionalValues.length; i++) {
+            fractionalValues[i] = random.nextFloat() * 1000;
+            integralValues[i] = random.nextInt(1_000_000);
+        }
+
+        // warm-up
+        allocatedBytesForFloats(fractionalValues);
+        allocatedBytesForFloats(integralValues);
+
+        // allow a small fixed overhead for the measurement itself, but nothing per-sample
+        assertThat(allocatedBytesForFloats(fractionalValues)).as("bytes allocated per 100k fractional samples").isLessThan(1024);
+        assertThat(allocatedBytesForFloats(integralValues)).as("bytes allocated per 100k integral samples").isLessThan(1024);
+    }
+
+    @Test
+    public void testDoubleAllocations() {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof ThreadMXBean) || !((ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Thread allocated memory measurement is not supported by this JVM.");
+        }
+
+        final Random random = new Random(0);
+
+        final double[] fractionalValues = new double[100_000];
+        final double[] integralValues = new double[100_000];
+        for (int i = 0; i < fractionalValues.length; i++) {
+            fractionalValues[i] = random.nextDouble() * 1000;
+            integralValues[i] = random.nextLong() >>> 12;
+        }
+
+        // warm-up
+        allocatedBytesForDoubles(fractionalValues);
+        allocatedBytesForDoubles(integralValues);
+
+        assertThat(allocatedBytesForDoubles(fractionalValues)).as("bytes allocated per 100k fractional samples").isLessThan(1024);
+        assertThat(allocatedBytesForDoubles(integralValues)).as("bytes allocated per 100k integral samples").isLessThan(1024);
+    }
 }
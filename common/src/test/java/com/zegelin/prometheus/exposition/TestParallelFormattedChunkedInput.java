@@ -0,0 +1,221 @@
+package com.zegelin.prometheus.exposition;
+
+import com.google.common.collect.ImmutableMap;
+import com.zegelin.prometheus.domain.CounterMetricFamily;
+import com.zegelin.prometheus.domain.GaugeMetricFamily;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+import com.zegelin.prometheus.exposition.json.JsonFormatExposition;
+import com.zegelin.prometheus.exposition.text.TextFormatExposition;
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.testng.annotations.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestParallelFormattedChunkedInput {
+    private static final Instant TIMESTAMP = Instant.ofEpochMilli(1_500_000_000_000L);
+    private static final Labels GLOBAL_LABELS = new Labels(ImmutableMap.of("cassandra_cluster", "test-cluster"));
+
+    private static final List<MetricFamily> METRIC_FAMILIES = IntStream.range(0, 100)
+            .mapToObj(f -> {
+                final Stream<NumericMetric> metrics = IntStream.range(0, f % 7)
+                        .mapToObj(m -> new NumericMetric(new Labels(ImmutableMap.of("table", "table_" + m)), f * m));
+
+                final MetricFamily<?> metricFamily = (f % 2 == 0) ?
+                        new GaugeMetricFamily("test_gauge_" + f, "Gauge " + f + ".", metrics) :
+                        new CounterMetricFamily("test_counter_" + f, "Counter " + f + ".", metrics);
+
+                return (MetricFamily) metricFamily.cachedCopy();
+            })
+            .collect(Collectors.toList());
+
+    // the footers include how long the exposition took, which differs between runs
+    private static String withoutTimings(final String exposition) {
+        return exposition
+                .replaceAll("(# Wrote .*) in .*\n", "$1\n")
+                .replaceAll("expositionTime:[0-9]+", "expositionTime:0");
+    }
+
+    private static String readFully(final FormattedExposition exposition) {
+        final ByteBuf buffer = UnpooledByteBufAllocator.DEFAULT.buffer();
+
+        try {
+            final NettyExpositionSink sink = new NettyExpositionSink(buffer);
+
+            while (!exposition.isEndOfInput()) {
+                exposition.nextSlice(sink);
+            }
+
+            return buffer.toString(UTF_8);
+
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static String readFully(final ParallelFormattedChunkedInput input, final Object completionMonitor) throws InterruptedException {
+        final StringBuilder result = new StringBuilder();
+
+        while (!input.isEndOfInput()) {
+            final ByteBuf chunk;
+
+            synchronized (completionMonitor) {
+                chunk = input.readChunk(UnpooledByteBufAllocator.DEFAULT);
+
+                if (chunk == null) {
+                    completionMonitor.wait(100);
+                    continue;
+                }
+            }
+
+            try {
+                result.append(chunk.toString(UTF_8));
+
+            } finally {
+                chunk.release();
+            }
+        }
+
+        return result.toString();
+    }
+
+    private static void testMatchesSequentialExposition(final MetricFamilyFormat format) throws InterruptedException {
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+        try {
+            final Object completionMonitor = new Object();
+
+            final ParallelFormattedChunkedInput input = new ParallelFormattedChunkedInput(METRIC_FAMILIES.stream(), format, executorService, 8, () -> {
+                synchronized (completionMonitor) {
+                    completionMonitor.notifyAll();
+                }
+            });
+
+            final String parallelExposition = readFully(input, completionMonitor);
+            final String sequentialExposition = readFully(format.newExposition(METRIC_FAMILIES.stream()));
+
+            assertThat(withoutTimings(parallelExposition)).isEqualTo(withoutTimings(sequentialExposition));
+            assertThat(input.progress()).isEqualTo(parallelExposition.getBytes(UTF_8).length);
+
+        } finally {
+            executorService.shutdownNow();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testTextFormat() throws InterruptedException {
+        testMatchesSequentialExposition(new TextFormatExposition.Format(TIMESTAMP, GLOBAL_LABELS, true));
+    }
+
+    @Test
+    public void testJsonFormat() throws InterruptedException {
+        testMatchesSequentialExposition(new JsonFormatExposition.Format(TIMESTAMP, GLOBAL_LABELS, true));
+    }
+
+    @Test
+    public void testInOrderWithinWindow() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final AtomicInteger renderCompleteCount = new AtomicInteger();
+
+        final ParallelFormattedChunkedInput input = new ParallelFormattedChunkedInput(METRIC_FAMILIES.stream().limit(3),
+                new TextFormatExposition.Format(TIMESTAMP, GLOBAL_LABELS, false), tasks::add, 2, renderCompleteCount::incrementAndGet);
+
+        // the banner is available immediately, and no more than the window of metric families are rendering
+        final ByteBuf banner = input.readChunk(UnpooledByteBufAllocator.DEFAULT);
+        banner.release();
+
+        assertThat(tasks).hasSize(2);
+
+        // the second metric family completing first doesn't allow anything to be emitted
+        tasks.get(1).run();
+
+        assertThat(renderCompleteCount.get()).isEqualTo(1);
+        assertThat(input.readChunk(UnpooledByteBufAllocator.DEFAULT)).isNull();
+        assertThat(tasks).hasSize(2);
+
+        // once the first completes, both are emitted, in order, and the last metric family is submitted
+        tasks.get(0).run();
+
+        final ByteBuf chunk = input.readChunk(UnpooledByteBufAllocator.DEFAULT);
+        try {
+            assertThat(chunk.toString(UTF_8)).startsWith("# TYPE test_gauge_0 gauge\n").contains("# TYPE test_counter_1 counter\n");
+
+        } finally {
+            chunk.release();
+        }
+
+        assertThat(tasks).hasSize(3);
+        assertThat(input.isEndOfInput()).isFalse();
+
+        tasks.get(2).run();
+
+        final ByteBuf finalChunk = input.readChunk(UnpooledByteBufAllocator.DEFAULT);
+        try {
+            assertThat(finalChunk.toString(UTF_8)).startsWith("# TYPE test_gauge_2 gauge\n").contains("# Wrote 3 metrics for 3 metric families");
+
+        } finally {
+            finalChunk.release();
+        }
+
+        assertThat(input.isEndOfInput()).isTrue();
+        assertThat(renderCompleteCount.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testCloseReleasesPendingMetricFamilies() {
+        final List<Runnable> tasks = new ArrayList<>();
+        final List<ByteBuf> buffers = Collections.synchronizedList(new ArrayList<>());
+
+        final ByteBufAllocator allocator = new AbstractByteBufAllocator(true) {
+            @Override
+            protected ByteBuf newHeapBuffer(final int initialCapacity, final int maxCapacity) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected ByteBuf newDirectBuffer(final int initialCapacity, final int maxCapacity) {
+                final ByteBuf buffer = Unpooled.directBuffer(initialCapacity, maxCapacity);
+                buffers.add(buffer);
+                return buffer;
+            }
+
+            @Override
+            public boolean isDirectBufferPooled() {
+                return false;
+            }
+        };
+
+        final ParallelFormattedChunkedInput input = new ParallelFormattedChunkedInput(METRIC_FAMILIES.stream(),
+                new TextFormatExposition.Format(TIMESTAMP, GLOBAL_LABELS, false), tasks::add, 4, () -> {});
+
+        input.readChunk(allocator).release();
+
+        tasks.get(1).run(); // rendered before close, but not emitted
+
+        input.close();
+
+        tasks.get(0).run(); // rendered after close
+
+        assertThat(buffers).hasSize(3) // banner, and the two metric families
+                .allMatch(b -> b.refCnt() == 0);
+    }
+}
@@ -0,0 +1,69 @@
+package info.adams.ryu;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestRyuDouble {
+    @Test
+    public void testDoubleToBuffer() {
+        final ByteBuf buffer = Unpooled.buffer(24);
+
+        try {
+            int size = RyuDouble.doubleToString(buffer, 0.3);
+
+            assertThat(size).isEqualTo(3);
+            assertThat(buffer.toString(US_ASCII)).isEqualTo("0.3");
+
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testSpecialValues() {
+        final ByteBuf buffer = Unpooled.buffer(24);
+
+        try {
+            for (double d : new double[]{Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0, -0.0, 1.0, 1.0E7, 1.0E-3, 9.9E-4, Double.MAX_VALUE, Double.MIN_VALUE}) {
+                buffer.clear();
+                RyuDouble.doubleToString(buffer, d);
+
+                assertThat(buffer.toString(US_ASCII)).isEqualTo(Double.toString(d));
+            }
+
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testDoubleToByteBufRoundTrip() {
+        final ByteBuf buffer = Unpooled.directBuffer(24);
+        final Random random = new Random(0);
+
+        try {
+            for (int i = 0; i < 1_000_000; i++) {
+                final double d = Double.longBitsToDouble(random.nextLong());
+
+                if (Double.isNaN(d)) {
+                    continue;
+                }
+
+                buffer.clear();
+                final int size = RyuDouble.doubleToString(buffer, d);
+
+                assertThat(size).isEqualTo(buffer.readableBytes());
+                assertThat(Double.parseDouble(buffer.toString(US_ASCII))).isEqualTo(d);
+            }
+
+        } finally {
+            buffer.release();
+        }
+    }
+}
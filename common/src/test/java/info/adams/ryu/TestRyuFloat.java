@@ -1,10 +1,13 @@
 package info.adams.ryu;
 
-import org.apache.commons.codec.binary.Hex;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import org.testng.annotations.Test;
 
-import java.nio.ByteBuffer;
+import java.util.Random;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -12,12 +15,75 @@ public class TestRyuFloat {
     @Test
     public void testFloatToBuffer() {
         float f = 0.33007812f;
-        final ByteBuffer buffer = ByteBuffer.allocate(10);
+        final ByteBuf buffer = Unpooled.buffer(15);
 
-        int size = RyuFloat.floatToString(buffer, f, RoundingMode.ROUND_EVEN);
+        try {
+            int size = RyuFloat.floatToString(buffer, f, RoundingMode.ROUND_EVEN);
 
-        assertThat(size).isEqualTo(10);
-        assertThat(Hex.encodeHexString(buffer.array())).isEqualTo("302e3333303037383132");
-        assertThat(new String(buffer.array(), UTF_8)).isEqualTo("0.33007812");
+            assertThat(size).isEqualTo(10);
+            assertThat(ByteBufUtil.hexDump(buffer)).isEqualTo("302e3333303037383132");
+            assertThat(buffer.toString(UTF_8)).isEqualTo("0.33007812");
+
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testFloatToByteBuf() {
+        final ByteBuf buffer = Unpooled.buffer(15);
+
+        try {
+            int size = RyuFloat.floatToString(buffer, 0.33007812f);
+
+            assertThat(size).isEqualTo(10);
+            assertThat(buffer.toString(US_ASCII)).isEqualTo("0.33007812");
+
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testIntegralFloatToByteBuf() {
+        final ByteBuf buffer = Unpooled.directBuffer(15);
+
+        try {
+            for (float f : new float[]{1, -1, 9, 10, 123456, -9999999, 1.0E7f, 2.5E9f}) {
+                buffer.clear();
+                RyuFloat.floatToString(buffer, f);
+
+                assertThat(buffer.toString(US_ASCII)).isEqualTo(Float.toString(f));
+            }
+
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testFloatToByteBufRoundTrip() {
+        final ByteBuf buffer = Unpooled.buffer(15);
+        final Random random = new Random(0);
+
+        try {
+            for (int i = 0; i < 100_000; i++) {
+                final float f = Float.intBitsToFloat(random.nextInt());
+
+                buffer.clear();
+                final int size = RyuFloat.floatToString(buffer, f);
+
+                assertThat(size).isEqualTo(buffer.readableBytes());
+
+                if (Float.isNaN(f)) {
+                    assertThat(buffer.toString(US_ASCII)).isEqualTo("NaN");
+                } else {
+                    assertThat(Float.parseFloat(buffer.toString(US_ASCII))).isEqualTo(f);
+                }
+            }
+
+        } finally {
+            buffer.release();
+        }
     }
 }
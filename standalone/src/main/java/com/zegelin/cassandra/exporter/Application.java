@@ -16,10 +16,7 @@ import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 import picocli.CommandLine.*;
 
-import javax.management.MBeanServerConnection;
-import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
-import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -65,6 +62,27 @@ public class Application implements Callable<Void> {
     @Option(names = "--jmx-password", paramLabel = "PASSWORD", description = "JMX authentication password.")
     private String jmxPassword;
 
+    @Option(names = "--jmx-connections", paramLabel = "COUNT",
+            defaultValue = "4",
+            description = "Number of JMX connections to open to the Cassandra instance. MBeans are spread across the connections. " +
+                    "Broken connections are re-established in the background. " +
+                    "Defaults to '${DEFAULT-VALUE}'")
+    private int jmxConnections;
+
+    @Option(names = "--jmx-fetch-parallelism", paramLabel = "THREADS",
+            defaultValue = "8",
+            description = "Number of concurrent bulk JMX attribute fetches (one per MBean) issued at the start of each collection. " +
+                    "Set to 0 to disable bulk fetching, in which case each attribute is read individually. " +
+                    "Defaults to '${DEFAULT-VALUE}'")
+    private int jmxFetchParallelism;
+
+    @Option(names = "--jmx-reconcile-interval", paramLabel = "SECONDS",
+            defaultValue = "300",
+            description = "Interval in seconds between full scans of the remote MBean server for new and removed MBeans. " +
+                    "MBeans are otherwise discovered via MBean server registration notifications, hence this is only a safety net. " +
+                    "Defaults to '${DEFAULT-VALUE}'")
+    private long jmxReconcileIntervalInSeconds;
+
 
     @Option(names = "--cql-address", paramLabel = "[ADDRESS][:PORT]",
             defaultValue = "localhost:" + DEFAULT_PORT,
@@ -87,46 +105,12 @@ public class Application implements Callable<Void> {
     public Void call() throws Exception {
         setRootLoggerLevel();
 
-        final MBeanServerConnection mBeanServerConnection = establishMBeanServerConnection();
+        final JMXConnectionPool jmxConnectionPool = establishJMXConnections();
 
         final Cluster cluster = establishClusterConnection();
         final RemoteMetadataFactory remoteMetadataFactory = new RemoteMetadataFactory(cluster);
 
-        final JMXHarvester harvester = new JMXHarvester(mBeanServerConnection, remoteMetadataFactory, harvesterOptions);
-
-        // register for schema change notifications
-        cluster.register(new SchemaChangeListenerBase() {
-            @Override
-            public void onKeyspaceAdded(final KeyspaceMetadata keyspace) {
-                harvester.reconcileMBeans();
-            }
-
-            @Override
-            public void onKeyspaceRemoved(final KeyspaceMetadata keyspace) {
-                harvester.reconcileMBeans();
-            }
-
-            @Override
-            public void onTableAdded(final TableMetadata table) {
-                harvester.reconcileMBeans();
-            }
-
-            @Override
-            public void onTableRemoved(final TableMetadata table) {
-                harvester.reconcileMBeans();
-            }
-
-            @Override
-            public void onMaterializedViewAdded(final MaterializedViewMetadata view) {
-                harvester.reconcileMBeans();
-            }
-
-            @Override
-            public void onMaterializedViewRemoved(final MaterializedViewMetadata view) {
-                harvester.reconcileMBeans();
-            }
-        });
-
+        final JMXHarvester harvester = new JMXHarvester(jmxConnectionPool, remoteMetadataFactory, harvesterOptions, jmxFetchParallelism, jmxReconcileIntervalInSeconds);
 
         Server.start(harvester, httpServerOptions);
 
@@ -153,28 +137,21 @@ public class Application implements Callable<Void> {
         return cluster;
     }
 
-    private MBeanServerConnection establishMBeanServerConnection() throws IOException {
+    private JMXConnectionPool establishJMXConnections() throws IOException {
         if (jmxUser != null ^ jmxPassword != null) {
             throw new ParameterException(commandSpec.commandLine(), "Both --jmx-user and --jmx-password are required when either is used.");
         }
 
+        if (jmxConnections < 1) {
+            throw new ParameterException(commandSpec.commandLine(), "--jmx-connections must be at least 1.");
+        }
+
         Map<String, String[]> jmxEnvironment = new HashMap<>();
         if (jmxUser != null && jmxPassword != null) {
             jmxEnvironment.put(JMXConnector.CREDENTIALS, new String[]{jmxUser, jmxPassword});
         }
 
-        final JMXConnector connector = JMXConnectorFactory.connect(jmxServiceURL, jmxEnvironment);
-        final MBeanServerConnection mBeanServerConnection = connector.getMBeanServerConnection();
-
-        connector.addConnectionNotificationListener((notification, handback) -> {
-            if (notification.getType().equals(JMXConnectionNotification.CLOSED)) {
-                logger.error("JMX connection to {} closed.", jmxServiceURL);
-
-                Runtime.getRuntime().exit(-1);
-            }
-        }, null, null);
-
-        return mBeanServerConnection;
+        return new JMXConnectionPool(jmxServiceURL, jmxEnvironment, jmxConnections);
     }
 
 
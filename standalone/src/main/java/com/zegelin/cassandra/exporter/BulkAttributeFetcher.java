@@ -0,0 +1,215 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Batches remote MBean attribute reads.
+ *
+ * A plain JMX proxy turns every getter call into its own RMI round trip. For example, a timer summary
+ * costs eight of them. Proxies created by this fetcher record which attributes the collectors read.
+ * At the start of each collection, {@link #prefetch(Predicate, Duration)} issues one {@link MBeanServerConnection#getAttributes}
+ * per MBean, in parallel. Reads made during that collection are then served from the fetched values.
+ *
+ * Attributes that have not been read yet, attributes the bulk fetch failed to return, and reads of an MBean whose most
+ * recent fetch failed or is still in progress are forwarded to the underlying proxy as before. Non-getter methods, such
+ * as operations, are always forwarded.
+ *
+ * Freshness is tracked per MBean: a prefetch only supersedes the values of the MBeans it fetches, so that concurrent
+ * collections of different metric families (e.g., a filtered scrape overlapping a full one) don't invalidate each
+ * other's fetched values.
+ */
+class BulkAttributeFetcher {
+    private static final Logger logger = LoggerFactory.getLogger(BulkAttributeFetcher.class);
+
+    private static final ConcurrentMap<Method, Optional<String>> ATTRIBUTE_NAMES = new ConcurrentHashMap<>();
+
+    private final Function<ObjectName, MBeanServerConnection> connectionForMBean;
+    private final ExecutorService executorService;
+
+    private final Map<ObjectName, AttributeCachingHandler> handlers = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    BulkAttributeFetcher(final Function<ObjectName, MBeanServerConnection> connectionForMBean, final int parallelism) {
+        this.connectionForMBean = connectionForMBean;
+        this.executorService = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("cassandra-exporter-jmx-fetch-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    private static final class FetchedAttributes {
+        final long generation;
+        final Map<String, Object> values;
+
+        FetchedAttributes(final long generation, final Map<String, Object> values) {
+            this.generation = generation;
+            this.values = values;
+        }
+    }
+
+    private final class AttributeCachingHandler implements InvocationHandler {
+        final ObjectName name;
+        final Object delegate;
+
+        final Set<String> attributeNames = ConcurrentHashMap.newKeySet();
+
+        volatile FetchedAttributes fetchedAttributes;
+        // the generation of the most recent prefetch to include this MBean, whose values are the only ones served
+        volatile long currentGeneration;
+
+        AttributeCachingHandler(final ObjectName name, final Object delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+
+        void fetch(final long generation) throws Exception {
+            final AttributeList attributes = connectionForMBean.apply(name).getAttributes(name, attributeNames.toArray(new String[0]));
+
+            final Map<String, Object> values = new HashMap<>();
+            for (final Attribute attribute : attributes.asList()) {
+                values.put(attribute.getName(), attribute.getValue());
+            }
+
+            synchronized (this) {
+                // a slow fetch of an earlier prefetch mustn't replace the values of a later one
+                if (fetchedAttributes == null || fetchedAttributes.generation < generation) {
+                    fetchedAttributes = new FetchedAttributes(generation, values);
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String attributeName = attributeName(method);
+
+            if (attributeName != null) {
+                attributeNames.add(attributeName);
+
+                final FetchedAttributes fetchedAttributes = this.fetchedAttributes;
+
+                if (fetchedAttributes != null && fetchedAttributes.generation == currentGeneration
+                        && fetchedAttributes.values.containsKey(attributeName)) {
+                    return fetchedAttributes.values.get(attributeName);
+                }
+            }
+
+            try {
+                return method.invoke(delegate, args);
+
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * @return the MBean attribute name for a standard MBean interface getter, or null if the method isn't a getter.
+     */
+    private static String attributeName(final Method method) {
+        return ATTRIBUTE_NAMES.computeIfAbsent(method, m -> {
+            if (m.getParameterCount() != 0 || m.getReturnType() == void.class || m.getDeclaringClass() == Object.class) {
+                return Optional.empty();
+            }
+
+            final String methodName = m.getName();
+
+            if (methodName.startsWith("get") && methodName.length() > 3) {
+                return Optional.of(methodName.substring(3));
+            }
+
+            if (methodName.startsWith("is") && methodName.length() > 2 && m.getReturnType() == boolean.class) {
+                return Optional.of(methodName.substring(2));
+            }
+
+            return Optional.empty();
+        }).orElse(null);
+    }
+
+    /**
+     * Wrap a standard (non-MX) MBean proxy so that its attribute reads are served from bulk fetches.
+     */
+    <T> T newMBeanProxy(final ObjectName name, final Class<T> interfaceClass, final T delegate) {
+        final AttributeCachingHandler handler = new AttributeCachingHandler(name, delegate);
+
+        handlers.put(name, handler);
+
+        return interfaceClass.cast(Proxy.newProxyInstance(interfaceClass.getClassLoader(), new Class<?>[]{interfaceClass}, handler));
+    }
+
+    void remove(final ObjectName name) {
+        handlers.remove(name);
+    }
+
+    /**
+     * Stop the threads used to fetch attributes. Reads continue to be forwarded individually.
+     */
+    void close() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Fetch, in parallel, the attributes previously read from each MBean matching {@param mBeanFilter}, and wait for the fetches to complete,
+     * or for {@param timeout}, if non-null.
+     * Failures are logged and the affected reads are forwarded to the remote MBean individually, as are reads from MBeans whose fetch
+     * is still in progress. MBeans that don't match the filter continue to serve the values of their most recent fetch.
+     */
+    void prefetch(final Predicate<ObjectName> mBeanFilter, final Duration timeout) {
+        final long generation = this.generation.incrementAndGet();
+
+        final List<CompletableFuture<Void>> fetches = new ArrayList<>(handlers.size());
+
+        for (final AttributeCachingHandler handler : handlers.values()) {
+            if (handler.attributeNames.isEmpty() || !mBeanFilter.test(handler.name)) {
+                continue;
+            }
+
+            handler.currentGeneration = generation;
+
+            fetches.add(CompletableFuture.runAsync(() -> {
+                try {
+                    handler.fetch(generation);
+
+                } catch (final Exception e) {
+                    logger.debug("Failed to fetch attributes of MBean {}.", handler.name, e);
+                }
+            }, executorService));
+        }
+
+        final CompletableFuture<Void> allFetches = CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0]));
+
+        if (timeout == null) {
+            allFetches.join();
+            return;
+        }
+
+        try {
+            allFetches.get(Math.max(0, timeout.toNanos()), TimeUnit.NANOSECONDS);
+
+        } catch (final TimeoutException e) {
+            logger.debug("MBean attribute prefetch didn't complete within {}.", timeout);
+
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        } catch (final ExecutionException e) {
+            // fetch failures are handled per-MBean, above
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zegelin.prometheus.domain.CounterMetricFamily;
+import com.zegelin.prometheus.domain.GaugeMetricFamily;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Stream;
+
+import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.nanosecondsToSeconds;
+
+/**
+ * A fixed-size pool of JMX connections to the same MBean server.
+ *
+ * RMI serialises much of the traffic on a single connection. MBeans are therefore sharded across the pool by name
+ * (see {@link #connectionFor(ObjectName)}), so that parallel collection is also parallel on the wire.
+ *
+ * Each pooled connection is exposed as a stable {@link MBeanServerConnection} that forwards to the current
+ * underlying connector. When a connector fails (a request throws an {@link IOException}, a periodic health check
+ * fails, or the connector reports itself failed/closed), it is re-established in the background with exponential
+ * backoff. Requests made while it is down fail fast. Proxies created against a pooled connection therefore keep
+ * working once the connection recovers, and don't need to be recreated.
+ */
+class JMXConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(JMXConnectionPool.class);
+
+    private static final long HEALTH_CHECK_INTERVAL_SECONDS = 10;
+
+    static final long INITIAL_RECONNECT_DELAY_MILLIS = 500;
+    static final long MAX_RECONNECT_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Establishes a new connector to the MBean server.
+     */
+    interface ConnectorFactory {
+        JMXConnector connect() throws IOException;
+    }
+
+    private final JMXServiceURL serviceURL;
+    private final ConnectorFactory connectorFactory;
+
+    private final List<PooledConnection> connections;
+
+    private final List<Runnable> primaryResyncListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean closed = false;
+
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("cassandra-exporter-jmx-connection-%d")
+            .setDaemon(true)
+            .build());
+
+    JMXConnectionPool(final JMXServiceURL serviceURL, final Map<String, ?> environment, final int size) throws IOException {
+        this(serviceURL, () -> JMXConnectorFactory.connect(serviceURL, environment), size);
+    }
+
+    JMXConnectionPool(final JMXServiceURL serviceURL, final ConnectorFactory connectorFactory, final int size) throws IOException {
+        if (size < 1) {
+            throw new IllegalArgumentException("JMX connection pool size must be at least 1.");
+        }
+
+        this.serviceURL = serviceURL;
+        this.connectorFactory = connectorFactory;
+
+        // connect up-front so that startup fails if the MBean server is unreachable
+        final ImmutableList.Builder<PooledConnection> connections = ImmutableList.builder();
+        for (int i = 0; i < size; i++) {
+            final PooledConnection connection = new PooledConnection(i);
+            connection.connect();
+
+            connections.add(connection);
+        }
+        this.connections = connections.build();
+
+        scheduledExecutorService.scheduleWithFixedDelay(this::checkHealth, HEALTH_CHECK_INTERVAL_SECONDS, HEALTH_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private final class PooledConnection {
+        final int index;
+        final Labels labels;
+
+        final MBeanServerConnection connection;
+
+        volatile JMXConnector connector;
+        volatile MBeanServerConnection delegate;
+        volatile boolean up;
+
+        long reconnectDelayMillis = INITIAL_RECONNECT_DELAY_MILLIS;
+
+        final LongAdder requestCount = new LongAdder();
+        final LongAdder requestTimeNanos = new LongAdder();
+        final LongAdder errorCount = new LongAdder();
+        final LongAdder reconnectCount = new LongAdder();
+
+        PooledConnection(final int index) {
+            this.index = index;
+            this.labels = Labels.of("connection", String.valueOf(index));
+
+            this.connection = (MBeanServerConnection) Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(),
+                    new Class<?>[]{MBeanServerConnection.class}, (proxy, method, args) -> {
+                        if (method.getDeclaringClass() == Object.class) {
+                            if (method.getName().equals("equals")) {
+                                return proxy == args[0];
+                            }
+
+                            return method.invoke(this, args);
+                        }
+
+                        final MBeanServerConnection delegate = this.delegate;
+
+                        if (!up || delegate == null) {
+                            throw new IOException(String.format("JMX connection %d to %s is down. Reconnecting.", index, serviceURL));
+                        }
+
+                        final long startNanos = System.nanoTime();
+                        try {
+                            return method.invoke(delegate, args);
+
+                        } catch (final InvocationTargetException e) {
+                            final Throwable cause = e.getCause();
+
+                            if (cause instanceof IOException) {
+                                errorCount.increment();
+                                failed(cause);
+                            }
+
+                            throw cause;
+
+                        } finally {
+                            requestCount.increment();
+                            requestTimeNanos.add(System.nanoTime() - startNanos);
+                        }
+                    });
+        }
+
+        void connect() throws IOException {
+            final JMXConnector connector = connectorFactory.connect();
+
+            connector.addConnectionNotificationListener((notification, handback) -> {
+                if (connector != this.connector) {
+                    return; // stale connector
+                }
+
+                switch (notification.getType()) {
+                    case JMXConnectionNotification.FAILED:
+                    case JMXConnectionNotification.CLOSED:
+                        failed(null);
+                        break;
+
+                    case JMXConnectionNotification.NOTIFS_LOST:
+                        if (index == 0) {
+                            logger.warn("JMX notifications from {} lost.", serviceURL);
+
+                            resyncPrimary();
+                        }
+                        break;
+                }
+            }, null, null);
+
+            this.delegate = connector.getMBeanServerConnection();
+            this.connector = connector;
+            this.up = true;
+        }
+
+        synchronized void failed(final Throwable cause) {
+            if (!up || closed) {
+                return; // already reconnecting, or closed
+            }
+
+            up = false;
+            logger.warn("JMX connection {} to {} failed. Reconnecting.", index, serviceURL, cause);
+
+            closeQuietly(connector);
+
+            reconnectDelayMillis = INITIAL_RECONNECT_DELAY_MILLIS;
+            scheduledExecutorService.schedule(this::reconnect, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        void reconnect() {
+            try {
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+
+                    connect();
+                }
+
+                reconnectCount.increment();
+                logger.info("JMX connection {} to {} re-established.", index, serviceURL);
+
+                if (index == 0) {
+                    resyncPrimary();
+                }
+
+            } catch (final IOException e) {
+                reconnectDelayMillis = nextReconnectDelayMillis(reconnectDelayMillis);
+
+                logger.debug("Failed to re-establish JMX connection {} to {}. Retrying in {} ms.", index, serviceURL, reconnectDelayMillis, e);
+
+                scheduledExecutorService.schedule(this::reconnect, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void checkHealth() {
+            if (!up) {
+                return;
+            }
+
+            try {
+                connection.getMBeanCount();
+
+            } catch (final IOException e) {
+                // already marked as failed by the forwarding proxy
+            }
+        }
+    }
+
+    /**
+     * @return the delay before the next reconnect attempt, given the delay before the attempt that just failed
+     */
+    static long nextReconnectDelayMillis(final long reconnectDelayMillis) {
+        return Math.min(reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+    }
+
+    private static void closeQuietly(final JMXConnector connector) {
+        if (connector == null) {
+            return;
+        }
+
+        try {
+            connector.close();
+
+        } catch (final IOException e) {
+            logger.debug("Failed to close JMX connector.", e);
+        }
+    }
+
+    private void checkHealth() {
+        connections.forEach(PooledConnection::checkHealth);
+    }
+
+    /**
+     * Stop health checks and reconnects, and close every connection.
+     */
+    void close() {
+        closed = true;
+
+        scheduledExecutorService.shutdownNow();
+
+        for (final PooledConnection connection : connections) {
+            synchronized (connection) {
+                connection.up = false;
+                closeQuietly(connection.connector);
+            }
+        }
+    }
+
+    private void resyncPrimary() {
+        primaryResyncListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * Register a listener to be called when the primary connection has been re-established, or has lost
+     * notifications, and hence any notification listeners need to be re-added and state re-synchronised.
+     */
+    void addPrimaryResyncListener(final Runnable listener) {
+        primaryResyncListeners.add(listener);
+    }
+
+    /**
+     * @return the connection used for MBean queries and notifications
+     */
+    MBeanServerConnection primary() {
+        return connections.get(0).connection;
+    }
+
+    /**
+     * @return the connection that requests for the named MBean should be issued on
+     */
+    MBeanServerConnection connectionFor(final ObjectName objectName) {
+        return connections.get(Math.floorMod(objectName.hashCode(), connections.size())).connection;
+    }
+
+    Function<ObjectName, MBeanServerConnection> sharding() {
+        return this::connectionFor;
+    }
+
+    Stream<MetricFamily> collectMetrics() {
+        return Stream.of(
+                new GaugeMetricFamily("cassandra_exporter_jmx_connection_up", "Whether each pooled JMX connection is currently established (1) or reconnecting (0).",
+                        metrics(c -> c.up ? 1 : 0)),
+                new CounterMetricFamily("cassandra_exporter_jmx_connection_requests_total", "Total number of requests issued on each pooled JMX connection.",
+                        metrics(c -> c.requestCount.sum())),
+                new CounterMetricFamily("cassandra_exporter_jmx_connection_request_time_seconds_total", "Cumulative time spent waiting on requests issued on each pooled JMX connection.",
+                        metrics(c -> nanosecondsToSeconds(c.requestTimeNanos.sum()))),
+                new CounterMetricFamily("cassandra_exporter_jmx_connection_errors_total", "Total number of requests on each pooled JMX connection that failed with a connection error.",
+                        metrics(c -> c.errorCount.sum())),
+                new CounterMetricFamily("cassandra_exporter_jmx_connection_reconnects_total", "Total number of times each pooled JMX connection has been re-established.",
+                        metrics(c -> c.reconnectCount.sum()))
+        );
+    }
+
+    private Stream<NumericMetric> metrics(final ToDoubleFunction<PooledConnection> valueFunction) {
+        return connections.stream().map(c -> new NumericMetric(c.labels, valueFunction.applyAsDouble(c)));
+    }
+}
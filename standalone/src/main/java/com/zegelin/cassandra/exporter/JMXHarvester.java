@@ -4,110 +4,237 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
 import com.zegelin.cassandra.exporter.collector.RemoteGossiperMBeanMetricFamilyCollector;
+import com.zegelin.prometheus.domain.MetricFamily;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.management.*;
+import javax.management.relation.MBeanServerNotificationFilter;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 
 public class JMXHarvester extends Harvester {
     private static final Logger logger = LoggerFactory.getLogger(JMXHarvester.class);
 
-    private final MBeanServerConnection mBeanServerConnection;
+    // used when MBean server notifications are unavailable
+    private static final long FALLBACK_RECONCILE_INTERVAL_SECONDS = 30;
 
-    @SuppressWarnings("FieldCanBeLocal")
+    // concurrent getMBeanInfo calls for MBeans whose interface isn't known locally
+    private static final int MBEAN_INFO_FETCH_PARALLELISM = 8;
+
+    private final JMXConnectionPool connectionPool;
+    private final BulkAttributeFetcher bulkAttributeFetcher;
+    private final MBeanInterfaceResolver mBeanInterfaceResolver;
+
+    private final QueryExp mBeanQuery;
+
+    // all MBean discovery (notifications and reconciles) happens on this thread
     private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
 
-    JMXHarvester(final MBeanServerConnection mBeanServerConnection, final MetadataFactory metadataFactory, final HarvesterOptions options) {
-        super(metadataFactory, options);
+    private final NotificationListener mBeanServerNotificationListener = this::onMBeanServerNotification;
 
-        this.mBeanServerConnection = mBeanServerConnection;
+    JMXHarvester(final JMXConnectionPool connectionPool, final MetadataFactory metadataFactory, final HarvesterOptions options,
+                 final int jmxFetchParallelism, final long reconcileIntervalInSeconds) {
+        super(metadataFactory, options);
 
-        // periodically scan for new/destroyed MBeans
-        scheduledExecutorService.scheduleWithFixedDelay(this::reconcileMBeans, 0, 30, TimeUnit.SECONDS);
+        this.connectionPool = connectionPool;
+        this.bulkAttributeFetcher = (jmxFetchParallelism > 0 ? new BulkAttributeFetcher(connectionPool.sharding(), jmxFetchParallelism) : null);
+        this.mBeanInterfaceResolver = new MBeanInterfaceResolver(connectionPool.sharding(), MBEAN_INFO_FETCH_PARALLELISM);
 
         addCollectorFactory(RemoteGossiperMBeanMetricFamilyCollector.factory(metadataFactory));
+
+        // only MBeans that may be collected need to cross the wire
+        this.mBeanQuery = collectorFactoriesQuery();
+
+        final boolean subscribed = subscribeToMBeanServerNotifications();
+
+        // the primary connection was re-established (losing the subscription) or notifications were lost
+        connectionPool.addPrimaryResyncListener(() -> scheduledExecutorService.execute(() -> {
+            subscribeToMBeanServerNotifications();
+            reconcile();
+        }));
+
+        // periodically scan for new/destroyed MBeans -- with notifications this is only a safety net for missed notifications
+        final long interval = (subscribed ? reconcileIntervalInSeconds : FALLBACK_RECONCILE_INTERVAL_SECONDS);
+        scheduledExecutorService.scheduleWithFixedDelay(this::reconcile, 0, interval, TimeUnit.SECONDS);
     }
 
-    private Set<ObjectInstance> currentMBeans = Sets.newHashSet();
+    private Set<ObjectName> currentMBeans = Sets.newHashSet();
 
-    void reconcileMBeans() {
-        try {
-            final Set<ObjectInstance> newMBeans = mBeanServerConnection.queryMBeans(null, null);
+    @Override
+    public void close() throws InterruptedException {
+        scheduledExecutorService.shutdownNow();
+        mBeanInterfaceResolver.close();
 
-            // unregister
-            {
-                final Set<ObjectInstance> removedMBeans = Sets.difference(currentMBeans, newMBeans);
+        if (bulkAttributeFetcher != null) {
+            bulkAttributeFetcher.close();
+        }
 
-                logger.debug("Removing {} old MBeans.", removedMBeans.size());
+        super.close();
+
+        connectionPool.close();
+    }
+
+    @Override
+    public Stream<MetricFamily> collect(final MetricFamilyFilter filter, final Duration timeout) {
+        final long startNanos = System.nanoTime();
 
-                for (final ObjectInstance instance : removedMBeans) {
-                    unregisterMBean(instance.getObjectName());
-                    currentMBeans.remove(instance);
+        if (bulkAttributeFetcher != null) {
+            // only fetch the attributes of MBeans that will be collected
+            bulkAttributeFetcher.prefetch(objectName -> isCollected(objectName, filter), timeout);
+        }
+
+        final Duration remainingTimeout = (timeout == null ? null : timeout.minusNanos(System.nanoTime() - startNanos));
+
+        final Stream<MetricFamily> connectionPoolMetricFamilies = connectionPool.collectMetrics();
+
+        return Stream.concat(super.collect(filter, remainingTimeout), filter.isAll() ? connectionPoolMetricFamilies : connectionPoolMetricFamilies.filter(f -> filter.test(f.name)));
+    }
+
+    private void onMBeanServerNotification(final Notification notification, final Object handback) {
+        if (!(notification instanceof MBeanServerNotification)) {
+            return;
+        }
+
+        final ObjectName objectName = ((MBeanServerNotification) notification).getMBeanName();
+        final String type = notification.getType();
+
+        scheduledExecutorService.execute(() -> {
+            if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(type)) {
+                if (isQueried(objectName) && !currentMBeans.contains(objectName)) {
+                    register(ImmutableSet.of(objectName));
+                }
+
+            } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(type)) {
+                if (currentMBeans.contains(objectName)) {
+                    unregister(objectName);
                 }
             }
+        });
+    }
 
-            // register
-            {
-                final Set<ObjectInstance> addedMBeans = Sets.difference(newMBeans, currentMBeans);
+    private boolean subscribeToMBeanServerNotifications() {
+        final MBeanServerConnection connection = connectionPool.primary();
 
-                logger.debug("Found {} new MBeans.", addedMBeans.size());
+        final MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
 
-                for (final ObjectInstance instance : addedMBeans) {
-                    final MBeanInfo mBeanInfo;
-                    try {
-                        mBeanInfo = mBeanServerConnection.getMBeanInfo(instance.getObjectName());
+        try {
+            try {
+                connection.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, mBeanServerNotificationListener);
 
-                    } catch (final InstanceNotFoundException e) {
-                        // We may get an InstanceNotFoundException if the mBean was
-                        // really short lived (such as for a repair job or similar)
-                        // and Cassandra unregistered it between the probe and this
-                        // instance being evaluated
-                        continue;
-                    }
+            } catch (final ListenerNotFoundException e) {
+                // not yet subscribed (on this connection)
+            }
 
-                    final Descriptor mBeanDescriptor = mBeanInfo.getDescriptor();
+            connection.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, mBeanServerNotificationListener, filter, null);
 
-                    final String interfaceClassName = (String) mBeanDescriptor.getFieldValue(JMX.INTERFACE_CLASS_NAME_FIELD);
-                    if (interfaceClassName == null) {
-                        logger.debug("Cannot register MBean {}. MBean interface class name not defined.", instance);
+            return true;
 
-                        continue;
-                    }
+        } catch (final InstanceNotFoundException | IOException e) {
+            logger.warn("Failed to subscribe to MBean registration notifications. Falling back to scanning for MBeans every {} seconds.",
+                    FALLBACK_RECONCILE_INTERVAL_SECONDS, e);
 
-                    final Class<?> interfaceClass;
-                    try {
-                        interfaceClass = Class.forName(interfaceClassName);
+            return false;
+        }
+    }
 
-                    } catch (final ClassNotFoundException e) {
-                        logger.debug("Cannot register MBean {}. Unrecognised class.", instance);
+    private boolean isQueried(final ObjectName objectName) {
+        if (mBeanQuery == null) {
+            return true;
+        }
 
-                        continue;
-                    }
+        try {
+            return mBeanQuery.apply(objectName);
+
+        } catch (final Exception e) {
+            // let the MBean through -- the collector factories have the final say
+            return true;
+        }
+    }
+
+    /**
+     * Schedule a full reconcile of the known MBeans against those currently registered with the MBean server,
+     * for example after notifications may have been lost.
+     */
+    void reconcileMBeans() {
+        scheduledExecutorService.execute(this::reconcile);
+    }
 
-                    logger.debug("Registering MBean/MXBean {}.", instance);
+    private void reconcile() {
+        try {
+            final Set<ObjectName> newMBeans = ImmutableSet.copyOf(connectionPool.primary().queryNames(null, mBeanQuery));
 
-                    final boolean isMXBean = Boolean.parseBoolean((String) mBeanDescriptor.getFieldValue(JMX.MXBEAN_FIELD));
+            // unregister
+            {
+                final Set<ObjectName> removedMBeans = ImmutableSet.copyOf(Sets.difference(currentMBeans, newMBeans));
 
-                    final ObjectName objectName = instance.getObjectName();
-                    final Object mBeanProxy;
-                    if (isMXBean) {
-                        mBeanProxy = JMX.newMXBeanProxy(mBeanServerConnection, objectName, interfaceClass);
-                    } else {
-                        mBeanProxy = JMX.newMBeanProxy(mBeanServerConnection, objectName, interfaceClass);
-                    }
+                logger.debug("Removing {} old MBeans.", removedMBeans.size());
 
-                    registerMBean(mBeanProxy, objectName);
-                    currentMBeans.add(instance);
+                for (final ObjectName objectName : removedMBeans) {
+                    unregister(objectName);
                 }
             }
 
+            // register
+            {
+                final Set<ObjectName> addedMBeans = ImmutableSet.copyOf(Sets.difference(newMBeans, currentMBeans));
+
+                logger.debug("Found {} new MBeans.", addedMBeans.size());
+
+                register(addedMBeans);
+            }
+
         } catch (final Throwable e) {
             logger.error("Failed to reconcile MBeans.", e);
         }
     }
+
+    private void unregister(final ObjectName objectName) {
+        unregisterMBean(objectName);
+        currentMBeans.remove(objectName);
+
+        if (bulkAttributeFetcher != null) {
+            bulkAttributeFetcher.remove(objectName);
+        }
+    }
+
+    private void register(final Collection<ObjectName> objectNames) {
+        mBeanInterfaceResolver.resolve(objectNames).forEach(this::register);
+    }
+
+    private void register(final ObjectName objectName, final MBeanInterfaceResolver.MBeanInterface mBeanInterface) {
+        try {
+            logger.debug("Registering MBean/MXBean {}.", objectName);
+
+            final Class<?> interfaceClass = mBeanInterface.interfaceClass;
+            final MBeanServerConnection mBeanServerConnection = connectionPool.connectionFor(objectName);
+
+            final Object mBeanProxy;
+            if (mBeanInterface.isMXBean) {
+                mBeanProxy = JMX.newMXBeanProxy(mBeanServerConnection, objectName, interfaceClass);
+            } else if (bulkAttributeFetcher != null) {
+                mBeanProxy = newBulkFetchingMBeanProxy(mBeanServerConnection, objectName, interfaceClass);
+            } else {
+                mBeanProxy = JMX.newMBeanProxy(mBeanServerConnection, objectName, interfaceClass);
+            }
+
+            registerMBean(mBeanProxy, objectName);
+            currentMBeans.add(objectName);
+
+        } catch (final Exception e) {
+            logger.warn("Failed to register MBean {}.", objectName, e);
+        }
+    }
+
+    private <T> T newBulkFetchingMBeanProxy(final MBeanServerConnection mBeanServerConnection, final ObjectName objectName, final Class<T> interfaceClass) {
+        return bulkAttributeFetcher.newMBeanProxy(objectName, interfaceClass, JMX.newMBeanProxy(mBeanServerConnection, objectName, interfaceClass));
+    }
 }
@@ -0,0 +1,356 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Determines the interface (and MBean/MXBean flavour) of remote MBeans so that proxies can be created for them.
+ *
+ * Reading the interface class name from {@link MBeanInfo} costs an RMI round trip per MBean, and a node with
+ * many tables has tens of thousands of MBeans in the {@code org.apache.cassandra.metrics} domain.
+ * Those are all {@code CassandraMetricsRegistry} MBeans whose interface is determined by their {@code type} and
+ * {@code name} key properties, so the metrics the exporter collects are resolved from a static table instead.
+ * The table mirrors the interfaces the collector factories expect for each metric.
+ *
+ * Anything not in the table falls back to {@link MBeanServerConnection#getMBeanInfo}, with the fallbacks issued
+ * concurrently.
+ */
+class MBeanInterfaceResolver {
+    private static final Logger logger = LoggerFactory.getLogger(MBeanInterfaceResolver.class);
+
+    private static final String METRICS_DOMAIN = "org.apache.cassandra.metrics";
+
+    static final class MBeanInterface {
+        final Class<?> interfaceClass;
+        final boolean isMXBean;
+
+        MBeanInterface(final Class<?> interfaceClass, final boolean isMXBean) {
+            this.interfaceClass = interfaceClass;
+            this.isMXBean = isMXBean;
+        }
+    }
+
+    private static final MBeanInterface GAUGE = new MBeanInterface(JmxGaugeMBean.class, false);
+    private static final MBeanInterface COUNTER = new MBeanInterface(JmxCounterMBean.class, false);
+    private static final MBeanInterface METER = new MBeanInterface(JmxMeterMBean.class, false);
+    private static final MBeanInterface HISTOGRAM = new MBeanInterface(JmxHistogramMBean.class, false);
+    private static final MBeanInterface TIMER = new MBeanInterface(JmxTimerMBean.class, false);
+
+    // type -> name -> interface
+    private static final Map<String, Map<String, MBeanInterface>> METRIC_INTERFACES = ImmutableMap.<String, Map<String, MBeanInterface>>builder()
+            .put("BufferPool", ImmutableMap.of(
+                    "Misses", METER,
+                    "Size", GAUGE
+            ))
+            .put("CQL", ImmutableMap.of(
+                    "PreparedStatementsCount", GAUGE,
+                    "PreparedStatementsEvicted", COUNTER,
+                    "PreparedStatementsExecuted", COUNTER,
+                    "RegularStatementsExecuted", COUNTER
+            ))
+            .put("Cache", ImmutableMap.<String, MBeanInterface>builder()
+                    .put("Capacity", GAUGE)
+                    .put("Requests", METER)
+                    .put("Size", GAUGE)
+                    .put("Entries", GAUGE)
+                    .put("Hits", METER)
+                    .put("MissLatency", TIMER)
+                    .build())
+            .put("Client", ImmutableMap.of(
+                    "AuthFailure", METER,
+                    "AuthSuccess", METER,
+                    "connectedNativeClients", GAUGE,
+                    "connectedThriftClients", GAUGE
+            ))
+            .put("ClientRequest", ImmutableMap.<String, MBeanInterface>builder()
+                    .put("Timeouts", METER)
+                    .put("Unavailables", METER)
+                    .put("Failures", METER)
+                    .put("Latency", TIMER)
+                    .put("TotalLatency", COUNTER)
+                    .put("ConditionNotMet", COUNTER)
+                    .put("ContentionHistogram", HISTOGRAM)
+                    .put("UnfinishedCommit", COUNTER)
+                    .put("ViewReplicasAttempted", COUNTER)
+                    .put("ViewReplicasSuccess", COUNTER)
+                    .put("ViewWriteLatency", TIMER)
+                    .build())
+            .put("CommitLog", ImmutableMap.of(
+                    "CompletedTasks", GAUGE,
+                    "PendingTasks", GAUGE,
+                    "TotalCommitLogSize", GAUGE,
+                    "WaitingOnCommit", TIMER,
+                    "WaitingOnSegmentAllocation", TIMER
+            ))
+            .put("MemtablePool", ImmutableMap.of(
+                    "BlockedOnAllocation", TIMER
+            ))
+            .put("Storage", ImmutableMap.of(
+                    "Exceptions", COUNTER,
+                    "Load", COUNTER,
+                    "TotalHints", COUNTER,
+                    "TotalHintsInProgress", COUNTER
+            ))
+            .put("ThreadPools", ImmutableMap.<String, MBeanInterface>builder()
+                    .put("ActiveTasks", GAUGE)
+                    .put("CompletedTasks", GAUGE)
+                    .put("PendingTasks", GAUGE)
+                    .put("MaxPoolSize", GAUGE)
+                    .put("MaxTasksQueued", GAUGE)
+                    .put("CurrentlyBlockedTasks", COUNTER)
+                    .put("TotalBlockedTasks", COUNTER)
+                    .build())
+            .put("DroppedMessage", ImmutableMap.of(
+                    "Dropped", METER,
+                    "InternalDroppedLatency", TIMER,
+                    "CrossNodeDroppedLatency", TIMER
+            ))
+            .put("Compaction", ImmutableMap.of(
+                    "BytesCompacted", COUNTER,
+                    "CompletedTasks", GAUGE,
+                    "TotalCompactionsCompleted", METER
+            ))
+            .put("Connection", ImmutableMap.of(
+                    "Timeouts", METER
+            ))
+            .build();
+
+    // type -> name suffix -> interface, for metrics whose names embed a variable prefix
+    private static final Map<String, Map<String, MBeanInterface>> METRIC_SUFFIX_INTERFACES = ImmutableMap.of(
+            "Connection", ImmutableMap.of(
+                    "MessagePendingTasks", GAUGE,
+                    "MessageCompletedTasks", GAUGE,
+                    "MessageDroppedTasks", GAUGE
+            ),
+            "Messaging", ImmutableMap.of(
+                    "-Latency", TIMER
+            )
+    );
+
+    // table metrics, as registered under the node (type=Table), keyspace (type=Keyspace) and table (type=Table/IndexTable) scopes
+    private static final Map<String, MBeanInterface> TABLE_METRIC_INTERFACES = ImmutableMap.<String, MBeanInterface>builder()
+            .put("MemtableOnHeapSize", GAUGE)
+            .put("MemtableOffHeapSize", GAUGE)
+            .put("MemtableLiveDataSize", GAUGE)
+            .put("MemtableColumnsCount", GAUGE)
+            .put("CompressionRatio", GAUGE)
+            .put("EstimatedPartitionSizeHistogram", GAUGE)
+            .put("EstimatedPartitionCount", GAUGE)
+            .put("EstimatedColumnCountHistogram", GAUGE)
+            .put("PendingCompactions", GAUGE)
+            .put("LiveSSTableCount", GAUGE)
+            .put("MaxPartitionSize", GAUGE)
+            .put("MeanPartitionSize", GAUGE)
+            .put("MinPartitionSize", GAUGE)
+            .put("BloomFilterFalsePositives", GAUGE)
+            .put("BloomFilterFalseRatio", GAUGE)
+            .put("BloomFilterDiskSpaceUsed", GAUGE)
+            .put("BloomFilterOffHeapMemoryUsed", GAUGE)
+            .put("IndexSummaryOffHeapMemoryUsed", GAUGE)
+            .put("CompressionMetadataOffHeapMemoryUsed", GAUGE)
+            .put("KeyCacheHitRate", GAUGE)
+            .put("SnapshotsSize", GAUGE)
+            .put("PercentRepaired", GAUGE)
+
+            .put("SSTablesPerReadHistogram", HISTOGRAM)
+            .put("TombstoneScannedHistogram", HISTOGRAM)
+            .put("LiveScannedHistogram", HISTOGRAM)
+            .put("ColUpdateTimeDeltaHistogram", HISTOGRAM)
+            .put("WaitingOnFreeMemtableSpace", HISTOGRAM)
+
+            .put("ReadLatency", TIMER)
+            .put("RangeLatency", TIMER)
+            .put("WriteLatency", TIMER)
+            .put("CasPrepareLatency", TIMER)
+            .put("CasProposeLatency", TIMER)
+            .put("CasCommitLatency", TIMER)
+            .put("CoordinatorReadLatency", TIMER)
+            .put("CoordinatorScanLatency", TIMER)
+            .put("ViewLockAcquireTime", TIMER)
+            .put("ViewReadTime", TIMER)
+
+            .put("ReadTotalLatency", COUNTER)
+            .put("RangeTotalLatency", COUNTER)
+            .put("WriteTotalLatency", COUNTER)
+            .put("CasPrepareTotalLatency", COUNTER)
+            .put("CasProposeTotalLatency", COUNTER)
+            .put("CasCommitTotalLatency", COUNTER)
+
+            // counters/gauges at the table scope, aggregated into gauges at the keyspace and node scopes
+            .put("MemtableSwitchCount", GAUGE)
+            .put("BytesFlushed", GAUGE)
+            .put("CompactionBytesWritten", GAUGE)
+            .put("DroppedMutations", GAUGE)
+            .put("SpeculativeRetries", GAUGE)
+            .put("PendingFlushes", GAUGE)
+            .put("LiveDiskSpaceUsed", GAUGE)
+            .put("TotalDiskSpaceUsed", GAUGE)
+            .put("RowCacheHit", GAUGE)
+            .put("RowCacheHitOutOfRange", GAUGE)
+            .put("RowCacheMiss", GAUGE)
+            .build();
+
+    private static final Map<String, MBeanInterface> TABLE_SCOPE_METRIC_INTERFACES = ImmutableMap.<String, MBeanInterface>builder()
+            .put("MemtableSwitchCount", COUNTER)
+            .put("BytesFlushed", COUNTER)
+            .put("CompactionBytesWritten", COUNTER)
+            .put("DroppedMutations", COUNTER)
+            .put("SpeculativeRetries", COUNTER)
+            .put("PendingFlushes", COUNTER)
+            .put("LiveDiskSpaceUsed", COUNTER)
+            .put("TotalDiskSpaceUsed", COUNTER)
+            .put("RowCacheHit", COUNTER)
+            .put("RowCacheHitOutOfRange", COUNTER)
+            .put("RowCacheMiss", COUNTER)
+            .build();
+
+
+    private final Function<ObjectName, MBeanServerConnection> connectionForMBean;
+    private final ExecutorService executorService;
+
+    MBeanInterfaceResolver(final Function<ObjectName, MBeanServerConnection> connectionForMBean, final int parallelism) {
+        this.connectionForMBean = connectionForMBean;
+        this.executorService = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("cassandra-exporter-jmx-describe-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * @return the interface of the named MBean if it is known without consulting the MBean server, otherwise null
+     */
+    static MBeanInterface knownInterface(final ObjectName objectName) {
+        if (!METRICS_DOMAIN.equals(objectName.getDomain())) {
+            return null;
+        }
+
+        final String type = objectName.getKeyProperty("type");
+        final String name = objectName.getKeyProperty("name");
+
+        if (type == null || name == null) {
+            return null;
+        }
+
+        switch (type) {
+            case "Table":
+            case "IndexTable":
+                if (objectName.getKeyProperty("scope") != null) {
+                    final MBeanInterface mBeanInterface = TABLE_SCOPE_METRIC_INTERFACES.get(name);
+                    if (mBeanInterface != null) {
+                        return mBeanInterface;
+                    }
+                }
+                // fall through
+
+            case "Keyspace":
+                return TABLE_METRIC_INTERFACES.get(name);
+        }
+
+        final MBeanInterface mBeanInterface = METRIC_INTERFACES.getOrDefault(type, ImmutableMap.of()).get(name);
+        if (mBeanInterface != null) {
+            return mBeanInterface;
+        }
+
+        for (final Map.Entry<String, MBeanInterface> entry : METRIC_SUFFIX_INTERFACES.getOrDefault(type, ImmutableMap.of()).entrySet()) {
+            if (name.endsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Resolve the interfaces of the named MBeans.
+     *
+     * MBeans that no longer exist, or whose interface cannot be determined or loaded, are omitted from the result.
+     */
+    Map<ObjectName, MBeanInterface> resolve(final Collection<ObjectName> objectNames) {
+        final Map<ObjectName, MBeanInterface> resolved = new HashMap<>();
+        final Map<ObjectName, CompletableFuture<MBeanInterface>> pending = new HashMap<>();
+
+        for (final ObjectName objectName : objectNames) {
+            final MBeanInterface mBeanInterface = knownInterface(objectName);
+
+            if (mBeanInterface != null) {
+                resolved.put(objectName, mBeanInterface);
+                continue;
+            }
+
+            pending.put(objectName, CompletableFuture.supplyAsync(() -> describe(objectName), executorService));
+        }
+
+        logger.debug("Resolved {} MBean interfaces locally, {} require MBeanInfo.", resolved.size(), pending.size());
+
+        pending.forEach((objectName, future) -> {
+            final MBeanInterface mBeanInterface = future.join();
+
+            if (mBeanInterface != null) {
+                resolved.put(objectName, mBeanInterface);
+            }
+        });
+
+        return resolved;
+    }
+
+    /**
+     * Stop the threads used to fetch MBeanInfo. In-progress resolves may fail.
+     */
+    void close() {
+        executorService.shutdownNow();
+    }
+
+    private MBeanInterface describe(final ObjectName objectName) {
+        try {
+            final MBeanInfo mBeanInfo;
+            try {
+                mBeanInfo = connectionForMBean.apply(objectName).getMBeanInfo(objectName);
+
+            } catch (final InstanceNotFoundException e) {
+                // We may get an InstanceNotFoundException if the mBean was
+                // really short lived (such as for a repair job or similar)
+                // and Cassandra unregistered it between the probe and this
+                // instance being evaluated
+                return null;
+            }
+
+            final Descriptor mBeanDescriptor = mBeanInfo.getDescriptor();
+
+            final String interfaceClassName = (String) mBeanDescriptor.getFieldValue(JMX.INTERFACE_CLASS_NAME_FIELD);
+            if (interfaceClassName == null) {
+                logger.debug("Cannot register MBean {}. MBean interface class name not defined.", objectName);
+
+                return null;
+            }
+
+            final Class<?> interfaceClass;
+            try {
+                interfaceClass = Class.forName(interfaceClassName);
+
+            } catch (final ClassNotFoundException e) {
+                logger.debug("Cannot register MBean {}. Unrecognised class.", objectName);
+
+                return null;
+            }
+
+            final boolean isMXBean = Boolean.parseBoolean((String) mBeanDescriptor.getFieldValue(JMX.MXBEAN_FIELD));
+
+            return new MBeanInterface(interfaceClass, isMXBean);
+
+        } catch (final Exception e) {
+            logger.warn("Failed to get MBeanInfo for MBean {}.", objectName, e);
+
+            return null;
+        }
+    }
+}
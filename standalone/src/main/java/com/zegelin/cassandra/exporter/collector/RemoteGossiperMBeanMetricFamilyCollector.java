@@ -17,7 +17,7 @@ import static com.zegelin.cassandra.exporter.MetricValueConversionFunctions.mill
 
 public class RemoteGossiperMBeanMetricFamilyCollector extends GossiperMBeanMetricFamilyCollector {
     public static MBeanGroupMetricFamilyCollector.Factory factory(final MetadataFactory metadataFactory) {
-        return mBean -> {
+        return MBeanGroupMetricFamilyCollector.Factory.withObjectNamePatterns(mBean -> {
             if (GOSSIPER_MBEAN_NAME.apply(mBean.name)) {
                 return new RemoteGossiperMBeanMetricFamilyCollector(metadataFactory, (GossiperMBean) mBean.object, null);
             }
@@ -27,7 +27,7 @@ public class RemoteGossiperMBeanMetricFamilyCollector extends GossiperMBeanMetri
             }
 
             return null;
-        };
+        }, GOSSIPER_MBEAN_NAME, FAILURE_DETECTOR_MBEAN_NAME);
     }
 
     private final MetadataFactory metadataFactory;
@@ -0,0 +1,104 @@
+package com.zegelin.cassandra.exporter;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A {@link JMXConnectionPool.ConnectorFactory} for an in-process {@link MBeanServer}.
+ *
+ * The server can be taken {@link #down}, which fails new connections and every request on existing ones with an
+ * {@link IOException}, and MBean server notifications can be {@link #dropNotifications dropped}, as if lost.
+ */
+class InProcessConnectorFactory implements JMXConnectionPool.ConnectorFactory {
+    final MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+
+    volatile boolean down = false;
+    volatile boolean dropNotifications = false;
+
+    final AtomicInteger connectCount = new AtomicInteger();
+    final AtomicInteger connectAttemptCount = new AtomicInteger();
+    final AtomicInteger requestCount = new AtomicInteger();
+
+    private final List<NotificationListener> connectionNotificationListeners = new CopyOnWriteArrayList<>();
+    private final Map<NotificationListener, NotificationListener> droppingListeners = new ConcurrentHashMap<>();
+    private final AtomicLong notificationSequence = new AtomicLong();
+
+    @Override
+    public JMXConnector connect() throws IOException {
+        connectAttemptCount.incrementAndGet();
+
+        if (down) {
+            throw new IOException("Connection refused.");
+        }
+
+        final JMXConnector connector = mock(JMXConnector.class);
+
+        when(connector.getMBeanServerConnection()).thenReturn(newConnection());
+        doAnswer(invocation -> connectionNotificationListeners.add(invocation.getArgument(0)))
+                .when(connector).addConnectionNotificationListener(any(), any(), any());
+
+        connectCount.incrementAndGet();
+
+        return connector;
+    }
+
+    private NotificationListener droppingListener(final NotificationListener listener) {
+        return droppingListeners.computeIfAbsent(listener, l -> (notification, handback) -> {
+            if (!dropNotifications) {
+                l.handleNotification(notification, handback);
+            }
+        });
+    }
+
+    private MBeanServerConnection newConnection() {
+        return (MBeanServerConnection) Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(), new Class<?>[]{MBeanServerConnection.class}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() != Object.class) {
+                if (down) {
+                    throw new IOException("Connection reset.");
+                }
+
+                requestCount.incrementAndGet();
+
+                if (args != null && args.length > 1 && args[1] instanceof NotificationListener) {
+                    args[1] = droppingListener((NotificationListener) args[1]);
+                }
+            }
+
+            try {
+                return method.invoke(mBeanServer, args);
+
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    /**
+     * Send a {@link JMXConnectionNotification} of type {@param type} to the listeners of every connector.
+     */
+    void sendConnectionNotification(final String type) {
+        final JMXConnectionNotification notification = new JMXConnectionNotification(type, this, "test", notificationSequence.incrementAndGet(), null, null);
+
+        for (final NotificationListener listener : connectionNotificationListeners) {
+            listener.handleNotification(notification, null);
+        }
+    }
+}
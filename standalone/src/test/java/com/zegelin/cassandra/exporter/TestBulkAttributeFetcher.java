@@ -0,0 +1,255 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
+import com.zegelin.jmx.ObjectNames;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.management.AttributeList;
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestBulkAttributeFetcher {
+    private static final ObjectName NAME = ObjectNames.create("test:type=Values");
+    private static final ObjectName OTHER_NAME = ObjectNames.create("test:type=OtherValues");
+
+    public interface ValuesMBean {
+        long getA();
+
+        long getB();
+
+        boolean isEnabled();
+
+        void reset();
+    }
+
+    public static final class Values implements ValuesMBean {
+        volatile long a = 1, b = 2;
+        volatile int resetCount = 0;
+
+        @Override
+        public long getA() {
+            return a;
+        }
+
+        @Override
+        public long getB() {
+            return b;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            resetCount++;
+        }
+    }
+
+    private Values values;
+    private Values otherValues;
+
+    // calls on the connection, by method name
+    private Multiset<String> calls;
+
+    // attributes that getAttributes omits, as it does for attributes that fail to be read
+    private Set<String> omittedAttributes;
+    private volatile boolean getAttributesFails;
+
+    private BulkAttributeFetcher fetcher;
+    private ValuesMBean proxy;
+    private ValuesMBean otherProxy;
+
+    @BeforeMethod
+    public void before() throws Exception {
+        final MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+
+        values = new Values();
+        mBeanServer.registerMBean(new StandardMBean(values, ValuesMBean.class), NAME);
+
+        otherValues = new Values();
+        mBeanServer.registerMBean(new StandardMBean(otherValues, ValuesMBean.class), OTHER_NAME);
+
+        calls = ConcurrentHashMultiset.create();
+        omittedAttributes = ConcurrentHashMap.newKeySet();
+        getAttributesFails = false;
+
+        final MBeanServerConnection connection = (MBeanServerConnection) Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(), new Class<?>[]{MBeanServerConnection.class}, (p, method, args) -> {
+            calls.add(method.getName());
+
+            try {
+                final Object result = method.invoke(mBeanServer, args);
+
+                if (method.getName().equals("getAttributes")) {
+                    if (getAttributesFails) {
+                        throw new IOException("Connection reset.");
+                    }
+
+                    final AttributeList attributes = new AttributeList();
+                    ((AttributeList) result).asList().stream()
+                            .filter(a -> !omittedAttributes.contains(a.getName()))
+                            .forEach(attributes::add);
+
+                    return attributes;
+                }
+
+                return result;
+
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+
+        fetcher = new BulkAttributeFetcher(name -> connection, 2);
+        proxy = fetcher.newMBeanProxy(NAME, ValuesMBean.class, JMX.newMBeanProxy(connection, NAME, ValuesMBean.class));
+        otherProxy = fetcher.newMBeanProxy(OTHER_NAME, ValuesMBean.class, JMX.newMBeanProxy(connection, OTHER_NAME, ValuesMBean.class));
+    }
+
+    @AfterMethod
+    public void after() {
+        fetcher.close();
+    }
+
+    private void prefetch() {
+        fetcher.prefetch(name -> true, null);
+    }
+
+    @Test
+    public void testReadsServedFromPrefetch() {
+        // attributes are forwarded until they've been fetched
+        assertThat(proxy.getA()).isEqualTo(1);
+        assertThat(proxy.getB()).isEqualTo(2);
+        assertThat(calls.count("getAttribute")).isEqualTo(2);
+
+        prefetch();
+        assertThat(calls.count("getAttributes")).isEqualTo(1);
+
+        values.a = 10;
+        values.b = 20;
+
+        // reads during this collection see the fetched values, without further round trips
+        assertThat(proxy.getA()).isEqualTo(1);
+        assertThat(proxy.getB()).isEqualTo(2);
+        assertThat(calls.count("getAttribute")).isEqualTo(2);
+
+        prefetch();
+        assertThat(calls.count("getAttributes")).isEqualTo(2);
+
+        assertThat(proxy.getA()).isEqualTo(10);
+        assertThat(proxy.getB()).isEqualTo(20);
+        assertThat(calls.count("getAttribute")).isEqualTo(2);
+    }
+
+    @Test
+    public void testPartialResults() {
+        proxy.getA();
+        proxy.getB();
+
+        omittedAttributes.add("B");
+        prefetch();
+
+        values.a = 10;
+        values.b = 20;
+
+        // A was fetched, B wasn't and is read individually
+        assertThat(proxy.getA()).isEqualTo(1);
+        assertThat(proxy.getB()).isEqualTo(20);
+        assertThat(calls.count("getAttribute")).isEqualTo(3);
+    }
+
+    @Test
+    public void testMissingAttributes() {
+        proxy.getA();
+        prefetch();
+
+        // an attribute not read before the fetch isn't in it, so is read individually
+        assertThat(proxy.isEnabled()).isTrue();
+        assertThat(calls.count("getAttribute")).isEqualTo(2);
+
+        // ... but is included from the next fetch onwards
+        prefetch();
+
+        assertThat(proxy.isEnabled()).isTrue();
+        assertThat(calls.count("getAttribute")).isEqualTo(2);
+
+        // operations are always forwarded
+        proxy.reset();
+        proxy.reset();
+
+        assertThat(values.resetCount).isEqualTo(2);
+        assertThat(calls.count("invoke")).isEqualTo(2);
+    }
+
+    @Test
+    public void testFailedFetch() {
+        proxy.getA();
+        prefetch();
+
+        values.a = 10;
+        getAttributesFails = true;
+
+        // the failure is logged, not thrown, and the values of the previous fetch aren't served
+        prefetch();
+
+        assertThat(proxy.getA()).isEqualTo(10);
+        assertThat(calls.count("getAttribute")).isEqualTo(2);
+    }
+
+    @Test
+    public void testUnfetchedMBean() {
+        proxy.getA();
+        prefetch();
+
+        values.a = 10;
+
+        // MBeans that aren't going to be collected aren't fetched
+        fetcher.prefetch(name -> !name.equals(NAME), null);
+
+        assertThat(calls.count("getAttributes")).isEqualTo(1);
+
+        // neither are removed MBeans
+        fetcher.remove(NAME);
+        prefetch();
+
+        assertThat(calls.count("getAttributes")).isEqualTo(1);
+    }
+
+    @Test
+    public void testOverlappingPrefetches() {
+        proxy.getA();
+        otherProxy.getA();
+
+        // a full collection fetches both MBeans...
+        prefetch();
+        assertThat(calls.count("getAttributes")).isEqualTo(2);
+
+        values.a = 10;
+        otherValues.a = 10;
+
+        // ...then, before it reads them, a filtered collection fetches one of them
+        fetcher.prefetch(name -> name.equals(NAME), null);
+        assertThat(calls.count("getAttributes")).isEqualTo(3);
+
+        final int getAttributeCount = calls.count("getAttribute");
+
+        // the MBean that was refetched serves the newer values, the other continues to serve those of the full collection's fetch
+        assertThat(proxy.getA()).isEqualTo(10);
+        assertThat(otherProxy.getA()).isEqualTo(1);
+        assertThat(calls.count("getAttribute")).isEqualTo(getAttributeCount);
+    }
+}
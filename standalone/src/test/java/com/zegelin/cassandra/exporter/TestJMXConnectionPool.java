@@ -0,0 +1,226 @@
+package com.zegelin.cassandra.exporter;
+
+import com.zegelin.jmx.ObjectNames;
+import com.zegelin.prometheus.domain.Labels;
+import com.zegelin.prometheus.domain.MetricFamily;
+import com.zegelin.prometheus.domain.NumericMetric;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxGaugeMBean;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.management.JMX;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TestJMXConnectionPool {
+    private static final ObjectName GAUGE_NAME = ObjectNames.create("org.apache.cassandra.metrics:type=Storage,name=Load");
+
+    public static final class Gauge implements JmxGaugeMBean {
+        volatile Object value = 1L;
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public ObjectName objectName() {
+            return GAUGE_NAME;
+        }
+    }
+
+    private final List<JMXConnectionPool> pools = new ArrayList<>();
+
+    @AfterMethod
+    public void after() {
+        pools.forEach(JMXConnectionPool::close);
+        pools.clear();
+    }
+
+    private JMXConnectionPool newPool(final InProcessConnectorFactory connectorFactory, final int size) throws IOException {
+        final JMXConnectionPool pool = new JMXConnectionPool(new JMXServiceURL("service:jmx:test://localhost"), connectorFactory, size);
+        pools.add(pool);
+
+        return pool;
+    }
+
+    private static double value(final JMXConnectionPool pool, final String metricFamilyName, final int connection) {
+        final MetricFamily<?> metricFamily = pool.collectMetrics()
+                .filter(f -> f.name.equals(metricFamilyName))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+
+        return metricFamily.metrics()
+                .map(m -> (NumericMetric) m)
+                .filter(m -> m.labels.equals(Labels.of("connection", String.valueOf(connection))))
+                .findFirst()
+                .orElseThrow(AssertionError::new)
+                .value;
+    }
+
+    @Test
+    public void testShardingIsStable() throws Exception {
+        final JMXConnectionPool pool = newPool(new InProcessConnectorFactory(), 4);
+
+        final Set<MBeanServerConnection> connections = new HashSet<>();
+
+        IntStream.range(0, 100).forEach(i -> {
+            final ObjectName name = ObjectNames.create(String.format("org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=table%d,name=ReadLatency", i));
+            final MBeanServerConnection connection = pool.connectionFor(name);
+
+            // the same MBean always maps to the same connection, including via the sharding function and equal names
+            assertThat(pool.connectionFor(name)).isSameAs(connection);
+            assertThat(pool.sharding().apply(ObjectNames.create(name.getCanonicalName()))).isSameAs(connection);
+
+            connections.add(connection);
+        });
+
+        // and MBeans are spread across the whole pool
+        assertThat(connections).hasSize(4).contains(pool.primary());
+    }
+
+    @Test
+    public void testFailsFastWhileDown() throws Exception {
+        final InProcessConnectorFactory connectorFactory = new InProcessConnectorFactory();
+        final JMXConnectionPool pool = newPool(connectorFactory, 1);
+
+        assertThat(pool.primary().getMBeanCount()).isPositive();
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_up", 0)).isEqualTo(1);
+
+        connectorFactory.down = true;
+
+        // the first failure is from the MBean server, and marks the connection as down
+        assertThatThrownBy(() -> pool.primary().getMBeanCount()).isInstanceOf(IOException.class).hasMessage("Connection reset.");
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_up", 0)).isEqualTo(0);
+
+        // subsequent requests fail without reaching the MBean server
+        final int requestCount = connectorFactory.requestCount.get();
+
+        assertThatThrownBy(() -> pool.primary().getMBeanCount()).isInstanceOf(IOException.class).hasMessageContaining("is down");
+        assertThat(connectorFactory.requestCount.get()).isEqualTo(requestCount);
+
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_errors_total", 0)).isEqualTo(1);
+    }
+
+    @Test
+    public void testReconnectBackoff() {
+        long delay = JMXConnectionPool.INITIAL_RECONNECT_DELAY_MILLIS;
+
+        delay = JMXConnectionPool.nextReconnectDelayMillis(delay);
+        assertThat(delay).isEqualTo(2 * JMXConnectionPool.INITIAL_RECONNECT_DELAY_MILLIS);
+
+        delay = JMXConnectionPool.nextReconnectDelayMillis(delay);
+        assertThat(delay).isEqualTo(4 * JMXConnectionPool.INITIAL_RECONNECT_DELAY_MILLIS);
+
+        for (int i = 0; i < 100; i++) {
+            delay = JMXConnectionPool.nextReconnectDelayMillis(delay);
+        }
+
+        assertThat(delay).isEqualTo(JMXConnectionPool.MAX_RECONNECT_DELAY_MILLIS);
+    }
+
+    @Test
+    public void testReconnectRetriesWithBackoff() throws Exception {
+        final InProcessConnectorFactory connectorFactory = new InProcessConnectorFactory();
+        final JMXConnectionPool pool = newPool(connectorFactory, 1);
+
+        connectorFactory.down = true;
+
+        final int connectAttemptCount = connectorFactory.connectAttemptCount.get();
+        final long failedNanos = System.nanoTime();
+        connectorFactory.sendConnectionNotification(JMXConnectionNotification.FAILED);
+
+        // attempts after 500 ms and (a further) 1 s fail...
+        Await.until(() -> connectorFactory.connectAttemptCount.get() - connectAttemptCount >= 2);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - failedNanos)).isGreaterThanOrEqualTo(3 * JMXConnectionPool.INITIAL_RECONNECT_DELAY_MILLIS);
+
+        connectorFactory.down = false;
+
+        // ...and the next, after another 2 s, succeeds
+        Await.until(() -> value(pool, "cassandra_exporter_jmx_connection_up", 0) == 1);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - failedNanos)).isGreaterThanOrEqualTo(7 * JMXConnectionPool.INITIAL_RECONNECT_DELAY_MILLIS);
+
+        assertThat(connectorFactory.connectAttemptCount.get() - connectAttemptCount).isEqualTo(3);
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_reconnects_total", 0)).isEqualTo(1);
+    }
+
+    @Test
+    public void testProxiesRecoverAfterReconnect() throws Exception {
+        final InProcessConnectorFactory connectorFactory = new InProcessConnectorFactory();
+        final Gauge gauge = new Gauge();
+        connectorFactory.mBeanServer.registerMBean(new StandardMBean(gauge, JmxGaugeMBean.class), GAUGE_NAME);
+
+        final JMXConnectionPool pool = newPool(connectorFactory, 2);
+
+        final JmxGaugeMBean proxy = JMX.newMBeanProxy(pool.connectionFor(GAUGE_NAME), GAUGE_NAME, JmxGaugeMBean.class);
+        assertThat(proxy.getValue()).isEqualTo(1L);
+
+        connectorFactory.down = true;
+
+        assertThatThrownBy(proxy::getValue).isInstanceOf(UndeclaredThrowableException.class).hasCauseInstanceOf(IOException.class);
+
+        final int connectCount = connectorFactory.connectCount.get();
+        connectorFactory.down = false;
+        gauge.value = 2L;
+
+        // the same proxy works again once the connection has been re-established
+        Await.until(() -> {
+            try {
+                return proxy.getValue().equals(2L);
+
+            } catch (final UndeclaredThrowableException e) {
+                return false;
+            }
+        });
+
+        assertThat(connectorFactory.connectCount.get()).isEqualTo(connectCount + 1);
+    }
+
+    @Test
+    public void testPerConnectionCounters() throws Exception {
+        final InProcessConnectorFactory connectorFactory = new InProcessConnectorFactory();
+        final JMXConnectionPool pool = newPool(connectorFactory, 2);
+
+        final ObjectName name = IntStream.range(0, 100)
+                .mapToObj(i -> ObjectNames.create("test:name=" + i))
+                .filter(n -> pool.connectionFor(n) != pool.primary())
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+
+        for (int i = 0; i < 3; i++) {
+            pool.primary().getMBeanCount();
+        }
+
+        assertThat(pool.connectionFor(name).isRegistered(name)).isFalse();
+
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_requests_total", 0)).isEqualTo(3);
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_requests_total", 1)).isEqualTo(1);
+
+        // only connection errors are counted as errors, and only on the connection they occurred on
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_errors_total", 0)).isEqualTo(0);
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_errors_total", 1)).isEqualTo(0);
+
+        connectorFactory.down = true;
+
+        assertThatThrownBy(() -> pool.connectionFor(name).getMBeanCount()).isInstanceOf(IOException.class);
+
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_requests_total", 1)).isEqualTo(2);
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_errors_total", 1)).isEqualTo(1);
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_up", 0)).isEqualTo(1);
+        assertThat(value(pool, "cassandra_exporter_jmx_connection_up", 1)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,168 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.zegelin.cassandra.exporter.cli.HarvesterOptions;
+import com.zegelin.jmx.ObjectNames;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxGaugeMBean;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXServiceURL;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class TestJMXHarvester {
+    private static final MetricFamilyFilter ACTIVE_TASKS_FILTER = MetricFamilyFilter.of(ImmutableList.of("cassandra_thread_pool_active_tasks"), ImmutableList.of(), ImmutableList.of());
+
+    private InProcessConnectorFactory connectorFactory;
+    private JMXHarvester harvester;
+
+    private JMXHarvester newHarvester() throws Exception {
+        final HarvesterOptions options = new HarvesterOptions();
+        options.globalLabels = EnumSet.noneOf(Harvester.GlobalLabel.class);
+
+        final JMXConnectionPool connectionPool = new JMXConnectionPool(new JMXServiceURL("service:jmx:test://localhost"), connectorFactory, 1);
+
+        // only the initial reconcile, so that anything discovered later is via notifications, or a resync
+        return new JMXHarvester(connectionPool, mock(MetadataFactory.class), options, 0, TimeUnit.HOURS.toSeconds(1));
+    }
+
+    @BeforeMethod
+    public void before() throws Exception {
+        connectorFactory = new InProcessConnectorFactory();
+        harvester = newHarvester();
+
+        // the initial reconcile runs asynchronously, and would otherwise race with the MBeans registered by each test.
+        // it is queued before any notification, so once this MBean has been discovered, the reconcile is complete
+        final ObjectName ready = threadPoolMBeanName("ready");
+        register(ready);
+        Await.until(() -> isCollected(ready));
+    }
+
+    @AfterMethod
+    public void after() throws InterruptedException {
+        harvester.close();
+    }
+
+    private static ObjectName threadPoolMBeanName(final String pool) {
+        return ObjectNames.create(String.format("org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=%s,name=ActiveTasks", pool));
+    }
+
+    private void register(final ObjectName name) throws Exception {
+        connectorFactory.mBeanServer.registerMBean(new StandardMBean(new JmxGaugeMBean() {
+            @Override
+            public Object getValue() {
+                return 1;
+            }
+
+            @Override
+            public ObjectName objectName() {
+                return name;
+            }
+        }, JmxGaugeMBean.class), name);
+    }
+
+    private void unregister(final ObjectName name) throws Exception {
+        connectorFactory.mBeanServer.unregisterMBean(name);
+    }
+
+    private boolean isCollected(final ObjectName name) {
+        return harvester.isCollected(name, ACTIVE_TASKS_FILTER);
+    }
+
+    @Test
+    public void testInitialReconcile() throws Exception {
+        final ObjectName existing = threadPoolMBeanName("existing");
+        register(existing);
+
+        // MBeans registered before the harvester was created
+        harvester.close();
+        harvester = newHarvester();
+
+        Await.until(() -> isCollected(existing));
+    }
+
+    private static long jmxThreadCount() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().startsWith("cassandra-exporter-jmx-"))
+                .count();
+    }
+
+    @Test
+    public void testCloseStopsThreads() throws Exception {
+        harvester.close();
+        harvester = new JMXHarvester(new JMXConnectionPool(new JMXServiceURL("service:jmx:test://localhost"), connectorFactory, 2),
+                mock(MetadataFactory.class), new HarvesterOptions(), 2, TimeUnit.HOURS.toSeconds(1));
+
+        assertThat(jmxThreadCount()).isPositive();
+
+        // the connection pool, MBean interface resolver and bulk attribute fetcher are closed along with the harvester
+        harvester.close();
+        Await.until(() -> jmxThreadCount() == 0);
+    }
+
+    @Test
+    public void testNotificationOrdering() throws Exception {
+        final ObjectName reregistered = threadPoolMBeanName("reregistered");
+        final ObjectName removed = threadPoolMBeanName("removed");
+        final ObjectName sentinel = threadPoolMBeanName("sentinel");
+
+        register(reregistered);
+        unregister(reregistered);
+        register(reregistered);
+
+        register(removed);
+        unregister(removed);
+
+        // notifications, and the registrations they cause, are applied in order, so once the last is applied so are the rest
+        register(sentinel);
+        Await.until(() -> isCollected(sentinel));
+
+        assertThat(isCollected(reregistered)).isTrue();
+        assertThat(isCollected(removed)).isFalse();
+
+        unregister(reregistered);
+        Await.until(() -> !isCollected(reregistered));
+    }
+
+    @Test
+    public void testReconcileAfterLostNotifications() throws Exception {
+        final ObjectName unregistered = threadPoolMBeanName("unregistered");
+        register(unregistered);
+        Await.until(() -> isCollected(unregistered));
+
+        connectorFactory.dropNotifications = true;
+
+        final ObjectName registered = threadPoolMBeanName("registered");
+        register(registered);
+        unregister(unregistered);
+
+        connectorFactory.dropNotifications = false;
+
+        // notifications are applied in order, so once a later one has been applied, any not dropped would have been too
+        final ObjectName sentinel = threadPoolMBeanName("sentinel");
+        register(sentinel);
+        Await.until(() -> isCollected(sentinel));
+        Await.registrations(harvester);
+
+        assertThat(isCollected(registered)).isFalse();
+        assertThat(isCollected(unregistered)).isTrue();
+
+        connectorFactory.sendConnectionNotification(JMXConnectionNotification.NOTIFS_LOST);
+
+        Await.until(() -> isCollected(registered) && !isCollected(unregistered));
+
+        // notifications continue to be received after the resync
+        final ObjectName subsequent = threadPoolMBeanName("subsequent");
+        register(subsequent);
+
+        Await.until(() -> isCollected(subsequent));
+    }
+}
@@ -0,0 +1,116 @@
+package com.zegelin.cassandra.exporter;
+
+import com.google.common.collect.ImmutableList;
+import com.zegelin.cassandra.exporter.MBeanInterfaceResolver.MBeanInterface;
+import com.zegelin.jmx.ObjectNames;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxCounterMBean;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxGaugeMBean;
+import org.apache.cassandra.metrics.CassandraMetricsRegistry.JmxTimerMBean;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestMBeanInterfaceResolver {
+    public interface ValueMBean {
+        long getValue();
+    }
+
+    public interface ValueMXBean {
+        long getValue();
+    }
+
+    private static Class<?> knownInterfaceClass(final String objectName) {
+        final MBeanInterface mBeanInterface = MBeanInterfaceResolver.knownInterface(ObjectNames.create(objectName));
+
+        if (mBeanInterface == null) {
+            return null;
+        }
+
+        assertThat(mBeanInterface.isMXBean).isFalse();
+
+        return mBeanInterface.interfaceClass;
+    }
+
+    @Test
+    public void testKnownInterfaces() {
+        assertThat(knownInterfaceClass("org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=MutationStage,name=ActiveTasks"))
+                .isEqualTo(JmxGaugeMBean.class);
+        assertThat(knownInterfaceClass("org.apache.cassandra.metrics:type=ClientRequest,scope=Read,name=Latency"))
+                .isEqualTo(JmxTimerMBean.class);
+        assertThat(knownInterfaceClass("org.apache.cassandra.metrics:type=Messaging,name=dc1-Latency"))
+                .isEqualTo(JmxTimerMBean.class);
+
+        // table metrics that are counters at the table scope, but gauges when aggregated to the keyspace and node scopes
+        assertThat(knownInterfaceClass("org.apache.cassandra.metrics:type=Table,keyspace=ks,scope=tbl,name=BytesFlushed"))
+                .isEqualTo(JmxCounterMBean.class);
+        assertThat(knownInterfaceClass("org.apache.cassandra.metrics:type=Keyspace,keyspace=ks,name=BytesFlushed"))
+                .isEqualTo(JmxGaugeMBean.class);
+        assertThat(knownInterfaceClass("org.apache.cassandra.metrics:type=Table,name=BytesFlushed"))
+                .isEqualTo(JmxGaugeMBean.class);
+
+        // unknown metrics, and anything outside the metrics domain
+        assertThat(knownInterfaceClass("org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=MutationStage,name=Unknown")).isNull();
+        assertThat(knownInterfaceClass("org.apache.cassandra.metrics:type=Unknown,name=Latency")).isNull();
+        assertThat(knownInterfaceClass("org.apache.cassandra.metrics:type=ThreadPools")).isNull();
+        assertThat(knownInterfaceClass("org.apache.cassandra.db:type=StorageService")).isNull();
+    }
+
+    @Test
+    public void testFallbackToMBeanInfo() throws Exception {
+        final MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+        final AtomicInteger mBeanInfoCount = new AtomicInteger();
+
+        final MBeanServerConnection connection = (MBeanServerConnection) Proxy.newProxyInstance(MBeanServerConnection.class.getClassLoader(), new Class<?>[]{MBeanServerConnection.class}, (p, method, args) -> {
+            if (method.getName().equals("getMBeanInfo")) {
+                mBeanInfoCount.incrementAndGet();
+            }
+
+            try {
+                return method.invoke(mBeanServer, args);
+
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+
+        final ObjectName known = ObjectNames.create("org.apache.cassandra.metrics:type=ThreadPools,path=request,scope=MutationStage,name=ActiveTasks");
+        final ObjectName mBean = ObjectNames.create("test:type=Value");
+        final ObjectName mXBean = ObjectNames.create("test:type=ValueMX");
+        final ObjectName missing = ObjectNames.create("test:type=Missing");
+
+        mBeanServer.registerMBean(new StandardMBean((ValueMBean) () -> 1, ValueMBean.class), mBean);
+        mBeanServer.registerMBean(new StandardMBean((ValueMXBean) () -> 2, ValueMXBean.class, true), mXBean);
+
+        final MBeanInterfaceResolver resolver = new MBeanInterfaceResolver(name -> connection, 2);
+
+        final Map<ObjectName, MBeanInterface> resolved;
+        try {
+            resolved = resolver.resolve(ImmutableList.of(known, mBean, mXBean, missing));
+
+        } finally {
+            resolver.close();
+        }
+
+        // the known MBean isn't looked up (and doesn't even need to exist), MBeans that no longer exist are omitted
+        assertThat(resolved).containsOnlyKeys(known, mBean, mXBean);
+        assertThat(mBeanInfoCount.get()).isEqualTo(3);
+
+        assertThat(resolved.get(known).interfaceClass).isEqualTo(JmxGaugeMBean.class);
+
+        assertThat(resolved.get(mBean).interfaceClass).isEqualTo(ValueMBean.class);
+        assertThat(resolved.get(mBean).isMXBean).isFalse();
+
+        assertThat(resolved.get(mXBean).interfaceClass).isEqualTo(ValueMXBean.class);
+        assertThat(resolved.get(mXBean).isMXBean).isTrue();
+    }
+}